@@ -0,0 +1,161 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.benchmark;
+
+import com.lightcrafts.jai.JAIContext;
+import com.lightcrafts.jai.opimage.FilmGrainOpImage;
+import com.lightcrafts.jai.opimage.NonLocalMeansFilterOpImage;
+import com.lightcrafts.jai.opimage.RGBDemosaicOpImage;
+import com.lightcrafts.jai.opimage.RawAdjustmentsOpImage;
+import com.lightcrafts.jai.operator.BlendDescriptor;
+import com.lightcrafts.jai.operator.LCBandCombineDescriptor;
+import com.lightcrafts.jai.operator.LCErodeDescriptor;
+import com.lightcrafts.jai.operator.LCMSColorConvertDescriptor;
+import com.lightcrafts.jai.operator.UnSharpMaskDescriptor;
+import com.lightcrafts.jai.utils.Functions;
+import org.openjdk.jmh.annotations.*;
+
+import javax.media.jai.BorderExtender;
+import javax.media.jai.JAI;
+import javax.media.jai.KernelJAI;
+import javax.media.jai.PlanarImage;
+import java.awt.*;
+import java.awt.image.Raster;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time to compute one 512x512 tile of 16-bit RGB with each of the
+ * operators that dominate editing and export.  Sources are synthetic
+ * images in memory, and the tile is computed directly, bypassing the tile
+ * cache, so only the operator's kernel is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OpImageBenchmark {
+
+    private PlanarImage separableConvolve;
+    private PlanarImage unSharpMask;
+    private PlanarImage erode;
+    private PlanarImage bandCombine;
+    private PlanarImage colorConvert;
+    private PlanarImage blend;
+    private PlanarImage nonLocalMeans;
+    private PlanarImage demosaic;
+    private PlanarImage rawAdjustments;
+    private PlanarImage filmGrain;
+
+    @Setup
+    public void setUp() {
+        PlanarImage rgb = SyntheticImages.rgb16();
+        PlanarImage other = SyntheticImages.rgb16(rgb.getHeight(), rgb.getWidth());
+        BorderExtender copy = BorderExtender.createInstance(BorderExtender.BORDER_COPY);
+        RenderingHints extenderHints = new RenderingHints(JAI.KEY_BORDER_EXTENDER, copy);
+
+        separableConvolve = Functions.fastGaussianBlur(rgb, 10).getRendering();
+
+        PlanarImage blur = Functions.fastGaussianBlur(rgb, 2);
+        unSharpMask = UnSharpMaskDescriptor.create(
+            rgb, blur, 1.0, 0, extenderHints
+        ).getRendering();
+
+        float[] ones = new float[5 * 5];
+        Arrays.fill(ones, 1);
+        erode = LCErodeDescriptor.create(
+            rgb, new KernelJAI(5, 5, ones), extenderHints
+        ).getRendering();
+
+        bandCombine = LCBandCombineDescriptor.create(
+            rgb,
+            new double[][] {
+                {0.8, 0.1, 0.1, 0},
+                {0.1, 0.8, 0.1, 0},
+                {0.1, 0.1, 0.8, 0}
+            },
+            null
+        ).getRendering();
+
+        colorConvert = Functions.toColorSpace(
+            rgb, JAIContext.sRGBColorSpace,
+            LCMSColorConvertDescriptor.PERCEPTUAL, null
+        );
+
+        blend = BlendDescriptor.create(
+            rgb, other, null, "Soft Light", 0.5, null, null
+        ).getRendering();
+
+        nonLocalMeans = new NonLocalMeansFilterOpImage(
+            rgb, copy, null, null, 2, 4, 3, 4, 8, 3
+        );
+
+        PlanarImage bayer = SyntheticImages.bayer16();
+        demosaic = new RGBDemosaicOpImage(
+            bayer, null, SyntheticImages.rgb16Layout(bayer), 0x16161616
+        );
+
+        rawAdjustments = new RawAdjustmentsOpImage(
+            rgb, null, null, 0.8f, 5000,
+            new float[][] {
+                {1.6f, -0.4f, -0.2f},
+                {-0.2f, 1.5f, -0.3f},
+                {0.0f, -0.5f, 1.5f}
+            }
+        );
+
+        filmGrain = new FilmGrainOpImage(rgb, 2, 0.5, 0.1);
+    }
+
+    @Benchmark
+    public Raster separableConvolve() {
+        return SyntheticImages.computeTile(separableConvolve);
+    }
+
+    @Benchmark
+    public Raster unSharpMask() {
+        return SyntheticImages.computeTile(unSharpMask);
+    }
+
+    @Benchmark
+    public Raster erode() {
+        return SyntheticImages.computeTile(erode);
+    }
+
+    @Benchmark
+    public Raster bandCombine() {
+        return SyntheticImages.computeTile(bandCombine);
+    }
+
+    @Benchmark
+    public Raster colorConvert() {
+        return SyntheticImages.computeTile(colorConvert);
+    }
+
+    @Benchmark
+    public Raster blend() {
+        return SyntheticImages.computeTile(blend);
+    }
+
+    @Benchmark
+    public Raster nonLocalMeans() {
+        return SyntheticImages.computeTile(nonLocalMeans);
+    }
+
+    @Benchmark
+    public Raster demosaic() {
+        return SyntheticImages.computeTile(demosaic);
+    }
+
+    @Benchmark
+    public Raster rawAdjustments() {
+        return SyntheticImages.computeTile(rawAdjustments);
+    }
+
+    @Benchmark
+    public Raster filmGrain() {
+        return SyntheticImages.computeTile(filmGrain);
+    }
+}
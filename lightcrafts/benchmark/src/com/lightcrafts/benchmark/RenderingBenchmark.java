@@ -0,0 +1,95 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.benchmark;
+
+import com.lightcrafts.app.Application;
+import com.lightcrafts.jai.JAIContext;
+import com.lightcrafts.ui.editor.Document;
+import com.lightcrafts.utils.xml.XmlDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time to render a whole image through the editor pipeline, with one
+ * of the stock templates applied, the way export does it: every tile of
+ * the scaled, color converted 8-bit result.  The source is a synthetic
+ * 16-bit TIFF, and the tile cache is flushed before each rendering.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RenderingBenchmark {
+
+    private static final String TemplatePath =
+        "/com/lightcrafts/templates/resources/";
+
+    /**
+     * A stock template name, as in the Styles menu.
+     */
+    @Param({
+        "Looks;Crisp",
+        "High Contrast;Tone Mapper",
+        "Detail Enhancement;SLR Sharpen",
+        "Black & White;Normal",
+        "Effects;Soften Skin"
+    })
+    public String template;
+
+    /**
+     * The size of the source image, in pixels on its long side.
+     */
+    @Param({"3000"})
+    public int size;
+
+    /**
+     * The bounds the rendering is scaled to fit, or zero for full size.
+     */
+    @Param({"0", "1024"})
+    public int fit;
+
+    private Document doc;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File file = SyntheticImages.writeTiff(size, size * 2 / 3);
+        doc = Application.createDocumentHeadless(file);
+        doc.applyTemplate(readTemplate(template).getRoot());
+    }
+
+    @Setup(Level.Invocation)
+    public void flushTiles() {
+        JAIContext.defaultTileCache.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        doc.dispose();
+    }
+
+    @Benchmark
+    public Raster render() {
+        Dimension bounds = (fit > 0) ? new Dimension(fit, fit) : null;
+        RenderedImage image = doc.getEngine().getRendering(bounds);
+        return image.getData();
+    }
+
+    private static XmlDocument readTemplate(String name) throws IOException {
+        try (InputStream in = RenderingBenchmark.class.getResourceAsStream(
+                TemplatePath + name + ".lzt")) {
+            if (in == null) {
+                throw new IOException("No template named " + name);
+            }
+            return new XmlDocument(in);
+        }
+    }
+}
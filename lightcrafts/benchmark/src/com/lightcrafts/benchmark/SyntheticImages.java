@@ -0,0 +1,147 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.benchmark;
+
+import com.lightcrafts.jai.JAIContext;
+
+import javax.imageio.ImageIO;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.OpImage;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TiledImage;
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Deterministic 16-bit test images for the benchmarks: smooth gradients
+ * with some noise, so that neither flat areas nor pure noise flatter an
+ * operator.
+ */
+final class SyntheticImages {
+
+    // Always the same pixels, so results compare across runs.
+    private static final long Seed = 0x4C5A;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * A linear RGB image of three by three tiles, so that the middle tile
+     * has neighbors on every side for area operators.
+     */
+    static TiledImage rgb16() {
+        return rgb16(3 * JAIContext.TILE_WIDTH, 3 * JAIContext.TILE_HEIGHT);
+    }
+
+    static TiledImage rgb16(int width, int height) {
+        ColorModel cm = JAIContext.colorModel_linear16;
+        TiledImage image = new TiledImage(
+            0, 0, width, height, 0, 0,
+            cm.createCompatibleSampleModel(
+                JAIContext.TILE_WIDTH, JAIContext.TILE_HEIGHT
+            ),
+            cm
+        );
+        image.setData(fill(cm.createCompatibleWritableRaster(width, height)));
+        return image;
+    }
+
+    /**
+     * A single band raw image, as dcraw hands it over before demosaicing.
+     */
+    static TiledImage bayer16() {
+        int width = 3 * JAIContext.TILE_WIDTH;
+        int height = 3 * JAIContext.TILE_HEIGHT;
+        ColorModel cm = new ComponentColorModel(
+            ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+            Transparency.OPAQUE, DataBuffer.TYPE_USHORT
+        );
+        TiledImage image = new TiledImage(
+            0, 0, width, height, 0, 0,
+            cm.createCompatibleSampleModel(
+                JAIContext.TILE_WIDTH, JAIContext.TILE_HEIGHT
+            ),
+            cm
+        );
+        image.setData(fill(cm.createCompatibleWritableRaster(width, height)));
+        return image;
+    }
+
+    /**
+     * The layout of a demosaiced image: linear RGB, in standard tiles.
+     */
+    static ImageLayout rgb16Layout(RenderedImage source) {
+        ColorModel cm = JAIContext.colorModel_linear16;
+        return new ImageLayout(
+            source.getMinX(), source.getMinY(),
+            source.getWidth(), source.getHeight(),
+            0, 0, JAIContext.TILE_WIDTH, JAIContext.TILE_HEIGHT,
+            cm.createCompatibleSampleModel(
+                JAIContext.TILE_WIDTH, JAIContext.TILE_HEIGHT
+            ),
+            cm
+        );
+    }
+
+    /**
+     * Write a 16-bit RGB TIFF, for the benchmarks that start from a file.
+     */
+    static File writeTiff(int width, int height) throws IOException {
+        ColorModel cm = new ComponentColorModel(
+            ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+            Transparency.OPAQUE, DataBuffer.TYPE_USHORT
+        );
+        BufferedImage image = new BufferedImage(
+            cm, fill(cm.createCompatibleWritableRaster(width, height)),
+            false, null
+        );
+        File file = File.createTempFile("LightZoneBenchmark", ".tif");
+        file.deleteOnExit();
+        if (! ImageIO.write(image, "tiff", file)) {
+            throw new IOException("No TIFF writer for a 16-bit image");
+        }
+        return file;
+    }
+
+    /**
+     * Compute the middle tile of an image, bypassing the tile cache, which
+     * would otherwise answer every call after the first one.
+     */
+    static Raster computeTile(PlanarImage image) {
+        int tx = image.getMinTileX() + image.getNumXTiles() / 2;
+        int ty = image.getMinTileY() + image.getNumYTiles() / 2;
+        if (image instanceof OpImage) {
+            return ((OpImage) image).computeTile(tx, ty);
+        }
+        JAIContext.defaultTileCache.flush();
+        return image.getData(
+            new Rectangle(
+                image.tileXToX(tx), image.tileYToY(ty),
+                image.getTileWidth(), image.getTileHeight()
+            )
+        );
+    }
+
+    private static WritableRaster fill(WritableRaster raster) {
+        Random random = new Random(Seed);
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int bands = raster.getNumBands();
+        int[] row = new int[width * bands];
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                for (int b=0; b<bands; b++) {
+                    double ramp = (double) (x + (b + 1) * y) / (width + 3 * height);
+                    int value = (int) (ramp * 50000) + random.nextInt(4096);
+                    row[x * bands + b] = Math.min(value, 0xFFFF);
+                }
+            }
+            raster.setPixels(0, y, width, 1, row);
+        }
+        return raster;
+    }
+}
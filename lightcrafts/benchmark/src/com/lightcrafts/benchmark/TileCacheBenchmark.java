@@ -0,0 +1,111 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.benchmark;
+
+import com.lightcrafts.jai.utils.LCTileCache;
+import org.openjdk.jmh.annotations.*;
+
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+import java.awt.*;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The throughput of LCTileCache under contention: render threads doing a
+ * mix of lookups and adds over a working set larger than the cache, so
+ * that memory control runs all the time.  Each benchmark runs the same
+ * operation with a different number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileCacheBenchmark {
+
+    private static final int TileSize = 64;
+
+    private static final int Images = 4;
+
+    // Tiles per image side.
+    private static final int Tiles = 32;
+
+    // 4096 tiles of 24KB each make about 100MB of working set.
+    private static final long CacheCapacity = 64L * 1024 * 1024;
+
+    private final TiledImage[] images = new TiledImage[Images];
+    private final Raster[][] tiles = new Raster[Images][];
+
+    private LCTileCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(
+            DataBuffer.TYPE_USHORT, TileSize, TileSize, 3
+        );
+        for (int i = 0; i < Images; i++) {
+            images[i] = new TiledImage(
+                0, 0, Tiles * TileSize, Tiles * TileSize, 0, 0, sm, null
+            );
+            // The same rasters over and over, to measure the cache and not
+            // the allocator.
+            tiles[i] = new Raster[Tiles * Tiles];
+            for (int t = 0; t < tiles[i].length; t++) {
+                tiles[i][t] = Raster.createWritableRaster(
+                    sm, new Point((t % Tiles) * TileSize, (t / Tiles) * TileSize)
+                );
+            }
+        }
+        cache = new LCTileCache(CacheCapacity, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.flush();
+    }
+
+    private Raster getOrAdd() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int image = random.nextInt(Images);
+        // Most of the traffic goes to the upper left quarter of the images,
+        // like a viewport would.
+        int range = random.nextInt(10) < 8 ? Tiles / 2 : Tiles;
+        int x = random.nextInt(range);
+        int y = random.nextInt(range);
+        Raster tile = cache.getTile(images[image], x, y);
+        if (tile == null) {
+            tile = tiles[image][y * Tiles + x];
+            cache.add(images[image], x, y, tile);
+        }
+        return tile;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Raster oneThread() {
+        return getOrAdd();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Raster fourThreads() {
+        return getOrAdd();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Raster sixteenThreads() {
+        return getOrAdd();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Raster sixtyFourThreads() {
+        return getOrAdd();
+    }
+}
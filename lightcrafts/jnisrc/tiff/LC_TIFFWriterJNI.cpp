@@ -265,6 +265,50 @@ JNIEXPORT jboolean JNICALL LCTIFFWriter_METHOD(setStringField)
     }
 }
 
+/**
+ * Write the current directory so that another one can follow it.
+ */
+JNIEXPORT jboolean JNICALL LCTIFFWriter_METHOD(writeDirectory)
+    ( JNIEnv *env, jobject jLCTIFFWriter )
+{
+    TIFF *const tiff = getNativePtr( env, jLCTIFFWriter );
+    return TIFFWriteDirectory( tiff ) ? JNI_TRUE : JNI_FALSE;
+}
+
+/**
+ * Writes an already compressed strip from a jbyteArray to a TIFF image.
+ */
+JNIEXPORT jint JNICALL LCTIFFWriter_METHOD(writeRawStrip)
+    ( JNIEnv *env, jobject jLCTIFFWriter, jint stripIndex, jbyteArray jBuf,
+      jint size )
+{
+    jarray_to_c<jbyte> const cBuf( env, jBuf );
+    if ( !cBuf ) {
+        LC_throwOutOfMemoryError( env, "GetPrimitiveArrayCritical() failed" );
+        return 0;
+    }
+    return TIFFWriteRawStrip(
+        getNativePtr( env, jLCTIFFWriter ), stripIndex, (jbyte*)cBuf, size
+    );
+}
+
+/**
+ * Writes an already compressed tile from a jbyteArray to a TIFF image.
+ */
+JNIEXPORT jint JNICALL LCTIFFWriter_METHOD(writeRawTile)
+    ( JNIEnv *env, jobject jLCTIFFWriter, jint tileIndex, jbyteArray jBuf,
+      jint size )
+{
+    jarray_to_c<jbyte> const cBuf( env, jBuf );
+    if ( !cBuf ) {
+        LC_throwOutOfMemoryError( env, "GetPrimitiveArrayCritical() failed" );
+        return 0;
+    }
+    return TIFFWriteRawTile(
+        getNativePtr( env, jLCTIFFWriter ), tileIndex, (jbyte*)cBuf, size
+    );
+}
+
 /**
  * Encodes and writes a strip from a jbyteArray to a TIFF image.
  */
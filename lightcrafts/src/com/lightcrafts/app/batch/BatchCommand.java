@@ -0,0 +1,229 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.app.batch;
+
+import com.lightcrafts.image.types.JPEGImageType;
+import com.lightcrafts.image.types.TIFFImageType;
+import com.lightcrafts.ui.editor.DocumentReader;
+import com.lightcrafts.utils.ProgressIndicator;
+import com.lightcrafts.utils.xml.XmlDocument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a {@link BatchEngine} from the command line:
+ * <pre>
+ * BatchCommand [-template file.lzt] [-output folder] [-name suffix]
+ *              [-format jpeg|tiff] [-quality 0-100] [-size WxH]
+ *              [-threads n] file...
+ * </pre>
+ * Without a template the files are exported to the output folder, which
+ * defaults to the current directory.  With a template, each file gets the
+ * template applied and is saved next to the original, like "Apply Style" in
+ * the browser.  One line is printed per file, and the exit status is the
+ * number of files that failed, up to 100.
+ */
+public class BatchCommand {
+
+    /**
+     * The exit status for a bad command line.
+     */
+    static final int USAGE = 101;
+
+    /**
+     * The command line, parsed.
+     */
+    static final class Arguments {
+        File template;
+        File directory = new File(".");
+        String name = "";
+        String format = "jpeg";
+        int quality = -1;
+        int width;
+        int height;
+        int threads;
+        final List<File> files = new ArrayList<File>();
+    }
+
+    /**
+     * Thrown for a bad command line, with the message to print before the
+     * usage.
+     */
+    static final class UsageException extends Exception {
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    private static int usage(String message) {
+        if (message != null) {
+            System.err.println(message);
+        }
+        System.err.println(
+            "usage: BatchCommand [-template file.lzt] [-output folder] " +
+            "[-name suffix] [-format jpeg|tiff] [-quality 0-100] " +
+            "[-size WxH] [-threads n] file..."
+        );
+        return USAGE;
+    }
+
+    static Arguments parse(String[] args) throws UsageException {
+        final Arguments arguments = new Arguments();
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (! arg.startsWith("-")) {
+                arguments.files.add(new File(arg));
+                continue;
+            }
+            if (i + 1 == args.length) {
+                throw new UsageException("missing value for " + arg);
+            }
+            final String value = args[++i];
+            try {
+                switch (arg) {
+                    case "-template":
+                        arguments.template = new File(value);
+                        break;
+                    case "-output":
+                        arguments.directory = new File(value);
+                        break;
+                    case "-name":
+                        arguments.name = value;
+                        break;
+                    case "-format":
+                        arguments.format = value.toLowerCase();
+                        break;
+                    case "-quality":
+                        arguments.quality = Integer.parseInt(value);
+                        break;
+                    case "-size":
+                        final int x = value.indexOf('x');
+                        if (x < 0) {
+                            throw new UsageException("bad size: " + value);
+                        }
+                        arguments.width = Integer.parseInt(value.substring(0, x));
+                        arguments.height = Integer.parseInt(value.substring(x + 1));
+                        break;
+                    case "-threads":
+                        arguments.threads = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new UsageException("unknown option: " + arg);
+                }
+            }
+            catch (NumberFormatException e) {
+                throw new UsageException("bad number for " + arg + ": " + value);
+            }
+        }
+        if (arguments.files.isEmpty()) {
+            throw new UsageException("no files");
+        }
+        if (! arguments.directory.isDirectory()) {
+            throw new UsageException("not a folder: " + arguments.directory);
+        }
+        switch (arguments.format) {
+            case "jpeg":
+            case "jpg":
+            case "tiff":
+            case "tif":
+                break;
+            default:
+                throw new UsageException("unknown format: " + arguments.format);
+        }
+        return arguments;
+    }
+
+    /**
+     * Counts the files of a batch that weren't exported.
+     */
+    static int countFailures(List<BatchResult> results) {
+        int failed = 0;
+        for (BatchResult result : results) {
+            if (! result.isExported()) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Runs a batch as described by a command line.
+     *
+     * @return The exit status: the number of files that failed, up to 100,
+     * or {@link #USAGE} for a bad command line.
+     */
+    public static int run(String[] args) throws IOException {
+        final Arguments arguments;
+        try {
+            arguments = parse(args);
+        }
+        catch (UsageException e) {
+            return usage(e.getMessage());
+        }
+
+        XmlDocument template = null;
+        if (arguments.template != null) {
+            final DocumentReader.Interpretation interp =
+                DocumentReader.read(arguments.template);
+            if (interp == null) {
+                return usage("not a template: " + arguments.template);
+            }
+            template = interp.xml;
+        }
+
+        final BatchConfig conf = new BatchConfig();
+        conf.name = arguments.name;
+        conf.directory = arguments.directory;
+        conf.threads = arguments.threads;
+        switch (arguments.format) {
+            case "jpeg":
+            case "jpg":
+                final JPEGImageType.ExportOptions jpeg =
+                    JPEGImageType.INSTANCE.newExportOptions();
+                if (arguments.quality >= 0) {
+                    jpeg.quality.setValue(arguments.quality);
+                }
+                conf.export = jpeg;
+                break;
+            default:
+                conf.export = TIFFImageType.INSTANCE.newExportOptions();
+        }
+        conf.export.resizeWidth.setValue(arguments.width);
+        conf.export.resizeHeight.setValue(arguments.height);
+
+        final List<File> files = arguments.files;
+        final BatchEngine batch = new BatchEngine(
+            files.toArray(new File[files.size()]), template, conf
+        );
+        final long start = System.currentTimeMillis();
+        final List<BatchResult> results = batch.run(
+            new BatchEngine.Listener() {
+                @Override
+                public ProgressIndicator fileStarted(File file) {
+                    return null;
+                }
+                @Override
+                public void fileDone(BatchResult result, int count, int total) {
+                    System.out.println(
+                        "[" + count + "/" + total + "] " + result +
+                        " in " + result.getElapsed() + "ms"
+                    );
+                }
+            }
+        );
+        final int failed = countFailures(results);
+        System.out.println(
+            (results.size() - failed) + " of " + results.size() +
+            " files done in " + (System.currentTimeMillis() - start) +
+            "ms using " + batch.getThreadCount() + " threads"
+        );
+        return Math.min(failed, 100);
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.exit(run(args));
+    }
+}
@@ -36,10 +36,15 @@ public class BatchConfig {
     // The place where output files should go:
     public File directory;
 
+    // How many documents to process at once, or zero to decide from the
+    // number of processors:
+    public int threads;
+
     void writeDebug(OutputStream out) {
         PrintWriter printer = new PrintWriter(out);
         printer.println("batch name: " + name);
         printer.println("output folder: " + directory.getAbsolutePath());
+        printer.println("threads: " + threads);
         printer.println("export options:");
         printer.flush();
         XmlDocument doc = new XmlDocument("Export");
@@ -56,6 +61,7 @@ public class BatchConfig {
     private final static String NewFileNameKey = "TemplateBatchName";
     private final static String ExportKey = "TemplateExportOptions";
     private final static String DirectoryKey = "TemplateOutputDirectory";
+    private final static String ThreadsKey = "TemplateThreads";
 
     public void saveToPrefs(String context) {
         Prefs.put(NewFileNameKey + context, name);
@@ -63,6 +69,8 @@ public class BatchConfig {
         String path = directory.getAbsolutePath();
         Prefs.put(DirectoryKey + context, path);
 
+        Prefs.putInt(ThreadsKey + context, threads);
+
         XmlDocument doc = new XmlDocument(ExportKey);
         export.write(doc.getRoot());
         try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
@@ -89,6 +97,8 @@ public class BatchConfig {
         else {
             directory = null;
         }
+        threads = Prefs.getInt(ThreadsKey + context, 0);
+
         String text = Prefs.get(ExportKey + context, null);
         if (text != null) {
             try {
@@ -0,0 +1,564 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.app.batch;
+
+import com.lightcrafts.app.Application;
+import com.lightcrafts.app.DocumentWriter;
+import static com.lightcrafts.app.batch.Locale.LOCALE;
+import com.lightcrafts.image.BadImageFileException;
+import com.lightcrafts.image.ColorProfileException;
+import com.lightcrafts.image.ImageInfo;
+import com.lightcrafts.image.UnknownImageTypeException;
+import com.lightcrafts.image.UnsupportedColorProfileException;
+import com.lightcrafts.image.export.ImageExportOptions;
+import com.lightcrafts.image.export.ImageFileExportOptions;
+import com.lightcrafts.image.metadata.ImageMetadata;
+import com.lightcrafts.image.types.ImageType;
+import com.lightcrafts.image.types.JPEGImageType;
+import com.lightcrafts.image.types.LZNImageType;
+import com.lightcrafts.image.types.TIFFImageType;
+import com.lightcrafts.jai.JAIContext;
+import com.lightcrafts.jai.utils.LCTileCache;
+import com.lightcrafts.model.Engine;
+import com.lightcrafts.ui.editor.Document;
+import com.lightcrafts.ui.editor.assoc.DocumentDatabase;
+import com.lightcrafts.ui.export.ExportNameUtility;
+import com.lightcrafts.ui.export.SaveOptions;
+import com.lightcrafts.utils.MemoryLimits;
+import com.lightcrafts.utils.ProgressIndicator;
+import com.lightcrafts.utils.thread.ProgressThread;
+import com.lightcrafts.utils.xml.XMLException;
+import com.lightcrafts.utils.xml.XmlDocument;
+
+import javax.media.jai.TileCache;
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies a template and/or export options to many files, several documents
+ * at a time, without any user interface.  {@link BatchProcessor} drives one
+ * of these under its dialog and {@link BatchCommand} from the command line.
+ *
+ * <p> Documents are admitted by a memory budget: the heap LightZone may use
+ * (see {@link MemoryLimits}) minus what is promised to the tile cache, and
+ * each document is charged an estimate from its pixel count.  While the
+ * tile cache is spilling tiles to its scratch file no new document is
+ * started, since that would only make it thrash.  One document is always
+ * admitted, however large.
+ *
+ * <p> Each file gets a {@link BatchResult}.  {@link #cancel()} stops the
+ * documents being exported and skips the ones not started yet.
+ */
+public class BatchEngine {
+
+    /**
+     * Hears about files as they are processed.  Calls come from the worker
+     * threads, concurrently.
+     */
+    public interface Listener {
+
+        /**
+         * A file is about to be opened.
+         *
+         * @return A {@link ProgressIndicator} for its export, or
+         * <code>null</code>.
+         */
+        ProgressIndicator fileStarted(File file);
+
+        /**
+         * A file is done, one way or another.
+         *
+         * @param count How many files are done so far, this one included.
+         * @param total How many files there are.
+         */
+        void fileDone(BatchResult result, int count, int total);
+    }
+
+    private final static long MB = 1024 * 1024;
+
+    // What a document holds in the heap besides its tiles: roughly two
+    // 16 bit RGB copies of the image.
+    private final static int BYTES_PER_PIXEL = 2 * 3 * 2;
+
+    // Charged when a file's dimensions can't be read up front: a 24MP image.
+    private final static long DEFAULT_DOCUMENT_BYTES = 24 * MB * BYTES_PER_PIXEL;
+
+    // Never plan for less than this, even if the tile cache claims it all.
+    private final static long MIN_BUDGET = 256 * MB;
+
+    // How often a document waiting for memory looks at the tile cache again.
+    private final static long ADMISSION_POLL_MS = 500;
+
+    private final File[] files;
+    private final BatchConfig conf;
+    private final int threads;
+
+    // The template and the export options are kept serialized, so that each
+    // document gets its own copy to apply and to mutate.
+    private final byte[] template;
+    private final XmlDocument exportXml;
+    private final boolean ignoreResize;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private final BatchResult[] results;
+    private final Set<JobProgress> running = ConcurrentHashMap.newKeySet();
+    private final Admission admission = new Admission();
+
+    private volatile boolean canceled;
+
+    /**
+     * @param files The files to process.
+     * @param template A template to apply and save, or <code>null</code> to
+     * just export.
+     * @param conf Where and how to export; read once, here.
+     */
+    public BatchEngine(File[] files, XmlDocument template, BatchConfig conf)
+        throws IOException
+    {
+        this.files = files.clone();
+        this.conf = conf;
+        threads = conf.threads > 0
+                ? conf.threads
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        results = new BatchResult[files.length];
+
+        if (template != null) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            template.write(out);
+            this.template = out.toByteArray();
+        }
+        else {
+            this.template = null;
+        }
+        exportXml = new XmlDocument("Export");
+        conf.export.write(exportXml.getRoot());
+        ignoreResize = conf.export.resizeWidth.getValue() == 0 &&
+                       conf.export.resizeHeight.getValue() == 0;
+    }
+
+    /**
+     * Processes all the files and waits until they are done.
+     *
+     * @param listener Hears about each file; may be <code>null</code>.
+     * @return The results, in the order of the files.
+     */
+    public List<BatchResult> run(final Listener listener) {
+        final int count = Math.min(threads, Math.max(files.length, 1));
+        final Thread[] workers = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            workers[i] = new Thread(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        work(listener);
+                    }
+                },
+                "Batch Export " + i
+            );
+            workers[i].start();
+        }
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                    cancel();
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /**
+     * Stops the documents being exported and skips the rest.  Returns at
+     * once; {@link #run(Listener)} returns when the workers have noticed.
+     */
+    public void cancel() {
+        canceled = true;
+        for (JobProgress progress : running) {
+            progress.requestCancel();
+        }
+        admission.wakeUp();
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * How many documents are processed at once, at most.
+     */
+    public int getThreadCount() {
+        return threads;
+    }
+
+    private void work(Listener listener) {
+        int i;
+        while ((i = next.getAndIncrement()) < files.length) {
+            final File file = files[i];
+            BatchResult result;
+            try {
+                result = process(file, listener);
+            }
+            catch (InterruptedException e) {
+                result = canceled(file, 0);
+            }
+            results[i] = result;
+            if (listener != null) {
+                listener.fileDone(result, done.incrementAndGet(), files.length);
+            }
+        }
+    }
+
+    private BatchResult process(File file, Listener listener)
+        throws InterruptedException
+    {
+        final long start = System.currentTimeMillis();
+        final long bytes = estimateMemory(file);
+        if (! admission.acquire(bytes)) {
+            return canceled(file, 0);
+        }
+        final ProgressIndicator indicator =
+            listener != null ? listener.fileStarted(file) : null;
+        final JobProgress progress = new JobProgress(indicator);
+        running.add(progress);
+        if (canceled) {
+            progress.requestCancel();
+        }
+        File outFile = null;
+        File reserved = null;
+        try {
+            final Document doc = Application.createDocumentHeadless(file);
+            try {
+                final ImageFileExportOptions export = copyExportOptions();
+                if (template != null) {
+                    doc.applyTemplate(
+                        new XmlDocument(
+                            new ByteArrayInputStream(template)
+                        ).getRoot()
+                    );
+                    SaveOptions save = doc.getSaveOptions();
+                    if (save == null) {
+                        save = createTemplateSaveOptions(doc, export);
+                        reserved = save.getFile();
+                    }
+                    doc.setSaveOptions(save);
+
+                    DocumentWriter.save(doc, null, false, progress);
+                    outFile = save.getFile();
+                    DocumentDatabase.addDocumentFile(outFile);
+                }
+                else {
+                    conformExportOptions(doc, export);
+                    reserved = export.getExportFile();
+
+                    final Engine engine = doc.getEngine();
+                    DocumentWriter.export(engine, export, progress);
+                    outFile = export.getExportFile();
+                }
+            }
+            finally {
+                doc.dispose();
+            }
+            if (progress.isCanceled()) {
+                // The writers stop early and leave a partial file.
+                discard(reserved);
+                return canceled(file, start);
+            }
+            return new BatchResult(
+                file, outFile, BatchResult.Status.EXPORTED,
+                LOCALE.get("BatchLogSavedMessage", outFile.getName()), null,
+                System.currentTimeMillis() - start
+            );
+        }
+        catch (Throwable e) {
+            discard(reserved);
+            if (progress.isCanceled()) {
+                return canceled(file, start);
+            }
+            return new BatchResult(
+                file, null, BatchResult.Status.FAILED, errorMessage(e), e,
+                System.currentTimeMillis() - start
+            );
+        }
+        finally {
+            running.remove(progress);
+            admission.release(bytes);
+        }
+    }
+
+    private static BatchResult canceled(File file, long start) {
+        final long elapsed =
+            start > 0 ? System.currentTimeMillis() - start : 0;
+        return new BatchResult(
+            file, null, BatchResult.Status.CANCELED, null, null, elapsed
+        );
+    }
+
+    private static String errorMessage(Throwable e) {
+        if (e instanceof XMLException) {
+            return LOCALE.get("BatchLogXmlError");
+        }
+        if (e instanceof BadImageFileException) {
+            return LOCALE.get("BatchLogBadImageError");
+        }
+        if (e instanceof IOException) {
+            return LOCALE.get("BatchLogIOError");
+        }
+        if (e instanceof OutOfMemoryError) {
+            return LOCALE.get("BatchLogMemoryError");
+        }
+        if (e instanceof UnknownImageTypeException) {
+            return LOCALE.get("BatchLogImageTypeError");
+        }
+        if (e instanceof UnsupportedColorProfileException) {
+            return LOCALE.get("BatchLogCameraError");
+        }
+        if (e instanceof ColorProfileException) {
+            return LOCALE.get("BatchLogColorError");
+        }
+        e.printStackTrace();
+        return LOCALE.get("BatchLogUnknownError");
+    }
+
+    private ImageFileExportOptions copyExportOptions() throws XMLException {
+        // DOM trees are not safe for concurrent reads.
+        synchronized (exportXml) {
+            return (ImageFileExportOptions) ImageExportOptions.read(
+                exportXml.getRoot()
+            );
+        }
+    }
+
+    /**
+     * Picks an unused name close to the given one and creates it empty, so
+     * that concurrent documents can't pick the same output file.
+     */
+    private static File reserve(File file) throws IOException {
+        synchronized (BatchEngine.class) {
+            while (true) {
+                file = ExportNameUtility.ensureNotExists(file);
+                if (file.createNewFile()) {
+                    return file;
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a reserved output file that didn't get its contents.
+     */
+    private static void discard(File reserved) {
+        if (reserved != null && reserved.isFile()) {
+            if (! reserved.delete()) {
+                reserved.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Construct SaveOptions for processed images that have never been saved.
+     * Save back to the same directory as the original image,
+     * with a unique file name, with the given export options, except
+     * the resize dimensions, which are set to the document's "natural"
+     * dimensions.
+     */
+    private SaveOptions createTemplateSaveOptions(
+        Document doc, ImageFileExportOptions export
+    ) throws IOException {
+        final ImageMetadata meta = doc.getMetadata();
+        File file = meta.getFile();
+        final ImageType type = export.getImageType();
+        final String ext = type.getExtensions()[0];
+        if (type == LZNImageType.INSTANCE) {
+            file = ExportNameUtility.setFileExtension(file, ext);
+            file = reserve(file);
+            return SaveOptions.createLzn(file);
+        }
+
+        final SaveOptions options;
+        if (type instanceof TIFFImageType) {
+            options = SaveOptions.createSidecarTiff(export);
+        }
+        else if (type instanceof JPEGImageType) {
+            options = SaveOptions.createSidecarJpeg(export);
+        }
+        else {
+            throw new IllegalArgumentException(
+                "Can't save to image type \"" + type.getName() + "\""
+            );
+        }
+        if (ignoreResize) {
+            final Engine engine = doc.getEngine();
+            final Dimension size = engine.getNaturalSize();
+            export.resizeWidth.setValue(size.width);
+            export.resizeHeight.setValue(size.height);
+        }
+        file = new File(ExportNameUtility.getBaseName(file) + "_lzn." + ext);
+        file = reserve(file);
+        options.setFile(file);
+
+        return options;
+    }
+
+    /**
+     * Ensure that the given ImageExportOptions agrees with the BatchConfig
+     * about the output folder, the batch name, and the output file type
+     * extension, and agrees with the given Document and the configuration
+     * about the output image size.
+     */
+    private void conformExportOptions(
+        Document doc, ImageFileExportOptions export
+    ) throws IOException {
+        final ImageMetadata meta = doc.getMetadata();
+        final File file = meta.getFile();
+        final String name = file.getName();
+        final File directory = conf.directory;
+        File outFile = new File(directory, name);
+
+        // Mutate the default file into a conformant name:
+        final String outLabel = conf.name;
+        final String outName = ExportNameUtility.trimFileExtension(
+            outFile.getName()
+        );
+        final String outSuffix = export.getImageType().getExtensions()[0];
+        outFile = (outLabel != null && outLabel.length() > 0)
+                ? new File(directory, outName + outLabel + "." + outSuffix)
+                : new File(directory, outName + "." + outSuffix);
+        outFile = reserve(outFile);
+        export.setExportFile(outFile);
+
+        if (ignoreResize) {
+            final Engine engine = doc.getEngine();
+            final Dimension size = engine.getNaturalSize();
+            export.resizeWidth.setValue(size.width);
+            export.resizeHeight.setValue(size.height);
+        }
+    }
+
+    /**
+     * Guesses how much heap a document for the given file will hold, from
+     * the image dimensions in its metadata.
+     */
+    private static long estimateMemory(File file) {
+        try {
+            final ImageMetadata meta =
+                ImageInfo.getInstanceFor(file).getMetadata();
+            final long pixels =
+                (long) meta.getImageWidth() * meta.getImageHeight();
+            if (pixels > 0) {
+                return pixels * BYTES_PER_PIXEL;
+            }
+        }
+        catch (Exception e) {
+            // The document will fail to open, and say why.
+        }
+        return DEFAULT_DOCUMENT_BYTES;
+    }
+
+    /**
+     * Hands out the memory budget to documents.
+     */
+    private final class Admission {
+        private final long budget;
+        private long reserved;
+        private int active;
+        private long tilesWritten = -1;
+
+        Admission() {
+            final long heap = Math.min(
+                Runtime.getRuntime().maxMemory(),
+                MemoryLimits.getMaximum() * MB
+            );
+            final TileCache cache = JAIContext.fileCache;
+            budget = Math.max(heap - cache.getMemoryCapacity(), MIN_BUDGET);
+        }
+
+        synchronized boolean acquire(long bytes) throws InterruptedException {
+            while (! canceled && active > 0 &&
+                   (reserved + bytes > budget || isCacheSpilling())) {
+                wait(ADMISSION_POLL_MS);
+            }
+            if (canceled) {
+                return false;
+            }
+            reserved += bytes;
+            active++;
+            return true;
+        }
+
+        synchronized void release(long bytes) {
+            reserved -= bytes;
+            active--;
+            notifyAll();
+        }
+
+        synchronized void wakeUp() {
+            notifyAll();
+        }
+
+        /**
+         * Tells whether the tile cache wrote tiles to its scratch file since
+         * the last time we looked.
+         */
+        private boolean isCacheSpilling() {
+            final TileCache cache = JAIContext.fileCache;
+            if (! (cache instanceof LCTileCache)) {
+                return false;
+            }
+            final long written = ((LCTileCache) cache).tilesWritten();
+            final boolean spilling =
+                tilesWritten >= 0 && written > tilesWritten;
+            tilesWritten = written;
+            return spilling;
+        }
+    }
+
+    /**
+     * Carries a listener's ProgressIndicator into the export, and the cancel
+     * request out to the writers.
+     */
+    private static class JobProgress extends ProgressThread {
+
+        private final static ProgressIndicator NoProgress =
+            new ProgressIndicator() {
+                @Override
+                public void incrementBy(int delta) {
+                }
+                @Override
+                public void setIndeterminate(boolean indeterminate) {
+                }
+                @Override
+                public void setMaximum(int maxValue) {
+                }
+                @Override
+                public void setMinimum(int minValue) {
+                }
+            };
+
+        JobProgress(ProgressIndicator indicator) {
+            super(indicator != null ? indicator : NoProgress);
+        }
+
+        // ProgressThread requires this method, even though nothing runs it.
+        @Override
+        public void run() {
+        }
+    }
+}
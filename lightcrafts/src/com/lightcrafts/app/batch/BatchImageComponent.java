@@ -10,6 +10,7 @@ import com.lightcrafts.ui.LightZoneSkin;
 import com.lightcrafts.ui.browser.model.ImageTask;
 import com.lightcrafts.utils.filecache.FileCacheFactory;
 import com.lightcrafts.utils.filecache.FileCache;
+import com.lightcrafts.utils.filecache.ThumbnailStore;
 
 import javax.swing.*;
 import java.awt.*;
@@ -17,6 +18,7 @@ import java.awt.color.ColorSpace;
 import java.awt.geom.AffineTransform;
 import java.awt.image.ColorModel;
 import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 
@@ -65,9 +67,14 @@ class BatchImageComponent extends JComponent {
             try {
                 String key = ImageTask.getImageKey(file);
                 FileCache cache = FileCacheFactory.get(file.getParentFile());
+                ThumbnailStore store = cache.getThumbnailStore(file.getParentFile());
+                byte[] preview = (store != null) ? store.getPreview(file) : null;
                 File cachedFile = cache.getFileFor(key);
 
-                if (cachedFile != null)
+                if (preview != null)
+                    image = JPEGImageType.getImageFromInputStream(new ByteArrayInputStream(preview), null,
+                                                                  ImageTask.CacheImageSize, ImageTask.CacheImageSize);
+                else if (cachedFile != null)
                     image = JPEGImageType.getImageFromInputStream(new FileInputStream(cachedFile), null,
                                                                   ImageTask.CacheImageSize, ImageTask.CacheImageSize);
             }
@@ -3,29 +3,11 @@
 
 package com.lightcrafts.app.batch;
 
-import com.lightcrafts.app.Application;
 import com.lightcrafts.app.ComboFrame;
-import com.lightcrafts.app.DocumentWriter;
 import static com.lightcrafts.app.batch.Locale.LOCALE;
-import com.lightcrafts.image.BadImageFileException;
-import com.lightcrafts.image.ColorProfileException;
-import com.lightcrafts.image.UnknownImageTypeException;
-import com.lightcrafts.image.UnsupportedColorProfileException;
-import com.lightcrafts.image.export.ImageFileExportOptions;
-import com.lightcrafts.image.metadata.ImageMetadata;
-import com.lightcrafts.image.types.ImageType;
-import com.lightcrafts.image.types.JPEGImageType;
-import com.lightcrafts.image.types.LZNImageType;
-import com.lightcrafts.image.types.TIFFImageType;
-import com.lightcrafts.model.Engine;
-import com.lightcrafts.ui.editor.Document;
-import com.lightcrafts.ui.editor.assoc.DocumentDatabase;
-import com.lightcrafts.ui.export.ExportNameUtility;
-import com.lightcrafts.ui.export.SaveOptions;
 import com.lightcrafts.ui.LightZoneSkin;
-import com.lightcrafts.utils.xml.XMLException;
+import com.lightcrafts.utils.ProgressIndicator;
 import com.lightcrafts.utils.xml.XmlDocument;
-import com.lightcrafts.utils.xml.XmlNode;
 
 import javax.swing.*;
 import java.awt.*;
@@ -35,6 +17,7 @@ import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This encapsulates the procedures applied when LightZone processes multiple
@@ -46,14 +29,18 @@ public class BatchProcessor {
     private static JDialog Dialog;  // Blocks UI during batch processing
     private static BatchText Text;  // Where log messages stream to
     private static Thread Thread;   // Where the work is done
+    private static BatchEngine Batch;   // Does the work, several files at once
     private static BatchProgressBar Progress;   // Image export progress
     private static BatchImageComponent Image;   // The current Engine image
     private static JLabel Label;    // File counts and time estimates
     private static JButton Button;  // Either "Cancel" or "Done"
     private static long Start;      // Time started, for time estimates
-    private static boolean Interrupted; // Flag to halt background work
     private static boolean Finished;    // Flag to indicate work is halted
-    private static boolean Canceled;    // Flag to indicate work is canceled by the user
+
+    // The file whose export drives the progress bar, since there is only
+    // one bar for all the files being exported at once:
+    private static final AtomicReference<File> ProgressOwner =
+        new AtomicReference<File>();
 
     private static RuntimeException Error;  // Propagate unchecked exceptions
 
@@ -63,13 +50,20 @@ public class BatchProcessor {
         final XmlDocument template,
         final BatchConfig conf
     ) {
+        try {
+            Batch = new BatchEngine(files, template, conf);
+        }
+        catch (IOException e) {
+            // Only serializes the template in memory.
+            throw new RuntimeException(e);
+        }
         Thread = new Thread(
             new Runnable() {
                 @Override
                 public void run() {
                     frame.pause();
                     try {
-                        processTemplate(files, template, conf);
+                        Batch.run(new Listener());
                     }
                     catch (RuntimeException e) {
                         System.err.println(
@@ -81,6 +75,17 @@ public class BatchProcessor {
                     }
                     finally {
                         frame.resume();
+                        EventQueue.invokeLater(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    Finished = true;
+                                    Button.setText(
+                                        LOCALE.get("BatchDoneButton")
+                                    );
+                                }
+                            }
+                        );
                     }
                 }
             },
@@ -140,7 +145,7 @@ public class BatchProcessor {
             @Override
             public void actionPerformed(ActionEvent e) {
                 if (!Finished) {
-                    Canceled = true;
+                    Batch.cancel();
                     Button.setText("Canceling...");
                 } else
                     Dialog.setVisible(false);
@@ -159,33 +164,29 @@ public class BatchProcessor {
             new ComponentAdapter() {
                 @Override
                 public void componentHidden(ComponentEvent e) {
-                    Interrupted = true;
+                    Batch.cancel();
                 }
             }
         );
 
-        Interrupted = false;
         Finished = false;
-        Canceled = false;
+        ProgressOwner.set(null);
 
         Thread.start();
         Dialog.setVisible(true);
 
-        // If they clicked "Cancel", and the thread is live, then shut it down:
-        synchronized(Thread) {
-            if ((!Finished) && (Error == null)) {
-                Interrupted = true;
-                try {
-                    Thread.wait();
-                }
-                catch (InterruptedException e) {
-                    // Just continue.
-                }
-            }
-            Interrupted = false;
-            Finished = false;
-            Canceled = false;
+        // If the dialog was closed early, the batch is canceled; wait for
+        // the documents in progress to stop:
+        Batch.cancel();
+        try {
+            Thread.join();
         }
+        catch (InterruptedException e) {
+            // Just continue.
+        }
+        Batch = null;
+        Finished = false;
+
         if (Error != null) {
             RuntimeException e = Error;
             Error = null;
@@ -194,197 +195,44 @@ public class BatchProcessor {
     }
 
     /**
-     * Conduct the export and template processes, in the background under the dialog.
+     * Streams the results of the batch engine into the dialog.
      */
-    private static void processTemplate(
-            File[] files, XmlDocument template, BatchConfig conf
-    ) {
-        final ImageFileExportOptions export = conf.export;
-        final boolean ignoreResize =
-            export.resizeWidth.getValue() == 0 &&
-                export.resizeHeight.getValue() == 0;
-
-        // Remember the requested output width and height, because they may get
-        // mutated each time a file is processed.  See these methods:
-        //     createTemplateSaveOptions()
-        //     conformExportOptions()
-        //     Engine.write()
-        final int exportWidth = export.resizeWidth.getValue();
-        final int exportHeight = export.resizeHeight.getValue();
-
-        int n = 0;
-        for (final File file : files) {
-
-            if (Canceled)
-                break;
-
-            if (Interrupted) {
-                synchronized(Thread) {
-                    Thread.notifyAll();
-                    return;
-                }
-            }
+    private static class Listener implements BatchEngine.Listener {
 
-            try {
-                Image.setCachedFile(file);
-
-                logStart(file);
-                final Document doc = Application.createDocumentHeadless(file);
-                final File outFile;
-                final String outName;
-
-                // Enforce the original requested output dimensions, since
-                // the ImageExportOptions may have been mutated on a previous
-                // iteration.
-                export.resizeWidth.setValue(exportWidth);
-                export.resizeHeight.setValue(exportHeight);
-
-                if (template != null) {
-                    XmlNode root = template.getRoot();
-
-                    doc.applyTemplate(root);
-
-                    SaveOptions save = doc.getSaveOptions();
-                    if (save == null) {
-                        save = createTemplateSaveOptions(doc, export, ignoreResize);
-                    }
-                    doc.setSaveOptions(save);
-
-                    ComboFrame frame = (ComboFrame) Dialog.getOwner();
-                    DocumentWriter.save(doc, frame, false, Progress);
-                    outFile = save.getFile();
-                    outName = outFile.getName();
-                    DocumentDatabase.addDocumentFile(outFile);
-                } else {
-                    conformExportOptions(doc, conf, ignoreResize);
-
-                    Engine engine = doc.getEngine();
-                    DocumentWriter.export(engine, export, Progress);
-                    outFile = export.getExportFile();
-                    outName = outFile.getName();
-                }
-
-                doc.dispose();
-
-                logEnd(LOCALE.get("BatchLogSavedMessage", outName));
-
-                Image.setFile(outFile);
+        @Override
+        public ProgressIndicator fileStarted(File file) {
+            Image.setCachedFile(file);
+            if (ProgressOwner.compareAndSet(null, file)) {
+                return Progress.getProgressIndicator();
+            }
+            return null;
+        }
 
+        @Override
+        public void fileDone(BatchResult result, int count, int total) {
+            final File file = result.getFile();
+            if (ProgressOwner.compareAndSet(file, null)) {
                 Progress.reset();
             }
-            catch (XMLException e) {
-                logError(LOCALE.get("BatchLogXmlError"), e);
-            }
-            catch (BadImageFileException e) {
-                logError(LOCALE.get("BatchLogBadImageError"), e);
-            }
-            catch (IOException e) {
-                logError(LOCALE.get("BatchLogIOError"), e);
-            }
-            catch (OutOfMemoryError e) {
-                logError(LOCALE.get("BatchLogMemoryError"), e);
-            }
-            catch (UnknownImageTypeException e) {
-                logError(LOCALE.get("BatchLogImageTypeError"), e);
-            }
-            catch (UnsupportedColorProfileException e) {
-                logError(LOCALE.get("BatchLogCameraError"), e);
-            }
-            catch (ColorProfileException e) {
-                logError(LOCALE.get("BatchLogColorError"), e);
+            // Keep each file's start and end together in the log.
+            synchronized (Text) {
+                switch (result.getStatus()) {
+                    case EXPORTED:
+                        logStart(file);
+                        logEnd(result.getMessage());
+                        break;
+                    case FAILED:
+                        logStart(file);
+                        logError(result.getMessage(), result.getError());
+                        break;
+                    case CANCELED:
+                        return;
+                }
             }
-            catch (Throwable e) {
-                logError(LOCALE.get("BatchLogUnknownError"), e);
-                e.printStackTrace();
+            if (result.isExported()) {
+                Image.setFile(result.getOutFile());
             }
-            updateLabel(++n, files.length);
-        }
-        synchronized(Thread) {
-            Finished = true;
-            Thread.notifyAll();
-            Button.setText(LOCALE.get("BatchDoneButton"));
-        }
-    }
-
-    /**
-     * Construct SaveOptions for processed images that have never been saved.
-     * Save back to the same directory as the original image,
-     * with a unique file name, with the given export options, except
-     * the resize dimensions, which are set to the document's "natural"
-     * dimensions.
-     */
-    private static SaveOptions createTemplateSaveOptions(
-        Document doc, ImageFileExportOptions export, boolean ignoreResize
-    ) {
-        final ImageMetadata meta = doc.getMetadata();
-        File file = meta.getFile();
-        final ImageType type = export.getImageType();
-        final String ext = type.getExtensions()[0];
-        if (type == LZNImageType.INSTANCE) {
-            file = ExportNameUtility.setFileExtension(file, ext);
-            file = ExportNameUtility.ensureNotExists(file);
-            return SaveOptions.createLzn(file);
-        }
-
-        final SaveOptions options;
-        if (type instanceof TIFFImageType) {
-            options = SaveOptions.createSidecarTiff(export);
-        }
-        else if (type instanceof JPEGImageType) {
-            options = SaveOptions.createSidecarJpeg(export);
-        }
-        else {
-            throw new IllegalArgumentException(
-                "Can't save to image type \"" + type.getName() + "\""
-            );
-        }
-        final Engine engine = doc.getEngine();
-        final Dimension size = engine.getNaturalSize();
-        if (ignoreResize) {
-            export.resizeWidth.setValue(size.width);
-            export.resizeHeight.setValue(size.height);
-        }
-        file = new File(ExportNameUtility.getBaseName(file) + "_lzn." + ext);
-        file = ExportNameUtility.ensureNotExists(file);
-        options.setFile(file);
-
-        return options;
-    }
-
-    /**
-     * Ensure that the given ImageExportOptions agrees with the given
-     * TemplateBatchConfigurator about the output folder, the batch name,
-     * and the output file type extension, and agrees with the given Document
-     * and the configurator about the output image size.
-     */
-    private static void conformExportOptions(
-        Document doc, BatchConfig conf, boolean ignoreResize
-    ) {
-        final ImageMetadata meta = doc.getMetadata();
-        final File file = meta.getFile();
-        final String name = file.getName();
-        final File directory = conf.directory;
-        File outFile = new File(directory, name);
-
-        // Mutate the default file into a conformant name:
-        final String outLabel = conf.name;
-        final String outName = ExportNameUtility.trimFileExtension(
-            outFile.getName()
-        );
-        final ImageFileExportOptions export = conf.export;
-
-        final String outSuffix = export.getImageType().getExtensions()[0];
-        outFile = (outLabel.length() > 0)
-                ? new File(directory, outName + outLabel + "." + outSuffix)
-                : new File(directory, outName + "." + outSuffix);
-        outFile = ExportNameUtility.ensureNotExists(outFile);
-        export.setExportFile(outFile);
-
-        if (ignoreResize) {
-            final Engine engine = doc.getEngine();
-            final Dimension size = engine.getNaturalSize();
-            export.resizeWidth.setValue(size.width);
-            export.resizeHeight.setValue(size.height);
+            updateLabel(count, total);
         }
     }
 
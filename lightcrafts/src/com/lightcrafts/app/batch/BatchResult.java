@@ -0,0 +1,69 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.app.batch;
+
+import lombok.Getter;
+
+import java.io.File;
+
+/**
+ * The outcome of one file of a {@link BatchEngine} run.
+ */
+@Getter
+public class BatchResult {
+
+    public enum Status { EXPORTED, FAILED, CANCELED }
+
+    /** The file that was processed. */
+    private final File file;
+
+    /** The file that was written, or <code>null</code> if none was. */
+    private final File outFile;
+
+    private final Status status;
+
+    /**
+     * A localized message for the log: the output name on success, a short
+     * description of the failure otherwise.
+     */
+    private final String message;
+
+    /** What went wrong, or <code>null</code>. */
+    private final Throwable error;
+
+    /** Wall clock time spent on this file, in milliseconds. */
+    private final long elapsed;
+
+    BatchResult(
+        File file, File outFile, Status status, String message,
+        Throwable error, long elapsed
+    ) {
+        this.file = file;
+        this.outFile = outFile;
+        this.status = status;
+        this.message = message;
+        this.error = error;
+        this.elapsed = elapsed;
+    }
+
+    public boolean isExported() {
+        return status == Status.EXPORTED;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(file.getName()).append(": ").append(status);
+        if (message != null) {
+            sb.append(" ").append(message);
+        }
+        if (error != null) {
+            sb.append(" (")
+              .append(error.getClass().getName())
+              .append(" ")
+              .append(error.getMessage())
+              .append(")");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,242 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.image.libs;
+
+import com.lightcrafts.image.BadImageFileException;
+import com.lightcrafts.image.types.JPEGParser;
+import com.lightcrafts.utils.bytebuffer.ArrayByteBuffer;
+import com.lightcrafts.utils.bytebuffer.LCByteBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.lightcrafts.image.types.JPEGConstants.JPEG_EOI_MARKER;
+import static com.lightcrafts.image.types.JPEGConstants.JPEG_MARKER_BYTE;
+import static com.lightcrafts.image.types.JPEGConstants.JPEG_SOS_MARKER;
+
+/**
+ * <code>JPEGBands</code> splits a baseline or extended sequential JPEG image into bands of rows
+ * that can be decoded independently, each by its own decoder.
+ * <p>
+ * Restart markers reset the entropy decoder's state, so the entropy-coded data between two of
+ * them only depends on the tables in the image's header.  Where a restart interval begins at the
+ * start of a row of MCUs, the rest of the image can be decoded as an image of its own: the
+ * header with the frame's height patched, the data from that interval on with its restart
+ * markers renumbered from zero, and an end-of-image marker.
+ * <p>
+ * Images without restart markers, progressive images and images whose components are in
+ * several scans can't be split.
+ */
+final class JPEGBands {
+
+    /**
+     * One band of rows of an image.
+     */
+    static final class Band {
+        /** The first row of the band in the image. */
+        final int y;
+
+        /** The number of rows of the band. */
+        final int height;
+
+        /** The band as a JPEG image of its own. */
+        final byte[] jpeg;
+
+        private Band(int y, int height, byte[] jpeg) {
+            this.y = y;
+            this.height = height;
+            this.jpeg = jpeg;
+        }
+    }
+
+    /**
+     * Splits a JPEG image into bands of about the same height.
+     *
+     * @param jpeg The JPEG image.
+     * @param file The file of the image, for error messages.
+     * @param maxBands The most bands to split the image into.
+     * @return Returns the bands, top to bottom, or <code>null</code> if the image can't be split.
+     */
+    static List<Band> split(byte[] jpeg, File file, int maxBands)
+            throws BadImageFileException, IOException {
+        final JPEGBands bands = new JPEGBands(jpeg);
+        JPEGParser.parse(
+                (segID, segLength, jpegFile, buf) -> bands.gotSegment(segID, buf),
+                file, new ArrayByteBuffer(jpeg)
+        );
+        return bands.split(maxBands);
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    private JPEGBands(byte[] jpeg) {
+        m_jpeg = jpeg;
+    }
+
+    /**
+     * Gets what's needed from the header segments, up to the start of the scan.
+     */
+    private boolean gotSegment(byte segID, LCByteBuffer buf) throws IOException {
+        final int pos = buf.position();
+        switch (segID & 0xFF) {
+            case 0xC0:      // baseline
+            case 0xC1:      // extended sequential, Huffman coded
+                m_sequential = true;
+                m_sofHeightOffset = pos + 1;
+                m_height = buf.getUnsignedShort(pos + 1);
+                m_width = buf.getUnsignedShort(pos + 3);
+                m_components = buf.getUnsignedByte(pos + 5);
+                for (int i = 0; i < m_components; i++) {
+                    final int sampling = buf.getUnsignedByte(pos + 6 + 3 * i + 1);
+                    m_maxHSampling = Math.max(m_maxHSampling, sampling >> 4);
+                    m_maxVSampling = Math.max(m_maxVSampling, sampling & 0x0F);
+                }
+                break;
+            case 0xC2: case 0xC3:
+            case 0xC5: case 0xC6: case 0xC7:
+            case 0xC9: case 0xCA: case 0xCB:
+            case 0xCD: case 0xCE: case 0xCF:
+                // progressive, lossless, hierarchical or arithmetic coded
+                m_sequential = false;
+                return false;
+            case 0xDD:      // define restart interval
+                m_restartInterval = buf.getUnsignedShort(pos);
+                break;
+            default:
+                if (segID == JPEG_SOS_MARKER) {
+                    m_scanComponents = buf.getUnsignedByte(pos + 2);
+                    m_scanStart = pos + buf.getUnsignedShort(pos);
+                }
+        }
+        return true;
+    }
+
+    private List<Band> split(int maxBands) {
+        if (!m_sequential || m_restartInterval == 0 || m_scanStart == 0
+                || m_scanComponents != m_components || m_width == 0 || m_height == 0) {
+            return null;
+        }
+
+        // A scan of a single component has an MCU of one block whatever its sampling
+        final int mcuWidth = m_components == 1 ? 8 : 8 * m_maxHSampling;
+        final int mcuHeight = m_components == 1 ? 8 : 8 * m_maxVSampling;
+        final int mcusPerRow = (m_width + mcuWidth - 1) / mcuWidth;
+        final int mcuRows = (m_height + mcuHeight - 1) / mcuHeight;
+
+        // Where each restart interval starts, and where the scan ends
+        final List<Integer> starts = new ArrayList<>();
+        starts.add(m_scanStart);
+        int scanEnd = -1;
+        for (int i = m_scanStart; i < m_jpeg.length - 1 && scanEnd < 0; i++) {
+            if (m_jpeg[i] != JPEG_MARKER_BYTE) {
+                continue;
+            }
+            final int marker = m_jpeg[i + 1] & 0xFF;
+            if (marker == 0x00 || marker == 0xFF) {
+                // stuffed byte or fill byte
+                i++;
+            } else if (marker >= 0xD0 && marker <= 0xD7) {
+                starts.add(i + 2);
+                i++;
+            } else {
+                scanEnd = i;
+            }
+        }
+        if (scanEnd < 0) {
+            scanEnd = m_jpeg.length;
+        }
+        final int intervals = starts.size();
+        final long mcus = (long) mcusPerRow * mcuRows;
+        if (intervals != (mcus + m_restartInterval - 1) / m_restartInterval) {
+            return null;
+        }
+
+        // Intervals that start a row of MCUs come every this many intervals
+        final int period = (int) (lcm(m_restartInterval, mcusPerRow) / m_restartInterval);
+
+        final List<Band> bands = new ArrayList<>();
+        int first = 0;
+        for (int band = 1; band <= maxBands && first < intervals; band++) {
+            int next = intervals;
+            if (band < maxBands) {
+                final long targetRow = (long) mcuRows * band / maxBands;
+                final long targetInterval =
+                        (targetRow * mcusPerRow + m_restartInterval - 1) / m_restartInterval;
+                final long aligned = (targetInterval + period - 1) / period * period;
+                if (aligned <= first) {
+                    continue;
+                }
+                if (aligned < intervals) {
+                    next = (int) aligned;
+                }
+            }
+            final int y = rowOf(first, mcusPerRow) * mcuHeight;
+            final int end = next == intervals
+                            ? m_height : rowOf(next, mcusPerRow) * mcuHeight;
+            final int dataEnd = next == intervals ? scanEnd : starts.get(next) - 2;
+            bands.add(new Band(y, end - y, makeBand(starts, first, dataEnd, end - y)));
+            first = next;
+        }
+        return bands;
+    }
+
+    private int rowOf(int interval, int mcusPerRow) {
+        return (int) ((long) interval * m_restartInterval / mcusPerRow);
+    }
+
+    /**
+     * Makes a JPEG image of the rows from a restart interval on.
+     *
+     * @param starts Where each restart interval starts.
+     * @param first The first interval of the band.
+     * @param dataEnd Where the band's entropy-coded data ends.
+     * @param height The height of the band.
+     */
+    private byte[] makeBand(List<Integer> starts, int first, int dataEnd, int height) {
+        final int dataStart = starts.get(first);
+        final int dataLength = dataEnd - dataStart;
+        final byte[] band = Arrays.copyOf(m_jpeg, m_scanStart + dataLength + 2);
+        System.arraycopy(m_jpeg, dataStart, band, m_scanStart, dataLength);
+        band[m_sofHeightOffset] = (byte) (height >> 8);
+        band[m_sofHeightOffset + 1] = (byte) height;
+
+        // The restart markers of a band count from zero again
+        for (int i = first + 1; i < starts.size() && starts.get(i) <= dataEnd; i++) {
+            band[m_scanStart + starts.get(i) - 1 - dataStart] =
+                    (byte) (0xD0 + ((i - first - 1) & 7));
+        }
+        band[band.length - 2] = JPEG_MARKER_BYTE;
+        band[band.length - 1] = JPEG_EOI_MARKER;
+        return band;
+    }
+
+    private static long lcm(long a, long b) {
+        long x = a, y = b;
+        while (y != 0) {
+            final long t = x % y;
+            x = y;
+            y = t;
+        }
+        return a / x * b;
+    }
+
+    private final byte[] m_jpeg;
+
+    private boolean m_sequential;
+    private int m_sofHeightOffset;
+    private int m_width;
+    private int m_height;
+    private int m_components;
+    private int m_maxHSampling = 1;
+    private int m_maxVSampling = 1;
+    private int m_restartInterval;
+    private int m_scanComponents;
+
+    /**
+     * Where the entropy-coded data of the scan starts, right after the scan's header.
+     */
+    private int m_scanStart;
+}
+/* vim:set et sw=4 ts=4: */
@@ -3,6 +3,7 @@
 
 package com.lightcrafts.image.libs;
 
+import com.lightcrafts.image.BadImageFileException;
 import com.lightcrafts.image.types.AdobeEmbedJPEGSegmentFilter;
 import com.lightcrafts.image.types.AdobeJPEGSegmentFilter;
 import com.lightcrafts.image.types.JPEGImageInfo;
@@ -19,8 +20,18 @@ import java.awt.image.DataBufferByte;
 import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.media.jai.ImageLayout;
 import javax.media.jai.PlanarImage;
 
@@ -47,6 +58,19 @@ public final class LCJPEGReader implements LCImageReader {
      */
     private static final int DEFAULT_BUF_SIZE = 32 * 1024;
 
+    /**
+     * Images with at least this many pixels are decoded in bands in parallel, if they can be.
+     */
+    private static final long PARALLEL_DECODE_PIXELS =
+            Long.getLong("lightcrafts.jpeg.parallel.pixels", 16L << 20);
+
+    /**
+     * The number of bands decoded at once.
+     */
+    private static final int DECODER_THREADS = Math.max(
+            1, Integer.getInteger("lightcrafts.jpeg.decoders",
+                                  Runtime.getRuntime().availableProcessors()));
+
     static {
         System.loadLibrary("LCJPEG");
     }
@@ -63,6 +87,16 @@ public final class LCJPEGReader implements LCImageReader {
      */
     @SuppressWarnings({"UNUSED_SYMBOL"})
     private int m_colorSpace;
+    /**
+     * This is <code>true</code> only if the image was decoded in bands by other readers, leaving
+     * this one unread.
+     */
+    private boolean m_decodedInBands;
+    /**
+     * The name of the JPEG file, if the image is read from a file and not rescaled, so that it can
+     * be decoded in bands.
+     */
+    private String m_fileName;
     /**
      * This is <code>true</code> only if the JPEG file has an Adobe (APPE) segment.
      */
@@ -117,6 +151,9 @@ public final class LCJPEGReader implements LCImageReader {
     public LCJPEGReader(String fileName, int maxWidth, int maxHeight, JPEGImageInfo jpegInfo)
             throws FileNotFoundException, LCImageLibException, UnsupportedEncodingException {
         openForReading(fileName, maxWidth, maxHeight);
+        if (maxWidth == 0 && maxHeight == 0) {
+            m_fileName = fileName;
+        }
         if (jpegInfo != null) {
             if (jpegInfo.getFirstSegmentFor(JPEG_APPE_MARKER, new AdobeJPEGSegmentFilter())
                     != null) {
@@ -255,9 +292,10 @@ public final class LCJPEGReader implements LCImageReader {
                     // before the entire image has been read ("Application
                     // transferred too few scanlines") because the user clicked
                     // the "Cancel" button.  Therefore, ignore any exception if
-                    // this is the case, but rethrow it otherwise.
+                    // this is the case, but rethrow it otherwise.  The same
+                    // goes if the image was decoded in bands by other readers.
                     //
-                    if (!userCanceled) {
+                    if (!userCanceled && !m_decodedInBands) {
                         throw e;
                     }
                 }
@@ -350,13 +388,6 @@ public final class LCJPEGReader implements LCImageReader {
                 new ComponentColorModel(cs, false, false, Transparency.OPAQUE,
                         DataBuffer.TYPE_BYTE);
 
-        // Sample model for the readout buffer large enough to hold a tile or a
-        // strip of the image.
-        final SampleModel jpegTsm = ccm.createCompatibleSampleModel(m_width, TILE_HEIGHT);
-
-        // The readout buffer itself.
-        final DataBuffer db = new DataBufferByte(m_colorsPerPixel * m_width * TILE_HEIGHT);
-
         // Sample model for the output image.
         final SampleModel tsm = ccm.createCompatibleSampleModel(TILE_WIDTH, TILE_HEIGHT);
 
@@ -367,39 +398,216 @@ public final class LCJPEGReader implements LCImageReader {
         // The output image itself, directly allocated in the file cache.
         final CachedImage image = new CachedImage(layout, fileCache);
 
-        // Load Image Data
-        for (int tileY = 0, totalLinesRead = 0; totalLinesRead < m_height; tileY++) {
-            if (thread != null && thread.isCanceled()) {
-                throw new UserCanceledException();
+        if (!readBands(thread, indicator, ccm, image)) {
+            readStrips(thread, indicator, ccm, image, 0, true);
+        }
+        indicator.setIndeterminate(true);
+        m_image = image;
+    }
+
+    /**
+     * Decodes the image in bands, each by its own reader, in parallel.  This only works for large
+     * images read from a file that has restart markers where rows of MCUs start.
+     *
+     * @param thread The thread that will do the getting.
+     * @param indicator The indicator of the progress.
+     * @param ccm The color model of the image.
+     * @param image The image to decode into.
+     * @return Returns <code>true</code> only if the image was decoded; if not, this reader is
+     * still unread.
+     */
+    private boolean readBands(ProgressThread thread, ProgressIndicator indicator,
+            ComponentColorModel ccm, CachedImage image)
+            throws LCImageLibException, UserCanceledException {
+        if (m_fileName == null || DECODER_THREADS < 2
+                || (long) m_width * m_height < PARALLEL_DECODE_PIXELS) {
+            return false;
+        }
+        final List<JPEGBands.Band> bands;
+        try {
+            final File file = new File(m_fileName);
+            bands = JPEGBands.split(Files.readAllBytes(file.toPath()), file, DECODER_THREADS);
+        } catch (BadImageFileException | IOException e) {
+            System.out.println("Can't decode " + m_fileName + " in bands: " + e.getMessage());
+            return false;
+        }
+        if (bands == null || bands.size() < 2) {
+            return false;
+        }
+
+        final ExecutorService decoders = Executors.newFixedThreadPool(bands.size(), r -> {
+            final Thread decoder = new Thread(r, "JPEG Band Decoder");
+            decoder.setDaemon(true);
+            return decoder;
+        });
+        final List<Future<?>> decoded = new ArrayList<>();
+        try {
+            for (final JPEGBands.Band band : bands) {
+                decoded.add(decoders.submit(() -> {
+                    final LCJPEGReader reader = new LCJPEGReader(
+                            new InputStreamImageDataProvider(new ByteArrayInputStream(band.jpeg)));
+                    boolean done = false;
+                    try {
+                        if (reader.m_width != m_width || reader.m_height != band.height
+                                || reader.m_colorsPerPixel != m_colorsPerPixel) {
+                            throw new LCImageLibException(
+                                    "Band at " + band.y + " decodes to " + reader.m_width + 'x'
+                                    + reader.m_height + " pixels");
+                        }
+                        reader.m_hasAdobeSegment = m_hasAdobeSegment;
+                        reader.m_hasAdobeEmbedMarker = m_hasAdobeEmbedMarker;
+                        reader.readStrips(thread, indicator, ccm, image, band.y, false);
+                        done = true;
+                    } finally {
+                        try {
+                            reader.dispose();
+                        } catch (LCImageLibException e) {
+                            if (done) {
+                                throw e;
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> band : decoded) {
+                await(band);
             }
+        } catch (LCImageLibException e) {
+            // Let the other bands finish, the image is decoded again over them
+            for (Future<?> band : decoded) {
+                try {
+                    band.get();
+                } catch (InterruptedException | ExecutionException ignored) {
+                }
+            }
+            System.out.println("Can't decode " + m_fileName + " in bands: " + e.getMessage());
+            return false;
+        } finally {
+            decoders.shutdownNow();
+        }
+        m_decodedInBands = true;
+        return true;
+    }
 
-            final int tileHeight = Math.min(TILE_HEIGHT, m_height - totalLinesRead);
+    /**
+     * Decodes the image a strip at a time.  When pipelined, a strip is written into the image by
+     * another thread while the next one is decoded.
+     *
+     * @param thread The thread that will do the getting.
+     * @param indicator The indicator of the progress.
+     * @param ccm The color model of the image.
+     * @param image The image to decode into.
+     * @param minY The row of the image the first decoded row goes to.
+     * @param pipelined Whether to write strips on another thread.
+     */
+    private void readStrips(ProgressThread thread, ProgressIndicator indicator,
+            ComponentColorModel ccm, CachedImage image, int minY, boolean pipelined)
+            throws LCImageLibException, UserCanceledException {
+        // Sample model for the readout buffers large enough to hold a tile or
+        // a strip of the image.
+        final SampleModel jpegTsm = ccm.createCompatibleSampleModel(m_width, TILE_HEIGHT);
 
-            // Wrap the data buffer with a Raster representing the input data.
-            final WritableRaster raster =
-                    Raster.createWritableRaster(jpegTsm, db, new Point(0, tileY * TILE_HEIGHT));
+        // The readout buffers themselves, one being decoded into while the
+        // other is written into the image.
+        final DataBufferByte[] buffers = new DataBufferByte[pipelined ? 2 : 1];
+        final Future<?>[] writes = new Future<?>[buffers.length];
 
-            final int linesRead = readScanLines(((DataBufferByte) db).getData(), 0, tileHeight);
-            if (linesRead <= 0) {
-                System.out.println("Problem with readScanLines, returned: " + linesRead);
-                break;
-            }
+        final ExecutorService writer = pipelined ? Executors.newSingleThreadExecutor(r -> {
+            final Thread t = new Thread(r, "JPEG Strip Writer");
+            t.setDaemon(true);
+            return t;
+        }) : null;
 
-            if (m_hasAdobeSegment && m_colorsPerPixel == 4 && !m_hasAdobeEmbedMarker) {
-                //
-                // CMYK JPEG images generated by Photoshop are inverted, so we
-                // have to invert the data to make it look right.
-                //
-                LCImageLibUtil.invert((DataBufferByte) db);
-            }
+        final boolean invert = m_hasAdobeSegment && m_colorsPerPixel == 4 && !m_hasAdobeEmbedMarker;
 
-            totalLinesRead += linesRead;
+        try {
+            for (int strip = 0, totalLinesRead = 0; totalLinesRead < m_height; strip++) {
+                if (thread != null && thread.isCanceled()) {
+                    throw new UserCanceledException();
+                }
+
+                final int i = strip % buffers.length;
+                if (writes[i] != null) {
+                    await(writes[i]);
+                }
+                if (buffers[i] == null) {
+                    buffers[i] = new DataBufferByte(m_colorsPerPixel * m_width * TILE_HEIGHT);
+                }
+                final DataBufferByte db = buffers[i];
+
+                final int stripHeight = Math.min(TILE_HEIGHT, m_height - totalLinesRead);
+                final int linesRead = readScanLines(db.getData(), 0, stripHeight);
+                if (linesRead <= 0) {
+                    System.out.println("Problem with readScanLines, returned: " + linesRead);
+                    break;
+                }
+
+                // Wrap the data buffer with a Raster representing the lines read.
+                final int y = minY + totalLinesRead;
+                final WritableRaster raster =
+                        Raster.createWritableRaster(jpegTsm, db, new Point(0, y))
+                              .createWritableChild(0, y, m_width, linesRead, 0, y, null);
+
+                totalLinesRead += linesRead;
+
+                final Runnable write = () -> {
+                    if (invert) {
+                        //
+                        // CMYK JPEG images generated by Photoshop are inverted, so we
+                        // have to invert the data to make it look right.
+                        //
+                        LCImageLibUtil.invert(db);
+                    }
+                    image.setData(raster);
+                    synchronized (indicator) {
+                        indicator.incrementBy(linesRead);
+                    }
+                };
+                if (writer != null) {
+                    writes[i] = writer.submit(write);
+                } else {
+                    write.run();
+                }
+            }
+            for (Future<?> write : writes) {
+                if (write != null) {
+                    await(write);
+                }
+            }
+        } finally {
+            if (writer != null) {
+                writer.shutdownNow();
+            }
+        }
+    }
 
-            image.setData(raster);
-            indicator.incrementBy(linesRead);
+    /**
+     * Waits for a task to be done, rethrowing what it threw.
+     */
+    private static void await(Future<?> task)
+            throws LCImageLibException, UserCanceledException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UserCanceledException();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof LCImageLibException) {
+                throw (LCImageLibException) cause;
+            }
+            if (cause instanceof UserCanceledException) {
+                throw (UserCanceledException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new LCImageLibException(cause);
         }
-        indicator.setIndeterminate(true);
-        m_image = image;
     }
 }
 /* vim:set et sw=4 ts=4: */
@@ -16,18 +16,14 @@ import com.lightcrafts.utils.ProgressIndicator;
 import com.lightcrafts.utils.bytebuffer.ByteBufferUtil;
 import com.lightcrafts.utils.thread.ProgressThread;
 import com.lightcrafts.utils.xml.XMLUtil;
-import java.awt.Point;
-import java.awt.Rectangle;
 import java.awt.color.ICC_Profile;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
-import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import javax.media.jai.PlanarImage;
 import org.w3c.dom.Document;
 
 import static com.lightcrafts.image.libs.LCJPEGConstants.CS_CMYK;
@@ -427,7 +423,8 @@ public final class LCJPEGWriter {
     }
 
     /**
-     * Writes an image, compressing it into a JPEG.
+     * Writes an image, compressing it into a JPEG.  Strips of the image are rendered ahead by a
+     * {@link StripPipeline} while the current one is being compressed.
      *
      * @param image The image to compress into a JPEG.
      * @param thread The {@link ProgressThread} to use, if any.
@@ -437,58 +434,53 @@ public final class LCJPEGWriter {
         /* if (image.getSampleModel().getDataType() != DataBuffer.TYPE_BYTE)
             throw new IllegalArgumentException("Image data type is not byte"); */
 
-        final int imageWidth = image.getWidth();
         final int imageHeight = image.getHeight();
-        final Rectangle stripRect = new Rectangle();
 
         final ProgressIndicator indicator = ProgressIndicatorFactory.create(thread, imageHeight);
 
         final int bands = image.getSampleModel().getNumBands();
 
-        final int stripHeight = 8;
-        final WritableRaster rasterBuffer = Raster.createInterleavedRaster(
-                DataBuffer.TYPE_BYTE, imageWidth, stripHeight, bands * imageWidth, bands,
-                LCImageLibUtil.bandOffset(bands), new Point(0, 0));
-
-        for (int y = 0; y < imageHeight; y += stripHeight) {
-            if (thread != null && thread.isCanceled()) {
-                return;
-            }
-
-            final int currentStripHeight = Math.min(stripHeight, imageHeight - y);
-            stripRect.setBounds(0, y, imageWidth, currentStripHeight);
-
-            final WritableRaster raster = (WritableRaster) rasterBuffer.createTranslatedChild(0, y);
-
-            // Prefetch tiles, uses all CPUs
-            if (image instanceof PlanarImage) {
-                final PlanarImage planarImage = (PlanarImage) image;
-                planarImage.getTiles(planarImage.getTileIndices(raster.getBounds()));
-            }
-            image.copyData(raster);
-
-            final ComponentSampleModel csm = (ComponentSampleModel) raster.getSampleModel();
-            final int offset = LCImageLibUtil.min(csm.getBandOffsets());
-
-            final DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
-
-            if (bands == 4 /* CMYK */) {
-                //
-                // A long-standing Photoshop bug is that CMYK images are stored
-                // inverted.  To be compatible with Photoshop, we have to
-                // invert CMYK images too.
-                //
-                LCImageLibUtil.invert(db);
-            }
-
-            final int lineStride = csm.getScanlineStride();
-            final int written = writeScanLines(db.getData(), offset, currentStripHeight,
-                    lineStride);
-            if (written != currentStripHeight) {
-                throw new LCImageLibException(
-                        "something is wrong: " + written + " != " + currentStripHeight);
+        final long start = System.currentTimeMillis();
+        final StripPipeline pipeline =
+                new StripPipeline(image, DataBuffer.TYPE_BYTE);
+        try {
+            StripPipeline.Strip strip;
+            while ((strip = pipeline.next()) != null) {
+                if (thread != null && thread.isCanceled()) {
+                    return;
+                }
+
+                final WritableRaster raster = strip.raster;
+                final ComponentSampleModel csm = (ComponentSampleModel) raster.getSampleModel();
+                final int offset = LCImageLibUtil.min(csm.getBandOffsets());
+
+                final DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+
+                if (bands == 4 /* CMYK */) {
+                    //
+                    // A long-standing Photoshop bug is that CMYK images are stored
+                    // inverted.  To be compatible with Photoshop, we have to
+                    // invert CMYK images too.
+                    //
+                    LCImageLibUtil.invert(db);
+                }
+
+                final int lineStride = csm.getScanlineStride();
+                final int written = writeScanLines(db.getData(), offset, strip.height,
+                        lineStride);
+                pipeline.release(strip);
+                if (written != strip.height) {
+                    throw new LCImageLibException(
+                            "something is wrong: " + written + " != " + strip.height);
+                }
+                indicator.incrementBy(strip.height);
             }
-            indicator.incrementBy(currentStripHeight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LCImageLibException("JPEG export interrupted");
+        } finally {
+            pipeline.close();
+            pipeline.logStalls("JPEG export", start);
         }
         indicator.setIndeterminate(true);
     }
@@ -376,7 +376,27 @@ public final class LCTIFFReader extends LCTIFFCommon implements LCImageReader {
 
         public TIFFImage(String path)
                 throws LCImageLibException, UnsupportedEncodingException {
+            this(path, 0);
+        }
+
+        /**
+         * Opens the image in the given directory of a TIFF file, such as one
+         * of the reduced resolution levels written by
+         * {@link LCTIFFWriter#putImagePyramid}.
+         *
+         * @param path The path of the TIFF file.
+         * @param directory The index of the directory, starting at 0.
+         */
+        public TIFFImage(String path, int directory)
+                throws LCImageLibException, UnsupportedEncodingException {
             reader = new LCTIFFReader(path);
+            for (int i = 0; i < directory; i++) {
+                if (!reader.nextDirectory()) {
+                    reader.dispose();
+                    throw new LCImageLibException(
+                            "No directory " + directory + " in " + path);
+                }
+            }
             tf = reader.getFormat();
             final ImageLayout layout = new ImageLayout(0, 0, tf.imageWidth, tf.imageHeight,
                     0, 0,
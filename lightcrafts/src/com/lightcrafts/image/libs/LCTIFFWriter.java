@@ -21,13 +21,11 @@ import com.lightcrafts.utils.Version;
 import com.lightcrafts.utils.file.OrderableRandomAccessFile;
 import com.lightcrafts.utils.thread.ProgressThread;
 import com.lightcrafts.utils.xml.XMLUtil;
-import java.awt.Point;
 import java.awt.color.ICC_Profile;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferUShort;
-import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
@@ -44,6 +42,7 @@ import static com.lightcrafts.image.metadata.EXIFTags.EXIF_GPS_IFD_POINTER;
 import static com.lightcrafts.image.metadata.EXIFTags.EXIF_IFD_POINTER;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_ARTIST;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_BITS_PER_SAMPLE;
+import static com.lightcrafts.image.metadata.TIFFTags.TIFF_COMPRESSION;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_COPYRIGHT;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_DATE_TIME;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_DOCUMENT_NAME;
@@ -57,6 +56,7 @@ import static com.lightcrafts.image.metadata.TIFFTags.TIFF_INK_NAMES;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_MAKE;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_MODEL;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_MS_RATING;
+import static com.lightcrafts.image.metadata.TIFFTags.TIFF_NEW_SUBFILE_TYPE;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_PAGE_NAME;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_PHOTOMETRIC_INTERPRETATION;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_PHOTOSHOP_IMAGE_RESOURCES;
@@ -65,6 +65,7 @@ import static com.lightcrafts.image.metadata.TIFFTags.TIFF_RESOLUTION_UNIT;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_RICH_TIFF_IPTC;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_ROWS_PER_STRIP;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_SAMPLES_PER_PIXEL;
+import static com.lightcrafts.image.metadata.TIFFTags.TIFF_SAMPLE_FORMAT;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_SOFTWARE;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_TARGET_PRINTER;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_TILE_LENGTH;
@@ -72,6 +73,7 @@ import static com.lightcrafts.image.metadata.TIFFTags.TIFF_TILE_WIDTH;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_XMP_PACKET;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_X_RESOLUTION;
 import static com.lightcrafts.image.metadata.TIFFTags.TIFF_Y_RESOLUTION;
+import static com.lightcrafts.image.types.TIFFConstants.TIFF_COMPRESSION_NONE;
 import static com.lightcrafts.image.types.TIFFConstants.TIFF_FIELD_TYPE_ULONG;
 import static com.lightcrafts.image.types.TIFFConstants.TIFF_HEADER_SIZE;
 import static com.lightcrafts.image.types.TIFFConstants.TIFF_INLINE_VALUE_MAX_SIZE;
@@ -81,7 +83,9 @@ import static com.lightcrafts.image.types.TIFFConstants.TIFF_PHOTOMETRIC_BLACK_I
 import static com.lightcrafts.image.types.TIFFConstants.TIFF_PHOTOMETRIC_RGB;
 import static com.lightcrafts.image.types.TIFFConstants.TIFF_PHOTOMETRIC_SEPARATED;
 import static com.lightcrafts.image.types.TIFFConstants.TIFF_PLANAR_CONFIGURATION_CHUNKY;
+import static com.lightcrafts.image.types.TIFFConstants.TIFF_SAMPLE_FORMAT_UINT;
 import static com.lightcrafts.image.types.TIFFConstants.TIFF_SHORT_SIZE;
+import static com.lightcrafts.image.types.TIFFConstants.TIFF_SUBFILE_TYPE_REDUCED_RESOLUTION;
 
 /**
  * An <code>LCTIFFWriter</code> is a Java wrapper around the LibTIFF library.
@@ -211,6 +215,41 @@ public final class LCTIFFWriter extends LCTIFFCommon {
         }
     }
 
+    /**
+     * Puts a TIFF image as tiles followed by reduced resolution versions of it, each in a
+     * directory of its own, so that a reader can pick the level it needs.  Fields set before this
+     * call apply only to the first directory, except for the compression and the ICC profile: a
+     * new directory starts out empty, so those are set again for each level, and the fields that
+     * describe the pixels are set for each level as it is written.
+     *
+     * @param levels The full resolution image followed by the reduced resolution ones.
+     * @param thread The thread that's doing the putting.
+     */
+    public void putImagePyramid(RenderedImage[] levels, ProgressThread thread)
+            throws IOException, LCImageLibException {
+        try {
+            for (int level = 0; level < levels.length; level++) {
+                if (level > 0) {
+                    if (!writeDirectory()) {
+                        throw new LCImageLibException(
+                                "Could not write directory " + level + " of " + m_fileName);
+                    }
+                    setIntField(TIFF_NEW_SUBFILE_TYPE, TIFF_SUBFILE_TYPE_REDUCED_RESOLUTION);
+                    setCompression(m_compression);
+                    if (m_iccProfile != null) {
+                        setByteField(TIFF_ICC_PROFILE, m_iccProfile);
+                    }
+                }
+                writeImageTiled(levels[level], thread);
+                if (thread != null && thread.isCanceled()) {
+                    return;
+                }
+            }
+        } finally {
+            dispose();
+        }
+    }
+
     /**
      * Puts the given {@link ImageMetadata} into the TIFF file. This <i>must</i> be called only once
      * and prior to {@link #putImageStriped(RenderedImage, ProgressThread)}.
@@ -351,7 +390,8 @@ public final class LCTIFFWriter extends LCTIFFCommon {
      */
     public void setICCProfile(ICC_Profile iccProfile)
             throws LCImageLibException {
-        setByteField(TIFF_ICC_PROFILE, iccProfile.getData());
+        m_iccProfile = iccProfile.getData();
+        setByteField(TIFF_ICC_PROFILE, m_iccProfile);
     }
 
     /**
@@ -371,6 +411,24 @@ public final class LCTIFFWriter extends LCTIFFCommon {
     public native boolean setIntField(int tagID, int value)
             throws LCImageLibException;
 
+    /**
+     * Sets the compression of the image.  Deflate and LZW are done by {@link TIFFCompressor},
+     * several strips or tiles at once; other schemes are left to LibTIFF.  Use this rather than
+     * setting the <code>TIFF_COMPRESSION</code> field directly.
+     *
+     * @param compression One of the <code>TIFF_COMPRESSION_</code> constants of {@link
+     * TIFFConstants}.
+     * @return Returns <code>true</code> only if the compression was set.
+     */
+    public boolean setCompression(int compression)
+            throws LCImageLibException {
+        if (!setIntField(TIFF_COMPRESSION, compression)) {
+            return false;
+        }
+        m_compression = compression;
+        return true;
+    }
+
     /**
      * Sets the value of the given TIFF string metadata field.
      *
@@ -512,7 +570,16 @@ public final class LCTIFFWriter extends LCTIFFCommon {
             throws LCImageLibException;
 
     /**
-     * Writes a TIFF image as strips.
+     * Writes the current directory so that another one can follow it.
+     *
+     * @return Returns <code>true</code> only if the directory was written.
+     */
+    private native boolean writeDirectory();
+
+    /**
+     * Writes a TIFF image as strips.  Strips are rendered ahead by a {@link StripPipeline} while
+     * the current one is being written and, if the compression is one {@link TIFFCompressor} does,
+     * compressed by the rendering threads too.
      *
      * @param image The image to put.
      * @param thread The thread that's doing the writing.
@@ -525,6 +592,12 @@ public final class LCTIFFWriter extends LCTIFFCommon {
         final int imageWidth = image.getWidth();
         final int imageHeight = image.getHeight();
 
+        // Allocate the strip buffers in the type that gets written
+        final int type = (dataType == DataBuffer.TYPE_BYTE)
+                ? DataBuffer.TYPE_BYTE
+                : DataBuffer.TYPE_USHORT;
+        final int stripHeight = StripPipeline.getStripHeight(image, type);
+
         setIntField(TIFF_BITS_PER_SAMPLE, dataType == DataBuffer.TYPE_BYTE ? 8 : 16);
         setIntField(TIFF_IMAGE_WIDTH, imageWidth);
         setIntField(TIFF_IMAGE_LENGTH, imageHeight);
@@ -534,49 +607,59 @@ public final class LCTIFFWriter extends LCTIFFCommon {
                         bands == 3 ? TIFF_PHOTOMETRIC_RGB :
                                 TIFF_PHOTOMETRIC_BLACK_IS_ZERO);
         setIntField(TIFF_PLANAR_CONFIGURATION, TIFF_PLANAR_CONFIGURATION_CHUNKY);
-        final int stripHeight = 32;
         setIntField(TIFF_ROWS_PER_STRIP, stripHeight);
         setIntField(TIFF_SAMPLES_PER_PIXEL, bands);
 
         final ProgressIndicator indicator = ProgressIndicatorFactory.create(thread, imageHeight);
 
-        // Allocate the output buffer only once
-        final int type = (dataType == DataBuffer.TYPE_BYTE)
-                ? DataBuffer.TYPE_BYTE
-                : DataBuffer.TYPE_USHORT;
-        final WritableRaster outBuffer = Raster.createInterleavedRaster(
-                type, imageWidth, stripHeight, bands * imageWidth, bands,
-                LCImageLibUtil.bandOffset(bands), new Point(0, 0));
-
-        for (int y = 0, stripIndex = 0; y < imageHeight; y += stripHeight, stripIndex++) {
-            if (thread != null && thread.isCanceled()) {
-                return;
-            }
-
-            final int currentStripHeight = Math.min(stripHeight, imageHeight - y);
+        final int compression = m_compression;
+        final StripPipeline.Transform compressor = TIFFCompressor.isSupported(compression)
+                ? raster -> new byte[][]{
+                        TIFFCompressor.compress(compression, TIFFCompressor.getSamples(
+                                raster, raster.getMinX(), raster.getMinY(),
+                                raster.getWidth(), raster.getHeight(),
+                                raster.getWidth(), raster.getHeight()))
+                }
+                : null;
 
-            // Create a child raster of the out buffer for the current strip
-            final WritableRaster raster =
-                    outBuffer.createWritableChild(0, 0, imageWidth, currentStripHeight, 0, y, null);
+        final long start = System.currentTimeMillis();
+        final StripPipeline pipeline = new StripPipeline(image, type, stripHeight, compressor);
+        try {
+            StripPipeline.Strip strip;
+            while ((strip = pipeline.next()) != null) {
+                if (thread != null && thread.isCanceled()) {
+                    return;
+                }
 
-            // Prefetch tiles, uses all CPUs
-            if (image instanceof PlanarImage) {
-                final PlanarImage planarImage = (PlanarImage) image;
-                planarImage.getTiles(planarImage.getTileIndices(raster.getBounds()));
+                if (strip.parts != null) {
+                    final byte[] compressed = strip.parts[0];
+                    checkWritten(writeRawStrip(strip.index, compressed, compressed.length),
+                            compressed.length);
+                } else {
+                    final ComponentSampleModel csm =
+                            (ComponentSampleModel) strip.raster.getSampleModel();
+                    final int offset = LCImageLibUtil.min(csm.getBandOffsets());
+                    writeStrip(dataType, bands, imageWidth, strip.index, strip.height,
+                            strip.raster, offset);
+                }
+                pipeline.release(strip);
+                indicator.incrementBy(strip.height);
             }
-            image.copyData(raster);
-
-            final ComponentSampleModel csm = (ComponentSampleModel) raster.getSampleModel();
-            final int offset = LCImageLibUtil.min(csm.getBandOffsets());
-
-            writeStrip(dataType, bands, imageWidth, stripIndex, currentStripHeight, raster, offset);
-            indicator.incrementBy(currentStripHeight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LCImageLibException("TIFF export interrupted");
+        } finally {
+            pipeline.close();
+            pipeline.logStalls("TIFF export", start);
         }
         indicator.setIndeterminate(true);
     }
 
     /**
-     * Writes a TIFF image as tiles.
+     * Writes a TIFF image as tiles, a row of tiles at a time and in TIFF order.  Rows are rendered
+     * ahead by a {@link StripPipeline} while the current one is being written, and the rendering
+     * threads cut them into tiles and compress those if the compression is one {@link
+     * TIFFCompressor} does.
      *
      * @param image The image to put.
      * @param thread The thread that's doing the writing.
@@ -585,40 +668,91 @@ public final class LCTIFFWriter extends LCTIFFCommon {
             ProgressThread thread)
             throws LCImageLibException {
         final int dataType = image.getSampleModel().getDataType();
+        final int tileWidth = image.getTileWidth();
+        final int tileHeight = image.getTileHeight();
 
         setIntField(TIFF_IMAGE_WIDTH, image.getWidth());
         setIntField(TIFF_IMAGE_LENGTH, image.getHeight());
         setIntField(TIFF_BITS_PER_SAMPLE, dataType == DataBuffer.TYPE_BYTE ? 8 : 16);
         setIntField(TIFF_SAMPLES_PER_PIXEL, image.getSampleModel().getNumBands());
 
+        setIntField(TIFF_SAMPLE_FORMAT, TIFF_SAMPLE_FORMAT_UINT);
         setIntField(TIFF_PLANAR_CONFIGURATION, TIFF_PLANAR_CONFIGURATION_CHUNKY);
         setIntField(TIFF_PHOTOMETRIC_INTERPRETATION, TIFF_PHOTOMETRIC_RGB);
 
-        setIntField(TIFF_TILE_WIDTH, image.getTileWidth());
-        setIntField(TIFF_TILE_LENGTH, image.getTileHeight());
+        setIntField(TIFF_TILE_WIDTH, tileWidth);
+        setIntField(TIFF_TILE_LENGTH, tileHeight);
 
         final ProgressIndicator indicator =
                 ProgressIndicatorFactory
                         .create(thread, image.getNumXTiles() * image.getNumYTiles());
 
-        for (int tileX = 0; tileX < image.getNumXTiles(); tileX++) {
-            for (int tileY = 0; tileY < image.getNumYTiles(); tileY++) {
+        final int type = (dataType == DataBuffer.TYPE_BYTE)
+                ? DataBuffer.TYPE_BYTE
+                : DataBuffer.TYPE_USHORT;
+        final int compression = m_compression;
+        final boolean isCompressed = TIFFCompressor.isSupported(compression);
+        final int numXTiles = image.getNumXTiles();
+
+        // Tiles at the edges are padded to full size
+        final StripPipeline.Transform tiler = raster -> {
+            final byte[][] tiles = new byte[numXTiles][];
+            for (int i = 0; i < numXTiles; i++) {
+                final int x = raster.getMinX() + i * tileWidth;
+                final int width = Math.min(tileWidth, raster.getMinX() + raster.getWidth() - x);
+                final byte[] samples = TIFFCompressor.getSamples(
+                        raster, x, raster.getMinY(), width, raster.getHeight(),
+                        tileWidth, tileHeight);
+                tiles[i] = isCompressed
+                        ? TIFFCompressor.compress(compression, samples)
+                        : samples;
+            }
+            return tiles;
+        };
+
+        final long start = System.currentTimeMillis();
+        final StripPipeline pipeline = new StripPipeline(image, type, tileHeight, tiler);
+        try {
+            StripPipeline.Strip strip;
+            while ((strip = pipeline.next()) != null) {
                 if (thread != null && thread.isCanceled()) {
                     return;
                 }
 
-                final int tileIndex =
-                        computeTile(tileX * image.getTileWidth(), tileY * image.getTileHeight(),
-                                0, 0);
-                final Raster tile = image.getTile(tileX, tileY);
-
-                writeTile(dataType, tileIndex, tile);
-                indicator.incrementBy(1);
+                final int y = strip.index * tileHeight;
+                for (int i = 0; i < numXTiles; i++) {
+                    final int tileIndex = computeTile(i * tileWidth, y, 0, 0);
+                    final byte[] tile = strip.parts[i];
+                    checkWritten(isCompressed
+                                    ? writeRawTile(tileIndex, tile, tile.length)
+                                    : writeTileByte(tileIndex, tile, 0, tile.length),
+                            tile.length);
+                }
+                pipeline.release(strip);
+                indicator.incrementBy(numXTiles);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LCImageLibException("TIFF export interrupted");
+        } finally {
+            pipeline.close();
+            pipeline.logStalls("TIFF export", start);
         }
         indicator.setIndeterminate(true);
     }
 
+    /**
+     * Checks that all of a strip or tile was written.
+     *
+     * @param written The number of bytes written.
+     * @param size The number of bytes to write.
+     */
+    private static void checkWritten(int written, int size) throws LCImageLibException {
+        if (written != size) {
+            throw new LCImageLibException("something is wrong: " + written + " != " + size);
+        }
+    }
+
     private void writeStrip(int dataType, int bands, int imageWidth, int stripIndex,
             int currentStripHeight, WritableRaster raster, int offset)
             throws LCImageLibException {
@@ -641,26 +775,27 @@ public final class LCTIFFWriter extends LCTIFFCommon {
         }
     }
 
-    private void writeTile(int dataType, int tileIndex, Raster tile)
-            throws LCImageLibException {
-        final DataBuffer db = tile.getDataBuffer();
-        final int tileSize;
-        final int written;
-
-        if (dataType == DataBuffer.TYPE_BYTE) {
-            final byte[] buffer = ((DataBufferByte) db).getData();
-            tileSize = buffer.length;
-            written = writeTileByte(tileIndex, buffer, 0, tileSize);
-        } else {
-            final short[] buffer = ((DataBufferUShort) db).getData();
-            tileSize = 2 * buffer.length;
-            written = writeTileShort(tileIndex, buffer, 0, tileSize);
-        }
+    /**
+     * Writes an already compressed strip to the TIFF image.
+     *
+     * @param stripIndex The index of the strip to write.
+     * @param buf The compressed strip.
+     * @param size The size of the compressed strip.
+     * @return Returns the number of bytes written or -1 if there was an error.
+     */
+    private native int writeRawStrip(int stripIndex, byte[] buf, int size)
+            throws LCImageLibException;
 
-        if (written != tileSize) {
-            throw new LCImageLibException("something is wrong: " + written + " != " + tileSize);
-        }
-    }
+    /**
+     * Writes an already compressed tile to the TIFF image.
+     *
+     * @param tileIndex The index of the tile to write.
+     * @param buf The compressed tile.
+     * @param size The size of the compressed tile.
+     * @return Returns the number of bytes written or -1 if there was an error.
+     */
+    private native int writeRawTile(int tileIndex, byte[] buf, int size)
+            throws LCImageLibException;
 
     /**
      * Encodes and writes a strip to the TIFF image.
@@ -734,6 +869,16 @@ public final class LCTIFFWriter extends LCTIFFCommon {
      */
     private final String m_fileName;
 
+    /**
+     * The compression set with {@link #setCompression(int)}.
+     */
+    private int m_compression = TIFF_COMPRESSION_NONE;
+
+    /**
+     * The ICC profile set with {@link #setICCProfile(ICC_Profile)} or <code>null</code> if none.
+     */
+    private byte[] m_iccProfile;
+
     /**
      * Flag used to remember whether the image has EXIF metadata.
      */
@@ -0,0 +1,371 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.image.libs;
+
+import com.lightcrafts.jai.utils.LCTileScheduler;
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import javax.media.jai.PlanarImage;
+
+/**
+ * A <code>StripPipeline</code> renders an image in horizontal strips ahead of an encoder that
+ * consumes them in order.
+ * <p>
+ * Strips are rendered by a few threads at once, each owning one buffer of a small ring, so the
+ * tile scheduler always has the tiles of the next strips to work on while the encoder is busy with
+ * the current one.  A thread that has rendered its strip waits for the encoder to take it before
+ * rendering its next one, and the encoder waits for strips that aren't rendered yet; both waits
+ * are timed so that it shows which side holds the export back.
+ * <p>
+ * The ring is kept within a memory budget, and a {@link Transform} can do part of the encoding,
+ * e.g. compression, in the rendering threads.
+ */
+final class StripPipeline implements AutoCloseable {
+
+    /**
+     * The most strips rendered ahead of the encoder.
+     */
+    static final int RING_SIZE = Math.max(2, Integer.getInteger("lightcrafts.export.strips", 3));
+
+    /**
+     * The memory the ring may use, in bytes.
+     */
+    static final long MAX_BYTES =
+            Math.max(16, Long.getLong("lightcrafts.export.megabytes", 256)) << 20;
+
+    /**
+     * Whether to print the stall times of every export, to see which side holds exports back.
+     */
+    static final boolean LOG_STALLS = Boolean.getBoolean("lightcrafts.export.stalls");
+
+    /**
+     * Strips are at most this high, so that untiled images don't get buffered whole.
+     */
+    private static final int MAX_STRIP_HEIGHT = 512;
+
+    /**
+     * Work done on each strip in the rendering thread right after rendering it.
+     */
+    interface Transform {
+        /**
+         * Transforms a strip.
+         *
+         * @param raster The strip's pixels.
+         * @return Returns the parts of the strip as the encoder wants them.
+         */
+        byte[][] transform(Raster raster);
+    }
+
+    /**
+     * One rendered strip of the image.
+     */
+    static final class Strip {
+        /**
+         * The strip's pixels, at the strip's position in the image.
+         */
+        final WritableRaster raster;
+
+        /** The index of the strip from the top. */
+        final int index;
+
+        /** The first line of the strip. */
+        final int y;
+
+        /** The number of lines of the strip. */
+        final int height;
+
+        /**
+         * The result of the {@link Transform}, if any.
+         */
+        final byte[][] parts;
+
+        private Strip(WritableRaster raster, int index, int y, int height, byte[][] parts) {
+            this.raster = raster;
+            this.index = index;
+            this.y = y;
+            this.height = height;
+            this.parts = parts;
+        }
+    }
+
+    /**
+     * Gets the height of strips that are rendered efficiently: they're as high as the image's tiles
+     * so that each tile is computed once, unless that's too high to buffer a few of them.
+     *
+     * @param image The image to render.
+     * @param dataType The data type of the strip buffers.
+     * @return Returns said height.
+     */
+    static int getStripHeight(RenderedImage image, int dataType) {
+        final long maxHeight = MAX_BYTES / (RING_SIZE * getLineSize(image, dataType));
+        return (int) Math.max(8, Math.min(Math.min(image.getTileHeight(), MAX_STRIP_HEIGHT),
+                                          maxHeight / 8 * 8));
+    }
+
+    /**
+     * Starts rendering strips of the default height.
+     *
+     * @param image The image to render.
+     * @param dataType The data type of the strip buffers.
+     */
+    StripPipeline(RenderedImage image, int dataType) {
+        this(image, dataType, getStripHeight(image, dataType), null);
+    }
+
+    /**
+     * Starts rendering strips, as many ahead as fit the memory budget.
+     *
+     * @param image The image to render.
+     * @param dataType The data type of the strip buffers.
+     * @param stripHeight The height of the strips.
+     * @param transform The {@link Transform} of the strips, or <code>null</code> for none.
+     */
+    StripPipeline(RenderedImage image, int dataType, int stripHeight, Transform transform) {
+        this(image, dataType, stripHeight, (int) Math.min(
+                RING_SIZE,
+                // transformed strips may be as large as rendered ones
+                MAX_BYTES / ((transform != null ? 2 : 1)
+                             * stripHeight * getLineSize(image, dataType))
+        ), transform);
+    }
+
+    /**
+     * Starts rendering strips.
+     *
+     * @param image The image to render.
+     * @param dataType The data type of the strip buffers.
+     * @param stripHeight The height of the strips.
+     * @param ringSize The number of strips rendered ahead.
+     * @param transform The {@link Transform} of the strips, or <code>null</code> for none.
+     */
+    StripPipeline(RenderedImage image, int dataType, int stripHeight, int ringSize,
+            Transform transform) {
+        m_image = image;
+        m_transform = transform;
+        m_minY = image.getMinY();
+        m_height = image.getHeight();
+        m_stripHeight = stripHeight;
+        m_stripCount = (m_height + m_stripHeight - 1) / m_stripHeight;
+        m_ringSize = Math.max(1, Math.min(ringSize, m_stripCount));
+        m_slots = new Strip[m_ringSize];
+
+        final int width = image.getWidth();
+        final int bands = image.getSampleModel().getNumBands();
+        m_buffers = new WritableRaster[m_ringSize];
+        for (int i = 0; i < m_ringSize; i++) {
+            m_buffers[i] = Raster.createInterleavedRaster(
+                    dataType, width, m_stripHeight, bands * width, bands,
+                    LCImageLibUtil.bandOffset(bands), new Point(0, 0));
+        }
+
+        // Strips are rendered in the lane of the thread that exports
+        final LCTileScheduler.Lane lane = LCTileScheduler.getLane();
+        m_renderers = new Thread[m_ringSize];
+        for (int i = 0; i < m_ringSize; i++) {
+            final int slot = i;
+            m_renderers[i] = new Thread(() -> {
+                final LCTileScheduler.Lane previousLane = LCTileScheduler.setLane(lane);
+                try {
+                    render(slot);
+                } finally {
+                    LCTileScheduler.setLane(previousLane);
+                }
+            }, "Strip Renderer " + i);
+            m_renderers[i].setDaemon(true);
+            m_renderers[i].start();
+        }
+    }
+
+    /**
+     * Gets the next strip, waiting for it to be rendered if need be.  The strip must be handed
+     * back with {@link #release(Strip)} before the one after it can be had.
+     *
+     * @return Returns the strip or <code>null</code> if all strips have been had.
+     */
+    Strip next() throws InterruptedException {
+        if (m_nextStrip == m_stripCount) {
+            return null;
+        }
+        final int slot = m_nextStrip % m_ringSize;
+        final long start = System.nanoTime();
+        synchronized (this) {
+            while (m_slots[slot] == null && m_failure == null) {
+                wait();
+            }
+            m_encodeStall += System.nanoTime() - start;
+            if (m_failure != null) {
+                if (m_failure instanceof RuntimeException) {
+                    throw (RuntimeException) m_failure;
+                }
+                throw (Error) m_failure;
+            }
+            m_nextStrip++;
+            return m_slots[slot];
+        }
+    }
+
+    /**
+     * Hands back a strip from {@link #next()} so that its buffer can be rendered into again.
+     *
+     * @param strip The strip.
+     */
+    synchronized void release(Strip strip) {
+        final int slot = strip.index % m_ringSize;
+        m_slots[slot] = null;
+        notifyAll();
+    }
+
+    /**
+     * Stops rendering, whether or not all strips have been had, and waits for the rendering
+     * threads to finish.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            m_closed = true;
+            notifyAll();
+        }
+        for (Thread renderer : m_renderers) {
+            try {
+                renderer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the time the encoder spent waiting for strips.
+     *
+     * @return Returns said time in milliseconds.
+     */
+    synchronized long getEncodeStallMillis() {
+        return m_encodeStall / 1000000;
+    }
+
+    /**
+     * Gets the time the rendering threads spent waiting for the encoder to take their strips,
+     * summed over the threads.
+     *
+     * @return Returns said time in milliseconds.
+     */
+    synchronized long getRenderStallMillis() {
+        return m_renderStall / 1000000;
+    }
+
+    /**
+     * Prints the stall times if {@link #LOG_STALLS} is set.
+     *
+     * @param what What was exported, e.g. "JPEG export".
+     * @param startMillis When the export started.
+     */
+    void logStalls(String what, long startMillis) {
+        if (LOG_STALLS) {
+            System.out.println(what + ": " + this + " in "
+                               + (System.currentTimeMillis() - startMillis) + "ms");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return m_stripCount + " strips of " + m_stripHeight + " lines, " + m_ringSize
+               + " ahead; render stall " + getRenderStallMillis()
+               + "ms, encode stall " + getEncodeStallMillis() + "ms";
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    /**
+     * Gets the size of one line of a strip buffer.
+     */
+    private static long getLineSize(RenderedImage image, int dataType) {
+        return (long) image.getWidth() * image.getSampleModel().getNumBands()
+               * DataBuffer.getDataTypeSize(dataType) / 8;
+    }
+
+    /**
+     * Renders every strip that goes into a slot of the ring.
+     *
+     * @param slot The slot.
+     */
+    private void render(int slot) {
+        try {
+            for (int strip = slot; strip < m_stripCount; strip += m_ringSize) {
+                final long start = System.nanoTime();
+                synchronized (this) {
+                    while (m_slots[slot] != null && !m_closed) {
+                        wait();
+                    }
+                    m_renderStall += System.nanoTime() - start;
+                    if (m_closed) {
+                        return;
+                    }
+                }
+
+                final int y = m_minY + strip * m_stripHeight;
+                final int height = Math.min(m_stripHeight, m_minY + m_height - y);
+                final WritableRaster raster = m_buffers[slot].createWritableChild(
+                        0, 0, m_image.getWidth(), height, m_image.getMinX(), y, null);
+
+                // Ask for all the tiles at once, the tile scheduler computes them in parallel
+                if (m_image instanceof PlanarImage) {
+                    final PlanarImage planarImage = (PlanarImage) m_image;
+                    planarImage.getTiles(planarImage.getTileIndices(raster.getBounds()));
+                }
+                m_image.copyData(raster);
+                final byte[][] parts =
+                        m_transform != null ? m_transform.transform(raster) : null;
+
+                synchronized (this) {
+                    m_slots[slot] = new Strip(raster, strip, y, height, parts);
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            // ignore
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                if (m_failure == null) {
+                    m_failure = e;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private final RenderedImage m_image;
+    private final Transform m_transform;
+    private final int m_minY;
+    private final int m_height;
+    private final int m_stripHeight;
+    private final int m_stripCount;
+    private final int m_ringSize;
+
+    /**
+     * The buffer of each slot of the ring.
+     */
+    private final WritableRaster[] m_buffers;
+
+    /**
+     * The rendered strip in each slot of the ring, or <code>null</code> while the slot's next strip
+     * is being rendered.
+     */
+    private final Strip[] m_slots;
+
+    private final Thread[] m_renderers;
+
+    /**
+     * The index of the strip {@link #next()} returns next.  Only the encoder's thread uses it.
+     */
+    private int m_nextStrip;
+
+    private boolean m_closed;
+    private Throwable m_failure;
+    private long m_encodeStall;
+    private long m_renderStall;
+}
+/* vim:set et sw=4 ts=4: */
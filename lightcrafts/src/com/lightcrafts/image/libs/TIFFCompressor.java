@@ -0,0 +1,228 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.image.libs;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static com.lightcrafts.image.types.TIFFConstants.TIFF_COMPRESSION_DEFLATE;
+import static com.lightcrafts.image.types.TIFFConstants.TIFF_COMPRESSION_LZW;
+
+/**
+ * A <code>TIFFCompressor</code> compresses strips and tiles of a TIFF image in Java, so that
+ * several of them can be compressed at once instead of one after the other by LibTIFF.  The
+ * results are written as is with {@link LCTIFFWriter}'s raw write functions.
+ * <p>
+ * Samples are laid out in the native byte order since that's the byte order of the TIFF files
+ * LibTIFF creates.
+ */
+final class TIFFCompressor {
+
+    /**
+     * Checks whether a compression scheme is one that's done here.
+     *
+     * @param compression The value of the TIFF compression tag.
+     * @return Returns <code>true</code> only for Deflate and LZW.
+     */
+    static boolean isSupported(int compression) {
+        return compression == TIFF_COMPRESSION_DEFLATE || compression == TIFF_COMPRESSION_LZW;
+    }
+
+    /**
+     * Compresses samples.
+     *
+     * @param compression Either {@link com.lightcrafts.image.types.TIFFConstants#TIFF_COMPRESSION_DEFLATE}
+     * or {@link com.lightcrafts.image.types.TIFFConstants#TIFF_COMPRESSION_LZW}.
+     * @param data The samples as gotten from {@link #getSamples}.
+     * @return Returns the compressed samples.
+     */
+    static byte[] compress(int compression, byte[] data) {
+        switch (compression) {
+            case TIFF_COMPRESSION_DEFLATE:
+                return deflate(data);
+            case TIFF_COMPRESSION_LZW:
+                return lzw(data);
+            default:
+                throw new IllegalArgumentException("Unsupported compression " + compression);
+        }
+    }
+
+    /**
+     * Gets the samples of part of a raster as bytes, padding them with zeros to a given size as
+     * TIFF requires for tiles at the right and bottom edges.
+     *
+     * @param raster The raster, whose data type is either byte or unsigned short.
+     * @param x The left side of the part.
+     * @param y The top of the part.
+     * @param width The width of the part.
+     * @param height The height of the part.
+     * @param paddedWidth The width to pad to.
+     * @param paddedHeight The height to pad to.
+     * @return Returns the samples, pixel-interleaved, a row at a time.
+     */
+    static byte[] getSamples(Raster raster, int x, int y, int width, int height,
+            int paddedWidth, int paddedHeight) {
+        final int bands = raster.getNumBands();
+        final boolean isShort = raster.getTransferType() != DataBuffer.TYPE_BYTE;
+        final int sampleSize = isShort ? 2 : 1;
+        final int rowSize = bands * width * sampleSize;
+        final int paddedRowSize = bands * paddedWidth * sampleSize;
+        final byte[] samples = new byte[paddedRowSize * paddedHeight];
+
+        if (isShort) {
+            final short[] row = new short[bands * width];
+            final ByteBuffer buf = ByteBuffer.wrap(samples).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < height; i++) {
+                raster.getDataElements(x, y + i, width, 1, row);
+                buf.position(i * paddedRowSize);
+                buf.asShortBuffer().put(row);
+            }
+        } else if (width == paddedWidth) {
+            final byte[] rows = (byte[]) raster.getDataElements(x, y, width, height, null);
+            System.arraycopy(rows, 0, samples, 0, rowSize * height);
+        } else {
+            final byte[] row = new byte[rowSize];
+            for (int i = 0; i < height; i++) {
+                raster.getDataElements(x, y + i, width, 1, row);
+                System.arraycopy(row, 0, samples, i * paddedRowSize, rowSize);
+            }
+        }
+        return samples;
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    /**
+     * Compresses data with zlib, the same as LibTIFF's default Deflate quality.
+     */
+    private static byte[] deflate(byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[data.length / 2 + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static final int LZW_CLEAR = 256;
+    private static final int LZW_EOI = 257;
+    private static final int LZW_FIRST = 258;
+    private static final int LZW_MIN_BITS = 9;
+
+    /**
+     * The code after which the table is full and has to be cleared.
+     */
+    private static final int LZW_LAST = 4093;
+
+    /**
+     * The size of the hash table of strings; a power of 2 about twice the number of codes.
+     */
+    private static final int LZW_HASH_SIZE = 1 << 13;
+
+    /**
+     * Compresses data with the TIFF flavor of LZW: codes are written most significant bit first
+     * and get wider one code early.
+     */
+    private static byte[] lzw(byte[] data) {
+        final BitWriter out = new BitWriter(data.length / 2 + 64);
+        final int[] keys = new int[LZW_HASH_SIZE];
+        final short[] codes = new short[LZW_HASH_SIZE];
+        Arrays.fill(keys, -1);
+
+        int bits = LZW_MIN_BITS;
+        int nextCode = LZW_FIRST;
+        out.put(LZW_CLEAR, bits);
+        if (data.length == 0) {
+            out.put(LZW_EOI, bits);
+            return out.toByteArray();
+        }
+
+        int prefix = data[0] & 0xff;
+        for (int i = 1; i < data.length; i++) {
+            final int c = data[i] & 0xff;
+            final int key = prefix << 8 | c;
+
+            // Look the string up, with linear probing
+            int h = (key * 0x9E3779B1) >>> 19;
+            while (keys[h] != -1 && keys[h] != key) {
+                h = (h + 1) & (LZW_HASH_SIZE - 1);
+            }
+            if (keys[h] == key) {
+                prefix = codes[h];
+                continue;
+            }
+
+            out.put(prefix, bits);
+            keys[h] = key;
+            codes[h] = (short) nextCode++;
+            if (nextCode > LZW_LAST) {
+                out.put(LZW_CLEAR, bits);
+                Arrays.fill(keys, -1);
+                bits = LZW_MIN_BITS;
+                nextCode = LZW_FIRST;
+            } else if (nextCode > (1 << bits) - 1) {
+                bits++;
+            }
+            prefix = c;
+        }
+
+        // The decoder adds a string for the last code as well
+        out.put(prefix, bits);
+        if (++nextCode > LZW_LAST) {
+            out.put(LZW_CLEAR, bits);
+            bits = LZW_MIN_BITS;
+        } else if (nextCode > (1 << bits) - 1) {
+            bits++;
+        }
+        out.put(LZW_EOI, bits);
+        return out.toByteArray();
+    }
+
+    /**
+     * Packs codes into bytes, most significant bit first.
+     */
+    private static final class BitWriter {
+        BitWriter(int capacity) {
+            m_buf = new byte[capacity];
+        }
+
+        void put(int code, int bits) {
+            m_bits = m_bits << bits | code;
+            m_count += bits;
+            while (m_count >= 8) {
+                m_count -= 8;
+                if (m_length == m_buf.length) {
+                    m_buf = Arrays.copyOf(m_buf, m_buf.length * 2);
+                }
+                m_buf[m_length++] = (byte) (m_bits >>> m_count);
+            }
+        }
+
+        byte[] toByteArray() {
+            if (m_count > 0) {
+                put(0, 8 - m_count);
+            }
+            return Arrays.copyOf(m_buf, m_length);
+        }
+
+        private byte[] m_buf;
+        private int m_length;
+        private long m_bits;
+        private int m_count;
+    }
+}
+/* vim:set et sw=4 ts=4: */
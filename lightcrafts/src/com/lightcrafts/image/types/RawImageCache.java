@@ -4,43 +4,89 @@ package com.lightcrafts.image.types;
 
 import java.awt.image.RenderedImage;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Date;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.media.jai.PlanarImage;
+import javax.media.jai.RenderedOp;
 
 import com.lightcrafts.utils.filecache.FileCache;
 import com.lightcrafts.utils.filecache.FileCacheFactory;
 import com.lightcrafts.utils.DCRaw;
-import com.lightcrafts.utils.UserCanceledException;
-import com.lightcrafts.utils.thread.ProgressThread;
+import com.lightcrafts.utils.TextUtil;
 import com.lightcrafts.image.libs.LCTIFFWriter;
 import com.lightcrafts.image.libs.LCImageLibException;
 import com.lightcrafts.image.libs.LCTIFFReader;
-import com.lightcrafts.image.metadata.TIFFTags;
-import com.lightcrafts.image.metadata.ImageMetadata;
 import com.lightcrafts.image.ImageInfo;
-import com.lightcrafts.image.BadImageFileException;
-import com.lightcrafts.image.UnknownImageTypeException;
 import com.lightcrafts.jai.JAIContext;
+import com.lightcrafts.jai.utils.Functions;
 
 /**
- * TODO.
+ * A <code>RawImageCache</code> keeps decoded raw images on disk so that
+ * opening a raw file again needs neither dcraw nor demosaicing.
+ * <p>
+ * An entry is keyed by a hash of the raw file's contents and of the decode
+ * settings, so it follows the file wherever it's copied and a file with the
+ * same name on another card can't be mistaken for it.  Each entry is a tiled
+ * TIFF file holding the image at 1:1 followed by its 1:2, 1:4 and 1:8
+ * reductions, which are handed to the editor's image pyramid along with the
+ * image.
+ * <p>
+ * Entries are written by a background thread in the order they were added.
+ * When the entries outgrow the cache's budget, the least recently used ones
+ * are removed.
  *
  * @author Fabio Riccardi [fabio@lightcrafts.com]
  */
 class RawImageCache extends Thread {
-    private static String version = "V5";
 
-    private static final class ImageToCache {
-        final String cacheKey;
-        final RenderedImage image;
+    /**
+     * Changes whenever the decoding or the layout of an entry does.
+     */
+    private static final String version = "V6";
 
-        ImageToCache(String cacheKey, RenderedImage image) {
-            this.cacheKey = cacheKey;
-            this.image = image;
-        }
-    }
+    /**
+     * The number of levels in an entry, the full resolution one included.
+     */
+    private static final int LEVELS = 4;
+
+    /**
+     * The decode settings that go into every key along with the contents.
+     */
+    private static final String settings =
+        version + ':' + DCRaw.dcrawMode.full + ":levels=" + LEVELS;
+
+    private static final String EXTENSION = ".lzr";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /**
+     * The budget for all entries, in bytes.
+     */
+    private static final long BUDGET =
+        Long.getLong( "lightcrafts.rawcache.megabytes", 4096 ) << 20;
+
+    /**
+     * The keys of recently hashed files, by path, length and modification
+     * time, so reopening a file doesn't read it all again.
+     */
+    private static final Map<String,String> hashes =
+        new LinkedHashMap<String,String>( 16, 0.75f, true ) {
+            protected boolean removeEldestEntry(
+                Map.Entry<String,String> eldest
+            ) {
+                return size() > 64;
+            }
+        };
 
     private static final RawImageCache INSTANCE;
 
@@ -49,7 +95,38 @@ class RawImageCache extends Thread {
         INSTANCE.start();
     }
 
-    private ImageToCache currentJob;
+    /**
+     * The most images waiting to be written: each holds a whole decoded raw
+     * image in memory, so when more are added the oldest is dropped.
+     */
+    private static final int MAX_QUEUED = 2;
+
+    /**
+     * The images waiting to be written, by key, in the order they were added.
+     */
+    private final LinkedHashMap<String,RenderedImage> m_queue =
+        new LinkedHashMap<String,RenderedImage>() {
+            protected boolean removeEldestEntry(
+                Map.Entry<String,RenderedImage> eldest
+            ) {
+                return size() > MAX_QUEUED;
+            }
+        };
+
+    /**
+     * The sizes of the entries on disk, by key, least recently used first.
+     */
+    private final LinkedHashMap<String,Long> m_entries =
+        new LinkedHashMap<String,Long>( 16, 0.75f, true );
+
+    private long m_size;
+
+    /**
+     * The directory of the entries or <code>null</code> if there's none.
+     */
+    private File m_dir;
+
+    private boolean m_initialized;
 
     private RawImageCache() {
         super( "RawImageCache" );
@@ -57,32 +134,60 @@ class RawImageCache extends Thread {
         setDaemon( true );
     }
 
+    /**
+     * Queues a decoded image to be written to the cache.  Adding an image
+     * for a key that's already queued replaces the queued image; adding one
+     * when {@link #MAX_QUEUED} are already waiting drops the oldest.
+     *
+     * @param cacheKey The key from {@link #getCacheKeyFor(ImageInfo)}.
+     * @param rawImage The decoded image.
+     */
     static void add( String cacheKey, RenderedImage rawImage ) {
         synchronized ( INSTANCE ) {
-            INSTANCE.currentJob = new ImageToCache( cacheKey, rawImage );
+            INSTANCE.m_queue.put( cacheKey, rawImage );
             INSTANCE.notify();
         }
     }
 
-    static String getCacheKeyFor( ImageInfo imageInfo )
-        throws BadImageFileException, IOException, UnknownImageTypeException
-    {
-        final ImageMetadata metadata = imageInfo.getMetadata();
-        Date captureDate = metadata.getCaptureDateTime();
-        if ( captureDate == null ) {
-            final RawImageInfo rawInfo = (RawImageInfo)imageInfo.getAuxiliaryInfo();
-            final DCRaw dcRaw = rawInfo.getDCRaw();
-            captureDate = dcRaw.getCaptureDateTime();
-        }
-        if ( captureDate != null ) {
-            final long time = captureDate.getTime();
-            return imageInfo.getFile().getName() + time + version;
-        }
-        return null;
+    /**
+     * Gets the key for the given raw image: a hash of the file's contents
+     * and of the decode settings.
+     *
+     * @param imageInfo The {@link ImageInfo} of the raw image.
+     * @return Returns said key.
+     */
+    static String getCacheKeyFor( ImageInfo imageInfo ) throws IOException {
+        final File file = imageInfo.getFile();
+        final String fileKey = file.getAbsolutePath() + ':' + file.length()
+            + ':' + file.lastModified();
+        synchronized ( hashes ) {
+            final String key = hashes.get( fileKey );
+            if ( key != null )
+                return key;
+        }
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance( "SHA-1" );
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw new IOException( e );
+        }
+        try ( InputStream in = new FileInputStream( file ) ) {
+            final byte[] buf = new byte[ 256 * 1024 ];
+            int n;
+            while ( (n = in.read( buf )) > 0 )
+                digest.update( buf, 0, n );
+        }
+        digest.update( settings.getBytes( "UTF-8" ) );
+        final String key = TextUtil.hexString( digest.digest() );
+        synchronized ( hashes ) {
+            hashes.put( fileKey, key );
+        }
+        return key;
     }
 
     /**
-     * Gets the {@link FileCache} that would be used for the given image.
+     * Gets the {@link FileCache} whose directory the cache lives in.
      *
      * @param imageInfo The {@link ImageInfo} to get the {@link FileCache} for.
      * @return Returns said {@link FileCache}.
@@ -91,80 +196,221 @@ class RawImageCache extends Thread {
         return FileCacheFactory.getGlobalCache();
     }
 
-    static File getCachedImageFileFor( ImageInfo imageInfo )
-        throws BadImageFileException, IOException, UnknownImageTypeException
-    {
-        final String cacheKey = getCacheKeyFor( imageInfo );
-        return cacheKey != null ? getCachedImageFileFor( cacheKey ) : null;
-    }
-
-    static File getCachedImageFileFor( String cacheKey ) {
-        final FileCache fileCache = FileCacheFactory.getGlobalCache();
-        return fileCache != null ? fileCache.getFileFor( cacheKey ) : null;
-    }
-
-    static PlanarImage getImage( ImageInfo imageInfo, ProgressThread thread )
-        throws BadImageFileException, IOException, UnknownImageTypeException,
-               UserCanceledException
-    {
-        final File imageFile = getCachedImageFileFor( imageInfo );
-        if ( imageFile != null ) {
-            final String fileName = imageFile.getAbsolutePath();
-            try {
-                /* final LCTIFFReader reader = new LCTIFFReader( fileName, true );
-                return reader.getImage( thread ); */
-                return new LCTIFFReader.TIFFImage(fileName);
-            }
-            catch ( LCImageLibException e ) {
-                // never mind, don't use the cache
-                e.printStackTrace();
-            }
+    /**
+     * Gets a cached image.  The image carries its reduced resolution levels
+     * in its {@link JAIContext#PYRAMID_LEVELS_TAG} property.
+     *
+     * @param cacheKey The key from {@link #getCacheKeyFor(ImageInfo)}.
+     * @return Returns said image or <code>null</code> if it isn't cached.
+     */
+    static PlanarImage getImage( String cacheKey ) {
+        final File file = INSTANCE.use( cacheKey );
+        if ( file == null )
+            return null;
+        final String fileName = file.getAbsolutePath();
+        final LCTIFFReader.TIFFImage[] levels =
+            new LCTIFFReader.TIFFImage[ LEVELS - 1 ];
+        try {
+            for ( int i = 0; i < levels.length; ++i )
+                levels[i] = new LCTIFFReader.TIFFImage( fileName, i + 1 );
+            final PlanarImage image = new LCTIFFReader.TIFFImage( fileName ) {
+                @Override
+                public void dispose() {
+                    super.dispose();
+                    for ( LCTIFFReader.TIFFImage level : levels )
+                        level.dispose();
+                }
+            };
+            image.setProperty( JAIContext.PYRAMID_LEVELS_TAG, levels );
+            return image;
+        }
+        catch ( LCImageLibException | IOException e ) {
+            // never mind, don't use the cache
+            e.printStackTrace();
+            for ( LCTIFFReader.TIFFImage level : levels )
+                if ( level != null )
+                    level.dispose();
+            INSTANCE.remove( cacheKey );
+            return null;
         }
-        return null;
     }
 
     public void run() {
-        while (true) {
-            synchronized (this) {
-                try {
-                    while (currentJob == null)
+        while ( true ) {
+            final String cacheKey;
+            final RenderedImage image;
+            synchronized ( this ) {
+                while ( m_queue.isEmpty() ) {
+                    try {
                         wait();
-                } catch (InterruptedException e) {
-
+                    }
+                    catch ( InterruptedException e ) {
+                        // ignore
+                    }
                 }
+                final Iterator<Map.Entry<String,RenderedImage>> i =
+                    m_queue.entrySet().iterator();
+                final Map.Entry<String,RenderedImage> job = i.next();
+                i.remove();
+                cacheKey = job.getKey();
+                image = job.getValue();
             }
+            write( cacheKey, image );
+        }
+    }
 
-            System.out.println("Caching image: " + currentJob.cacheKey);
+    ////////// private ////////////////////////////////////////////////////////
 
-            long t1 = System.currentTimeMillis();
+    /**
+     * Finds the entries already on disk, least recently used first, the first
+     * time the cache is used.
+     *
+     * @return Returns the directory of the entries or <code>null</code> if
+     * there's none.
+     */
+    private synchronized File getDirectory() {
+        if ( m_initialized )
+            return m_dir;
+        m_initialized = true;
+        final FileCache fileCache = FileCacheFactory.getGlobalCache();
+        if ( fileCache == null )
+            return null;
+        final File dir = new File( fileCache.getCacheDirectory(), "raw" );
+        if ( !dir.isDirectory() && !dir.mkdirs() )
+            return null;
+        final File[] files = dir.listFiles();
+        if ( files == null )
+            return null;
+        final ArrayList<File> entries = new ArrayList<File>();
+        for ( File file : files ) {
+            final String name = file.getName();
+            if ( name.endsWith( EXTENSION ) )
+                entries.add( file );
+            else if ( name.endsWith( TEMP_EXTENSION ) )
+                file.delete();  // left over from an interrupted write
+        }
+        entries.sort( Comparator.comparingLong( File::lastModified ) );
+        for ( File file : entries ) {
+            final String name = file.getName();
+            final long length = file.length();
+            m_entries.put(
+                name.substring( 0, name.length() - EXTENSION.length() ), length
+            );
+            m_size += length;
+        }
+        m_dir = dir;
+        return m_dir;
+    }
 
-            final FileCache fileCache = FileCacheFactory.getGlobalCache();
-            if (fileCache != null) {
-                try {
-                    final File cacheFile = fileCache.putToFile(currentJob.cacheKey);
+    /**
+     * Removes the least recently used entries until all of them fit in the
+     * budget again, always keeping the most recent one.
+     */
+    private synchronized void trim() {
+        final Iterator<Map.Entry<String,Long>> i =
+            m_entries.entrySet().iterator();
+        while ( m_size > BUDGET && m_entries.size() > 1 ) {
+            final Map.Entry<String,Long> entry = i.next();
+            final File file = new File( m_dir, entry.getKey() + EXTENSION );
+            // An entry that's open can't be deleted on Windows: it's
+            // forgotten for now and found again next time.
+            if ( !file.delete() )
+                System.err.println( "Couldn't remove cached image " + file );
+            m_size -= entry.getValue();
+            i.remove();
+        }
+    }
 
-                    try {
-                        LCTIFFWriter writer = new LCTIFFWriter(cacheFile.getAbsolutePath(),
-                                                               currentJob.image.getWidth(),
-                                                               currentJob.image.getHeight());
-                        writer.setByteField( TIFFTags.TIFF_ICC_PROFILE, JAIContext.linearProfile.getData());
-                        writer.putImageTiled(currentJob.image, null);
-                    } catch ( LCImageLibException e) {
-                        e.printStackTrace();
-                    } finally {
-                        fileCache.notifyAboutCloseOf(cacheFile);
-                    }
-                } catch ( IOException e ) {
-                    // nevermind, do without cache...
-                    e.printStackTrace();
-                }
-            }
+    /**
+     * Removes an entry.
+     *
+     * @param cacheKey The key of the entry.
+     */
+    private synchronized void remove( String cacheKey ) {
+        final Long length = m_entries.remove( cacheKey );
+        if ( length != null ) {
+            m_size -= length;
+            new File( m_dir, cacheKey + EXTENSION ).delete();
+        }
+    }
 
-            currentJob = null;
+    /**
+     * Marks an entry as just used.
+     *
+     * @param cacheKey The key of the entry.
+     * @return Returns the file of the entry or <code>null</code> if there's
+     * no such entry.
+     */
+    private synchronized File use( String cacheKey ) {
+        final File dir = getDirectory();
+        if ( dir == null || m_entries.get( cacheKey ) == null )
+            return null;
+        final File file = new File( dir, cacheKey + EXTENSION );
+        if ( !file.isFile() ) {
+            m_size -= m_entries.remove( cacheKey );
+            return null;
+        }
+        // The modification time orders the entries the next time around.
+        file.setLastModified( System.currentTimeMillis() );
+        return file;
+    }
+
+    /**
+     * Writes an entry: the image and its reductions to a temporary file,
+     * which then replaces any previous entry in one go so that no one ever
+     * reads a partial entry.
+     *
+     * @param cacheKey The key of the entry.
+     * @param image The full resolution image.
+     */
+    private void write( String cacheKey, RenderedImage image ) {
+        final File dir = getDirectory();
+        if ( dir == null )
+            return;
+        synchronized ( this ) {
+            if ( m_entries.containsKey( cacheKey ) )
+                return;
+        }
+        System.out.println( "Caching image: " + cacheKey );
+        final long t1 = System.currentTimeMillis();
+
+        final File temp = new File( dir, cacheKey + TEMP_EXTENSION );
+        final File file = new File( dir, cacheKey + EXTENSION );
+        final RenderedImage[] levels = new RenderedImage[ LEVELS ];
+        levels[0] = image;
+        for ( int i = 1; i < LEVELS; ++i )
+            levels[i] = Functions.downScale( levels[i - 1], 2 );
+        try {
+            final LCTIFFWriter writer = new LCTIFFWriter(
+                temp.getAbsolutePath(), image.getWidth(), image.getHeight()
+            );
+            writer.setICCProfile( JAIContext.linearProfile );
+            writer.putImagePyramid( levels, null );
+            Files.move(
+                temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+        }
+        catch ( LCImageLibException | IOException e ) {
+            // never mind, do without cache...
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+        finally {
+            for ( int i = 1; i < LEVELS; ++i )
+                ((RenderedOp)levels[i]).dispose();
+        }
 
-            long t2 = System.currentTimeMillis();
-            System.out.println("Image cached in " + (t2 - t1) + "ms");
+        synchronized ( this ) {
+            final long length = file.length();
+            final Long old = m_entries.put( cacheKey, length );
+            m_size += length - (old != null ? old : 0);
+            trim();
         }
+        final long t2 = System.currentTimeMillis();
+        System.out.println( "Image cached in " + (t2 - t1) + "ms" );
     }
 }
 /* vim:set et sw=4 ts=4: */
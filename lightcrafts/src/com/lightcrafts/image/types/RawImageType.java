@@ -15,8 +15,6 @@ import com.lightcrafts.image.ColorProfileException;
 import com.lightcrafts.image.ImageInfo;
 import com.lightcrafts.image.metadata.*;
 import com.lightcrafts.image.UnknownImageTypeException;
-import com.lightcrafts.image.libs.LCTIFFReader;
-import com.lightcrafts.image.libs.LCImageLibException;
 import com.lightcrafts.jai.JAIContext;
 import com.lightcrafts.jai.utils.Functions;
 import com.lightcrafts.jai.opimage.CachedImage;
@@ -75,30 +73,19 @@ public abstract class RawImageType extends ImageType {
             throw new UnknownImageTypeException("Unsupported Camera");
 
         String cacheKey = null;
-        File imageFile = null;
         val fileCache = RawImageCache.getCacheFor( imageInfo );
 
         if ( CACHE_CONVERSION && fileCache != null ) {
             System.out.println("Checking cache for: " + imageInfo);
             val t1 = System.currentTimeMillis();
             cacheKey = RawImageCache.getCacheKeyFor( imageInfo );
-            if ( cacheKey != null )
-                imageFile = RawImageCache.getCachedImageFileFor( cacheKey );
-            if (imageFile != null) {
-                val fileName = imageFile.getAbsolutePath();
-                try {
-                    /* val reader = new LCTIFFReader( fileName, true );
-                    val image = reader.getImage( thread ); */
-                    val image = new LCTIFFReader.TIFFImage(fileName);
-                    val t2 = System.currentTimeMillis();
-                    System.out.println("Retrieved Cached image in " + (t2 - t1) + "ms");
-                    return image;
-                } catch (LCImageLibException e) {
-                    // never mind, don't use the cache
-                    e.printStackTrace();
-                }
-            } else
-                System.out.println("File not in cache.");
+            val image = RawImageCache.getImage( cacheKey );
+            if (image != null) {
+                val t2 = System.currentTimeMillis();
+                System.out.println("Retrieved Cached image in " + (t2 - t1) + "ms");
+                return image;
+            }
+            System.out.println("File not in cache.");
         }
 
         ProgressIndicator indicator = null;
@@ -202,7 +189,7 @@ public abstract class RawImageType extends ImageType {
         System.out.println("dcraw: " + (dcrawTime - startTime)
                 + "ms, demosaic: " + (demosaicTime - dcrawTime) + "ms");
 
-        if (CACHE_CONVERSION && fileCache != null && imageFile == null && cacheKey != null) {
+        if (CACHE_CONVERSION && cacheKey != null) {
             RawImageCache.add(cacheKey, rgbImage);
         }
 
@@ -550,5 +550,13 @@ public interface TIFFConstants {
      * specification.
      */
     int TIFF_SHORT_SIZE = 2;
+
+    /**
+     * TIFF new subfile type: a reduced resolution version of another image
+     * in the file.
+     * This is one of the possible bits for the
+     * {@link TIFFTags#TIFF_NEW_SUBFILE_TYPE} metadata tag.
+     */
+    int TIFF_SUBFILE_TYPE_REDUCED_RESOLUTION = 1;
 }
 /* vim:set et sw=4 ts=4: */
@@ -411,8 +411,7 @@ public class TIFFImageType extends ImageType implements TrueImageTypeProvider {
                 );
             }
 
-            writer.setIntField(
-                TIFF_COMPRESSION,
+            writer.setCompression(
                 tiffOptions.lzwCompression.getValue() ?
                     TIFF_COMPRESSION_LZW : TIFF_COMPRESSION_NONE
             );
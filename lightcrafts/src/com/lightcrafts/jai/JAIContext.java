@@ -6,6 +6,7 @@ import com.lightcrafts.jai.operator.*;
 import com.lightcrafts.jai.opimage.*;
 import com.lightcrafts.jai.utils.LCTileCache;
 import com.lightcrafts.jai.utils.LCRecyclingTileFactory;
+import com.lightcrafts.jai.utils.LCTileScheduler;
 import com.lightcrafts.image.color.ColorScience;
 import com.lightcrafts.image.color.ColorProfileInfo;
 import com.lightcrafts.platform.Platform;
@@ -66,6 +67,8 @@ public class JAIContext {
     public static final ColorModel systemColorModel;
     public static final RenderingHints noCacheHint;
     public static final String PERSISTENT_CACHE_TAG = "LCPersistentCache";
+    /** An image property holding the reduced resolution levels of the image, by halves. */
+    public static final String PYRAMID_LEVELS_TAG = "LCPyramidLevels";
     public static final TileCache noTileCache = new SunTileCache(0);
     public static final RenderingHints fileCacheHint;
     public static final TileCache fileCache;
@@ -171,8 +174,9 @@ public class JAIContext {
 
         JAI jaiInstance = JAI.getDefaultInstance();
 
-        // Use our own Tile Scheduler -- TODO: Needs more testing
-        // jaiInstance.setTileScheduler(new LCTileScheduler());
+        // Use our own Tile Scheduler, it keeps interactive, prefetch and
+        // export tiles in separate lanes
+        jaiInstance.setTileScheduler(new LCTileScheduler());
 
         int processors = Runtime.getRuntime().availableProcessors();
 
@@ -0,0 +1,312 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.opimage;
+
+import com.lightcrafts.model.Contour;
+import com.sun.media.jai.util.JDKWorkarounds;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.OpImage;
+import javax.media.jai.PlanarImage;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies feathered patches of an image over other parts of it, for the clone and spot tools, all
+ * the patches in one pass.
+ * <p>
+ * Each {@link Spot} covers its contour with the pixels of the source at an offset, blended over
+ * what's there by the contour's coverage, as a Normal blend of a translated copy of the source
+ * through the contour's mask would.  Spots are applied in order and always copy from the source,
+ * never from each other's patches.
+ * <p>
+ * The spots whose coverage intersects each tile are indexed when the image is made: a tile only
+ * looks at its own spots, and tiles without any are the source's.
+ */
+public class CloneOpImage extends OpImage {
+
+    /**
+     * A contour and where it copies from.
+     */
+    public static final class Spot {
+        final Contour contour;
+        final int dx;
+        final int dy;
+
+        /**
+         * @param contour The contour, in the coordinates of the source before the transform of
+         * the image.
+         * @param dx The horizontal offset from the patch's source to the contour, in image pixels.
+         * @param dy The vertical offset from the patch's source to the contour, in image pixels.
+         */
+        public Spot(Contour contour, int dx, int dy) {
+            this.contour = contour;
+            this.dx = dx;
+            this.dy = dy;
+        }
+    }
+
+    private static final int[] NO_SPOTS = new int[0];
+
+    private final Spot[] spots;
+    private final ContourMask[] masks;
+
+    // The spots of each tile, in order, row by row
+    private final int[][] tileSpots;
+
+    public CloneOpImage(RenderedImage source, List<Spot> spots, AffineTransform transform, Map config) {
+        super(vectorize(source), new ImageLayout(source), config, false);
+
+        if (source.getSampleModel().getDataType() != DataBuffer.TYPE_USHORT
+            || !(source.getSampleModel() instanceof ComponentSampleModel)) {
+            throw new RuntimeException("Unsupported data type, only USHORT allowed.");
+        }
+
+        this.spots = spots.toArray(new Spot[0]);
+        masks = new ContourMask[this.spots.length];
+
+        final List<List<Integer>> index = new ArrayList<List<Integer>>();
+        for (int i = 0; i < getNumXTiles() * getNumYTiles(); i++)
+            index.add(null);
+
+        final Rectangle bounds = getBounds();
+        for (int i = 0; i < this.spots.length; i++) {
+            final Contour c = this.spots[i].contour;
+            AffineTransform combined = transform;
+            if (c.getTranslation() != null) {
+                combined = AffineTransform.getTranslateInstance(c.getTranslation().getX(),
+                                                                c.getTranslation().getY());
+                combined.preConcatenate(transform);
+            }
+            masks[i] = new ContourMask(c, combined);
+
+            final Rectangle area = masks[i].getBounds().intersection(bounds);
+            if (area.isEmpty())
+                continue;
+            for (int tileY = YToTileY(area.y); tileY <= YToTileY(area.y + area.height - 1); tileY++) {
+                for (int tileX = XToTileX(area.x); tileX <= XToTileX(area.x + area.width - 1); tileX++) {
+                    final int t = tileIndex(tileX, tileY);
+                    if (index.get(t) == null)
+                        index.set(t, new ArrayList<Integer>());
+                    index.get(t).add(i);
+                }
+            }
+        }
+
+        tileSpots = new int[index.size()][];
+        for (int t = 0; t < tileSpots.length; t++) {
+            final List<Integer> list = index.get(t);
+            if (list == null) {
+                tileSpots[t] = NO_SPOTS;
+                continue;
+            }
+            tileSpots[t] = new int[list.size()];
+            for (int i = 0; i < list.size(); i++)
+                tileSpots[t][i] = list.get(i);
+        }
+    }
+
+    private int tileIndex(int tileX, int tileY) {
+        return (tileY - getMinTileY()) * getNumXTiles() + tileX - getMinTileX();
+    }
+
+    private int[] spotsAt(int tileX, int tileY) {
+        if (tileX < getMinTileX() || tileX > getMaxTileX()
+            || tileY < getMinTileY() || tileY > getMaxTileY())
+            return NO_SPOTS;
+        return tileSpots[tileIndex(tileX, tileY)];
+    }
+
+    // We can return source tiles directly
+    @Override
+    public boolean computesUniqueTiles() {
+        return false;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        if (spotsAt(tileX, tileY).length == 0)
+            return getSourceImage(0).getTile(tileX, tileY);
+        return super.getTile(tileX, tileY);
+    }
+
+    @Override
+    public Raster computeTile(int tileX, int tileY) {
+        final WritableRaster dest = createTile(tileX, tileY);
+        final Rectangle rect = getTileRect(tileX, tileY);
+
+        JDKWorkarounds.setRect(dest, getSourceImage(0).getTile(tileX, tileY), 0, 0);
+
+        for (final int spot : spotsAt(tileX, tileY))
+            paint(dest, rect, spot);
+
+        return dest;
+    }
+
+    /**
+     * Blends the patch of a spot over the part of a tile it covers.
+     */
+    private void paint(WritableRaster dest, Rectangle rect, int spot) {
+        final ContourMask mask = masks[spot];
+        final int dx = spots[spot].dx;
+        final int dy = spots[spot].dy;
+
+        final Rectangle maskRect = mask.getBounds().intersection(rect);
+        if (maskRect.isEmpty())
+            return;
+
+        final int size = ContourMask.TILE_SIZE;
+        for (int tileY = Math.floorDiv(maskRect.y, size);
+             tileY <= Math.floorDiv(maskRect.y + maskRect.height - 1, size); tileY++) {
+            for (int tileX = Math.floorDiv(maskRect.x, size);
+                 tileX <= Math.floorDiv(maskRect.x + maskRect.width - 1, size); tileX++) {
+                final byte[] coverage = mask.getTile(tileX, tileY);
+                if (coverage == null)
+                    continue;
+
+                final Rectangle area = maskRect.intersection(
+                        new Rectangle(tileX * size, tileY * size, size, size));
+                final Rectangle from = new Rectangle(area.x - dx, area.y - dy, area.width, area.height)
+                        .intersection(getSourceImage(0).getBounds());
+
+                blend(dest, from.isEmpty() ? null : getSourceData(from), coverage,
+                      tileX * size, tileY * size, area, dx, dy);
+            }
+        }
+    }
+
+    /**
+     * Gets the source's pixels in a rectangle, from its tile if it's all in one.
+     */
+    private Raster getSourceData(Rectangle rect) {
+        final PlanarImage source = getSourceImage(0);
+        final int tileX = source.XToTileX(rect.x);
+        final int tileY = source.YToTileY(rect.y);
+        if (tileX == source.XToTileX(rect.x + rect.width - 1)
+            && tileY == source.YToTileY(rect.y + rect.height - 1))
+            return source.getTile(tileX, tileY);
+        return source.getData(rect);
+    }
+
+    /**
+     * Blends source pixels over an area of the destination by their coverage, the way the Normal
+     * mode of {@link BlendOpImage} does at full opacity, but rounded so that full coverage copies
+     * the source exactly.
+     *
+     * @param dest The destination.
+     * @param src The source pixels of the area, offset by <code>dx, dy</code>, or
+     * <code>null</code> if there are none; pixels it doesn't have are black.
+     * @param coverage A tile of coverage, a byte per pixel a row at a time.
+     * @param maskX The left of the coverage tile.
+     * @param maskY The top of the coverage tile.
+     * @param area The area to blend, within the destination and the coverage tile.
+     * @param dx The horizontal offset from the source to the destination.
+     * @param dy The vertical offset from the source to the destination.
+     */
+    static void blend(WritableRaster dest, Raster src, byte[] coverage, int maskX, int maskY,
+                      Rectangle area, int dx, int dy) {
+        final int bands = dest.getNumBands();
+
+        final ComponentSampleModel dsm = (ComponentSampleModel) dest.getSampleModel();
+        final short[][] dData = new short[bands][];
+        final int[] dOffsets = new int[bands];
+        final int dLineStride = dsm.getScanlineStride();
+        final int dPixelStride = dsm.getPixelStride();
+        getLayout(dest, dData, dOffsets);
+
+        final short[][] sData = new short[bands][];
+        final int[] sOffsets = new int[bands];
+        int sLineStride = 0;
+        int sPixelStride = 0;
+        final Rectangle sBounds;
+        if (src != null) {
+            final ComponentSampleModel ssm = (ComponentSampleModel) src.getSampleModel();
+            sLineStride = ssm.getScanlineStride();
+            sPixelStride = ssm.getPixelStride();
+            getLayout(src, sData, sOffsets);
+            sBounds = src.getBounds();
+        } else
+            sBounds = new Rectangle();
+
+        final int size = ContourMask.TILE_SIZE;
+        final int maxOpacity = 0xFFFF;
+
+        for (int y = area.y; y < area.y + area.height; y++) {
+            final int sy = y - dy;
+            final boolean rowInside = sy >= sBounds.y && sy < sBounds.y + sBounds.height;
+            final int mLine = (y - maskY) * size - maskX;
+
+            for (int x = area.x; x < area.x + area.width; x++) {
+                final int m = coverage[mLine + x] & 0xFF;
+                if (m == 0)
+                    continue;
+                final long opacity = m * 0x101;
+
+                final int sx = x - dx;
+                final boolean inside = rowInside && sx >= sBounds.x && sx < sBounds.x + sBounds.width;
+
+                for (int c = 0; c < bands; c++) {
+                    final int d = dOffsets[c] + y * dLineStride + x * dPixelStride;
+                    final int front = inside
+                                      ? sData[c][sOffsets[c] + sy * sLineStride + sx * sPixelStride] & 0xFFFF
+                                      : 0;
+                    final int back = dData[c][d] & 0xFFFF;
+                    dData[c][d] = (short) ((opacity * front + (maxOpacity - opacity) * back
+                                            + maxOpacity / 2) / maxOpacity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the arrays of a raster's bands and the offsets of their pixel at 0, 0.
+     */
+    private static void getLayout(Raster raster, short[][] data, int[] offsets) {
+        final ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+        final DataBufferUShort db = (DataBufferUShort) raster.getDataBuffer();
+        final int[] bankIndices = sm.getBankIndices();
+        final int[] bandOffsets = sm.getBandOffsets();
+        final int translateX = raster.getSampleModelTranslateX();
+        final int translateY = raster.getSampleModelTranslateY();
+        for (int c = 0; c < data.length; c++) {
+            data[c] = db.getData(bankIndices[c]);
+            offsets[c] = db.getOffsets()[bankIndices[c]] + bandOffsets[c]
+                         - translateY * sm.getScanlineStride() - translateX * sm.getPixelStride();
+        }
+    }
+
+    @Override
+    public Rectangle mapSourceRect(Rectangle sourceRect, int sourceIndex) {
+        final Rectangle result = new Rectangle(sourceRect);
+        for (int i = 0; i < spots.length; i++) {
+            final Rectangle target = new Rectangle(sourceRect);
+            target.translate(spots[i].dx, spots[i].dy);
+            final Rectangle covered = target.intersection(masks[i].getBounds());
+            if (!covered.isEmpty())
+                result.add(covered);
+        }
+        return result.intersection(getBounds());
+    }
+
+    @Override
+    public Rectangle mapDestRect(Rectangle destRect, int sourceIndex) {
+        final Rectangle result = new Rectangle(destRect);
+        for (int i = 0; i < spots.length; i++) {
+            final Rectangle covered = masks[i].getBounds().intersection(destRect);
+            if (!covered.isEmpty()) {
+                covered.translate(-spots[i].dx, -spots[i].dy);
+                result.add(covered);
+            }
+        }
+        return result.intersection(getSourceImage(sourceIndex).getBounds());
+    }
+}
@@ -0,0 +1,329 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.opimage;
+
+import com.lightcrafts.jai.JAIContext;
+import com.lightcrafts.jai.utils.Functions;
+import com.lightcrafts.model.CloneContour;
+import com.lightcrafts.model.Contour;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The feathered coverage of a contour in image space, rasterized a tile at a
+ * time.
+ * <p>
+ * The transition zone is the one masks have always had: bands of halving
+ * width in rising shades of gray, from the outer shape inward, blurred.
+ * Rather than drawing the bands as strokes and scaling the blurred result,
+ * the band of each pixel is found from its distance to the outer shape: a
+ * distance transform of the shape's fill gives the distance of every pixel
+ * inside, and the blur is applied in image space, to the pixels of the tile
+ * and of its margins.
+ * <p>
+ * Tiles are aligned to a grid anchored at the origin and kept in a cache
+ * shared by all masks, keyed by contour, transform and tile, so that masks
+ * made anew for every rendering, or for a region with a contour more or
+ * less, rasterize only the tiles they don't share.
+ */
+final class ContourMask {
+    static final int TILE_SIZE = JAIContext.TILE_WIDTH;
+
+    /**
+     * A tile the contour covers completely.  It's shared, never write to it.
+     */
+    static final byte[] FULL = new byte[TILE_SIZE * TILE_SIZE];
+
+    static {
+        Arrays.fill(FULL, (byte) 0xff);
+    }
+
+    // The marker of tiles the contour doesn't cover at all
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final int MAX_CACHED_TILES =
+        Integer.getInteger("lightcrafts.mask.tiles", 256);
+
+    private static final Map<TileKey, byte[]> tiles =
+        new LinkedHashMap<TileKey, byte[]>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TileKey, byte[]> eldest) {
+                return size() > MAX_CACHED_TILES;
+            }
+        };
+
+    private final Contour contour;
+    private final AffineTransform transform;
+    private final Shape shape;
+    private final Rectangle bounds;
+
+    // In image pixels, the depths of the bands from the widest one in, with
+    // their shades of gray, and the blur over them, null for a sharp edge
+    private final float[] bandDepths;
+    private final int[] bandValues;
+    private final float[] kernel;
+
+    ContourMask(Contour contour, AffineTransform transform) {
+        this.contour = contour;
+        this.transform = new AffineTransform(transform);
+        shape = transform.createTransformedShape(contour.getOuterShape());
+
+        final float scale = (float) Math.sqrt(Math.abs(transform.getDeterminant()));
+
+        // The blurs were drawn at most 28 pixels wide, wider ones were scaled
+        float unit = 1;
+        float width = contour.getWidth();
+        while (width > 7 * 4) {
+            width /= 2;
+            unit *= 2;
+        }
+
+        if (width > 1) {
+            // Versioned clone contours have their transition padded away from
+            // the outer shape, older ones are backward compatible with
+            // LightZone 4.1.3
+            final boolean padded =
+                contour instanceof CloneContour && ((CloneContour) contour).getVersion() != null;
+            final float padding = padded ? width / 6 : 0;
+
+            final int feathering = (int) (Math.floor(width) - 2 * padding);
+            int count = 1;
+            for (int f = feathering / 2; f > 0; f /= 2)
+                count++;
+
+            bandDepths = new float[count];
+            bandValues = new int[count];
+            for (int i = 0; i < count; i++) {
+                bandDepths[i] = (padding + (feathering >> i)) * unit * scale;
+                bandValues[i] = (int) ((count - 1 - i) / (float) (count + 1) * 0xff + 0.5f);
+            }
+
+            final float sigma = (padded ? padding : width / 4) * unit * scale;
+            kernel = Functions.getGaussKernel(sigma).getHorizontalKernelData();
+        } else {
+            bandDepths = new float[0];
+            bandValues = new int[0];
+            kernel = null;
+        }
+
+        // The blur spreads the coverage past the outer shape
+        bounds = shape.getBounds();
+        final int radius = getBlurRadius();
+        bounds.grow(radius, radius);
+    }
+
+    private int getBlurRadius() {
+        return kernel != null ? kernel.length / 2 : 0;
+    }
+
+    Contour getContour() {
+        return contour;
+    }
+
+    AffineTransform getTransform() {
+        return transform;
+    }
+
+    /**
+     * @return The bounds of the mask's coverage in image space.
+     */
+    Rectangle getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Gets the coverage of a tile of the grid anchored at the origin.
+     *
+     * @return Returns the coverage, a byte per pixel a row at a time,
+     * {@link #FULL} if it's full everywhere or <code>null</code> if it's zero
+     * everywhere.
+     */
+    byte[] getTile(int tileX, int tileY) {
+        final TileKey key = new TileKey(contour, transform, tileX, tileY);
+        byte[] tile;
+        synchronized (tiles) {
+            tile = tiles.get(key);
+        }
+        if (tile == null) {
+            // Rasterize outside the lock, the tile scheduler asks for
+            // tiles from several threads at once
+            tile = rasterize(new Rectangle(tileX * TILE_SIZE, tileY * TILE_SIZE,
+                                           TILE_SIZE, TILE_SIZE));
+            synchronized (tiles) {
+                tiles.put(key, tile);
+            }
+        }
+        return tile != EMPTY ? tile : null;
+    }
+
+    private byte[] rasterize(Rectangle tile) {
+        // The pixels the blur reads from
+        final int radius = getBlurRadius();
+        final Rectangle blurred = new Rectangle(tile);
+        blurred.grow(radius, radius);
+        if (!shape.intersects(blurred))
+            return EMPTY;
+
+        // Pixels deeper than the widest band are fully covered, so only the
+        // outside pixels this close matter
+        final int depth = bandDepths.length > 0 ? (int) Math.ceil(bandDepths[0]) + 1 : 0;
+        final Rectangle area = new Rectangle(blurred);
+        area.grow(depth, depth);
+        if (shape.contains(area))
+            return FULL;
+
+        final BufferedImage fill =
+            new BufferedImage(area.width, area.height, BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D g2d = fill.createGraphics();
+        g2d.translate(-area.x, -area.y);
+        g2d.setColor(Color.white);
+        g2d.fill(shape);
+        g2d.dispose();
+        final byte[] inside = ((DataBufferByte) fill.getRaster().getDataBuffer()).getData();
+
+        final byte[] coverage = new byte[TILE_SIZE * TILE_SIZE];
+
+        if (kernel == null) {
+            // No transition zone, just the shape
+            for (int y = 0; y < TILE_SIZE; y++)
+                System.arraycopy(inside, (y + depth) * area.width + depth,
+                                 coverage, y * TILE_SIZE, TILE_SIZE);
+            return coverage;
+        }
+
+        final float[] distances = distanceTransform(inside, area.width, area.height);
+
+        // The shade of the narrowest band around each pixel
+        final float[] bands = new float[blurred.width * blurred.height];
+        for (int y = 0; y < blurred.height; y++) {
+            for (int x = 0; x < blurred.width; x++) {
+                final float d2 = distances[(y + depth) * area.width + x + depth];
+                if (d2 == 0)
+                    continue;
+                // From the pixel's center to the edge of the outside one
+                final float distance = (float) Math.sqrt(d2) - 0.5f;
+                int value = 0xff;
+                for (int i = 0; i < bandDepths.length && distance < bandDepths[i]; i++)
+                    value = bandValues[i];
+                bands[y * blurred.width + x] = value;
+            }
+        }
+
+        // The separable blur, rows first
+        final float[] rows = new float[blurred.height * TILE_SIZE];
+        for (int y = 0; y < blurred.height; y++) {
+            for (int x = 0; x < TILE_SIZE; x++) {
+                float sum = 0;
+                for (int k = 0; k < kernel.length; k++)
+                    sum += kernel[k] * bands[y * blurred.width + x + k];
+                rows[y * TILE_SIZE + x] = sum;
+            }
+        }
+        for (int y = 0; y < TILE_SIZE; y++) {
+            for (int x = 0; x < TILE_SIZE; x++) {
+                float sum = 0;
+                for (int k = 0; k < kernel.length; k++)
+                    sum += kernel[k] * rows[(y + k) * TILE_SIZE + x];
+                coverage[y * TILE_SIZE + x] = (byte) Math.min((int) (sum + 0.5f), 0xff);
+            }
+        }
+        return coverage;
+    }
+
+    /**
+     * Computes the squared distance of every pixel to the nearest pixel
+     * that's zero, with the two pass algorithm of Felzenszwalb and
+     * Huttenlocher.
+     */
+    static float[] distanceTransform(byte[] image, int width, int height) {
+        final float infinity = (float) width * width + (float) height * height;
+        final float[] result = new float[width * height];
+        for (int i = 0; i < result.length; i++)
+            result[i] = image[i] == 0 ? 0 : infinity;
+
+        final int n = Math.max(width, height);
+        final float[] f = new float[n];
+        final float[] d = new float[n];
+        final int[] v = new int[n];
+        final float[] z = new float[n + 1];
+
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++)
+                f[y] = result[y * width + x];
+            distanceTransform(f, height, d, v, z);
+            for (int y = 0; y < height; y++)
+                result[y * width + x] = d[y];
+        }
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(result, y * width, f, 0, width);
+            distanceTransform(f, width, d, v, z);
+            System.arraycopy(d, 0, result, y * width, width);
+        }
+        return result;
+    }
+
+    // The lower envelope of the parabolas rooted at each sample
+    private static void distanceTransform(float[] f, int n, float[] d, int[] v, float[] z) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = Float.NEGATIVE_INFINITY;
+        z[1] = Float.POSITIVE_INFINITY;
+        for (int q = 1; q < n; q++) {
+            float s = intersection(f, v[k], q);
+            while (s <= z[k]) {
+                k--;
+                s = intersection(f, v[k], q);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Float.POSITIVE_INFINITY;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q)
+                k++;
+            final int p = v[k];
+            d[q] = (q - p) * (q - p) + f[p];
+        }
+    }
+
+    private static float intersection(float[] f, int p, int q) {
+        return ((f[q] + q * q) - (f[p] + p * p)) / (2 * (q - p));
+    }
+
+    private static final class TileKey {
+        final Contour contour;
+        final AffineTransform transform;
+        final int tileX, tileY;
+
+        TileKey(Contour contour, AffineTransform transform, int tileX, int tileY) {
+            this.contour = contour;
+            this.transform = transform;
+            this.tileX = tileX;
+            this.tileY = tileY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TileKey))
+                return false;
+            final TileKey key = (TileKey) o;
+            return tileX == key.tileX && tileY == key.tileY
+                   && contour.equals(key.contour) && transform.equals(key.transform);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(contour, transform, tileX, tileY);
+        }
+    }
+}
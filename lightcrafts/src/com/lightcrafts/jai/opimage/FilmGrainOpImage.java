@@ -56,14 +56,22 @@ public final class FilmGrainOpImage extends SourcelessOpImage {
     private void grainImage(short[] dstData, int dstX, int dstY, int dstWidth, int dstHeight,
                             int numBands, int[] dstBandOffset,
                             int dstPixelStride, int dstLineStride) {
+        // The noise coordinates of the columns and bands, rather than dividing for every sample
+        val xs = new double[dstWidth];
+        for (int x = 0; x < dstWidth; ++x) {
+            xs[x] = (dstX + x) / featureSize;
+        }
+        val zs = new double[numBands];
+        for (int c = 0; c < numBands; ++c) {
+            zs[c] = (c - 1) * color;
+        }
+
         if (color != 0) {
             for (int y = 0, pos0 = 0; y < dstHeight; ++y, pos0 += dstLineStride) {
+                val ny = (dstY + y) / featureSize;
                 for (int x = 0, pos = pos0; x < dstWidth; ++x, pos += dstPixelStride) {
                     for (int c = 0; c < numBands; ++c) {
-                        val value = noise.eval(
-                                (dstX + x) / featureSize,
-                                (dstY + y) / featureSize,
-                                (c - 1) * color);
+                        val value = noise.eval(xs[x], ny, zs[c]);
                         val rgb = (short) ((value * intensity + 1) * 32767.5);
                         dstData[pos + dstBandOffset[c]] = rgb;
                     }
@@ -71,11 +79,9 @@ public final class FilmGrainOpImage extends SourcelessOpImage {
             }
         } else {
             for (int y = 0, pos0 = 0; y < dstHeight; ++y, pos0 += dstLineStride) {
+                val ny = (dstY + y) / featureSize;
                 for (int x = 0, pos = pos0; x < dstWidth; ++x, pos += dstPixelStride) {
-                    val value = noise.eval(
-                            (dstX + x) / featureSize,
-                            (dstY + y) / featureSize,
-                            0);
+                    val value = noise.eval(xs[x], ny, 0);
                     val rgb = (short) ((value * intensity + 1) * 32767.5);
                     for (int c = 0; c < numBands; ++c) {
                         dstData[pos + dstBandOffset[c]] = rgb;
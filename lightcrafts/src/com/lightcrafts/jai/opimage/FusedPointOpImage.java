@@ -0,0 +1,374 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.opimage;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.LookupTableJAI;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.PointOpImage;
+import javax.media.jai.RasterAccessor;
+import javax.media.jai.RasterFormatTag;
+import javax.media.jai.RenderedOp;
+import java.awt.*;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Computes a chain of point operations in one pass over each tile.
+ * <p>
+ * A chain of point operations, each the only source of the next, normally reads and writes a
+ * whole tile per operation, and caches each of them.  Here the operations are applied a strip of
+ * rows at a time, the intermediate results kept in buffers small enough to stay in the processor's
+ * cache: the source is read once and the destination written once.  Consecutive lookup tables
+ * are composed into one.
+ * <p>
+ * The operations that can be fused are lookups, JAI's band combine, and the point operations of
+ * this package that only look at their source pixels.
+ */
+public class FusedPointOpImage extends PointOpImage {
+
+    // The rows of a strip, so that the intermediate buffers stay in the cache
+    private static final int STRIP_HEIGHT = 32;
+
+    private final Kernel[] kernels;
+
+    private FusedPointOpImage(PlanarImage source, List<Kernel> kernels, PlanarImage tail, Map config) {
+        super(source, new ImageLayout(tail), config, true);
+        this.kernels = kernels.toArray(new Kernel[0]);
+    }
+
+    /**
+     * Fuses the point operations an image is made of.
+     *
+     * @param image The last operation of the chain.
+     * @param input The image the chain should start from, or <code>null</code> to go as far up
+     * as possible.  Operations above it aren't fused, so their cached tiles are read.
+     * @param unwrap Gets the image computing the tiles of an image that only caches them, or
+     * <code>null</code> if it's not one of those.
+     * @param config The configuration of the fused image.
+     * @return Returns an image computing the same pixels as <code>image</code>, from the source of
+     * the first operation of the chain, or <code>null</code> if there's fewer than two operations.
+     */
+    public static PlanarImage fuse(PlanarImage image, PlanarImage input,
+                                   Function<PlanarImage, PlanarImage> unwrap, Map config) {
+        final PlanarImage[] source = new PlanarImage[1];
+        final List<Kernel> kernels = compose(chain(image, input, unwrap, source));
+        if (kernels.size() < 2)
+            return null;
+        return new FusedPointOpImage(source[0], kernels, image, config);
+    }
+
+    /**
+     * Tells whether an image is only made of point operations over another image.
+     *
+     * @param image The image.
+     * @param input The image its point operations should start from.
+     * @param unwrap See {@link #fuse}.
+     */
+    public static boolean isPointChain(PlanarImage image, PlanarImage input,
+                                       Function<PlanarImage, PlanarImage> unwrap) {
+        final PlanarImage[] source = new PlanarImage[1];
+        chain(image, input, unwrap, source);
+        return source[0] == input;
+    }
+
+    /**
+     * Walks down the point operations an image is made of.
+     *
+     * @param stop Where to stop, or <code>null</code> to go as far as possible.
+     * @param source Gets the source of the first operation of the chain.
+     * @return Returns the operations from the first to the last.
+     */
+    private static List<Kernel> chain(PlanarImage image, PlanarImage stop,
+                                      Function<PlanarImage, PlanarImage> unwrap,
+                                      PlanarImage[] source) {
+        final LinkedList<Kernel> kernels = new LinkedList<Kernel>();
+        final Rectangle bounds = image.getBounds();
+        PlanarImage node = image;
+        // The caching image node was unwrapped from, whose tiles are better read than computed
+        PlanarImage cached = null;
+        while (node != stop) {
+            final PlanarImage inner = unwrap.apply(node);
+            if (inner != null && inner != node) {
+                cached = node;
+                node = inner;
+                continue;
+            }
+            final PlanarImage next = sourceOf(node);
+            if (next == null || !next.getBounds().equals(bounds) || !node.getBounds().equals(bounds))
+                break;
+            final Kernel kernel = kernelOf(node);
+            if (kernel == null)
+                break;
+            kernels.addFirst(kernel);
+            cached = null;
+            node = next;
+        }
+        source[0] = node != stop && cached != null ? cached : node;
+        return kernels;
+    }
+
+    private static PlanarImage sourceOf(PlanarImage node) {
+        if (node instanceof RenderedOp) {
+            final RenderedOp op = (RenderedOp) node;
+            if (op.getNumSources() != 1 || !(op.getNodeSource(0) instanceof PlanarImage))
+                return null;
+            return (PlanarImage) op.getNodeSource(0);
+        }
+        if (node.getNumSources() != 1)
+            return null;
+        return node.getSourceImage(0);
+    }
+
+    private static Kernel kernelOf(PlanarImage node) {
+        if (node instanceof RenderedOp) {
+            final RenderedOp op = (RenderedOp) node;
+            final String name = op.getOperationName();
+            if (name.equalsIgnoreCase("lookup") && op.getNumParameters() == 1)
+                return new LookupKernel((LookupTableJAI) op.getObjectParameter(0), op.getSampleModel());
+            if (name.equalsIgnoreCase("BandCombine") && op.getNumParameters() == 1)
+                return BandCombineKernel.create((double[][]) op.getObjectParameter(0), op);
+            node = op.getRendering();
+        }
+        if (node instanceof PointOpImage && OpKernel.accepts(node))
+            return new OpKernel((PointOpImage) node);
+        return null;
+    }
+
+    /**
+     * Composes consecutive lookup tables.
+     */
+    private static List<Kernel> compose(List<Kernel> kernels) {
+        final LinkedList<Kernel> composed = new LinkedList<Kernel>();
+        for (final Kernel kernel : kernels) {
+            final Kernel last = composed.peekLast();
+            if (last instanceof LookupKernel && kernel instanceof LookupKernel) {
+                final LookupTableJAI table =
+                        compose(((LookupKernel) last).table, ((LookupKernel) kernel).table);
+                if (table != null) {
+                    composed.removeLast();
+                    composed.add(new LookupKernel(table, kernel.sampleModel));
+                    continue;
+                }
+            }
+            composed.add(kernel);
+        }
+        return composed;
+    }
+
+    /**
+     * Composes two full 16 bit tables, or returns <code>null</code> if they aren't both plain ones.
+     */
+    static LookupTableJAI compose(LookupTableJAI first, LookupTableJAI second) {
+        if (!isFullUShortTable(first) || !isFullUShortTable(second))
+            return null;
+        final int bands = Math.max(first.getNumBands(), second.getNumBands());
+        if (first.getNumBands() != bands && first.getNumBands() != 1
+            || second.getNumBands() != bands && second.getNumBands() != 1)
+            return null;
+
+        final short[][] data = new short[bands][0x10000];
+        for (int b = 0; b < bands; b++) {
+            final short[] f = first.getShortData(Math.min(b, first.getNumBands() - 1));
+            final short[] s = second.getShortData(Math.min(b, second.getNumBands() - 1));
+            for (int i = 0; i < 0x10000; i++)
+                data[b][i] = s[f[i] & 0xFFFF];
+        }
+        return new LookupTableJAI(data, 0, true);
+    }
+
+    private static boolean isFullUShortTable(LookupTableJAI table) {
+        // Subclasses may look pixels up their own way
+        if (table.getClass() != LookupTableJAI.class || table.getDataType() != DataBuffer.TYPE_USHORT)
+            return false;
+        for (int b = 0; b < table.getNumBands(); b++)
+            if (table.getOffset(b) != 0 || table.getShortData(b).length != 0x10000)
+                return false;
+        return true;
+    }
+
+    @Override
+    protected void computeRect(Raster[] sources, WritableRaster dest, Rectangle destRect) {
+        final WritableRaster[] strips = new WritableRaster[kernels.length - 1];
+        final int stripHeight = Math.min(STRIP_HEIGHT, destRect.height);
+
+        for (int y = destRect.y; y < destRect.y + destRect.height; y += stripHeight) {
+            final Rectangle strip = new Rectangle(destRect.x, y, destRect.width,
+                                                  Math.min(stripHeight, destRect.y + destRect.height - y));
+            Raster in = sources[0];
+            for (int k = 0; k < kernels.length; k++) {
+                final WritableRaster out;
+                if (k == kernels.length - 1)
+                    out = dest;
+                else {
+                    if (strips[k] == null)
+                        strips[k] = Raster.createWritableRaster(
+                                kernels[k].sampleModel.createCompatibleSampleModel(destRect.width, stripHeight),
+                                new Point(strip.x, strip.y));
+                    else
+                        strips[k] = strips[k].createWritableTranslatedChild(strip.x, strip.y);
+                    out = strips[k];
+                }
+                kernels[k].compute(in, out, strip);
+                in = out;
+            }
+        }
+    }
+
+    /**
+     * One point operation of a chain.
+     */
+    private abstract static class Kernel {
+        // The layout of the operation's result
+        final SampleModel sampleModel;
+
+        Kernel(SampleModel sampleModel) {
+            this.sampleModel = sampleModel;
+        }
+
+        /**
+         * Computes a rectangle of the result, contained in both rasters.
+         */
+        abstract void compute(Raster src, WritableRaster dst, Rectangle rect);
+    }
+
+    private static final class OpKernel extends Kernel {
+        private final PointOpImage op;
+
+        OpKernel(PointOpImage op) {
+            super(op.getSampleModel());
+            this.op = op;
+        }
+
+        @Override
+        void compute(Raster src, WritableRaster dst, Rectangle rect) {
+            compute(op, new Raster[]{src}, dst, rect);
+        }
+
+        static boolean accepts(PlanarImage op) {
+            return op.getNumSources() == 1 && OPERATIONS.contains(op.getClass());
+        }
+
+        // Only those computeRect() can be called on, their subclasses may do anything
+        private static final List<Class<?>> OPERATIONS = Arrays.<Class<?>>asList(
+                LCBandCombineOpImage.class,
+                HueRotateOpImage.class,
+                IntVibranceOpImage.class,
+                VibranceOpImage.class,
+                RawAdjustmentsOpImage.class,
+                LCMSColorConvertOpImage.class
+        );
+
+        private static void compute(PointOpImage op, Raster[] sources, WritableRaster dest, Rectangle rect) {
+            if (op instanceof LCBandCombineOpImage)
+                ((LCBandCombineOpImage) op).computeRect(sources, dest, rect);
+            else if (op instanceof HueRotateOpImage)
+                ((HueRotateOpImage) op).computeRect(sources, dest, rect);
+            else if (op instanceof IntVibranceOpImage)
+                ((IntVibranceOpImage) op).computeRect(sources, dest, rect);
+            else if (op instanceof VibranceOpImage)
+                ((VibranceOpImage) op).computeRect(sources, dest, rect);
+            else if (op instanceof RawAdjustmentsOpImage)
+                ((RawAdjustmentsOpImage) op).computeRect(sources, dest, rect);
+            else
+                ((LCMSColorConvertOpImage) op).computeRect(sources, dest, rect);
+        }
+    }
+
+    private static final class LookupKernel extends Kernel {
+        final LookupTableJAI table;
+
+        LookupKernel(LookupTableJAI table, SampleModel sampleModel) {
+            super(sampleModel);
+            this.table = table;
+        }
+
+        @Override
+        void compute(Raster src, WritableRaster dst, Rectangle rect) {
+            table.lookup(src, dst, rect);
+        }
+    }
+
+    /**
+     * JAI's band combine of 16 bit images, computed the same way.
+     */
+    private static final class BandCombineKernel extends Kernel {
+        private final float[][] matrix;
+        private final RasterFormatTag[] formatTags;
+
+        private BandCombineKernel(double[][] matrix, SampleModel sampleModel, RasterFormatTag[] formatTags) {
+            super(sampleModel);
+            this.matrix = new float[matrix.length][];
+            for (int b = 0; b < matrix.length; b++) {
+                this.matrix[b] = new float[matrix[b].length];
+                for (int k = 0; k < matrix[b].length; k++)
+                    this.matrix[b][k] = (float) matrix[b][k];
+            }
+            this.formatTags = formatTags;
+        }
+
+        static Kernel create(double[][] matrix, RenderedOp op) {
+            final PlanarImage source = (PlanarImage) op.getNodeSource(0);
+            if (matrix.length == 0
+                || source.getSampleModel().getDataType() != DataBuffer.TYPE_USHORT
+                || op.getSampleModel().getDataType() != DataBuffer.TYPE_USHORT
+                || matrix.length != op.getSampleModel().getNumBands()
+                || matrix[0].length != source.getSampleModel().getNumBands() + 1)
+                return null;
+            final RasterFormatTag[] formatTags = RasterAccessor.findCompatibleTags(
+                    new PlanarImage[]{source}, op.getRendering());
+            return new BandCombineKernel(matrix, op.getSampleModel(), formatTags);
+        }
+
+        @Override
+        void compute(Raster src, WritableRaster dst, Rectangle rect) {
+            final RasterAccessor s = new RasterAccessor(src, rect, formatTags[0], null);
+            final RasterAccessor d = new RasterAccessor(dst, rect, formatTags[1], null);
+
+            final int width = d.getWidth();
+            final int height = d.getHeight();
+            final int sBands = s.getNumBands();
+            final int dBands = d.getNumBands();
+
+            final short[][] sData = s.getShortDataArrays();
+            final int[] sBandOffsets = s.getBandOffsets();
+            final int sLineStride = s.getScanlineStride();
+            final int sPixelStride = s.getPixelStride();
+
+            final short[][] dData = d.getShortDataArrays();
+            final int[] dBandOffsets = d.getBandOffsets();
+            final int dLineStride = d.getScanlineStride();
+            final int dPixelStride = d.getPixelStride();
+
+            for (int h = 0; h < height; h++) {
+                int sPixel = h * sLineStride;
+                int dPixel = h * dLineStride;
+                for (int w = 0; w < width; w++) {
+                    for (int b = 0; b < dBands; b++) {
+                        final float[] mat = matrix[b];
+                        float sum = 0;
+                        for (int k = 0; k < sBands; k++)
+                            sum += mat[k] * (float) (sData[k][sPixel + sBandOffsets[k]] & 0xFFFF);
+                        sum += mat[sBands];
+                        dData[b][dPixel + dBandOffsets[b]] =
+                                (short) (sum > 0xFFFF ? 0xFFFF : sum >= 0 ? (int) (sum + 0.5F) : 0);
+                    }
+                    sPixel += sPixelStride;
+                    dPixel += dPixelStride;
+                }
+            }
+
+            if (d.isDataCopy()) {
+                d.clampDataArrays();
+                d.copyDataToRaster();
+            }
+        }
+    }
+}
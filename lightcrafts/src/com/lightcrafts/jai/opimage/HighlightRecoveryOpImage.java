@@ -14,6 +14,22 @@ import java.awt.*;
 import java.util.Map;
 
 public class HighlightRecoveryOpImage extends PointOpImage {
+    // Whether the native loop is there; the Java one computes the same pixels, just slower
+    private static final boolean NATIVE = loadNativeLibrary();
+
+    private static boolean loadNativeLibrary() {
+        try {
+            System.loadLibrary("FASTJAI");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            System.err.println("HighlightRecoveryOpImage: no native library, using Java: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static final float THRESHOLD = (float) (0.8 * 0xffff);
+    private static final float MAXIMUM = 0xffff;
+
     private final float[] preMul;
     private final float[][] csMatrix;
 
@@ -66,6 +82,13 @@ public class HighlightRecoveryOpImage extends PointOpImage {
         int srcLineStride = src.getScanlineStride();
         int srcPixelStride = src.getPixelStride();
 
+        if (!NATIVE) {
+            recover(srcData, srcBandOffsets, srcPixelStride, srcLineStride,
+                    dstData, dstBandOffsets, dstPixelStride, dstLineStride,
+                    width, height, preMul, csMatrix);
+            return;
+        }
+
         float[] csArray = new float[9];
 
         for (int i = 0; i < 3; i++)
@@ -78,4 +101,65 @@ public class HighlightRecoveryOpImage extends PointOpImage {
                               width, height,
                               preMul, csArray);
     }
+
+    /*
+     * The scalar loop of the native code: pixels with a channel above the threshold after the
+     * white balance multipliers are desaturated toward their luminance, more so the more channels
+     * are clipped.
+     */
+    static void recover(short[] srcData, int[] srcBandOffsets, int srcPixelStride, int srcLineStride,
+                        short[] dstData, int[] dstBandOffsets, int dstPixelStride, int dstLineStride,
+                        int width, int height, float[] preMul, float[][] csMatrix) {
+        final float[] raw = new float[3];
+        final float[] rgb = new float[3];
+
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                final int srcPixOffset = srcPixelStride * col + row * srcLineStride;
+
+                for (int i = 0; i < 3; i++)
+                    raw[i] = 0xffff & srcData[srcPixOffset + srcBandOffsets[i]];
+
+                for (int i = 0; i < 3; i++)
+                    rgb[i] = csMatrix[i][0] * raw[0] + csMatrix[i][1] * raw[1] + csMatrix[i][2] * raw[2];
+
+                float valMax = 0;
+                float sum = 0;
+                int saturated = 0;
+                for (int i = 0; i < 3; i++) {
+                    final float val = Math.min(preMul[i] * raw[i], MAXIMUM);
+                    if (val > THRESHOLD) {
+                        saturated++;
+                        if (val > valMax)
+                            valMax = val;
+                    }
+                    sum += val;
+                }
+
+                if (saturated > 0) {
+                    final float m1 = (MAXIMUM - valMax) / (MAXIMUM - THRESHOLD);
+                    final float m2 = (MAXIMUM - sum / 3) / (MAXIMUM - THRESHOLD);
+                    float s = (MAXIMUM - sum / 3) / MAXIMUM;
+
+                    for (int i = 1; i < saturated; i++)
+                        s *= s;
+
+                    final float m = s * m2 + (1 - s) * m1;
+
+                    if (m < 1.0f) {
+                        // use Haeberli's saturation change: http://www.graficaobscura.com/interp/index.html
+                        final float lum = (rgb[0] + rgb[1] + rgb[2]) / 3.0f;
+                        for (int i = 0; i < 3; i++)
+                            rgb[i] = rgb[i] * m + lum * (1.0f - m);
+                    }
+                }
+
+                final int dstPixOffset = dstPixelStride * col + row * dstLineStride;
+                for (int i = 0; i < 3; i++) {
+                    final float v = rgb[i];
+                    dstData[dstPixOffset + dstBandOffsets[i]] = (short) (v < 0 ? 0 : v > 0xffff ? 0xffff : (int) v);
+                }
+            }
+        }
+    }
 }
@@ -64,53 +64,56 @@ public class RawAdjustmentsOpImage extends PointOpImage {
     }
 
     protected void ushortLoop(RasterAccessor src, RasterAccessor dst) {
-        int width = src.getWidth();
-        int height = src.getHeight();
-
-        short[][] dstDataArrays = dst.getShortDataArrays();
-        int[] dstBandOffsets = dst.getBandOffsets();
-        int dstLineStride = dst.getScanlineStride();
+        adjust(src.getShortDataArrays()[0], src.getBandOffsets(), src.getPixelStride(), src.getScanlineStride(),
+               dst.getShortDataArrays()[0], dst.getBandOffsets(), dst.getPixelStride(), dst.getScanlineStride(),
+               src.getWidth(), src.getHeight(), cameraRGB, exposureCompensation);
+    }
 
-        short[][] srcDataArrays = src.getShortDataArrays();
-        int[] srcBandOffsets = src.getBandOffsets();
-        int srcLineStride = src.getScanlineStride();
+    /*
+     * Whether highlights are recovered doesn't change from pixel to pixel, so the compiler can
+     * unswitch the loop on it, and pixels are indexed with running offsets rather than multiplied
+     * out three times each.
+     */
+    static void adjust(short[] srcData, int[] srcBandOffsets, int srcPixelStride, int srcLineStride,
+                       short[] dstData, int[] dstBandOffsets, int dstPixelStride, int dstLineStride,
+                       int width, int height, float[][] cameraRGB, float exposureCompensation) {
+        final int srcROffset = srcBandOffsets[0];
+        final int srcGOffset = srcBandOffsets[1];
+        final int srcBOffset = srcBandOffsets[2];
 
-        short[] dstData = dstDataArrays[0];
-        short[] srcData = srcDataArrays[0];
+        final int dstROffset = dstBandOffsets[0];
+        final int dstGOffset = dstBandOffsets[1];
+        final int dstBOffset = dstBandOffsets[2];
 
-        int srcROffset = srcBandOffsets[0];
-        int srcGOffset = srcBandOffsets[1];
-        int srcBOffset = srcBandOffsets[2];
+        final float t00 = cameraRGB[0][0], t01 = cameraRGB[0][1], t02 = cameraRGB[0][2],
+                    t10 = cameraRGB[1][0], t11 = cameraRGB[1][1], t12 = cameraRGB[1][2],
+                    t20 = cameraRGB[2][0], t21 = cameraRGB[2][1], t22 = cameraRGB[2][2];
 
-        int dstROffset = dstBandOffsets[0];
-        int dstGOffset = dstBandOffsets[1];
-        int dstBOffset = dstBandOffsets[2];
+        final float c = exposureCompensation;
 
-        float t00 = cameraRGB[0][0], t01 = cameraRGB[0][1], t02 = cameraRGB[0][2],
-              t10 = cameraRGB[1][0], t11 = cameraRGB[1][1], t12 = cameraRGB[1][2],
-              t20 = cameraRGB[2][0], t21 = cameraRGB[2][1], t22 = cameraRGB[2][2];
+        // Highlight recovery only applies when the exposure is brought down
+        final boolean recover = c < 1;
 
         for (int row = 0; row < height; row++) {
-            for (int col = 0; col < width; col++) {
-                int r = 0xffff & srcData[3 * col + row * srcLineStride + srcROffset];
-                int g = 0xffff & srcData[3 * col + row * srcLineStride + srcGOffset];
-                int b = 0xffff & srcData[3 * col + row * srcLineStride + srcBOffset];
+            int s = row * srcLineStride;
+            int d = row * dstLineStride;
+
+            for (int col = 0; col < width; col++, s += srcPixelStride, d += dstPixelStride) {
+                final int r = 0xffff & srcData[s + srcROffset];
+                final int g = 0xffff & srcData[s + srcGOffset];
+                final int b = 0xffff & srcData[s + srcBOffset];
 
                 float r1 = t00 * r + t01 * g + t02 * b;
                 float g1 = t10 * r + t11 * g + t12 * b;
                 float b1 = t20 * r + t21 * g + t22 * b;
 
-                // Highlight recovery code
-
-                float c = exposureCompensation;
-
-                if (c < 1 && (g1 > 0xffff || r1 > 0xffff || b1 > 0xffff)) {
-                    float rs = Math.min(r1, 0xffff);
-                    float gs = Math.min(g1, 0xffff);
-                    float bs = Math.min(b1, 0xffff);
+                if (recover && (g1 > 0xffff || r1 > 0xffff || b1 > 0xffff)) {
+                    final float rs = Math.min(r1, 0xffff);
+                    final float gs = Math.min(g1, 0xffff);
+                    final float bs = Math.min(b1, 0xffff);
 
-                    float c1s = gs - rs;
-                    float c2s = gs - bs;
+                    final float c1s = gs - rs;
+                    final float c2s = gs - bs;
 
                     r1 = c * (g1 - c1s);
                     b1 = c * (g1 - c2s);
@@ -120,9 +123,9 @@ public class RawAdjustmentsOpImage extends PointOpImage {
                 }
                 g1 *= c;
 
-                dstData[3 * col + row * dstLineStride + dstROffset] = (short) (r1 < 0 ? 0 : r1 > 0xffff ? 0xffff : (int) r1);
-                dstData[3 * col + row * dstLineStride + dstGOffset] = (short) (g1 < 0 ? 0 : g1 > 0xffff ? 0xffff : (int) g1);
-                dstData[3 * col + row * dstLineStride + dstBOffset] = (short) (b1 < 0 ? 0 : b1 > 0xffff ? 0xffff : (int) b1);
+                dstData[d + dstROffset] = (short) (r1 < 0 ? 0 : r1 > 0xffff ? 0xffff : (int) r1);
+                dstData[d + dstGOffset] = (short) (g1 < 0 ? 0 : g1 > 0xffff ? 0xffff : (int) g1);
+                dstData[d + dstBOffset] = (short) (b1 < 0 ? 0 : b1 > 0xffff ? 0xffff : (int) b1);
             }
         }
     }
@@ -121,6 +121,34 @@ public class Functions {
         return JAI.create("LCSeparableConvolve", pb, extenderHints);
     }
 
+    /**
+     * Scale an image down by an integer ratio with a Lanczos2 filter, the way
+     * the levels of an image pyramid are made.
+     */
+    public static RenderedOp downScale(RenderedImage image, int ratio) {
+        return downScale(image, ratio, null);
+    }
+
+    public static RenderedOp downScale(RenderedImage image, int ratio, RenderingHints hints) {
+        KernelJAI kernel = getLanczos2Kernel(ratio);
+        int ko = kernel.getXOrigin();
+        float[] kdata = kernel.getHorizontalKernelData();
+        float[] qsFilterArray = new float[kdata.length - ko];
+        System.arraycopy(kdata, ko, qsFilterArray, 0, qsFilterArray.length);
+
+        ParameterBlock pb = new ParameterBlock()
+                .addSource(image)
+                .add(ratio)
+                .add(ratio)
+                .add(qsFilterArray)
+                .add(Interpolation.getInstance(Interpolation.INTERP_NEAREST));
+        RenderingHints extenderHints = new RenderingHints(JAI.KEY_BORDER_EXTENDER,
+                BorderExtender.createInstance(BorderExtender.BORDER_COPY));
+        if (hints != null)
+            extenderHints.add(hints);
+        return JAI.create("FilteredSubsample", pb, extenderHints);
+    }
+
     public static ImageLayout getImageLayout(RenderedImage image) {
         return getImageLayout(image.getSampleModel().getDataType(),
                               image.getColorModel().getColorSpace());
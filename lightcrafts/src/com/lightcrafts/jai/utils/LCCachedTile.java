@@ -52,7 +52,7 @@ final class LCCachedTile implements CachedTile {
     private final Object tileCacheMetric;     // Metric for weighting tile computation cost
 
     @Getter
-    long tileTimeStamp;		// the last time this tile is accessed
+    volatile long tileTimeStamp;	// the last time this tile is accessed
 
     final Object key;			// the key used to hash this tile
 
@@ -62,6 +62,8 @@ final class LCCachedTile implements CachedTile {
     @Getter
     int action = 0;             // add, remove, update from tile cache
 
+    boolean spilling;           // being written to disk, under the segment lock
+
     /**
      * Constructor that takes a tile cache metric
      * @since 1.1
@@ -71,6 +73,20 @@ final class LCCachedTile implements CachedTile {
                   int tileY,
                   Raster tile,
                   Object tileCacheMetric) {
+        this(owner, tileX, tileY, tile, tileCacheMetric,
+             hashKey(owner, tileX, tileY));
+    }
+
+    /**
+     * Constructor for callers that have already computed the tile's
+     * hash key.
+     */
+    LCCachedTile(RenderedImage owner,
+                  int tileX,
+                  int tileY,
+                  Raster tile,
+                  Object tileCacheMetric,
+                  Object key) {
 
         this.owner = new WeakReference<>(owner);
         this.tile  = tile;
@@ -79,7 +95,7 @@ final class LCCachedTile implements CachedTile {
 
         this.tileCacheMetric = tileCacheMetric;  // may be null
 
-        key = hashKey(owner, tileX, tileY);
+        this.key = key;
 
         // tileMemorySize(Raster tile) inlined for performance
         DataBuffer db = tile.getDataBuffer();
@@ -14,7 +14,6 @@
 package com.lightcrafts.jai.utils;
 
 import com.lightcrafts.jai.JAIContext;
-import com.lightcrafts.utils.LCArrays;
 import com.lightcrafts.utils.MemoryLimits;
 import com.lightcrafts.utils.cache.*;
 import com.sun.media.jai.util.CacheDiagnostics;
@@ -35,16 +34,22 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.prefs.Preferences;
+import java.util.zip.DataFormatException;
 
 /**
- * This is Sun Microsystems' reference implementation of the
- * <code>javax.media.jai.TileCache</code> interface.  It provides a
- * central location for images to cachedObject computed tiles, and is used as
- * the default tile cachedObject mechanism when no other tile cachedObject objects
+ * LightZone's implementation of the <code>javax.media.jai.TileCache</code>
+ * interface, derived from Sun Microsystems' reference implementation.  It
+ * provides a central location for images to cache computed tiles, and is
+ * used as the default tile cache mechanism when no other tile cache objects
  * are specified.
  *
- * <p> In this implementation, the cachedObject size is limited by the memory
+ * <p> In this implementation, the cache size is limited by the memory
  * capacity, which may be set at construction time or using the
  * <code>setMemoryCapacity(long)</code> method.  The tile capacity
  * is not used.  Different images may have very different tile sizes.
@@ -52,6 +57,13 @@ import java.util.prefs.Preferences;
  * greatly depends on the type of images involved.  In fact, the tile
  * capacity is rather meaningless.
  *
+ * <p> The cache is meant to be hit by many render threads at once: tiles
+ * are spread over lock stripes by key, and reading or touching a tile only
+ * takes the lock of its stripe.  Instead of keeping the tiles in an ordered
+ * list, each tile records its last access time, and memory control sorts a
+ * snapshot of the cache when tiles have to go, which is a lot less often
+ * than tiles are accessed.
+ *
  * @see javax.media.jai.TileCache
  *
  */
@@ -60,75 +72,105 @@ public final class LCTileCache extends Observable
                                 implements TileCache,
         CacheDiagnostics {
 
-    /** The default memory capacity of the cachedObject (16 MB). */
+    /** The default memory capacity of the cache (16 MB). */
     private static final long DEFAULT_MEMORY_CAPACITY = 16L * 1024L * 1024L;
 
-    /** The default hashtable capacity (heuristic) */
-    private static final int DEFAULT_HASHTABLE_CAPACITY = 1009; // prime number
+    /** The number of lock stripes, a power of two. */
+    private static final int NUM_SEGMENTS = 64;
 
-    /** The hashtable load factor */
-    private static final float LOAD_FACTOR = 0.5F;
+    /** The initial capacity of the hash map of each stripe. */
+    private static final int SEGMENT_CAPACITY = 32;
 
     /** Listener for the flush() method, to detect low memory situations. */
     @Setter
     private static LCTileCacheListener Listener;
 
     /**
-     * The tile cachedObject.
-     * A Hashtable is used to cachedObject the tiles.  The "key" is a
+     * A lock stripe of the tile cache: a map from tile keys to cached tiles,
+     * guarded by the segment's monitor.  The "key" is an
      * <code>Object</code> determined based on tile owner's UID if any or
-     * hashCode if the UID doesn't exist, and tile index.  The
-     * "value" is a LCCachedTile.
+     * hashCode if the UID doesn't exist, and tile index.
      */
-    @Getter
-    private Hashtable<Object, LCCachedTile> cachedObject;
+    private static final class Segment {
+        final HashMap<Object, LCCachedTile> tiles = new HashMap<>(SEGMENT_CAPACITY);
 
-    /**
-     * Sorted (Tree) Set used with tile metrics.
-     * Adds another level of metrics used to determine
-     * which tiles are removed during memoryControl().
-     */
-    private SortedSet<LCCachedTile> cacheSortedSet;
+        /**
+         * The keys of the tiles being read back from disk, outside the
+         * lock.  Other threads wait on the segment for them.
+         */
+        final HashSet<Object> reading = new HashSet<>();
 
-    private LinkedList<LCCachedTile> tileList;
+        /**
+         * Waits for the tile with the given key to be read back from disk
+         * if another thread is doing it.  The caller holds the lock.
+         *
+         * @return <code>false</code> if interrupted while waiting.
+         */
+        boolean awaitRead(Object key) {
+            while (reading.contains(key)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 
-    /** The memory capacity of the cachedObject. */
-    @Getter
-    private long memoryCapacity;
+    /** The tile cache, split in lock stripes. */
+    private final Segment[] segments;
+
+    /** Only one thread at a time runs memory control. */
+    private final ReentrantLock memoryControlLock = new ReentrantLock();
 
-    /** The amount of memory currently being used by the cachedObject. */
+    /** The memory capacity of the cache. */
     @Getter
-    private long cacheMemoryUsed = 0;
+    private volatile long memoryCapacity;
 
-    /** The amount of memory to keep after memory control */
-    private float memoryThreshold = 0.75F;
+    /** The amount of memory currently being used by the cache. */
+    private final AtomicLong cacheMemoryUsed = new AtomicLong();
+
+    /**
+     * The amount of memory of the tiles being written to disk, which is
+     * about to be freed.
+     */
+    private final AtomicLong spillingMemory = new AtomicLong();
 
-    /** A indicator for tile access time. */
-    private long timeStamp = 0;
+    /** The amount of memory to keep after memory control */
+    private volatile float memoryThreshold = 0.75F;
 
     /** Custom tileComparator used to determine tile cost or
-     *  priority ordering in the tile cachedObject.
+     *  priority ordering in the tile cache.
      */
     @Getter
-    private Comparator tileComparator = null;
+    private volatile Comparator tileComparator = null;
 
     /** Tile count used for diagnostics */
-    @Getter
-    private long cacheTileCount = 0;
+    private final AtomicLong cacheTileCount = new AtomicLong();
 
     /** Cache hit count */
-    @Getter
-    private long cacheHitCount = 0;
+    private final LongAdder cacheHitCount = new LongAdder();
 
     /** Cache miss count */
-    @Getter
-    private long cacheMissCount = 0;
+    private final LongAdder cacheMissCount = new LongAdder();
 
     /** Diagnostics enable/disable */
-    private boolean diagnostics;
+    private volatile boolean diagnostics;
 
     private Cache m_objectCache;
 
+    /** Encodes the tiles for the disk cache and keeps its statistics. */
+    private TileCacheCacheObjectBroker m_objectBroker;
+
+    /**
+     * The keys of the tiles spilled to disk, so that cache misses don't
+     * need to consult the disk cache (and take its lock) to find out that
+     * the tile isn't there either.
+     */
+    private final Set<Object> m_diskKeys = ConcurrentHashMap.newKeySet();
+
     // diagnostic actions
     // !!! If actions are changed in any way (removal, modification, addition)
     // then the getCachedTileActions() method below should be changed to match.
@@ -175,7 +217,7 @@ public final class LCTileCache extends Observable
     /**
      * Constructor.  The memory capacity should be explicitly specified.
      *
-     * @param memoryCapacity  The maximum cachedObject memory size in bytes.
+     * @param memoryCapacity  The maximum cache memory size in bytes.
      *
      * @throws IllegalArgumentException  If <code>memoryCapacity</code>
      *         is less than 0.
@@ -187,11 +229,10 @@ public final class LCTileCache extends Observable
 
         this.memoryCapacity = memoryCapacity;
 
-        // try to get a prime number (more efficient?)
-        // lower values of LOAD_FACTOR increase speed, decrease space efficiency
-        cachedObject = new Hashtable<>(DEFAULT_HASHTABLE_CAPACITY, LOAD_FACTOR);
-
-        tileList = new LinkedList<>();
+        segments = new Segment[NUM_SEGMENTS];
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
 
         if (useDisk) {
             m_objectCache = createDiskCache();
@@ -201,13 +242,21 @@ public final class LCTileCache extends Observable
         }
     }
 
+    /**
+     * Returns the lock stripe holding the tile with the given key.
+     */
+    private Segment segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (NUM_SEGMENTS - 1)];
+    }
 
     /**
-     * Adds a tile to the cachedObject.
+     * Adds a tile to the cache.
      *
-     * <p> If the specified tile is already in the cachedObject, it will not be
-     * cached again.  If by adding this tile, the cachedObject exceeds the memory
-     * capacity, older tiles in the cachedObject are removed to keep the cachedObject
+     * <p> If the specified tile is already in the cache, it will not be
+     * cached again.  If by adding this tile, the cache exceeds the memory
+     * capacity, older tiles in the cache are removed to keep the cache
      * memory usage under the specified limit.
      *
      * @param owner            The image the tile blongs to.
@@ -224,11 +273,11 @@ public final class LCTileCache extends Observable
     }
 
     /**
-     * Adds a tile to the cachedObject with an associated tile compute cost.
+     * Adds a tile to the cache with an associated tile compute cost.
      *
-     * <p> If the specified tile is already in the cachedObject, it will not be
-     * cached again.  If by adding this tile, the cachedObject exceeds the memory
-     * capacity, older tiles in the cachedObject are removed to keep the cachedObject
+     * <p> If the specified tile is already in the cache, it will not be
+     * cached again.  If by adding this tile, the cache exceeds the memory
+     * capacity, older tiles in the cache are removed to keep the cache
      * memory usage under the specified limit.
      *
      * @param owner            The image the tile blongs to.
@@ -238,110 +287,182 @@ public final class LCTileCache extends Observable
      * @param tileCacheMetric  Metric for prioritizing tiles
      */
     @Override
-    public synchronized void add(RenderedImage owner,
-                                 int tileX,
-                                 int tileY,
-                                 Raster tile,
-                                 Object tileCacheMetric) {
+    public void add(RenderedImage owner,
+                    int tileX,
+                    int tileY,
+                    Raster tile,
+                    Object tileCacheMetric) {
 
         if ( memoryCapacity == 0 ) {
             return;
         }
 
-        // This tile is not in the cachedObject; create a new LCCachedTile.
+        // This tile is not in the cache; create a new LCCachedTile.
         // else just update.
         Object key = LCCachedTile.hashKey(owner, tileX, tileY);
-        LCCachedTile ct = cachedObject.get(key);
-
-        if ( ct != null ) {
-            updateTileList(ct, UPDATE_FROM_ADD);
-        } else {
-            // create a new tile
-            ct = new LCCachedTile(owner, tileX, tileY, tile, tileCacheMetric);
-            updateTileList(ct, ADD);
-
-            // add to tile cachedObject
-            if ( cachedObject.put(ct.key, ct) == null ) {
-                cacheMemoryUsed += ct.tileSize;
-                cacheTileCount++;
-                //cacheMissCount++;  Not necessary?
-
-                if ( cacheSortedSet != null ) {
-                    cacheSortedSet.add(ct);
-                }
-            }
-
-            // Bring memory usage down to memoryThreshold % of memory capacity.
-            if (cacheMemoryUsed > memoryCapacity) {
-                memoryControl();
+        Segment segment = segmentFor(key);
+        LCCachedTile ct;
+        boolean added = false;
+
+        synchronized (segment) {
+            ct = segment.tiles.get(key);
+            if ( ct == null ) {
+                ct = new LCCachedTile(owner, tileX, tileY, tile, tileCacheMetric, key);
+                segment.tiles.put(key, ct);
+                added = true;
             }
         }
 
-        if (m_tileReaper != null) {
-            // TODO: do we need this?
-            synchronized ( this ) {
-                Reference<RenderedImage> weakKey = null;
-
-                Set<Reference<RenderedImage>> keySet = m_imageMap.keySet();
-                for (Reference<RenderedImage> ref : keySet) {
-                    if (ref.get() == owner) {
-                        weakKey = ref;
-                        break;
-                    }
-                }
+        if ( added ) {
+            tileAdded(ct, owner);
+        } else {
+            touch(ct, UPDATE_FROM_ADD);
+        }
+    }
 
-                // weakKey = (WeakReference) m_weakRefMap.get(owner);
+    /**
+     * Does the bookkeeping of a tile just put in a segment: memory
+     * accounting, registration of the owner with the tile reaper and memory
+     * control.
+     */
+    private void tileAdded(LCCachedTile ct, RenderedImage owner) {
+        touch(ct, ADD);
 
-                if (weakKey == null) {
-                    weakKey = new WeakReference<>( owner, m_tileReaper.getRefQ() );
-                    // m_weakRefMap.put(owner, weakKey);
-                }
+        cacheTileCount.incrementAndGet();
 
-                Set<Object> hashKeys = m_imageMap.computeIfAbsent(weakKey, k -> new HashSet<>());
+        if (m_tileReaper != null) {
+            registerTile(owner, ct.key);
+        }
 
-                hashKeys.add(key);
-            }
+        // Bring memory usage down to memoryThreshold % of memory capacity.
+        if (cacheMemoryUsed.addAndGet(ct.tileSize) > memoryCapacity) {
+            memoryControl(memoryThreshold, false);
         }
     }
 
-    private boolean removeFromTileList(Object key, int action) {
-        LCCachedTile ct = cachedObject.remove(key);
-
-        if (ct != null) {
-            cacheMemoryUsed -= ct.tileSize;
-            cacheTileCount--;
+    /**
+     * Records the key of a tile for its owner, so that the tile reaper can
+     * clean up after the owner is garbage collected.
+     */
+    private void registerTile(RenderedImage owner, Object key) {
+        Set<Object> hashKeys = m_imageMap.get(new OwnerReference(owner, null));
+        if (hashKeys == null) {
+            hashKeys = m_imageMap.computeIfAbsent(
+                new OwnerReference(owner, m_tileReaper.getRefQ()),
+                k -> ConcurrentHashMap.newKeySet()
+            );
+        }
+        hashKeys.add(key);
+    }
 
-            if ( cacheSortedSet != null ) {
-                cacheSortedSet.remove(ct);
+    /**
+     * Removes a tile that memory control picked from its segment if it is
+     * still the cached tile for its key.
+     *
+     * @return <code>true</code> if the tile was removed.
+     */
+    private boolean evict(LCCachedTile ct) {
+        Segment segment = segmentFor(ct.key);
+        synchronized (segment) {
+            if (segment.tiles.get(ct.key) != ct || ct.spilling) {
+                return false;
             }
+            segment.tiles.remove(ct.key);
+        }
+        tileRemoved(ct, REMOVE_FROM_MEMCON);
+        return true;
+    }
 
-            tileList.remove(ct);
+    /**
+     * Marks a tile that memory control picked as being written to disk, if
+     * it is still the cached tile for its key.  The tile stays in its
+     * segment, and readable, until it is on disk.
+     *
+     * @return <code>true</code> if the tile is to be spilled.
+     */
+    private boolean markSpilling(LCCachedTile ct) {
+        Segment segment = segmentFor(ct.key);
+        synchronized (segment) {
+            if (segment.tiles.get(ct.key) != ct || ct.spilling) {
+                return false;
+            }
+            ct.spilling = true;
+        }
+        spillingMemory.addAndGet(ct.tileSize);
+        return true;
+    }
 
-            // Notify observers that a tile has been removed.
-            if ( diagnostics ) {
-                ct.action = action;
-                setChanged();
-                notifyObservers(ct);
+    /**
+     * Writes tiles marked by {@link #markSpilling(LCCachedTile)} to disk
+     * without holding any lock, then removes each one from its segment if
+     * it is still the cached tile for its key.  If it isn't, because it was
+     * removed in the mean time, its copy on disk is dropped.  A tile that
+     * couldn't be written is removed all the same.
+     */
+    private void spill(List<LCCachedTile> tiles) {
+        for (LCCachedTile ct : tiles) {
+            try {
+                final boolean written = writeTileToDisk(ct);
+                final Segment segment = segmentFor(ct.key);
+                boolean removed = false;
+                synchronized (segment) {
+                    ct.spilling = false;
+                    if (segment.tiles.get(ct.key) == ct) {
+                        segment.tiles.remove(ct.key);
+                        if (written) {
+                            m_diskKeys.add(ct.key);
+                        }
+                        removed = true;
+                    }
+                }
+                if (removed) {
+                    tileRemoved(ct, REMOVE_FROM_MEMCON);
+                } else if (written) {
+                    m_objectCache.remove(ct.key);
+                }
+            } finally {
+                spillingMemory.addAndGet(-ct.tileSize);
             }
+        }
+    }
 
+    /**
+     * Removes the tile with the given key from its segment, if any.
+     *
+     * @return <code>true</code> if a tile was removed.
+     */
+    private boolean removeFromTileList(Object key, int action) {
+        LCCachedTile ct;
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.awaitRead(key);
+            ct = segment.tiles.remove(key);
+        }
+        if (ct != null) {
+            tileRemoved(ct, action);
             return true;
         }
         return false;
     }
 
-    private void updateTileList(LCCachedTile ct, int action) {
-        ct.tileTimeStamp = timeStamp++;
+    private void tileRemoved(LCCachedTile ct, int action) {
+        cacheMemoryUsed.addAndGet(-ct.tileSize);
+        cacheTileCount.decrementAndGet();
 
-        if (tileList.isEmpty()) {
-            tileList.add(ct);
-        }
-        else if (!tileList.getFirst().equals(ct)) {
-            // Bring this tile to the beginning of the list.
-            tileList.remove(ct);
-            tileList.addFirst(ct);
+        // Notify observers that a tile has been removed.
+        if ( diagnostics ) {
+            ct.action = action;
+            setChanged();
+            notifyObservers(ct);
         }
+    }
 
-        cacheHitCount++;
+    /**
+     * Marks a tile as just used.  This is the only thing a cache hit does
+     * besides looking up its segment, and it doesn't take any lock.
+     */
+    private void touch(LCCachedTile ct, int action) {
+        ct.tileTimeStamp = System.nanoTime();
 
         if ( diagnostics ) {
             ct.action = action;
@@ -351,106 +472,141 @@ public final class LCTileCache extends Observable
     }
 
     /**
-     * Removes a tile from the cachedObject.
+     * Removes a tile from the cache.
      *
-     * <p> If the specified tile is not in the cachedObject, this method
+     * <p> If the specified tile is not in the cache, this method
      * does nothing.
      */
     @Override
-    public synchronized void remove(RenderedImage owner,
-                                    int tileX,
-                                    int tileY) {
+    public void remove(RenderedImage owner,
+                       int tileX,
+                       int tileY) {
 
         if ( memoryCapacity == 0 ) {
             return;
         }
 
         Object key = LCCachedTile.hashKey(owner, tileX, tileY);
-        LCCachedTile ct = cachedObject.get(key);
+        LCCachedTile ct;
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            // A tile on its way back from disk would come back removed
+            segment.awaitRead(key);
+            ct = segment.tiles.remove(key);
+        }
 
         if ( ct != null ) {
-            // Notify observers that a tile is about to be removed.
-            // It is possible that the tile will be removed from the
-            // cachedObject before the observers get notified.  This should
-            // be ok, since a hard reference to the tile will be
-            // kept for the observers, so the garbage collector won't
-            // remove the tile until the observers release it.
-            ct.action = ABOUT_TO_REMOVE;
-            setChanged();
-            notifyObservers(ct);
+            if ( diagnostics ) {
+                // Notify observers that a tile is about to be removed.
+                // A hard reference to the tile is kept for the observers, so
+                // the garbage collector won't remove the tile until the
+                // observers release it.
+                ct.action = ABOUT_TO_REMOVE;
+                setChanged();
+                notifyObservers(ct);
+            }
 
-            removeFromTileList(key, REMOVE);
+            tileRemoved(ct, REMOVE);
         } else {
-            // if the tile is not in the memory cachedObject than it might be on disk...
-            if (m_objectCache != null && m_objectCache.contains(key)) {
+            // if the tile is not in the memory cache than it might be on disk...
+            if (m_objectCache != null && m_diskKeys.remove(key)) {
                 m_objectCache.remove(key);
-                tilesOnDisk--;
             }
         }
     }
 
     /**
-     * Retrieves a tile from the cachedObject.
+     * Retrieves a tile from the cache.
      *
-     * <p> If the specified tile is not in the cachedObject, this method
+     * <p> If the specified tile is not in the cache, this method
      * returns <code>null</code>.  If the specified tile is in the
-     * cachedObject, its last-access time is updated.
+     * cache, its last-access time is updated.
      *
      * @param owner  The image the tile blongs to.
      * @param tileX  The tile's X index within the image.
      * @param tileY  The tile's Y index within the image.
      */
     @Override
-    public synchronized Raster getTile(RenderedImage owner,
-                                       int tileX,
-                                       int tileY) {
+    public Raster getTile(RenderedImage owner,
+                          int tileX,
+                          int tileY) {
         if ( memoryCapacity == 0 )
             return null;
 
         Object key = LCCachedTile.hashKey(owner, tileX, tileY);
-        LCCachedTile ct = cachedObject.get(key);
-
-        if (m_objectCache != null && ct == null) {
-            Raster raster = readTileFromDisk(owner, tileX, tileY, key);
-            if (raster != null) {
-                add(owner, tileX, tileY, raster, null);
-                ct = cachedObject.get(key);
-                assert ct != null;
+        Segment segment = segmentFor(key);
+        LCCachedTile ct;
+        boolean readFromDisk = false;
+
+        synchronized (segment) {
+            ct = segment.tiles.get(key);
+
+            // Only one thread reads a given tile back, the others wait for
+            // it rather than for the segment lock.
+            if (ct == null && m_objectCache != null) {
+                if (segment.awaitRead(key)) {
+                    ct = segment.tiles.get(key);
+                }
+                if (ct == null && !segment.reading.contains(key)
+                        && m_diskKeys.contains(key)) {
+                    segment.reading.add(key);
+                    readFromDisk = true;
+                }
             }
         }
 
-        Raster tile = null;
+        if (readFromDisk) {
+            Raster raster = null;
+            try {
+                raster = readTileFromDisk(owner, tileX, tileY, key);
+            } finally {
+                synchronized (segment) {
+                    segment.reading.remove(key);
+                    if (raster != null) {
+                        ct = new LCCachedTile(owner, tileX, tileY, raster, null, key);
+                        segment.tiles.put(key, ct);
+                    } else {
+                        readFromDisk = false;
+                    }
+                    segment.notifyAll();
+                }
+            }
+        }
 
         if ( ct == null ) {
-            cacheMissCount++;
-        } else {    // found tile in cachedObject
-            tile = ct.getTile();
-
-            updateTileList(ct, UPDATE_FROM_GETTILE);
+            cacheMissCount.increment();
+            return null;
         }
 
-        return tile;
+        // found tile in cache
+        cacheHitCount.increment();
+        if (readFromDisk) {
+            tileAdded(ct, owner);
+        } else {
+            touch(ct, UPDATE_FROM_GETTILE);
+        }
+        return ct.getTile();
     }
 
     /**
-     * Retrieves a contiguous array of all tiles in the cachedObject which are
+     * Retrieves a contiguous array of all tiles in the cache which are
      * owned by the specified image.  May be <code>null</code> if there
-     * were no tiles in the cachedObject.  The array contains no null entries.
+     * were no tiles in the cache.  The array contains no null entries.
      *
      * @param owner The <code>RenderedImage</code> to which the tiles belong.
      * @return An array of all tiles owned by the specified image or
-     *         <code>null</code> if there are none currently in the cachedObject.
+     *         <code>null</code> if there are none currently in the cache.
      */
     @Override
-    public synchronized Raster[] getTiles(RenderedImage owner) {
+    public Raster[] getTiles(RenderedImage owner) {
         Raster[] tiles = null;
 
         if ( memoryCapacity == 0 ) {
             return null;
         }
 
-        int size = Math.min(owner.getNumXTiles() * owner.getNumYTiles(),
-                            (int) cacheTileCount);
+        int size = (int) Math.min((long) owner.getNumXTiles() * owner.getNumYTiles(),
+                                  cacheTileCount.get() + m_diskKeys.size());
 
         if ( size > 0 ) {
             int minTx = owner.getMinTileX();
@@ -458,8 +614,8 @@ public final class LCTileCache extends Observable
             int maxTx = minTx + owner.getNumXTiles();
             int maxTy = minTy + owner.getNumYTiles();
 
-            // arbitrarily set a temporary vector size
-            Vector<Raster> temp = new Vector<>(10, 20);
+            // arbitrarily set a temporary list size
+            List<Raster> temp = new ArrayList<>(Math.min(size, 64));
 
             for (int y = minTy; y < maxTy; y++) {
                 for (int x = minTx; x < maxTx; x++) {
@@ -482,9 +638,9 @@ public final class LCTileCache extends Observable
 
     /**
      * Removes all the tiles that belong to a <code>RenderedImage</code>
-     * from the cachedObject.
+     * from the cache.
      *
-     * @param owner  The image whose tiles are to be removed from the cachedObject.
+     * @param owner  The image whose tiles are to be removed from the cache.
      */
     @Override
     public void removeTiles(RenderedImage owner) {
@@ -503,7 +659,7 @@ public final class LCTileCache extends Observable
     }
 
     /**
-     * Adds an array of tiles to the tile cachedObject.
+     * Adds an array of tiles to the tile cache.
      *
      * @param owner The <code>RenderedImage</code> that the tile belongs to.
      * @param tileIndices An array of <code>Point</code>s containing the
@@ -514,10 +670,10 @@ public final class LCTileCache extends Observable
      * @since 1.1
      */
     @Override
-    public synchronized void addTiles(RenderedImage owner,
-                                      Point[] tileIndices,
-                                      Raster[] tiles,
-                                      Object tileCacheMetric) {
+    public void addTiles(RenderedImage owner,
+                         Point[] tileIndices,
+                         Raster[] tiles,
+                         Object tileCacheMetric) {
 
         if ( memoryCapacity == 0 ) {
             return;
@@ -533,9 +689,9 @@ public final class LCTileCache extends Observable
     }
 
     /**
-     * Returns an array of tile <code>Raster</code>s from the cachedObject.
+     * Returns an array of tile <code>Raster</code>s from the cache.
      * Any or all of the elements of the returned array may be <code>null</code>
-     * if the corresponding tile is not in the cachedObject.
+     * if the corresponding tile is not in the cache.
      *
      * @param owner The <code>RenderedImage</code> that the tile belongs to.
      * @param tileIndices  An array of <code>Point</code>s containing the
@@ -543,7 +699,7 @@ public final class LCTileCache extends Observable
      * @since 1.1
      */
     @Override
-    public synchronized Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
+    public Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
 
         if ( memoryCapacity == 0 ) {
             return null;
@@ -561,61 +717,48 @@ public final class LCTileCache extends Observable
         return tiles;
     }
 
-    /** Removes -ALL- tiles from the cachedObject. */
+    /** Removes -ALL- tiles from the cache. */
     @Override
-    public synchronized void flush() {
+    public void flush() {
         // Call the LCTileCacheListener, if one is defined.  This helps detect
         // low memory conditions.
         if (Listener != null) {
             Listener.tileCacheFlushed();
         }
-        // NOTE: we don't do flushing for disk caches, it wipes the persistent cachedObject, rather spill half of the cachedObject out
+        // NOTE: we don't do flushing for disk caches, it wipes the persistent cache, rather spill half of the cache out
         if (m_objectCache != null) {
-            System.err.println("flushing the cachedObject");
-            float mt = memoryThreshold;
-            memoryThreshold = 0.1f;
-            memoryControl();
-            memoryThreshold = mt;
+            System.err.println("flushing the cache");
+            memoryControl(0.1f, true);
             return;
         }
 
         //
-        // It is necessary to clear all the elements
-        // from the old cachedObject in order to remove dangling
-        // references, due to the linked list.  In other
-        // words, it is possible to reache the object
-        // through 2 paths so the object does not
-        // become weakly reachable until the reference
-        // to it in the hash map is null. It is not enough
-        // to just set the object to null.
+        // Swap out the map of each segment and account for the tiles it
+        // held: tiles added concurrently by other threads go to the new
+        // maps and stay consistent with the counters.
         //
-        cachedObject.forEach((key, ct) -> removeFromTileList(key, REMOVE_FROM_FLUSH));
-
-        // reset counters before diagnostics
-        cacheHitCount = 0;
-        cacheMissCount = 0;
-
-        if ( memoryCapacity > 0 ) {
-            cachedObject = new Hashtable<>(DEFAULT_HASHTABLE_CAPACITY, LOAD_FACTOR);
-        }
-
-        if ( cacheSortedSet != null ) {
-            cacheSortedSet.clear();
-            cacheSortedSet = Collections.synchronizedSortedSet( new TreeSet<LCCachedTile>(tileComparator) );
+        for (Segment segment : segments) {
+            Collection<LCCachedTile> removed;
+            synchronized (segment) {
+                if (segment.tiles.isEmpty()) {
+                    continue;
+                }
+                removed = new ArrayList<>(segment.tiles.values());
+                segment.tiles.clear();
+            }
+            for (LCCachedTile ct : removed) {
+                tileRemoved(ct, REMOVE_FROM_FLUSH);
+            }
         }
 
-        tileList.clear();
-
-        // force reset after diagnostics
-        cacheTileCount = 0;
-        timeStamp   = 0;
-        cacheMemoryUsed = 0;
+        // reset counters after diagnostics
+        resetCounts();
 
         // no System.gc() here, it's too slow and may occur anyway.
     }
 
     /**
-     * Returns the cachedObject's tile capacity.
+     * Returns the cache's tile capacity.
      *
      * <p> This implementation of <code>TileCache</code> does not use
      * the tile capacity.  This method always returns 0.
@@ -624,27 +767,27 @@ public final class LCTileCache extends Observable
     public int getTileCapacity() { return 0; }
 
     /**
-     * Sets the cachedObject's tile capacity to the desired number of tiles.
+     * Sets the cache's tile capacity to the desired number of tiles.
      *
      * <p> This implementation of <code>TileCache</code> does not use
-     * the tile capacity.  The cachedObject size is limited by the memory
+     * the tile capacity.  The cache size is limited by the memory
      * capacity only.  This method does nothing and has no effect on
-     * the cachedObject.
+     * the cache.
      *
-     * @param tileCapacity  The desired tile capacity for this cachedObject
+     * @param tileCapacity  The desired tile capacity for this cache
      *        in number of tiles.
      */
     @Override
     public void setTileCapacity(int tileCapacity) { }
 
     /**
-     * Sets the cachedObject's memory capacity to the desired number of bytes.
+     * Sets the cache's memory capacity to the desired number of bytes.
      * If the new memory capacity is smaller than the amount of memory
-     * currently being used by this cachedObject, tiles are removed from the
-     * cachedObject until the memory usage is less than the specified memory
+     * currently being used by this cache, tiles are removed from the
+     * cache until the memory usage is less than the specified memory
      * capacity.
      *
-     * @param memoryCapacity  The desired memory capacity for this cachedObject
+     * @param memoryCapacity  The desired memory capacity for this cache
      *        in bytes.
      *
      * @throws IllegalArgumentException  If <code>memoryCapacity</code>
@@ -660,7 +803,7 @@ public final class LCTileCache extends Observable
 
         this.memoryCapacity = memoryCapacity;
 
-        if ( cacheMemoryUsed > memoryCapacity ) {
+        if ( cacheMemoryUsed.get() > memoryCapacity ) {
             memoryControl();
         }
     }
@@ -684,8 +827,8 @@ public final class LCTileCache extends Observable
      */
     @Override
     public void resetCounts() {
-        cacheHitCount = 0;
-        cacheMissCount = 0;
+        cacheHitCount.reset();
+        cacheMissCount.reset();
     }
 
     /**
@@ -713,115 +856,270 @@ public final class LCTileCache extends Observable
         return memoryThreshold;
     }
 
+    /** Returns the amount of memory currently being used by the cache. */
+    @Override
+    public long getCacheMemoryUsed() {
+        return cacheMemoryUsed.get();
+    }
+
+    /** Returns the number of tiles currently in the cache. */
+    @Override
+    public long getCacheTileCount() {
+        return cacheTileCount.get();
+    }
+
+    /** Returns the number of cache hits. */
+    @Override
+    public long getCacheHitCount() {
+        return cacheHitCount.sum();
+    }
+
+    /** Returns the number of cache misses. */
+    @Override
+    public long getCacheMissCount() {
+        return cacheMissCount.sum();
+    }
+
     /** Returns a string representation of the class object. */
     @Override
     public String toString() {
         return getClass().getName() + "@" + Integer.toHexString(hashCode()) +
                ": memoryCapacity = " + Long.toHexString(memoryCapacity) +
-               " cacheMemoryUsed = " + Long.toHexString(cacheMemoryUsed) +
-               " #tilesInCache = " + cachedObject.size();
+               " cacheMemoryUsed = " + Long.toHexString(cacheMemoryUsed.get()) +
+               " #tilesInCache = " + cacheTileCount.get();
     }
 
     /**
-     * Removes tiles from the cachedObject based on their last-access time
-     * (old to new) until the memory usage is memoryThreshold % of that of the
-     * memory capacity.
+     * Removes tiles from the cache based on their last-access time
+     * (old to new), or on the tile comparator if one is set, until the
+     * memory usage is memoryThreshold % of that of the memory capacity.
      */
     @Override
-    public synchronized void memoryControl() {
-        if ( cacheSortedSet == null ) {
-            standard_memory_control();
-        } else {
-            custom_memory_control();
+    public void memoryControl() {
+        memoryControl(memoryThreshold, true);
+    }
+
+    /**
+     * A tile and its last access time at the time memory control looked
+     * at it, so that concurrent accesses don't upset the sorting.
+     */
+    private static final class EvictionCandidate {
+        final LCCachedTile tile;
+        final long timeStamp;
+
+        EvictionCandidate(LCCachedTile tile) {
+            this.tile = tile;
+            timeStamp = tile.tileTimeStamp;
         }
     }
 
-    // time stamp based memory control (LRU)
-    private void standard_memory_control() {
-        long limit = (long)(memoryCapacity * memoryThreshold);
+    /**
+     * Brings memory usage down to <code>threshold</code> % of the memory
+     * capacity.  If <code>wait</code> is false and another thread is
+     * already doing memory control, we just let it do the job.
+     */
+    @SuppressWarnings("unchecked")
+    private void memoryControl(float threshold, boolean wait) {
+        if (wait) {
+            memoryControlLock.lock();
+        } else if (!memoryControlLock.tryLock()) {
+            return;
+        }
+        // The tiles to write to disk once memory control is done
+        final List<LCCachedTile> toSpill = new ArrayList<>();
+        try {
+            final long limit = (long)(memoryCapacity * threshold);
+            if (cacheMemoryUsed.get() - spillingMemory.get() <= limit) {
+                return;
+            }
 
-        while( cacheMemoryUsed > limit && ! tileList.isEmpty() ) {
-            final Object lastKey = tileList.getLast().key;
-            LCCachedTile ct = cachedObject.get(lastKey);
+            final List<EvictionCandidate> candidates = snapshot();
+            final Comparator comparator = tileComparator;
+            if (comparator != null) {
+                // tileComparator based memory control
+                candidates.sort((c1, c2) -> comparator.compare(c1.tile, c2.tile));
+            } else {
+                // time stamp based memory control (LRU)
+                candidates.sort(Comparator.comparingLong(c -> c.timeStamp));
+            }
 
-            if ( ct != null ) {
+            for (EvictionCandidate candidate : candidates) {
+                if (cacheMemoryUsed.get() - spillingMemory.get() <= limit) {
+                    break;
+                }
+                final LCCachedTile ct = candidate.tile;
+                boolean spill = false;
                 if (m_objectCache != null) {
                     RenderedImage owner = ct.getOwner();
-                    if (owner != null && owner.getProperty(JAIContext.PERSISTENT_CACHE_TAG) == Boolean.TRUE) {
-                        writeTileToDisk(ct, lastKey);
-                    }
+                    spill = owner != null
+                            && owner.getProperty(JAIContext.PERSISTENT_CACHE_TAG) == Boolean.TRUE;
+                }
+                if (!spill) {
+                    evict(ct);
+                } else if (markSpilling(ct)) {
+                    toSpill.add(ct);
                 }
-                removeFromTileList(lastKey, REMOVE_FROM_MEMCON);
             }
+        } finally {
+            memoryControlLock.unlock();
         }
+        // Compressing and writing tiles takes a while, other threads can
+        // get and add tiles and run memory control in the mean time.
+        spill(toSpill);
     }
 
-    private static class TileCacheCacheObjectBroker implements CacheObjectBroker {
+    /** Returns all the tiles currently in memory. */
+    private List<EvictionCandidate> snapshot() {
+        final List<EvictionCandidate> tiles =
+            new ArrayList<>((int) Math.max(cacheTileCount.get(), 16));
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (LCCachedTile ct : segment.tiles.values()) {
+                    tiles.add(new EvictionCandidate(ct));
+                }
+            }
+        }
+        return tiles;
+    }
 
-        @Override
-        public int getEncodedSizeOf( Object obj ) {
-            if ( obj instanceof byte[] ) {
-                final byte[] ba = (byte[])obj;
-                return ba.length;
-            } else if ( obj instanceof short[] ) {
-                final short[] sa = (short[])obj;
-                return sa.length * 2;
-            } else if ( obj instanceof int[] ) {
-                final int[] ia = (int[])obj;
-                return ia.length * 4;
-            } else
+    /**
+     * The samples of a tile on their way to or from the disk cache, along
+     * with the layout information that the spill codec needs.
+     */
+    private static final class SpilledTile {
+        final Object data;          // byte[], short[] or int[]
+        final int pixelStride;
+        final int scanlineStride;
+        byte[] packed;              // the compressed samples, if any
+
+        SpilledTile( Object data, SampleModel sm ) {
+            this.data = data;
+            if ( sm instanceof ComponentSampleModel ) {
+                pixelStride = ((ComponentSampleModel)sm).getPixelStride();
+                scanlineStride = ((ComponentSampleModel)sm).getScanlineStride();
+            } else {
+                pixelStride = 1;
+                scanlineStride = sm.getWidth();
+            }
+        }
+
+        int rawSize() {
+            if ( data instanceof byte[] )
+                return ((byte[])data).length;
+            else if ( data instanceof short[] )
+                return ((short[])data).length * 2;
+            else if ( data instanceof int[] )
+                return ((int[])data).length * 4;
+            else
                 throw new IllegalArgumentException(
-                    "can't get size of " + obj.getClass()
+                    "can't get size of " + data.getClass()
                 );
         }
+    }
+
+    /**
+     * Every encoded tile starts with an int telling whether the samples
+     * that follow are raw or compressed, so that compression can be turned
+     * on and off while there are tiles on disk.
+     */
+    private static final int RAW_TILE = 0;
+    private static final int PACKED_TILE = 1;
+    private static final int HEADER_SIZE = 4;
+
+    private static final class TileCacheCacheObjectBroker implements CacheObjectBroker {
+
+        volatile boolean compress;
+
+        final LongAdder rawBytes = new LongAdder();
+        final LongAdder storedBytes = new LongAdder();
+        final LongAdder tilesDecoded = new LongAdder();
+        final LongAdder decodeTime = new LongAdder();
+
+        TileCacheCacheObjectBroker( boolean compress ) {
+            this.compress = compress;
+        }
 
-        // TODO: cachedObject the ByteBuffer with a soft reference
+        @Override
+        public int getEncodedSizeOf( Object obj ) {
+            final SpilledTile tile = (SpilledTile)obj;
+            if ( compress && tile.packed == null ) {
+                if ( tile.data instanceof short[] )
+                    tile.packed = TileSpillCodec.encode(
+                        (short[])tile.data, tile.pixelStride, tile.scanlineStride
+                    );
+                else if ( tile.data instanceof byte[] )
+                    tile.packed = TileSpillCodec.encode(
+                        (byte[])tile.data, tile.pixelStride, tile.scanlineStride
+                    );
+            }
+            return HEADER_SIZE +
+                (tile.packed != null ? tile.packed.length : tile.rawSize());
+        }
 
         @Override
-        public Object decodeFromByteBuffer( ByteBuffer buf, Object obj ) {
-            if ( obj instanceof byte[] )
-                if ( buf.hasArray() ) 
-                    LCArrays.copy( buf.array(), 0, (byte[])obj, 0, buf.capacity() );
-                else
+        public Object decodeFromByteBuffer( ByteBuffer buf, Object aux ) {
+            final long start = System.nanoTime();
+            final SpilledTile tile = (SpilledTile)aux;
+            final Object obj = tile.data;
+            buf.position( 0 );
+            final int format = buf.getInt();
+            try {
+                if ( format == PACKED_TILE ) {
+                    if ( obj instanceof short[] )
+                        TileSpillCodec.decode(
+                            buf, (short[])obj, tile.pixelStride, tile.scanlineStride
+                        );
+                    else if ( obj instanceof byte[] )
+                        TileSpillCodec.decode(
+                            buf, (byte[])obj, tile.pixelStride, tile.scanlineStride
+                        );
+                    else
+                        throw new IllegalArgumentException(
+                            "can't decode " + obj.getClass()
+                        );
+                } else if ( obj instanceof byte[] )
                     buf.get( (byte[])obj );
-            else if ( obj instanceof short[] )
-                if ( buf.hasArray() ) 
-                    LCArrays.copy( buf.array(), 0, (short[])obj, 0, buf.capacity() );
-                else
+                else if ( obj instanceof short[] )
                     buf.asShortBuffer().get( (short[])obj );
-            else if ( obj instanceof int[] )
-                if ( buf.hasArray() ) 
-                    LCArrays.copy( buf.array(), 0, (int[])obj, 0, buf.capacity() );
-                else
+                else if ( obj instanceof int[] )
                     buf.asIntBuffer().get( (int[])obj );
-            else
-                throw new IllegalArgumentException(
-                    "can't decode " + obj.getClass()
-                );
+                else
+                    throw new IllegalArgumentException(
+                        "can't decode " + obj.getClass()
+                    );
+            }
+            catch ( DataFormatException e ) {
+                e.printStackTrace();
+                return null;
+            }
+            tilesDecoded.increment();
+            decodeTime.add( System.nanoTime() - start );
             return obj;
         }
 
         @Override
         public void encodeToByteBuffer( ByteBuffer buf, Object obj ) {
-            if ( obj instanceof byte[] )
-                if ( buf.hasArray() ) 
-                    LCArrays.copy( (byte[])obj, 0, buf.array(), 0, buf.capacity() );
+            final SpilledTile tile = (SpilledTile)obj;
+            final Object data = tile.data;
+            buf.position( 0 );
+            if ( tile.packed != null ) {
+                buf.putInt( PACKED_TILE );
+                buf.put( tile.packed );
+            } else {
+                buf.putInt( RAW_TILE );
+                if ( data instanceof byte[] )
+                    buf.put( (byte[])data );
+                else if ( data instanceof short[] )
+                    buf.asShortBuffer().put( (short[])data );
+                else if ( data instanceof int[] )
+                    buf.asIntBuffer().put( (int[])data );
                 else
-                    buf.put( (byte[])obj );
-            else if ( obj instanceof short[] )
-                if ( buf.hasArray() ) 
-                    LCArrays.copy( (short[])obj, 0, buf.array(), 0, buf.capacity() );
-                else
-                    buf.asShortBuffer().put( (short[])obj );
-            else if ( obj instanceof int[] )
-                if ( buf.hasArray() ) 
-                    LCArrays.copy( (int[])obj, 0, buf.array(), 0, buf.capacity() );
-                else
-                    buf.asIntBuffer().put( (int[])obj );
-            else
-                throw new IllegalArgumentException(
-                    "can't encode " + obj.getClass()
-                );
+                    throw new IllegalArgumentException(
+                        "can't encode " + data.getClass()
+                    );
+            }
+            rawBytes.add( tile.rawSize() );
+            storedBytes.add( buf.limit() );
         }
     }
 
@@ -843,6 +1141,8 @@ public final class LCTileCache extends Observable
 
     private final static String CacheDirKey = "ScratchDirectory";
 
+    private final static String CompressionKey = "ScratchCompression";
+
     private File tmpFile = null;
 
     private Cache createDiskCache() {
@@ -877,8 +1177,12 @@ public final class LCTileCache extends Observable
 
             System.out.println("Allocating " + (extraCacheSize / (1024 * 1024)) + "MB for the image cachedObject.");
 
+            m_objectBroker = new TileCacheCacheObjectBroker(
+                Prefs.getBoolean(CompressionKey, false)
+            );
+
             return new Cache(
-                new TileCacheCacheObjectBroker(),
+                m_objectBroker,
                 extraCacheSize < 128 * 1024 * 1024 ?
                     new WriteThroughCacheObjectMap() :
                     new LRUCacheObjectMap(
@@ -897,10 +1201,11 @@ public final class LCTileCache extends Observable
     // private static final long CACHE_SIZE = (long) (1024 * 1024 * 1024);
     private static final int CHUNK_SIZE = 16 * 1024 * 1024;
 
-    public synchronized void dispose() throws IOException {
-        m_objectCache.dispose();
+    public void dispose() throws IOException {
+        if (m_objectCache != null)
+            m_objectCache.dispose();
 
-        // Close and delete the old cachedObject file
+        // Close and delete the old cache file
         if (m_tileReaper != null)
             m_tileReaper.kill();
 
@@ -917,49 +1222,84 @@ public final class LCTileCache extends Observable
         super.finalize();
     }
 
-    private long tilesWritten = 0;
-    private long tilesRead = 0;
-    private long tilesOnDisk = 0;
+    private final AtomicLong tilesWritten = new AtomicLong();
+    private final AtomicLong tilesRead = new AtomicLong();
 
     public long tilesWritten() {
-        return tilesWritten;
+        return tilesWritten.get();
     }
 
     public long tilesRead() {
-        return tilesRead;
+        return tilesRead.get();
     }
 
     public long tilesOnDisk() {
-        return tilesOnDisk;
+        return m_diskKeys.size();
+    }
+
+    /**
+     * Turns compression of the tiles spilled to disk on or off.  Tiles
+     * already on disk stay readable either way.
+     */
+    public void setSpillCompression(boolean compress) {
+        if (m_objectBroker != null)
+            m_objectBroker.compress = compress;
+    }
+
+    public boolean isSpillCompression() {
+        return m_objectBroker != null && m_objectBroker.compress;
+    }
+
+    /**
+     * Returns the ratio between the raw size and the size on disk of the
+     * tiles spilled so far, 1 if nothing was compressed.
+     */
+    public double spillCompressionRatio() {
+        if (m_objectBroker == null)
+            return 1;
+        final long stored = m_objectBroker.storedBytes.sum();
+        return stored > 0 ? m_objectBroker.rawBytes.sum() / (double) stored : 1;
+    }
+
+    /**
+     * Returns the average time, in microseconds, spent decoding a tile read
+     * back from disk, not counting the disk read itself.
+     */
+    public double spillDecodeTime() {
+        if (m_objectBroker == null)
+            return 0;
+        final long tiles = m_objectBroker.tilesDecoded.sum();
+        return tiles > 0 ? m_objectBroker.decodeTime.sum() / (1000. * tiles) : 0;
     }
 
     private Raster readTileFromDisk(RenderedImage owner, int tileX, int tileY, Object key) {
-        if (m_objectCache.contains(key)) {
+        if (m_diskKeys.remove(key)) {
             SampleModel sm = owner.getSampleModel();
             DataBuffer db = sm.createDataBuffer();
 
             try {
+                Object data;
                 switch (db.getDataType()) {
                     case DataBuffer.TYPE_BYTE:
-                        m_objectCache.getOnce(key, ((DataBufferByte) db).getData());
+                        data = ((DataBufferByte) db).getData();
                         break;
 
                     case DataBuffer.TYPE_USHORT:
-                        m_objectCache.getOnce(key, ((DataBufferUShort) db).getData());
+                        data = ((DataBufferUShort) db).getData();
                         break;
 
                     case DataBuffer.TYPE_INT:
-                        m_objectCache.getOnce(key, ((DataBufferInt) db).getData());
+                        data = ((DataBufferInt) db).getData();
                         break;
 
                     default:
                         throw new IllegalArgumentException("unsupported image type " + db.getClass());
                 }
-                synchronized (this) {
-                    tilesOnDisk--;
-                }
+                if (m_objectCache.getOnce(key, new SpilledTile(data, sm)) == null)
+                    return null;
             } catch (IOException e) {
                 e.printStackTrace();
+                return null;
             }
 
             WritableRaster raster;
@@ -976,87 +1316,47 @@ public final class LCTileCache extends Observable
                                                         new Point(tileX * owner.getTileWidth(),
                                                                   tileY * owner.getTileHeight()));
             }
-            synchronized (this) {
-                tilesRead++;
-            }
+            tilesRead.incrementAndGet();
             return raster;
         } else
             return null;
     }
 
-    private void writeTileToDisk(LCCachedTile ct, Object key) {
+    /**
+     * Writes a tile to the disk cache.
+     *
+     * @return <code>true</code> if the tile was written.
+     */
+    private boolean writeTileToDisk(LCCachedTile ct) {
         Raster raster = ct.getTile();
         DataBuffer db = raster.getDataBuffer();
 
         try {
+            Object data;
             switch (db.getDataType()) {
                 case DataBuffer.TYPE_BYTE:
-                    m_objectCache.put(key, ((DataBufferByte) db).getData());
+                    data = ((DataBufferByte) db).getData();
                     break;
 
                 case DataBuffer.TYPE_USHORT:
-                    m_objectCache.put(key, ((DataBufferUShort) db).getData());
+                    data = ((DataBufferUShort) db).getData();
                     break;
 
                 case DataBuffer.TYPE_INT:
-                    m_objectCache.put(key, ((DataBufferInt) db).getData());
+                    data = ((DataBufferInt) db).getData();
                     break;
 
                 default:
                     throw new IllegalArgumentException("unsupported image type " + db.getClass());
             }
-            synchronized (this) {
-                tilesOnDisk++;
-            }
+            m_objectCache.put(ct.key, new SpilledTile(data, raster.getSampleModel()));
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
 
-        synchronized (this) {
-            tilesWritten++;
-        }
-    }
-
-    // tileComparator based memory control (TreeSet)
-    private void custom_memory_control() {
-        long limit = (long)(memoryCapacity * memoryThreshold);
-        Iterator<LCCachedTile> iter = cacheSortedSet.iterator();
-
-        while( iter.hasNext() && (cacheMemoryUsed > limit) ) {
-            final LCCachedTile ct = iter.next();
-
-            cacheMemoryUsed -= ct.tileSize;
-            synchronized (this) {
-                cacheTileCount--;
-            }
-
-            // remove from sorted set
-            try {
-                iter.remove();
-            } catch(ConcurrentModificationException e) {
-                ImagingListener listener =
-                    ImageUtil.getImagingListener((RenderingHints)null);
-                listener.errorOccurred("something wrong with the TileCache",
-                                       e, this, false);
-//                e.printStackTrace();
-            }
-
-            tileList.remove(ct);
-            cachedObject.remove(ct.key);
-
-            if ( diagnostics ) {
-                ct.action = REMOVE_FROM_MEMCON;
-                setChanged();
-                notifyObservers(ct);
-            }
-        }
-
-        // If the custom memory control didn't release sufficient
-        // number of tiles to satisfy the memory limit, fallback
-        // to the standard memory controller.
-        if ( cacheMemoryUsed > limit ) {
-            standard_memory_control();
-        }
+        tilesWritten.incrementAndGet();
+        return true;
     }
 
     /**
@@ -1069,35 +1369,22 @@ public final class LCTileCache extends Observable
      *  @since 1.1
      */
     @Override
-    public synchronized void setTileComparator(Comparator c) {
+    public void setTileComparator(Comparator c) {
         if (tileComparator != null)
             throw new IllegalArgumentException("TileComparator not supported by LCTileCache");
 
         tileComparator = c;
-
-        if ( tileComparator == null ) {
-            // turn off tileComparator
-            if ( cacheSortedSet != null ) {
-                cacheSortedSet.clear();
-                cacheSortedSet = null;
-            }
-        } else {
-            // copy tiles from hashtable to sorted tree set
-            cacheSortedSet = Collections.synchronizedSortedSet( new TreeSet<LCCachedTile>(tileComparator) );
-            cachedObject.forEach((key, ct) -> cacheSortedSet.add(ct));
-        }
     }
 
     // test
     public void dump() {
-
-        System.out.println("first = " + tileList.getFirst());
-        System.out.println("last  = " + tileList.getLast());
+        final List<EvictionCandidate> tiles = snapshot();
+        tiles.sort(Comparator.comparingLong(c -> -c.timeStamp));
 
         int k = 0;
-        for (LCCachedTile ct : cacheSortedSet) {
+        for (EvictionCandidate c : tiles) {
             System.out.println(k++);
-            System.out.println(ct);
+            System.out.println(c.tile);
         }
     }
 
@@ -1107,12 +1394,42 @@ public final class LCTileCache extends Observable
         listener.errorOccurred(message, e, this, false);
     }
 
+    /**
+     * A {@link WeakReference} to a tile owner which compares by the identity
+     * of the owner, so that it can be used as a hash key.  Once the owner
+     * has been collected, a reference is only equal to itself.
+     */
+    private static final class OwnerReference extends WeakReference<RenderedImage> {
+        private final int hash;
+
+        OwnerReference( RenderedImage owner,
+                        ReferenceQueue<? super RenderedImage> queue ) {
+            super( owner, queue );
+            hash = System.identityHashCode( owner );
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( this == o )
+                return true;
+            if ( !(o instanceof OwnerReference) )
+                return false;
+            final RenderedImage owner = get();
+            return owner != null && owner == ((OwnerReference)o).get();
+        }
+    }
+
     /**
      * A <code>TileReaper</code> is-a {@link Thread} that runs continuously and
      * asynchronously in the background waiting for {@link RenderedImage}s that
      * the Java garbage collector has determined are weakly reachable.  Once
      * that's the case, remove all of a {@link RenderedImage}'s associated
-     * tiles from the disk cachedObject.
+     * tiles from the disk cache.
      */
     private static final class TileReaper extends Thread {
 
@@ -1120,7 +1437,7 @@ public final class LCTileCache extends Observable
 
         /**
          * Run the thread: wait for a weakly reachable {@link RenderedImage} to
-         * become available and remove all of its tiles from the disk cachedObject
+         * become available and remove all of its tiles from the disk cache
          * (if any).
          */
         @Override
@@ -1135,24 +1452,21 @@ public final class LCTileCache extends Observable
                     if ( tileCache == null )
                         break;
 
-                    synchronized ( tileCache ) {
-                        // System.out.println( "Removing tiles from caches" );
+                    // System.out.println( "Removing tiles from caches" );
 
-                        Set hashKeys = tileCache.m_imageMap.remove(weakKey);
+                    Set<Object> hashKeys = tileCache.m_imageMap.remove(weakKey);
 
-                        assert hashKeys != null;
+                    if ( hashKeys == null )
+                        continue;
 
-                        for (Object o : hashKeys) {
-                            if (tileCache.removeFromTileList(o, REMOVE_FROM_GCEVENT)) {
-                                // System.out.println("removed entry from memory cachedObject");
-                            }
+                    for (Object o : hashKeys) {
+                        if (tileCache.removeFromTileList(o, REMOVE_FROM_GCEVENT)) {
+                            // System.out.println("removed entry from memory cache");
+                        }
 
-                            if (tileCache.m_objectCache.remove(o)) {
-                                synchronized (tileCache) {
-                                    tileCache.tilesOnDisk--;
-                                }
-                                // System.out.println("removed entry from disk cachedObject");
-                            }
+                        if (tileCache.m_diskKeys.remove(o)) {
+                            tileCache.m_objectCache.remove(o);
+                            // System.out.println("removed entry from disk cache");
                         }
                     }
                 }
@@ -1196,7 +1510,7 @@ public final class LCTileCache extends Observable
         /**
          * A flag to indicate whether this thread has been killed.
          */
-        private boolean m_killed;
+        private volatile boolean m_killed;
 
         /**
          * The {@link ReferenceQueue} wherein the Java garbage collector
@@ -1212,9 +1526,10 @@ public final class LCTileCache extends Observable
     }
 
     /**
-     * This is a set of {@link WeakReference}s to {@link RenderedImage}s.
+     * The keys of the cached tiles of each {@link RenderedImage}, by
+     * {@link WeakReference} to the image.
      */
-    private final Map<Reference<RenderedImage>, Set<Object>> m_imageMap = new HashMap<>();
+    private final Map<OwnerReference, Set<Object>> m_imageMap = new ConcurrentHashMap<>();
 
     /**
      * The {@link TileReaper} associated with this  <code>LCTileCache</code>.
@@ -16,7 +16,6 @@ package com.lightcrafts.jai.utils;
 import java.awt.Point;
 import java.awt.RenderingHints;
 import java.awt.image.Raster;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -27,6 +26,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.media.jai.OpImage;
 import javax.media.jai.PlanarImage;
@@ -123,6 +129,9 @@ class Request implements TileRequest {
     }
 
     public TileComputationListener[] getTileListeners() {
+        if (listeners == null) {
+            return new TileComputationListener[0];
+        }
         return listeners.toArray(new TileComputationListener[listeners.size()]);
     }
 
@@ -149,27 +158,141 @@ class Request implements TileRequest {
     }
 }
 
-/** A job to put in a job queue. */
-interface Job {
+/**
+ * The identity of a tile: the image it belongs to and its indices.  Unlike
+ * the <code>BigInteger</code> image IDs used by the Sun scheduler this is
+ * cheap to build and to hash, which matters since a key is created for
+ * every tile computation.
+ */
+final class TileKey {
+    final PlanarImage owner;
+    final int tileX;
+    final int tileY;
+
+    TileKey(PlanarImage owner, int tileX, int tileY) {
+        this.owner = owner;
+        this.tileX = tileX;
+        this.tileY = tileY;
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TileKey)) {
+            return false;
+        }
+        TileKey key = (TileKey) o;
+        return owner == key.owner && tileX == key.tileX && tileY == key.tileY;
+    }
+
+    public int hashCode() {
+        return (System.identityHashCode(owner) * 31 + tileX) * 31 + tileY;
+    }
+}
+
+/**
+ * A tile being computed by <code>scheduleTile()</code>.  Threads asking for
+ * the same tile wait on it instead of computing the tile a second time.
+ */
+final class TileInProgress {
+    private boolean done = false;
+    private Raster tile = null;
+
+    synchronized void set(Raster tile) {
+        this.tile = tile;
+        done = true;
+        notifyAll();
+    }
+
+    synchronized Raster get() {
+        boolean interrupted = false;
+        while (!done) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (tile == null) {
+            throw new RuntimeException("Not a Raster instance?");
+        }
+        return tile;
+    }
+}
+
+/**
+ * A job to put in a job queue.  A job is run at most once: either by a
+ * worker thread, or by the thread which scheduled it while waiting for its
+ * results, whichever claims it first.  A job which is cancelled before
+ * being claimed is simply dropped when it is dequeued.
+ */
+abstract class Job {
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int CANCELLED = 3;
+
+    private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+    final LCTileScheduler scheduler; // the TileScheduler
+    final LCTileScheduler.Lane lane; // the lane the job is queued in
+    final PlanarImage owner;         // the image the tiles belong to
+
+    Throwable exception = null;      // Any exception that might have occured
+                                     // during computeTile
+
+    Job(LCTileScheduler scheduler, LCTileScheduler.Lane lane,
+        PlanarImage owner) {
+        this.scheduler = scheduler;
+        this.lane = lane;
+        this.owner = owner;
+    }
+
     /** Computes the job required. */
-    void compute();
+    abstract void compute();
 
-    /** Returns <code>true</code> if the job is not done. */
-    boolean notDone();
+    /** Called once the job has been computed, even if it failed. */
+    void done() {
+    }
 
-    /** Returns the image for which tiles are being computed. */
-    PlanarImage getOwner();
+    /**
+     * Claims and computes the job.  Returns <code>false</code> if the job
+     * was already claimed by another thread or has been cancelled.
+     */
+    final boolean run() {
+        if (!state.compareAndSet(QUEUED, RUNNING)) {
+            return false;
+        }
+        try {
+            compute();
+        } finally {
+            state.set(DONE);
+            done();
+        }
+        return true;
+    }
 
     /**
-     * Returns <code>true</code> if and only if the job should block the
-     * thread which processes it.  In this case the scheduler and the
-     * processing thread must communicate using <code>wait()</code> and
-     * <code>notify()</code>.
+     * Drops the job if it has not been claimed yet.  Returns
+     * <code>true</code> if the job will never be computed.
      */
-    boolean isBlocking();
+    final boolean cancel() {
+        return state.compareAndSet(QUEUED, CANCELLED);
+    }
+
+    /** Returns the image for which tiles are being computed. */
+    PlanarImage getOwner() {
+        return owner;
+    }
 
     /** Returns the first exception encountered or <code>null</code>. */
-    Exception getException();
+    Throwable getException() {
+        return exception;
+    }
 }
 
 /**
@@ -180,41 +303,28 @@ interface Job {
  * <code>TileRequest</code>s with which this tile is associated of
  * whether the tile was computed or the computation failed.
  */
-final class RequestJob implements Job {
-
-    final LCTileScheduler scheduler; // the TileScheduler
+final class RequestJob extends Job {
 
-    final PlanarImage owner;     // the image this tile belongs to
     final int tileX;             // tile's X index
     final int tileY;             // tile's Y index
-    final Raster[] tiles;        // the computed tiles
-    final int offset;            // offset into arrays
-
-    boolean done = false;        // flag indicating completion status
-    Exception exception = null;  // Any exception that might have occured
-                                 // during computeTile
 
     /** Constructor. */
-    RequestJob(LCTileScheduler scheduler,
-               PlanarImage owner, int tileX, int tileY,
-               Raster[] tiles, int offset) {
-        this.scheduler = scheduler;
-        this.owner = owner;
+    RequestJob(LCTileScheduler scheduler, LCTileScheduler.Lane lane,
+               PlanarImage owner, int tileX, int tileY) {
+        super(scheduler, lane, owner);
         this.tileX = tileX;
         this.tileY = tileY;
-        this.tiles = tiles;
-        this.offset = offset;
     }
 
     /**
      * Tile computation. Does the actual call to getTile().
      */
-    public void compute() {
+    void compute() {
         // Get the Request List.
         List<Request> reqList;
         synchronized(scheduler.tileRequests) {
             // Initialize the tile ID.
-            Object tileID = LCTileScheduler.tileKey(owner, tileX, tileY);
+            TileKey tileID = new TileKey(owner, tileX, tileY);
 
             // Remove the List of Requests from the request Map.
             reqList = scheduler.tileRequests.remove(tileID);
@@ -225,376 +335,283 @@ final class RequestJob implements Job {
 
         // Check whether reqList is valid in case job was cancelled while
         // blocking on the tileRequests Map above.
-        // XXX Do not need empty check in next line?
-        if(reqList != null && !reqList.isEmpty()) {
-            // Update tile status to "processing".
-            Point p = new Point(tileX, tileY);
-            Integer tileStatus = TileRequest.TILE_STATUS_PROCESSING;
-            for (Request r : reqList) {
-                r.tileStatus.put(p, tileStatus);
+        if(reqList == null || reqList.isEmpty()) {
+            return;
+        }
+
+        // Update tile status to "processing".
+        Point p = new Point(tileX, tileY);
+        Integer tileStatus = TileRequest.TILE_STATUS_PROCESSING;
+        for (Request r : reqList) {
+            r.tileStatus.put(p, tileStatus);
+        }
+
+        Raster tile = null;
+        try {
+            tile = owner.getTile(tileX, tileY);
+        } catch (Exception e) {
+            exception = e;
+        } catch (Error e) {
+            exception = new Exception(e);
+        } finally {
+            // Extract the Set of all TileComputationListeners.
+            Set<TileComputationListener> listeners = LCTileScheduler.getListeners(reqList);
+
+            // Get TileRequests as an array for later use.
+            TileRequest[] requests = reqList.toArray(new TileRequest[reqList.size()]);
+
+            // Update tile status as needed.
+            tileStatus = exception == null ?
+                         TileRequest.TILE_STATUS_COMPUTED :
+                         TileRequest.TILE_STATUS_FAILED;
+            for (TileRequest r : requests) {
+                ((Request)r).tileStatus.put(p, tileStatus);
             }
 
-            try {
-                tiles[offset] = owner.getTile(tileX, tileY);
-            } catch (Exception e) {
-                exception = e;
-            } catch (Error e) {
-                exception = new Exception(e);
-            } finally {
-                // Extract the Set of all TileComputationListeners.
-                Set<TileComputationListener> listeners = LCTileScheduler.getListeners(reqList);
-
-                // XXX Do not need empty check in next line.
-                if(listeners != null && !listeners.isEmpty()) {
-                    // Get TileRequests as an array for later use.
-                    TileRequest[] requests = reqList.toArray(new TileRequest[reqList.size()]);
-
-                    // Update tile status as needed.
-                    tileStatus = exception == null ?
-                                 TileRequest.TILE_STATUS_COMPUTED :
-                                 TileRequest.TILE_STATUS_FAILED;
-                    for (TileRequest r : requests) {
-                        ((Request)r).tileStatus.put(p, tileStatus);
+            // Notify listeners.
+            if(listeners != null) {
+                if(exception == null) {
+                    // Tile computation successful.
+                    for (TileComputationListener listener : listeners) {
+                        listener.tileComputed(scheduler, requests,
+                                              owner, tileX, tileY,
+                                              tile);
                     }
-
-                    // Notify listeners.
-                    if(exception == null) {
-                        // Tile computation successful.
-                        for (TileComputationListener listener : listeners) {
-                            listener.tileComputed(scheduler, requests,
-                                                  owner, tileX, tileY,
-                                                  tiles[offset]);
-                        }
-                    } else {
-                        // Tile computation unsuccessful.
-                        for (TileComputationListener listener : listeners) {
-                            listener.tileComputationFailure(scheduler, requests,
-                                                            owner, tileX, tileY,
-                                                            exception);
-                        }
+                } else {
+                    // Tile computation unsuccessful.
+                    for (TileComputationListener listener : listeners) {
+                        listener.tileComputationFailure(scheduler, requests,
+                                                        owner, tileX, tileY,
+                                                        exception);
                     }
                 }
             }
         }
-
-        // Set the flag indicating job completion.
-        done = true;
-    }
-
-    /**
-     * Returns <code>true</code> if the job is not done; that is,
-     * the tile is not computed and no exceptions have occurred.
-     */
-    public boolean notDone() {
-        return !done;
-    }
-
-    /** Returns the image for which the tile is being computed. */
-    public PlanarImage getOwner() {
-        return owner;
-    }
-
-    /** Always returns <code>true</code>. */
-    public boolean isBlocking() {
-        // Big Change: this should prevent enqueueing of new tiles while an image is being processed
-        return true;
-    }
-
-    /** Returns any encountered exception or <code>null</code>. */
-    public Exception getException() {
-        return exception;
     }
 
     /** Returns a string representation of the class object. */
     public String toString() {
-        String tString = "null";
-        if (tiles[offset] != null) {
-            tString = tiles[offset].toString();
-        }
         return getClass().getName() + "@" + Integer.toHexString(hashCode()) +
                ": owner = " + owner.toString() +
                " tileX = " + Integer.toString(tileX) +
                " tileY = " + Integer.toString(tileY) +
-               " tile = " + tString;
+               " lane = " + lane;
     }
 }
 
 /**
- * A <code>Job</code> which computes one or more tiles at a time for either
- * a prefetch job or a blocking job.
+ * A <code>Job</code> which computes a single tile for either a prefetch
+ * job or a blocking job.  Blocking jobs count down the latch the
+ * scheduling thread is waiting on.
  */
-final class TileJob implements Job {
-
-    final LCTileScheduler scheduler; // the TileScheduler
-
-    final boolean isBlocking;  // whether the job is blocking
-    final PlanarImage owner;   // the image this tile belongs to
-    final Point[] tileIndices; // the tile indices
-    final Raster[] tiles;      // the computed tiles
-    final int offset;          // offset into arrays
-    final int numTiles;        // number of elements to use in indices array
+final class TileJob extends Job {
 
-    boolean done = false;       // flag indicating completion status
-    Exception exception = null; // The first exception that might have
-                                // occured during computeTile
+    final Point[] tileIndices;   // the tile indices
+    final Raster[] tiles;        // the computed tiles
+    final int offset;            // offset into arrays
+    final CountDownLatch latch;  // the latch of a blocking job or null
 
     /** Constructor. */
-    TileJob(LCTileScheduler scheduler, boolean isBlocking,
+    TileJob(LCTileScheduler scheduler, LCTileScheduler.Lane lane,
             PlanarImage owner, Point[] tileIndices,
-            Raster[] tiles, int offset, int numTiles) {
-        this.scheduler = scheduler;
-        this.isBlocking = isBlocking;
-        this.owner = owner;
+            Raster[] tiles, int offset, CountDownLatch latch) {
+        super(scheduler, lane, owner);
         this.tileIndices = tileIndices;
         this.tiles = tiles;
         this.offset = offset;
-        this.numTiles = numTiles;
+        this.latch = latch;
     }
 
     /**
-     * Tile computation. Does the actual calls to getTile().
-     */
-    public void compute() {
-        exception = scheduler.compute(owner, tileIndices, tiles,
-                                      offset, numTiles, null);
-        done = true;
-    }
-
-    /**
-     * Returns <code>true</code> if the job is not done; that is,
-     * the tile is not computed and no exceptions have occurred.
+     * Tile computation. Does the actual call to getTile().
      */
-    public boolean notDone() {
-        return !done;
-    }
-
-    /** Returns the image for which tiles are being computed. */
-    public PlanarImage getOwner() {
-        return owner;
-    }
-
-    /** Returns <code>true</code> if and only if there is a listener. */
-    public boolean isBlocking() {
-        return isBlocking;
+    void compute() {
+        final Point p = tileIndices[offset];
+        try {
+            tiles[offset] = owner.getTile(p.x, p.y);
+        } catch (Throwable e) {
+            // Keep Errors too: the scheduling thread rethrows them, the
+            // worker thread must survive them.
+            exception = e;
+        }
     }
 
-    /** Returns any encountered exception or <code>null</code>. */
-    public Exception getException() {
-        return exception;
+    void done() {
+        if (latch != null) {
+            latch.countDown();
+        }
     }
 }
 
 /**
- * Worker thread that takes jobs from the tile computation queue and does
+ * Worker thread that takes jobs from the tile computation lanes and does
  * the actual computation.
  */
 class WorkerThread extends Thread {
 
-    /** <code>Object</code> indicating the the thread should exit. */
-    public static final Object TERMINATE = new Object();
-
     /** The scheduler that spawned this thread. */
     final LCTileScheduler scheduler;
 
-    /** Whether this is a prefetch thread. */
-    boolean isPrefetch;
+    /** Number of jobs dequeued so far, used to let lower lanes through. */
+    int dequeued = 0;
 
     /** Constructor. */
-    public WorkerThread(ThreadGroup group,
-                        LCTileScheduler scheduler,
-                        boolean isPrefetch) {
-        super(group, group.getName() + group.activeCount());
+    WorkerThread(LCTileScheduler scheduler, String name, int priority) {
+        super(name);
         this.scheduler = scheduler;
-        this.isPrefetch = isPrefetch;
-
         setDaemon(true);
-        start();
+        setPriority(priority);
     }
 
     /** Does the tile computation. */
     public void run() {
-        LinkedList<Object> jobQueue = scheduler.getQueue(isPrefetch);
-
-        while(true) {
-            Object dequeuedObject = null;
-
-            // Check the job queue.
-            if(jobQueue.size() > 0) {
-                // Remove the first job.
-                dequeuedObject = jobQueue.removeFirst();
-            } else {
-                try {
-                    // Wait for a notify() on the queue.
-                    jobQueue.wait();
-                    continue;
-                } catch(InterruptedException ie) {
-                    // Ignore: should never happen.
-                }
-            }
-
-            if(dequeuedObject == TERMINATE ||
-               getThreadGroup() == null || getThreadGroup().isDestroyed()) {
-                // Remove WorkerThread from appropriate ArrayList.
-                LinkedList<Thread> threads;
-                synchronized(threads = scheduler.getWorkers(isPrefetch)) {
-                    threads.remove(this);
-                }
-
-                // Exit the thread.
+        while (true) {
+            Job job = scheduler.takeJob(this);
+            if (job == null) {
+                // The parallelism has been lowered: exit the thread.
                 return;
             }
-
-            Job job = (Job)dequeuedObject;
-
-            // Execute tile job.
-            if (job != null) {
-                job.compute();
-
-                // Notify the scheduler only if the Job is blocking.
-                if(job.isBlocking()) {
-                    synchronized(scheduler) {
-                        scheduler.notify();
-                    }
-                }
-            }
-        } // infinite loop
+            scheduler.runJob(job);
+        }
     }
 }
 
 /**
- * This is Sun Microsystems' reference implementation of the
- * <code>javax.media.jai.TileScheduler</code> interface.  It provides
- * a mechanism for scheduling tile calculation.  Multi-threading is
- * used whenever possible.
+ * LightZone's implementation of the
+ * <code>javax.media.jai.TileScheduler</code> interface, derived from Sun
+ * Microsystems' reference implementation.
+ *
+ * <p> Tile jobs are queued in one of three lanes: interactive tiles, which
+ * somebody is waiting for, prefetch tiles and batch (export) tiles.  All
+ * lanes are served by one pool of worker threads which take jobs from the
+ * highest priority lane first, now and then letting a lower lane through so
+ * that it cannot be starved.  The lane of a job is the lane of the thread
+ * scheduling it (see {@link #setLane}), worker threads inherit the lane of
+ * the job they are computing.
+ *
+ * <p> A thread waiting on a blocking <code>scheduleTiles()</code> call
+ * doesn't just sit idle: it steals back the jobs of its own request that no
+ * worker has claimed yet, starting from the last one, while the workers
+ * proceed from the first.  Since a thread only ever waits for jobs which
+ * are already running, nested requests made from within
+ * <code>computeTile()</code> cannot deadlock the pool.
  *
  * @see javax.media.jai.TileScheduler
  */
 public final class LCTileScheduler implements TileScheduler {
 
+    /**
+     * The lanes of the scheduler, in decreasing order of priority.
+     */
+    public enum Lane {
+        /** Tiles the user is looking at or waiting for. */
+        INTERACTIVE,
+        /** Tiles computed ahead of time, in case they'll be needed. */
+        PREFETCH,
+        /** Tiles of batch processing and exports. */
+        BATCH
+    }
+
     /** The default number of worker threads. */
     private static final int NUM_THREADS_DEFAULT = 2;
 
     /** The default number of prefetch threads. */
     private static final int NUM_PREFETCH_THREADS_DEFAULT = 1;
 
-    /** The instance counter.  It is used to compose the name of the
-     *  ThreadGroup.
+    /**
+     * Every so many dequeues a worker looks at the lanes in reverse order,
+     * so that lower priority lanes keep making some progress.
      */
-    private static int numInstances = 0;
+    private static final int STARVATION_INTERVAL = 16;
 
-    /** The root ThreadGroup, which holds two sub-groups:
-     * the ThreadGroup for the standard jobs, and the ThreadGroup for
-     * the prefetch jobs.
-     */
-    private ThreadGroup rootGroup;
+    /** How long an idle worker waits before checking if it should exit. */
+    private static final long IDLE_TIMEOUT = 1000;
 
-    /** The ThreadGroup contains all the standard jobs. */
-    private ThreadGroup standardGroup;
+    /** The instance counter.  It is used to compose the thread names. */
+    private static final AtomicInteger numInstances = new AtomicInteger();
 
-    /** The ThreadGroup contains all the prefetch jobs. */
-    private ThreadGroup prefetchGroup;
+    /** The lane of the jobs scheduled by the current thread. */
+    private static final ThreadLocal<Lane> currentLane = new ThreadLocal<Lane>();
 
     /** The worker thread parallelism. */
-    private int parallelism = NUM_THREADS_DEFAULT;
+    private volatile int parallelism = NUM_THREADS_DEFAULT;
 
     /** The processing thread parallelism. */
     private int prefetchParallelism = NUM_PREFETCH_THREADS_DEFAULT;
 
     /** The worker thread priority. */
-    private int priority = Thread.NORM_PRIORITY;
+    private volatile int priority = Thread.NORM_PRIORITY;
 
     /** The prefetch thread priority. */
-    private int prefetchPriority = Thread.MIN_PRIORITY;
+    private volatile int prefetchPriority = Thread.MIN_PRIORITY;
 
-    /** A job queue for tiles waiting to be computed by the worker threads. */
-    private final LinkedList<Object> queue;
+    /** The job queues, one per lane, indexed by lane ordinal. */
+    private final ConcurrentLinkedDeque<Job>[] lanes;
 
-    /** A job queue for tiles waiting to be computed by prefetch workers. */
-    private final LinkedList<Object> prefetchQueue;
+    /** One permit per job sitting in any of the lanes. */
+    private final Semaphore queuedJobs = new Semaphore(0);
 
     /**
      * A <code>LinkedList</code> of <code>WorkerThread</code>s that persist
-     * to do the actual tile computation for normal processing.  This
-     * variable should never be set to <code>null</code>.
+     * to do the actual tile computation.  This variable should never be set
+     * to <code>null</code>.
      */
-    private LinkedList<Thread> workers = new LinkedList<Thread>();
+    private final LinkedList<WorkerThread> workers = new LinkedList<WorkerThread>();
 
-    /**
-     * A <code>LinkedList</code> of <code>WorkerThread</code>s that persist
-     * to do the actual tile computation for prefetch processing.  This
-     * variable should never be set to <code>null</code>.
-     */
-    private LinkedList<Thread> prefetchWorkers = new LinkedList<Thread>();
+    /** The size of <code>workers</code>, readable without locking. */
+    private volatile int numWorkerThreads = 0;
 
-    /**
-     * The effective number of worker threads; may differ from
-     * <code>workers.size()</code> due to latency.  This value should
-     * equal the size of <code>workers</code> less the number of
-     * <code>WorkerThread.TERMINATE</code>s in <code>queue</code>.
-     */
-    private int numWorkerThreads = 0;
+    /** The number of worker threads created so far, used to name them. */
+    private int numWorkersCreated = 0;
 
-    /**
-     * The effective number of prefetch worker threads; may differ from
-     * <code>prefetchWorkers.size()</code> due to latency.  This value should
-     * equal the size of <code>prefetchWorkers</code> less the number of
-     * <code>WorkerThread.TERMINATE</code>s in <code>prefetchQueue</code>.
-     */
-    private int numPrefetchThreads = 0;
+    /** The number of jobs dropped from the lanes by cancellation. */
+    private final AtomicLong droppedJobs = new AtomicLong();
 
     /**
-     * <code>Map</code> of tiles currently being computed.  The key is
-     * created from the image and tile indices by the <code>tileKey()</code>
-     * method.  Each key is mapped to an <code>Object[1]</code> which may
-     * contain <code>null</code>, a <code>Raster</code>, or an indefinite
-     * <code>Object</code> which represent, respectively, that the tile is
-     * being computed, the tile itself, and that the tile computation failed.
+     * <code>Map</code> of tiles currently being computed by
+     * <code>scheduleTile()</code>.  Threads asking for a tile which is
+     * already being computed wait for its result.
      */
-    private final Map<Object, Object[]> tilesInProgress = new HashMap<Object, Object[]>();
+    private final ConcurrentHashMap<TileKey, TileInProgress> tilesInProgress =
+        new ConcurrentHashMap<TileKey, TileInProgress>();
 
     /**
-     * <code>Map</code> of tiles to <code>Request</code>s.  The key is
-     * created from the image and tile indices by the <code>tileKey()</code>
-     * method.  Each key is mapped to a <code>List</code> of
-     * <code>Request</code> for the tile.  If there is no mapping for the
-     * tile, then there are no current requests.  If a mapping exists, it
-     * should always be non-null and the <code>List</code> value should
-     * have size of at least unity.
+     * <code>Map</code> of tiles to <code>Request</code>s.  Each key is
+     * mapped to a <code>List</code> of <code>Request</code> for the tile.
+     * If there is no mapping for the tile, then there are no current
+     * requests.  If a mapping exists, it should always be non-null and the
+     * <code>List</code> value should have size of at least unity.
      */
-    final Map<Object, List<Request>> tileRequests = new HashMap<Object, List<Request>>();
+    final Map<TileKey, List<Request>> tileRequests = new HashMap<TileKey, List<Request>>();
 
     /**
-     * <code>Map</code> of tiles to <code>Job</code>s.The key is
-     * created from the image and tile indices by the <code>tileKey()</code>
-     * method.  Each key is mapped to a <code>Job</code> for the tile.  If
-     * there is no mapping for the tile, then there is no enqueued
-     * <code>RequestJob</code>.
+     * <code>Map</code> of tiles to <code>Job</code>s.  Each key is mapped to
+     * a <code>Job</code> for the tile.  If there is no mapping for the tile,
+     * then there is no enqueued <code>RequestJob</code>.  Guarded by
+     * <code>tileRequests</code>.
      */
-    Map<Object, Job> tileJobs = new HashMap<Object, Job>();
+    final Map<TileKey, Job> tileJobs = new HashMap<TileKey, Job>();
 
     /** The name of this instance. */
-    private String nameOfThisInstance;
+    private final String nameOfThisInstance;
+
+    /**
+     * Sets the lane of the tiles scheduled by the calling thread from now
+     * on, <code>null</code> meaning the default.  Returns the previous lane
+     * so that it can be restored in a <code>finally</code> block.
+     */
+    public static Lane setLane(Lane lane) {
+        Lane previous = currentLane.get();
+        currentLane.set(lane);
+        return previous;
+    }
 
     /**
-     * Returns the hash table "key" as a <code>Object</code> for this
-     * tile.  For <code>PlanarImage</code> and
-     * <code>SerializableRenderedImage</code>, the key is generated by
-     * the method <code>ImageUtilgenerateID(Object) </code>.  For the
-     * other cases, a <code>Long</code> object is returned.
-     * The upper 32 bits for this <code>Long</code> is the tile owner's
-     * hash code, and the lower 32 bits is the tile's index.
+     * Returns the lane set for the calling thread, or <code>null</code> if
+     * none was set.
      */
-    static Object tileKey(PlanarImage owner, int tileX, int tileY) {
-        long idx = tileY * (long)owner.getNumXTiles() + tileX;
-
-        BigInteger imageID = (BigInteger)owner.getImageID();
-        byte[] buf = imageID.toByteArray();
-        int length = buf.length;
-        byte[] buf1 = new byte[length + 8];
-        System.arraycopy(buf, 0, buf1, 0, length);
-        for (int i = 7, j = 0; i >= 0; i--, j += 8)
-           buf1[length++] = (byte)(idx >> j);
-        return new BigInteger(buf1);
+    public static Lane getLane() {
+        return currentLane.get();
     }
 
     /**
@@ -605,7 +622,6 @@ public final class LCTileScheduler implements TileScheduler {
         // Extract the Set of all TileComputationListeners.
         HashSet<TileComputationListener> listeners = null;
         for (Request req : reqList) {
-            // XXX Do not need empty check in next line.
             if (req.listeners != null && !req.listeners.isEmpty()) {
                 if (listeners == null) {
                     listeners = new HashSet<TileComputationListener>();
@@ -639,29 +655,29 @@ public final class LCTileScheduler implements TileScheduler {
     }
 
     /**
-     * Constructor.  Processing and prefetch queues are created and all
-     * parallelism and priority values are set to default values.
+     * Constructor.  The lanes are created and all parallelism and priority
+     * values are set to default values.
      */
+    @SuppressWarnings("unchecked")
     public LCTileScheduler() {
-        queue = new LinkedList<Object>();
-        prefetchQueue = new LinkedList<Object>();
-
-        // The tile scheduler name.  It is used to compose the name of the
-        // ThreadGroup.
-        String name = "LCTileSchedulerName";
-        nameOfThisInstance = name + numInstances;
-        rootGroup = new ThreadGroup(nameOfThisInstance);
-        rootGroup.setDaemon(true);
-
-        standardGroup = new ThreadGroup(rootGroup,
-                nameOfThisInstance + "Standard");
-        standardGroup.setDaemon(true);
-
-        prefetchGroup = new ThreadGroup(rootGroup,
-                nameOfThisInstance + "Prefetch");
-        prefetchGroup.setDaemon(true);
+        Lane[] values = Lane.values();
+        lanes = new ConcurrentLinkedDeque[values.length];
+        for (int i = 0; i < values.length; i++) {
+            lanes[i] = new ConcurrentLinkedDeque<Job>();
+        }
+        nameOfThisInstance = "LCTileScheduler" + numInstances.getAndIncrement();
+    }
 
-        numInstances++;
+    /**
+     * Returns the lane for a job scheduled by the current thread.  Prefetch
+     * jobs go to the prefetch lane unless they are part of a batch.
+     */
+    private static Lane laneFor(boolean isPrefetch) {
+        Lane lane = currentLane.get();
+        if (isPrefetch) {
+            return lane == Lane.BATCH ? Lane.BATCH : Lane.PREFETCH;
+        }
+        return lane != null ? lane : Lane.INTERACTIVE;
     }
 
     /**
@@ -758,13 +774,12 @@ public final class LCTileScheduler implements TileScheduler {
      * @return  The computed tile
      */
     //
-    // This method blocks on the 'tilesInProgress' Map to avoid simultaneous
+    // This method uses the 'tilesInProgress' Map to avoid simultaneous
     // computation of the same tile in two or more different threads. The idea
     // is to release the resources of all but one thread so that the computation
-    // occurs more quickly. The synchronization variable is an Object[] of length
-    // unity. The computed tile is passed from the computing thread to the
-    // waiting threads via the contents of this Object[]. Thus this method does
-    // not depend on the TileCache to transfer the data.
+    // occurs more quickly. The computed tile is passed from the computing
+    // thread to the waiting threads via a TileInProgress. Thus this method
+    // does not depend on the TileCache to transfer the data.
     //
     public Raster scheduleTile(OpImage owner,
                                int tileX,
@@ -773,317 +788,195 @@ public final class LCTileScheduler implements TileScheduler {
             throw new IllegalArgumentException("Null owner");
         }
 
-        // Eventual tile to be returned.
-        Raster tile = null;
+        final TileKey tileID = new TileKey(owner, tileX, tileY);
+        final TileInProgress inProgress = new TileInProgress();
 
-        // Get the tile's unique ID.
-        final Object tileID = tileKey(owner, tileX, tileY);
+        final TileInProgress computing =
+            tilesInProgress.putIfAbsent(tileID, inProgress);
+        if (computing != null) {
+            // Some other thread is computing this tile, wait for it.
+            return computing.get();
+        }
 
-        // Set the computation flag and initialize or retrieve the tile cache.
-        boolean computeTile;
-        final Object[] cache;
-        synchronized(tilesInProgress) {
-            if(computeTile = !tilesInProgress.containsKey(tileID)) {
-                // Computing: add tile ID to the map.
-                tilesInProgress.put(tileID, cache = new Object[1]);
+        // Eventual tile to be returned.
+        Raster tile = null;
+        try {
+            tile = computeTile(owner, tileX, tileY);
+        } catch(Throwable e) {
+            // Re-throw the Error or Exception.
+            if(e instanceof Error) {
+                throw (Error)e;
             } else {
-                // Waiting: get tile cache from the Map.
-                cache = tilesInProgress.get(tileID);
+                sendExceptionToListener("RuntimeException", e);
             }
+        } finally {
+            // Remove the tile ID from the Map and hand the result over to
+            // the waiting thread(s).
+            tilesInProgress.remove(tileID);
+            inProgress.set(tile);
         }
+        return tile;
+    }
 
-        if(computeTile) {
+    /**
+     * Computes a tile, making some room in the tile cache and retrying if
+     * we run out of memory.
+     */
+    private static Raster computeTile(OpImage owner, int tileX, int tileY) {
+        try {
+            // Attempt to compute the tile.
+            return owner.computeTile(tileX, tileY);
+        } catch (OutOfMemoryError e) {
+            // Free some space in cache
+            TileCache tileCache = owner.getTileCache();
+            if(tileCache != null) {
+                tileCache.removeTiles(owner);
+            }
             try {
-                try {
-                    // Attempt to compute the tile.
-                    tile = owner.computeTile(tileX, tileY);
-                } catch (OutOfMemoryError e) {
-                    // Free some space in cache
-                    TileCache tileCache = owner.getTileCache();
-                    if(tileCache != null) {
-                        tileCache.removeTiles(owner);
-                    }
-                    try {
-                        // Re-attempt to compute the tile.
-                        tile = owner.computeTile(tileX, tileY);
-                    } catch (OutOfMemoryError e1) {
-                        // Empty the cache
-                        if(tileCache != null) {
-                            tileCache.flush();
-                        }
-                    }
-
-                    // Re-attempt to compute the tile.
-                    tile = owner.computeTile(tileX, tileY);
-                }
-            } catch(Throwable e) {
-                // Re-throw the Error or Exception.
-                if(e instanceof Error) {
-                    throw (Error)e;
-                } else {
-                    sendExceptionToListener("RuntimeException", e);
+                // Re-attempt to compute the tile.
+                return owner.computeTile(tileX, tileY);
+            } catch (OutOfMemoryError e1) {
+                // Empty the cache
+                if(tileCache != null) {
+                    tileCache.flush();
                 }
-            } finally {
-                // Always set the cached tile to a non-null value.
-                cache[0] = tile != null ? tile : new Object();
+            }
 
-                // Notify the thread(s).
-                cache.notifyAll();
+            // Re-attempt to compute the tile.
+            return owner.computeTile(tileX, tileY);
+        }
+    }
 
-                // Remove the tile ID from the Map.
-                tilesInProgress.remove(tileID);
-            }
-        } else {
-            // Check the cache: a null value indicates computation is
-            // still in progress.
-            if(cache[0] == null) {
-                // Wait for the computation to complete.
-                try {
-                    cache.wait(); // XXX Should there be a timeout?
-                } catch(Exception e) {
-                    // XXX What response here?
-                }
+    /**
+     * Computes the tiles of a blocking request, returning when all of them
+     * are available.
+     */
+    private Raster[] scheduleBlockingJob(PlanarImage owner,
+                                         Point[] tileIndices) {
+        final int numTiles = tileIndices.length;
+        final Raster[] tiles = new Raster[numTiles];
+
+        if (parallelism == 0 || numTiles == 1) {
+            // No workers or nothing to share: compute the tiles right here.
+            Exception e = compute(owner, tileIndices, tiles, 0, numTiles,
+                                  null);
+            if (e != null) {
+                String message = "Exception while scheduling tiles: ";
+                sendExceptionToListener(message,
+                                        new ImagingException(message, e));
             }
+            return tiles;
+        }
 
-            // Set the result only if cache contains a Raster.
-            if(cache[0] instanceof Raster) {
-                tile = (Raster)cache[0];
-            } else {
-                throw new RuntimeException("Not a Raster instance?");
+        final Lane lane = laneFor(false);
+        final CountDownLatch latch = new CountDownLatch(numTiles);
+        final TileJob[] jobs = new TileJob[numTiles];
+        for (int i = 0; i < numTiles; i++) {
+            jobs[i] = new TileJob(this, lane, owner, tileIndices,
+                                  tiles, i, latch);
+            addJob(jobs[i]);
+        }
+
+        // Rather than waiting idle, steal back the jobs no worker has
+        // claimed yet, starting from the far end of the request.
+        for (int i = numTiles - 1; i >= 0; i--) {
+            jobs[i].run();
+        }
+
+        // Now only jobs which are running in other threads are left.
+        boolean interrupted = false;
+        while (latch.getCount() > 0) {
+            try {
+                latch.await();
+            } catch (InterruptedException ie) {
+                interrupted = true;
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
 
-        return tile;
+        for (TileJob job : jobs) {
+            Throwable e = job.getException();
+            if (e instanceof Error) {
+                throw (Error) e;
+            } else if (e != null) {
+                // Throw a RuntimeException with the Exception's
+                // message concatenated with the stack trace.
+                String message = "Exception while scheduling tiles: ";
+                sendExceptionToListener(message,
+                                        new ImagingException(message, e));
+            }
+        }
+        return tiles;
     }
 
     /**
-     * General purpose method for job creation and queueing.  Note that
-     * the returned value should be ignored if the <code>listener</code>
-     * parameter is non-<code>null</code>.
-     *
-     * @param owner The image for which tile computation jobs will be queued.
-     * @param tileIndices The indices of the tiles to be computed.
-     * @param isPrefetch Whether the operation is a prefetch.
-     * @param listeners A <code>TileComputationListener</code> of the
-     *        processing.  May be <code>null</code>.
-     *
-     * @return The computed tiles.  This value is meaningless if
-     *         <code>listener</code> is non-<code>null</code>.
+     * Queues a non-blocking request, the supplied listeners are notified as
+     * tiles get computed.
      */
-    // The allowable arguments are constained as follows:
-    // A) owner and tileIndices non-null.
-    // B) (isBlocking,isPrefetch) in {(true,false),(false,false),(false,true)}
-    // C) listeners != null <=> (isBlocking,isPrefetch) == (false,false)
-    // The returned value is one of:
-    // Raster[] <=> (isBlocking,isPrefetch) == (true,false)
-    // Integer <=> (isBlocking,isPrefetch) == (false,false)
-    // (Raster[])null <=> (isBlocking,isPrefetch) == (false,true)
-    private Object scheduleJob(PlanarImage owner,
-                               Point[] tileIndices,
-                               boolean isBlocking,
-                               boolean isPrefetch,
-                               TileComputationListener[] listeners) {
-        if(owner == null || tileIndices == null) {
-            // null parameters
-            throw new IllegalArgumentException(); // coding error - no message
-        } else if((isBlocking || isPrefetch) && listeners != null) {
-            // listeners for blocking or prefetch job
-            throw new IllegalArgumentException(); // coding error - no message
-        } else if(isBlocking && isPrefetch) {
-            throw new IllegalArgumentException(); // coding error - no message
+    private TileRequest scheduleRequest(PlanarImage owner,
+                                        Point[] tileIndices,
+                                        TileComputationListener[] listeners) {
+        final Request request = new Request(this, owner, tileIndices, listeners);
+
+        if (parallelism == 0) {
+            // No workers: sequentially compute tiles in the calling thread.
+            Exception e = compute(owner, tileIndices,
+                                  new Raster[tileIndices.length], 0,
+                                  tileIndices.length, request);
+            if (e != null) {
+                String message = "Exception while scheduling tiles: ";
+                sendExceptionToListener(message,
+                                        new ImagingException(message, e));
+            }
+            return request;
         }
 
-        int numTiles = tileIndices.length;
-        Raster[] tiles = new Raster[numTiles];
-        Object returnValue = tiles;
-
-        final int numThreads;
-        Job[] jobs = null;
-        int numJobs = 0;
-
-        synchronized(getWorkers(isPrefetch)) {
-            numThreads = getNumThreads(isPrefetch);
-
-            if(numThreads > 0) { // worker threads exist
-                if(numTiles <= numThreads ||       // no more tiles than threads
-                   (!isBlocking && !isPrefetch)) { // non-blocking, non-prefetch
-
-                    jobs = new Job[numTiles];
-
-                    if(!isBlocking && !isPrefetch) {
-                        Request request =
-                            new Request(this, owner, tileIndices, listeners);
-
-                        // Override return value.
-                        returnValue = request;
-
-                        // Queue all tiles as single-tile jobs.
-                        while(numJobs < numTiles) {
-                            Point p = tileIndices[numJobs];
-
-                            Object tileID = tileKey(owner, p.x, p.y);
-
-                            synchronized(tileRequests) {
-                                List<Request> reqList = tileRequests.get(tileID);
-                                if (reqList != null) {
-                                    // This tile is already queued in a
-                                    // non-blocking, non-prefetch job.
-                                    reqList.add(request);
-                                    numTiles--;
-                                } else {
-                                    // This tile has not yet been queued.
-                                    reqList = new ArrayList<Request>();
-                                    reqList.add(request);
-                                    tileRequests.put(tileID, reqList);
-
-                                    jobs[numJobs] = new RequestJob(this, owner,
-                                                                   p.x, p.y,
-                                                                   tiles, numJobs);
-                                    tileJobs.put(tileID, jobs[numJobs]);
-
-                                    addJob(jobs[numJobs++], false);
-                                }
-                            }
-                        }
-                    } else { // numTiles <= numThreads
-                        while(numJobs < numTiles) {
-                            jobs[numJobs] = new TileJob(this,
-                                                        isBlocking,
-                                                        owner,
-                                                        tileIndices,
-                                                        tiles,
-                                                        numJobs,
-                                                        1);
-                            addJob(jobs[numJobs++], isPrefetch);
-                        }
-                    }
-                } else { // more tiles than worker threads
-                    // Set the fraction of unqueued tiles to be processed by
-                    // each worker thread.
-                    float frac = 1.0F/(2.0F*numThreads);
-
-                    // Set the minimum number of tiles each thread may process.
-                    // If there is only one thread this will equal the total
-                    // number of tiles.
-                    int minTilesPerThread = numThreads == 1 ? numTiles :
-                        Math.min(Math.max(1, (int)(frac*numTiles/2.0F + 0.5F)),
-                                 numTiles);
-
-                    // Allocate the maximum possible number of multi-tile jobs.
-                    // This will be larger than the actual number of jobs but
-                    // a more precise calcuation is not possible and a dynamic
-                    // storage object such as a Collection would not be useful
-                    // since as calculated maxNumJobs = 4*numThreads if the
-                    // preceeding values of "frac" and "minTilesPerThread" are
-                    // 1/(2*numThreads) and frac*numTiles/2, respectively.
-                    int maxNumJobs = numThreads == 1 ? 1 :
-                        (int)((float)numTiles/(float)minTilesPerThread+0.5F);
-                    jobs = new TileJob[maxNumJobs];
-
-                    // Set the number of enqueued tiles and the number left.
-                    int numTilesQueued = 0;
-                    int numTilesLeft = numTiles - numTilesQueued;
-
-                    // Assign a number of tiles to each thread determined by
-                    // the number of remaining tiles, the fraction of remaining
-                    // tiles to be processed and the minimum chunk size.
-                    while(numTilesLeft > 0) {
-                        // Set the number of tiles to the pre-calculated
-                        // fraction of tiles yet to be computed.
-                        int numTilesInThread = (int)(frac*numTilesLeft + 0.5F);
-
-                        // Ensure that the number to be processed is at
-                        // least the minimum chunk size.
-                        if(numTilesInThread < minTilesPerThread) {
-                            numTilesInThread = minTilesPerThread;
-                        }
-
-                        // Clamp number of tiles in thread to number unqueued.
-                        if(numTilesInThread > numTilesLeft) {
-                            numTilesInThread = numTilesLeft;
-                        }
-
-                        // Decrement the count of remaining tiles. Note that
-                        // this value will be non-negative due to the clamping
-                        // above.
-                        numTilesLeft -= numTilesInThread;
-
-                        // If the number left is smaller than the minimum chunk
-                        // size then process these tiles in the current job.
-                        if(numTilesLeft < minTilesPerThread) {
-                            numTilesInThread += numTilesLeft;
-                            numTilesLeft = 0;
-                        }
-
-                        // Create a job to process the number of tiles needed.
-                        jobs[numJobs] = new TileJob(this,
-                                                    isBlocking,
-                                                    owner,
-                                                    tileIndices,
-                                                    tiles,
-                                                    numTilesQueued,
-                                                    numTilesInThread);
-
-                        // Queue the job and increment the job count.
-                        addJob(jobs[numJobs++], isPrefetch);
-
-                        // Increment the count of tiles queued.
-                        numTilesQueued += numTilesInThread;
-                    }
-                } // SingleTile vs. MultiTile Jobs
-            } // numThreads > 0
-        } // end synchronized block
-
-        if(numThreads != 0) {
-            // If blocking, wait until all tiles have been computed.
-            // There is no 'else' block for non-blocking as in that
-            // case we just want to continue.
-            if(isBlocking) {
-                for (int i = 0; i < numJobs; i++) {
-                    synchronized(this) {
-                        while (jobs[i].notDone()) {
-                            try {
-                                wait();
-                            } catch(InterruptedException ie) {
-                                // Ignore: should never happen.
-                            }
-                        }
-                    }
+        final Lane lane = laneFor(false);
 
-                    // XXX: should we re-throw the exception or
-                    //      should we reschedule this job ?? krishnag
-                    Exception e = jobs[i].getException();
+        // Queue all tiles as single-tile jobs.
+        synchronized(tileRequests) {
+            for (Point p : tileIndices) {
+                TileKey tileID = new TileKey(owner, p.x, p.y);
 
-                    if (e != null) {
-                        // Throw a RuntimeException with the Exception's
-                        // message concatenated with the stack trace.
-                        String message = "Exception while scheduling tiles: ";
-                        sendExceptionToListener(message,
-                                                new ImagingException(message, e));
-                    }
+                List<Request> reqList = tileRequests.get(tileID);
+                if (reqList != null) {
+                    // This tile is already queued in a
+                    // non-blocking, non-prefetch job.
+                    reqList.add(request);
+                } else {
+                    // This tile has not yet been queued.
+                    reqList = new ArrayList<Request>();
+                    reqList.add(request);
+                    tileRequests.put(tileID, reqList);
+
+                    Job job = new RequestJob(this, lane, owner, p.x, p.y);
+                    tileJobs.put(tileID, job);
+                    addJob(job);
                 }
             }
-        } else { // numThreads == 0
-            Request request = null;
-            if(!isBlocking && !isPrefetch) {
-                request = new Request(this, owner, tileIndices, listeners);
-                returnValue = request;
-            }
+        }
+        return request;
+    }
 
-            // no workers; sequentially compute tiles in main thread
-            Exception e = compute(owner, tileIndices, tiles, 0, numTiles,
-                                  request);
+    /**
+     * Queues prefetch jobs, they don't block and have no listeners.
+     */
+    private void schedulePrefetch(PlanarImage owner, Point[] tileIndices) {
+        final int numTiles = tileIndices.length;
+        final Raster[] tiles = new Raster[numTiles];
 
-            // Throw a RuntimeException with the Exception's
-            // message concatenated with the stack trace.
-            if(e != null) {
-                String message = "Exception while scheduling tiles: ";
-                sendExceptionToListener(message,
-                                        new ImagingException(message, e));
-            }
+        if (parallelism == 0) {
+            // Nobody to do it for us, and nobody waiting for the result.
+            return;
         }
 
-        return returnValue;
+        final Lane lane = laneFor(true);
+        for (int i = 0; i < numTiles; i++) {
+            addJob(new TileJob(this, lane, owner, tileIndices,
+                               tiles, i, null));
+        }
     }
 
     /**
@@ -1099,7 +992,10 @@ public final class LCTileScheduler implements TileScheduler {
         if (owner == null || tileIndices == null) {
             throw new IllegalArgumentException("Null owner or TileIndices");
         }
-        return (Raster[])scheduleJob(owner, tileIndices, true, false, null);
+        if (tileIndices.length == 0) {
+            return new Raster[0];
+        }
+        return scheduleBlockingJob(owner, tileIndices);
     }
 
     /**
@@ -1115,26 +1011,19 @@ public final class LCTileScheduler implements TileScheduler {
         if (target == null || tileIndices == null) {
             throw new IllegalArgumentException("Null owner or TileIndices");
         }
-        return (TileRequest)scheduleJob(target, tileIndices, false, false,
-                                        tileListeners);
+        return scheduleRequest(target, tileIndices, tileListeners);
     }
 
     /**
      * Issues an advisory cancellation request to the
      * <code>TileScheduler</code> stating that the indicated tiles of the
-     * specified image should not be processed.  The handling of this request
-     * is at the discretion of the scheduler which may cancel tile processing
-     * in progress and remove tiles from its internal queue, remove tiles from
-     * the queue but not terminate current processing, or simply do nothing.
+     * specified image should not be processed.
      *
-     * <p> In the Sun Microsystems reference implementation of
-     * <code>TileScheduler</code> the second tile cancellation option is
-     * implemented, i.e., tiles are removed from the internal queue but
-     * computation already in progress is not terminated.  If there is at
-     * least one worker thread this method should be non-blocking.  Any tiles
-     * allowed to complete computation subsequent to this call are complete
-     * and will be treated as if they had not been cancelled, e.g., with
-     * respect to caching, notification of registered listeners, etc.
+     * <p> Tiles which are still queued are dropped and will never be
+     * computed, computation already in progress is not terminated.  Any
+     * tiles allowed to complete computation subsequent to this call are
+     * complete and will be treated as if they had not been cancelled, e.g.,
+     * with respect to caching, notification of registered listeners, etc.
      * Furthermore, cancelling a tile request in no way invalidates the tile
      * as a candidate for future recomputation.
      */
@@ -1151,8 +1040,8 @@ public final class LCTileScheduler implements TileScheduler {
             // Initialize the set of tile indices to cancel.
             Point[] indices;
             if(tileIndices != null && tileIndices.length > 0) {
-                // Create a Set from the supplied indices.
-                List<Point> tileIndexList = Arrays.asList(tileIndices);
+                // Create a List from the supplied indices.
+                List<Point> tileIndexList = new ArrayList<Point>(Arrays.asList(tileIndices));
 
                 // Retain only indices which were actually in the request.
                 tileIndexList.retainAll(reqIndexList);
@@ -1168,27 +1057,22 @@ public final class LCTileScheduler implements TileScheduler {
             // Loop over tile indices to be cancelled.
             for (Point p : indices) {
                 // Get the tile's ID.
-                Object tileID = tileKey(req.image, p.x, p.y);
+                TileKey tileID = new TileKey(req.image, p.x, p.y);
 
                 // Get the list of requests for this tile.
                 List<Request> reqList = tileRequests.get(tileID);
 
                 // If there are none, proceed to next index.
-                if(reqList == null) {
+                if(reqList == null || !reqList.remove(req)) {
                     continue;
                 }
 
-                // Remove this Request from the Request List for this tile.
-                reqList.remove(req);
-
-                // If the request list is now empty, dequeue the job and
+                // If the request list is now empty, drop the job and
                 // remove the tile from the hashes.
                 if(reqList.isEmpty()) {
-                    synchronized(queue) {
-                        Object job = tileJobs.remove(tileID);
-                        if(job != null) {
-                            queue.remove(job);
-                        }
+                    Job job = tileJobs.remove(tileID);
+                    if(job != null && job.cancel()) {
+                        droppedJobs.incrementAndGet();
                     }
                     tileRequests.remove(tileID);
                 }
@@ -1219,26 +1103,18 @@ public final class LCTileScheduler implements TileScheduler {
         if(owner == null || tileIndices == null) {
             throw new IllegalArgumentException("Null owner or TileIndices");
         }
-        scheduleJob(owner, tileIndices, false, true, null);
+        schedulePrefetch(owner, tileIndices);
     }
 
     /**
      * Suggests to the scheduler the degree of parallelism to use in
-     * processing invocations of <code>scheduleTiles()</code>.  For
-     * example, this might set the number of threads to spawn.  It is
-     * legal to implement this method as a no-op.
+     * processing invocations of <code>scheduleTiles()</code>.
      *
-     * <p> In the Sun Microsystems reference implementation of TileScheduler
-     * this method sets the number of worker threads actually used for tile
-     * computation.  Ideally this number should equal the number of processors
-     * actually available on the system.  It is the responsibility of the
-     * application to set this value as the number of processors is not
-     * available via the virtual machine.  A parallelism value of zero
-     * indicates that all tile computation will be effected in the primary
-     * thread.  A parallelism value of <i>N</i> indicates that there will be
-     * <i>N</i> worker threads in addition to the primary scheduler thread.
-     * In JAI the parallelism defaults to a value of 2 unless explicity set
-     * by the application.
+     * <p> This sets the number of worker threads serving all lanes.  A
+     * parallelism value of zero indicates that all tile computation will be
+     * effected in the scheduling thread and that prefetch requests are
+     * ignored.  Extra threads exit once they are done with the job they are
+     * computing.
      *
      * @param parallelism The suggested degree of parallelism.
      * @throws IllegalArgumentException if <code>parallelism</code>
@@ -1260,7 +1136,9 @@ public final class LCTileScheduler implements TileScheduler {
 
     /**
      * Identical to <code>setParallelism()</code> but applies only to
-     * <code>prefetchTiles()</code>.
+     * <code>prefetchTiles()</code>.  Prefetch jobs share the worker threads
+     * with the other lanes, so the value is only kept for the sake of the
+     * <code>TileScheduler</code> interface.
      */
     public void setPrefetchParallelism(int parallelism) {
         if (parallelism < 0) {
@@ -1279,14 +1157,10 @@ public final class LCTileScheduler implements TileScheduler {
 
     /**
      * Suggests to the scheduler the priority to assign to processing
-     * effected by <code>scheduleTiles()</code>.  For example, this might
-     * set thread priority.  Values outside of the accepted priority range
-     * will be clamped to the nearest extremum.  An implementation may clamp
-     * the prefetch priority to less than the scheduling priority.  It is
-     * legal to implement this method as a no-op.
+     * effected by <code>scheduleTiles()</code>.  Values outside of the
+     * accepted priority range will be clamped to the nearest extremum.
      *
-     * <p> In the Sun Microsystems reference implementation of TileScheduler
-     * this method sets the priority of the worker threads used for tile
+     * <p> This sets the priority of the worker threads used for tile
      * computation.  Its initial value is <code>Thread.NORM_PRIORITY</code>.
      *
      * @param priority The suggested priority.
@@ -1294,6 +1168,11 @@ public final class LCTileScheduler implements TileScheduler {
     public void setPriority(int priority) {
         this.priority = Math.max(Math.min(priority, Thread.MAX_PRIORITY),
                                  Thread.MIN_PRIORITY);
+        synchronized (workers) {
+            for (Thread t : workers) {
+                t.setPriority(this.priority);
+            }
+        }
     }
 
     /**
@@ -1307,10 +1186,8 @@ public final class LCTileScheduler implements TileScheduler {
      * Identical to <code>setPriority()</code> but applies only to
      * <code>prefetchTiles()</code>.
      *
-     * <p> In the Sun Microsystems reference implementation of
-     * <code>TileScheduler</code>, this method sets the priority of any threads
-     * spawned to prefetch tiles.  Its initial value is
-     * <code>Thread.MIN_PRIORITY</code>.
+     * <p> Worker threads run at this priority while computing prefetch
+     * jobs.  Its initial value is <code>Thread.MIN_PRIORITY</code>.
      */
     public void setPrefetchPriority(int priority) {
         prefetchPriority = Math.max(Math.min(priority, Thread.MAX_PRIORITY),
@@ -1325,179 +1202,119 @@ public final class LCTileScheduler implements TileScheduler {
         return prefetchPriority;
     }
 
-    /** Recreate the <code>ThreadGroup</code>is and <code>WorkThread</code>s.
-     * This happens in the case of applet: the java plugin will exist after
-     * the termination of the applet so that JAI and LCTileScheduler will
-     * also exist.  However, the <code>ThreadGroup</code>s are destroyed.
-     * Thus, the old workers should be terminated and new i
-     * <code>ThreadGroup</code> and workers should be created.
+    /**
+     * Returns the number of jobs waiting in the given lane, including the
+     * cancelled ones which haven't been dequeued yet.
      */
-//    private synchronized void createThreadGroup(boolean isPrefetch) {
-    private void createThreadGroup(boolean isPrefetch) {
-        if (rootGroup == null || rootGroup.isDestroyed()) {
-            rootGroup = new ThreadGroup(nameOfThisInstance);
-            rootGroup.setDaemon(true);
-        }
-
-        if (isPrefetch &&
-            (prefetchGroup == null || prefetchGroup.isDestroyed())) {
-            prefetchGroup = new ThreadGroup(rootGroup,
-                                            nameOfThisInstance + "Prefetch");
-            prefetchGroup.setDaemon(true);
-        }
-
-        if (!isPrefetch &&
-            (standardGroup == null || standardGroup.isDestroyed())) {
-            standardGroup = new ThreadGroup(rootGroup,
-                                            nameOfThisInstance + "Standard");
-            standardGroup.setDaemon(true);
-        }
-
-        LinkedList<Thread> thr = getWorkers(isPrefetch);
-
-        for(Thread t : thr) {
-            if (!t.isAlive())
-                thr.remove(t);
-        }
-
-        if (isPrefetch)
-            numPrefetchThreads = thr.size();
-        else
-            numWorkerThreads = thr.size();
-
+    public int getQueueLength(Lane lane) {
+        return lanes[lane.ordinal()].size();
     }
 
     /**
-     * Returns the effective number of threads of the specified type.
-     * This method also updates the number and priority of threads of
-     * the specified type according to the global settings. This method
-     * may add <code>WorkerThread.TERMINATE</code>s to the appropriate
-     * queue if there are too many effective threads.
+     * Returns the number of queued jobs which have been dropped because
+     * their tiles were cancelled.
      */
-    private int getNumThreads(boolean isPrefetch) {
-        createThreadGroup(isPrefetch);
-
-        // Local variables.
-        LinkedList<Thread> thr = getWorkers(isPrefetch);
-        int nthr;
-        final int prll;
-        final int prty;
-
-        // Set local variables depending on the thread type.
-        if(isPrefetch) {
-            nthr = numPrefetchThreads;
-            prll = prefetchParallelism;
-            prty = prefetchPriority;
-        } else {
-            nthr = numWorkerThreads;
-            prll = parallelism;
-            prty = priority;
-        }
+    public long getDroppedJobCount() {
+        return droppedJobs.get();
+    }
 
-        // Update priority if it has changed.
-        if(nthr > 0 &&
-           (thr.get(0)).getPriority() != prty) {
-            for (Thread t : thr) {
-                if (t != null && t.getThreadGroup() != null) {
-                    t.setPriority(prty);
-                }
-            }
+    /**
+     * Creates worker threads until there are as many as the current
+     * parallelism.
+     */
+    private void ensureWorkers() {
+        final int prll = parallelism;
+        if (numWorkerThreads >= prll) {
+            return;
         }
-
-        if(nthr < prll) {
-            // Not enough processing threads.
-            // Add more threads at current priority.
-            while(nthr < prll) {
-                Thread t =
-                        new WorkerThread(isPrefetch ? prefetchGroup : standardGroup,
-                                         this, isPrefetch);
-
-                t.setPriority(prty);
-                thr.add(t);
-                nthr++;
-            }
-        } else {
-            // Too many processing threads: queue WorkerThread.TERMINATEs.
-            // WorkerThread will remove itself later from the appropriate
-            // ArrayList.
-            while(nthr > prll) {
-                addJob(WorkerThread.TERMINATE, isPrefetch);
-                nthr--;
+        synchronized (workers) {
+            while (workers.size() < prll) {
+                WorkerThread t = new WorkerThread(
+                    this,
+                    nameOfThisInstance + " Worker " + numWorkersCreated++,
+                    priority
+                );
+                workers.add(t);
+                t.start();
             }
+            numWorkerThreads = workers.size();
         }
-
-        // Update the number of effective threads.
-        if(isPrefetch) {
-            numPrefetchThreads = nthr;
-        } else {
-            numWorkerThreads = nthr;
-        }
-
-        return nthr;
     }
 
-    /** Returns the appropriate worker list. */
-    LinkedList<Thread> getWorkers(boolean isPrefetch) {
-        return isPrefetch ? workers : prefetchWorkers;
+    /** Appends a job to its lane. */
+    private void addJob(Job job) {
+        ensureWorkers();
+        lanes[job.lane.ordinal()].addLast(job);
+        queuedJobs.release();
     }
 
-    /** Returns the appropriate queue. */
-    LinkedList<Object> getQueue(boolean isPrefetch) {
-        return isPrefetch ? prefetchQueue : queue;
-    }
-
-    /** Append a job to the appropriate queue. */
-    private void addJob(Object job, boolean isPrefetch) {
-        if(job == null ||
-           (job != WorkerThread.TERMINATE && !(job instanceof Job))) {
-            // Programming error: deliberately no message.
-            throw new IllegalArgumentException();
-        }
-
-        final LinkedList<Object> jobQueue = getQueue(isPrefetch);
-        if(isPrefetch ||
-           jobQueue.isEmpty() ||
-           job instanceof RequestJob) {
-            // Append job to queue.
-            jobQueue.addLast(job);
-        } else {
-            // If the queue is non-empty or the job is a TileJob
-            // insert the job after the last TileJob in the queue.
-            boolean inserted = false;
-            for(int idx = jobQueue.size() - 1; idx >= 0; idx--) {
-                if(jobQueue.get(idx) instanceof TileJob) {
-                    jobQueue.add(idx+1, job);
-                    inserted = true;
-                    break;
+    /**
+     * Takes the next job for a worker, waiting for one if there is none.
+     * Returns <code>null</code> if the worker should exit.
+     */
+    Job takeJob(WorkerThread worker) {
+        while (true) {
+            if (numWorkerThreads > parallelism) {
+                synchronized (workers) {
+                    if (workers.size() > parallelism) {
+                        workers.remove(worker);
+                        numWorkerThreads = workers.size();
+                        return null;
+                    }
                 }
             }
-            if(!inserted) {
-                jobQueue.addFirst(job);
+            try {
+                if (!queuedJobs.tryAcquire(IDLE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                continue;
+            }
+            final boolean lowFirst =
+                ++worker.dequeued % STARVATION_INTERVAL == 0;
+            Job job = pollJob(lowFirst);
+            if (job != null) {
+                return job;
             }
+            // The job matching our permit is not visible yet, give the
+            // permit back and retry.
+            queuedJobs.release();
         }
-        jobQueue.notify();
     }
 
-    /** Queue WorkerThread.TERMINATEs to all workers. */
-    protected void finalize() throws Throwable {
-        terminateAll(false);
-        terminateAll(true);
-        super.finalize();
+    /** Removes the first job of the highest (or lowest) non-empty lane. */
+    private Job pollJob(boolean lowFirst) {
+        final int numLanes = lanes.length;
+        for (int i = 0; i < numLanes; i++) {
+            Job job = lanes[lowFirst ? numLanes - 1 - i : i].pollFirst();
+            if (job != null) {
+                return job;
+            }
+        }
+        return null;
     }
 
-    /** Queue WorkerThread.TERMINATEs to all appropriate workers. */
-    private void terminateAll(boolean isPrefetch) {
-        synchronized(getWorkers(isPrefetch)) {
-            int numThreads = isPrefetch ?
-                numPrefetchThreads : numWorkerThreads;
-            for(int i = 0; i < numThreads; i++) {
-                addJob(WorkerThread.TERMINATE, isPrefetch);
-                if(isPrefetch) {
-                    numPrefetchThreads--;
-                } else {
-                    numWorkerThreads--;
-                }
+    /**
+     * Runs a dequeued job in a worker thread, with the lane and priority of
+     * the job.  Cancelled and already claimed jobs are simply discarded.
+     */
+    void runJob(Job job) {
+        final Thread thread = Thread.currentThread();
+        final boolean isPrefetch = job.lane == Lane.PREFETCH;
+        final Lane previous = setLane(job.lane);
+        if (isPrefetch) {
+            thread.setPriority(prefetchPriority);
+        }
+        try {
+            job.run();
+        } catch (Throwable e) {
+            // Don't let a misbehaving listener kill the worker.
+            sendExceptionToListener("Exception while computing tile: ", e);
+        } finally {
+            if (isPrefetch) {
+                thread.setPriority(priority);
             }
+            setLane(previous);
         }
     }
 
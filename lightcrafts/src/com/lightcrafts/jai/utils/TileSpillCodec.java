@@ -0,0 +1,223 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A lossless codec for tiles spilled to disk by {@link LCTileCache}.
+ *
+ * <p> Each band is run through the LOCO-I median edge detector predictor,
+ * the residuals are zigzag coded so that small negative and positive errors
+ * both end up as small numbers, the bytes of 16 bit residuals are split in a
+ * high byte plane and a low byte plane, and the result goes through Deflate
+ * at its fastest setting.  The high byte plane of a smooth photographic tile
+ * is mostly zeros and compresses very well, which is where the gain comes
+ * from.
+ *
+ * <p> Deflaters, inflaters and scratch buffers are kept per thread, so the
+ * codec can be used concurrently.
+ */
+final class TileSpillCodec {
+
+    private static final ThreadLocal<Deflater> deflaters =
+        ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    private static final ThreadLocal<Inflater> inflaters =
+        ThreadLocal.withInitial(Inflater::new);
+
+    private static final ThreadLocal<byte[][]> scratch =
+        ThreadLocal.withInitial(() -> new byte[2][]);
+
+    private TileSpillCodec() { }
+
+    /**
+     * Compresses 16 bit samples.
+     *
+     * @param data The samples.
+     * @param pixelStride The distance between two pixels of a band.
+     * @param scanlineStride The distance between two lines of a band.
+     * @return The compressed samples, or <code>null</code> if they don't
+     * compress.
+     */
+    static byte[] encode(short[] data, int pixelStride, int scanlineStride) {
+        final int n = data.length;
+        final byte[] planes = scratch(0, 2 * n);
+        for (int i = 0; i < n; i++) {
+            final int residual = (short) (
+                (data[i] & 0xffff) - predict(data, i, pixelStride, scanlineStride)
+            );
+            final int z = ((residual << 1) ^ (residual >> 31)) & 0xffff;
+            planes[i] = (byte) (z >>> 8);
+            planes[n + i] = (byte) z;
+        }
+        return deflate(planes, 2 * n);
+    }
+
+    /**
+     * Compresses 8 bit samples.
+     *
+     * @see #encode(short[], int, int)
+     */
+    static byte[] encode(byte[] data, int pixelStride, int scanlineStride) {
+        final int n = data.length;
+        final byte[] residuals = scratch(0, n);
+        for (int i = 0; i < n; i++) {
+            final int residual = (byte) (
+                (data[i] & 0xff) - predict(data, i, pixelStride, scanlineStride)
+            );
+            residuals[i] = (byte) ((residual << 1) ^ (residual >> 31));
+        }
+        return deflate(residuals, n);
+    }
+
+    /**
+     * Decompresses 16 bit samples compressed by
+     * {@link #encode(short[], int, int)}.
+     *
+     * @param buf The compressed samples, from its position to its limit.
+     * @param data The array to decode into.
+     */
+    static void decode(ByteBuffer buf, short[] data,
+                       int pixelStride, int scanlineStride)
+        throws DataFormatException
+    {
+        final int n = data.length;
+        final byte[] planes = inflate(buf, 2 * n);
+        for (int i = 0; i < n; i++) {
+            final int z = ((planes[i] & 0xff) << 8) | (planes[n + i] & 0xff);
+            final int residual = (z >>> 1) ^ -(z & 1);
+            data[i] = (short) (
+                predict(data, i, pixelStride, scanlineStride) + residual
+            );
+        }
+    }
+
+    /**
+     * Decompresses 8 bit samples compressed by
+     * {@link #encode(byte[], int, int)}.
+     *
+     * @see #decode(ByteBuffer, short[], int, int)
+     */
+    static void decode(ByteBuffer buf, byte[] data,
+                       int pixelStride, int scanlineStride)
+        throws DataFormatException
+    {
+        final int n = data.length;
+        final byte[] residuals = inflate(buf, n);
+        for (int i = 0; i < n; i++) {
+            final int z = residuals[i] & 0xff;
+            final int residual = (z >>> 1) ^ -(z & 1);
+            data[i] = (byte) (
+                predict(data, i, pixelStride, scanlineStride) + residual
+            );
+        }
+    }
+
+    /**
+     * The median edge detector: predicts a sample from its left, upper and
+     * upper left neighbours, which are always decoded before it.
+     */
+    private static int predict(short[] data, int i,
+                               int pixelStride, int scanlineStride) {
+        final boolean hasLeft = i % scanlineStride >= pixelStride;
+        final boolean hasAbove = i >= scanlineStride;
+        if (hasLeft && hasAbove) {
+            return med(data[i - pixelStride] & 0xffff,
+                       data[i - scanlineStride] & 0xffff,
+                       data[i - scanlineStride - pixelStride] & 0xffff);
+        }
+        if (hasLeft) {
+            return data[i - pixelStride] & 0xffff;
+        }
+        if (hasAbove) {
+            return data[i - scanlineStride] & 0xffff;
+        }
+        return 0;
+    }
+
+    private static int predict(byte[] data, int i,
+                               int pixelStride, int scanlineStride) {
+        final boolean hasLeft = i % scanlineStride >= pixelStride;
+        final boolean hasAbove = i >= scanlineStride;
+        if (hasLeft && hasAbove) {
+            return med(data[i - pixelStride] & 0xff,
+                       data[i - scanlineStride] & 0xff,
+                       data[i - scanlineStride - pixelStride] & 0xff);
+        }
+        if (hasLeft) {
+            return data[i - pixelStride] & 0xff;
+        }
+        if (hasAbove) {
+            return data[i - scanlineStride] & 0xff;
+        }
+        return 0;
+    }
+
+    private static int med(int a, int b, int c) {
+        if (c >= Math.max(a, b)) {
+            return Math.min(a, b);
+        }
+        if (c <= Math.min(a, b)) {
+            return Math.max(a, b);
+        }
+        return a + b - c;
+    }
+
+    private static byte[] scratch(int which, int size) {
+        final byte[][] buffers = scratch.get();
+        if (buffers[which] == null || buffers[which].length < size) {
+            buffers[which] = new byte[size];
+        }
+        return buffers[which];
+    }
+
+    /**
+     * Deflates the first <code>length</code> bytes of the given array.
+     *
+     * @return The deflated bytes, or <code>null</code> if they are not
+     * smaller than the input.
+     */
+    private static byte[] deflate(byte[] input, int length) {
+        final Deflater deflater = deflaters.get();
+        final byte[] output = scratch(1, length);
+        deflater.reset();
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == length) {
+                return null;
+            }
+            size += deflater.deflate(output, size, length - size);
+        }
+        final byte[] result = new byte[size];
+        System.arraycopy(output, 0, result, 0, size);
+        return result;
+    }
+
+    private static byte[] inflate(ByteBuffer buf, int length)
+        throws DataFormatException
+    {
+        final Inflater inflater = inflaters.get();
+        final byte[] output = scratch(0, length);
+        inflater.reset();
+        inflater.setInput(buf);
+        int size = 0;
+        while (size < length && !inflater.finished()) {
+            final int count = inflater.inflate(output, size, length - size);
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("truncated tile");
+            }
+            size += count;
+        }
+        if (size != length) {
+            throw new DataFormatException("tile size mismatch");
+        }
+        return output;
+    }
+}
+/* vim:set et sw=4 ts=4: */
@@ -295,16 +295,29 @@ public abstract class BlendedOperation extends GenericOperationImpl implements C
                 // System.out.println("new CachedImage " + BlendedOperation.this.getClass());
             }
 
+            // Computes the same tiles as the rendering, in one pass from further up the pipeline
+            private SoftReference<PlanarImage> softFusedRendering = new SoftReference<PlanarImage>(null);
+
             public PlanarImage getRendering() {
                 return softRendering != null ? softRendering.get() : null;
             }
 
+            public PlanarImage getFusedRendering() {
+                return softFusedRendering.get();
+            }
+
+            public void setFusedRendering(PlanarImage fusedRendering) {
+                softFusedRendering = new SoftReference<PlanarImage>(fusedRendering);
+            }
+
             @Override
             public Raster getTile(int tileX, int tileY) {
                 Raster tile = cache.getTile(this, tileX, tileY);
 
                 if (tile == null) {
-                    PlanarImage rendering = softRendering.get();
+                    PlanarImage rendering = softFusedRendering.get();
+                    if (rendering == null)
+                        rendering = softRendering.get();
 
                     if (rendering == null) {
                         System.out.println("rendering null..." + BlendedOperation.this.getClass());
@@ -2,8 +2,7 @@
 
 package com.lightcrafts.model.ImageEditor;
 
-import com.lightcrafts.jai.JAIContext;
-import com.lightcrafts.jai.LCROIShape;
+import com.lightcrafts.jai.opimage.CloneOpImage;
 import com.lightcrafts.jai.utils.Transform;
 import com.lightcrafts.model.*;
 
@@ -12,9 +11,9 @@ import com.lightcrafts.ui.editor.EditorMode;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
-import java.awt.image.renderable.ParameterBlock;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.List;
 
 import static com.lightcrafts.ui.help.HelpConstants.HELP_TOOL_CLONE;
 
@@ -42,7 +41,7 @@ public class CloneOperationImpl extends BlendedOperation implements CloneOperati
     static final OperationType type = new OperationTypeImpl("Clone");
 
     static PlanarImage buildCloner(Region region, Rendering rendering, PlanarImage back) {
-        PlanarImage image = back;
+        List<CloneOpImage.Spot> spots = new ArrayList<CloneOpImage.Spot>();
 
         Collection<Contour> contours = region.getContours();
         for (final Contour c : contours) {
@@ -73,76 +72,14 @@ public class CloneOperationImpl extends BlendedOperation implements CloneOperati
             final int dx = (int) (target.getX() - source.getX());
             final int dy = (int) (target.getY() - source.getY());
 
-            ParameterBlock pb = new ParameterBlock();
-            pb.addSource(back)
-              .add((float) dx)
-              .add((float) dy);
-            RenderedOp translated = JAI.create("Translate", pb, JAIContext.noCacheHint);
-
-            pb = new ParameterBlock();
-            pb.addSource(translated)
-              .add(dx > 0 ?  dx : 0)
-              .add(dx < 0 ? -dx : 0)
-              .add(dy > 0 ?  dy : 0)
-              .add(dy < 0 ? -dy : 0)
-              .add(BorderExtender.createInstance(BorderExtender.BORDER_ZERO));
-            RenderedOp border = JAI.create("Border", pb, JAIContext.noCacheHint);
-
-            pb = new ParameterBlock();
-            pb.addSource(border)
-              .add((float) back.getMinX())
-              .add((float) back.getMinY())
-              .add((float) back.getWidth())
-              .add((float) back.getHeight());
-            RenderedOp crop = JAI.create("Crop", pb, JAIContext.noCacheHint);
-
-            // Format retiles the image
-            // TODO: this needs better understanding, can we just specify the layout for Crop?
-            pb = new ParameterBlock();
-            pb.addSource(crop)
-              .add(back.getSampleModel().getDataType());
-            RenderingHints formatHints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, new ImageLayout(back));
-            formatHints.add(JAIContext.noCacheHint);
-            RenderedOp formatted = JAI.create("Format", pb, formatHints);
-
-            Region r = new Region() {
-                @Override
-                public Collection<Contour> getContours() {
-                    return Collections.singleton(contour);
-                }
-
-                @Override
-                public Shape getOuterShape() {
-                    return contour.getOuterShape();
-                }
-
-                @Override
-                public float getWidth() {
-                    return contour.getWidth();
-                }
-
-                @Override
-                public Point2D getTranslation() {
-                    return contour.getTranslation();
-                }
-            };
-
-            LCROIShape mask = new LCROIShape(r, rendering.getInputTransform());
-
-            pb = new ParameterBlock();
-            pb.addSource(formatted)
-              .addSource(image)
-              .add("Normal")
-              .add(new Double(1))
-              .add(mask);
-
-            // RenderingHints blendHints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, new ImageLayout(back));
-            // NOTE: I guess that it is more efficient to cache the different cloned areas...
-            // blendHints.add(JAIContext.noCacheHint);
-            image = JAI.create("Blend", pb, null);
+            spots.add(new CloneOpImage.Spot(contour, dx, dy));
         }
 
-        return image;
+        if (spots.isEmpty())
+            return back;
+
+        // All the spots in one pass, each tile only blends the spots it has
+        return new CloneOpImage(back, spots, rendering.getInputTransform(), null);
     }
 
     private class Cloner extends BlendedTransform {
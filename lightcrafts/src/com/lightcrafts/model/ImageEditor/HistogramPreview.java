@@ -13,7 +13,6 @@ import javax.media.jai.*;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.GeneralPath;
-import java.awt.image.Raster;
 
 public class HistogramPreview extends Preview implements PaintListener {
     private int[][] bins = null;
@@ -178,58 +177,10 @@ public class HistogramPreview extends Preview implements PaintListener {
         }
     }
 
-    private static float[] logTable = new float[0x10000];
-
-    static {
-        for (int i = 0; i < 0x10000; i++)
-            logTable[i] = (float) Math.log1p(i);
-    }
+    private final SampledHistogram histogram = new SampledHistogram();
 
     private synchronized void computeHistogram(Rectangle visibleRect, PlanarImage image) {
-        int channels = image.getSampleModel().getNumBands();
-
-        Histogram hist = new Histogram(256, 256, 512, channels);
-
-        bins = hist.getBins();
-
-        int[] pixel = null;
-
-        int maxPixels = 256;
-        int incX = visibleRect.width >= 2 * maxPixels ? visibleRect.width / maxPixels : 1;
-        int incY = visibleRect.height >= 2 * maxPixels ? visibleRect.height / maxPixels : 1;
-
-        double log2 = Math.log(2);
-
-        int minTileX = image.XToTileX(visibleRect.x);
-        int maxTileX = image.XToTileX(visibleRect.x + visibleRect.width - 1);
-        int minTileY = image.YToTileY(visibleRect.y);
-        int maxTileY = image.YToTileY(visibleRect.y + visibleRect.height - 1);
-
-        for (int tx = minTileX; tx <= maxTileX; tx++) {
-            for (int ty = minTileY; ty <= maxTileY; ty++) {
-                Raster raster = image.getTile(tx, ty);
-
-                int minX = Math.max(visibleRect.x, raster.getMinX());
-                int maxX = Math.min(visibleRect.x + visibleRect.width, raster.getMinX() + raster.getWidth());
-                int minY = Math.max(visibleRect.y, raster.getMinY());
-                int maxY = Math.min(visibleRect.y + visibleRect.height, raster.getMinY() + raster.getHeight());
-
-                for (int x = minX; x < maxX; x+=incX) {
-                    for (int y = minY; y < maxY; y+=incY) {
-                        pixel = raster.getPixel(x, y, pixel);
-                        for (int c = 0; c < channels; c++) {
-                            int v = (int) (511 * logTable[pixel[c]] / (16 * log2));
-                            if (v > 255)
-                                bins[c][v - 256]++;
-                            else
-                                bins[c][0]++;
-                        }
-                    }
-                }
-            }
-        }
-
-        bins = hist.getBins();
+        bins = histogram.update(image, visibleRect);
     }
 
     private class Histogrammer extends Thread {
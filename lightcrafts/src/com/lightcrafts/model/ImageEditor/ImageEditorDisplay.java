@@ -29,11 +29,12 @@ import java.awt.image.*;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class ImageEditorDisplay extends JPanel {
-    private static final boolean DEBUG = false;
+    static final boolean DEBUG = false;
 
     @Getter
     private PlanarImage source;
@@ -59,6 +60,21 @@ public class ImageEditorDisplay extends JPanel {
 
     private SoftValueHashMap<CacheKey, BufferedImage> backgroundCache = null;
 
+    // A coarse rendering of the current image, shown scaled up where its
+    // tiles aren't computed yet
+    private BufferedImage coarseImage;
+
+    // The next coarse rendering to compute and the epoch it's for
+    private Supplier<PlanarImage> pendingPreview;
+    private int pendingPreviewEpoch;
+
+    private Thread previewer;
+
+    // The visible part of a reduced resolution rendering shown in place of
+    // the image during live updates, and where it goes
+    private BufferedImage proxyImage;
+    private AffineTransform proxyTransform;
+
     // Workaround for unreliable ComponentListener.componentResized() callbacks.
     private ConcurrentLinkedQueue<ComponentListener> compListeners =
             new ConcurrentLinkedQueue<>();
@@ -136,6 +152,11 @@ public class ImageEditorDisplay extends JPanel {
         if (backgroundCache != null) {
             backgroundCache = null;
         }
+        synchronized (this) {
+            coarseImage = null;
+            pendingPreview = null;
+            proxyImage = null;
+        }
         engineListeners = null;
         paintListener = null;
         tileHandler = null;
@@ -156,6 +177,8 @@ public class ImageEditorDisplay extends JPanel {
 
         source = image;
         epoch++;
+        coarseImage = null;
+        proxyImage = null;
         source.addTileComputationListener(tileManager);
 
         int maxTileX = source.getMaxTileX();
@@ -180,6 +203,107 @@ public class ImageEditorDisplay extends JPanel {
         repaint();
     }
 
+    /**
+     * Computes a coarse rendering of the current image in the background,
+     * to show scaled up where the image's tiles aren't computed yet.  The
+     * tiles replace it as they come in, the visible ones nearest the center
+     * first.  Setting a new image drops the preview, and only the latest
+     * one asked for is computed.
+     *
+     * @param preview Renders the coarse image when called, on a background
+     * thread.
+     */
+    synchronized void setPreview(@NotNull Supplier<PlanarImage> preview) {
+        pendingPreview = preview;
+        pendingPreviewEpoch = epoch;
+        if (previewer == null) {
+            previewer = new Thread(this::computePreviews, "Progressive Preview");
+            previewer.setDaemon(true);
+            previewer.start();
+        }
+    }
+
+    private void computePreviews() {
+        while (true) {
+            final Supplier<PlanarImage> preview;
+            final int previewEpoch;
+            synchronized (this) {
+                preview = pendingPreview;
+                previewEpoch = pendingPreviewEpoch;
+                pendingPreview = null;
+                if (preview == null || previewEpoch != epoch) {
+                    previewer = null;
+                    return;
+                }
+            }
+
+            val start = System.currentTimeMillis();
+            final BufferedImage coarse;
+            try {
+                val image = preview.get();
+                // Let the tile scheduler compute the tiles in parallel
+                image.getTiles();
+                coarse = Functions.toFastBufferedImage(image);
+                image.dispose();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                continue;
+            }
+
+            synchronized (this) {
+                if (previewEpoch != epoch || source == null)
+                    continue;
+                coarseImage = coarse;
+            }
+            if (DEBUG)
+                System.out.println("Coarse preview (" + coarse.getWidth() + "x" + coarse.getHeight()
+                                   + ") in " + (System.currentTimeMillis() - start) + "ms");
+            repaint();
+        }
+    }
+
+    /**
+     * Shows a reduced resolution rendering of the image in place of it,
+     * until the next image is set.  Only the visible part of the rendering
+     * is computed, right away, the tile scheduler computing its tiles in
+     * parallel.
+     *
+     * @param proxy The rendering, the same as the image but smaller.
+     */
+    synchronized void setProxy(@NotNull PlanarImage proxy) {
+        if (source == null) {
+            return;
+        }
+        val scaleX = source.getWidth() / (double) proxy.getWidth();
+        val scaleY = source.getHeight() / (double) proxy.getHeight();
+        val visibleRect = HiDpi.imageSpaceRectFrom(getVisibleRect());
+        val minX = (int) Math.floor((visibleRect.x - source.getMinX()) / scaleX) - 1;
+        val minY = (int) Math.floor((visibleRect.y - source.getMinY()) / scaleY) - 1;
+        val maxX = (int) Math.ceil((visibleRect.x + visibleRect.width - source.getMinX()) / scaleX) + 1;
+        val maxY = (int) Math.ceil((visibleRect.y + visibleRect.height - source.getMinY()) / scaleY) + 1;
+        val area = new Rectangle(proxy.getMinX() + minX, proxy.getMinY() + minY,
+                                 maxX - minX, maxY - minY).intersection(proxy.getBounds());
+        if (area.isEmpty()) {
+            return;
+        }
+
+        val tileIndices = proxy.getTileIndices(area);
+        if (tileIndices != null) {
+            proxy.getTiles(tileIndices);
+        }
+        val raster = Raster.createWritableRaster(
+                proxy.getSampleModel().createCompatibleSampleModel(area.width, area.height),
+                area.getLocation());
+        proxy.copyData(raster);
+        proxyImage = new BufferedImage(sRGBColorModel, raster.createWritableTranslatedChild(0, 0),
+                                       false, null);
+
+        proxyTransform = AffineTransform.getTranslateInstance(source.getMinX(), source.getMinY());
+        proxyTransform.scale(scaleX, scaleY);
+        proxyTransform.translate(area.x - proxy.getMinX(), area.y - proxy.getMinY());
+        repaint();
+    }
+
     private class LCTileHandler implements TileHandler {
         @Override
         public void handle(int tileX, int tileY, PaintContext ctx) {
@@ -341,6 +465,15 @@ public class ImageEditorDisplay extends JPanel {
             return;
         }
 
+        if (proxyImage != null) {
+            val g = (Graphics2D) g2d.create();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                               RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(proxyImage, proxyTransform, null);
+            g.dispose();
+            return;
+        }
+
         if (!ADVANCED_REPAINT) {
             progressNotifyer.setTiles(1);
             g2d.drawRenderedImage(source, identityTransform);
@@ -405,6 +538,10 @@ public class ImageEditorDisplay extends JPanel {
             return;
         }
 
+        if (drawCoarseImage(g2d)) {
+            return;
+        }
+
         // Reuse tile of different zoom level
         if (shouldUseScaledTileCache
                 && drawScaledTileCache(g2d, tx, ty, tileClipRect.width, tileClipRect.height)) {
@@ -429,6 +566,33 @@ public class ImageEditorDisplay extends JPanel {
         g2d.fillRect(tileClipRect.x, tileClipRect.y, tileClipRect.width, tileClipRect.height);
     }
 
+    /**
+     * Draws the coarse rendering of the image scaled up to the image's
+     * size, as far as the clip goes.
+     */
+    private boolean drawCoarseImage(Graphics2D g2d) {
+        if (coarseImage == null) {
+            return false;
+        }
+        val g = (Graphics2D) g2d.create();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                               RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(coarseImage,
+                    source.getMinX(), source.getMinY(),
+                    source.getMinX() + source.getWidth(), source.getMinY() + source.getHeight(),
+                    0, 0, coarseImage.getWidth(), coarseImage.getHeight(), null);
+            if (DEBUG) {
+                val clip = g.getClipBounds();
+                g.setColor(Color.blue);
+                g.drawRect(clip.x, clip.y, clip.width - 1, clip.height - 1);
+            }
+        } finally {
+            g.dispose();
+        }
+        return true;
+    }
+
     private boolean drawScaledTileCache(Graphics2D g2d, int tx, int ty,
                                         int tileWidth, int tileHeight) {
         val scale = engine.getScale();
@@ -20,6 +20,7 @@ import com.lightcrafts.jai.operator.LCMSColorConvertDescriptor;
 import com.lightcrafts.jai.opimage.CachedImage;
 import com.lightcrafts.jai.utils.Functions;
 import com.lightcrafts.jai.utils.LCTileCache;
+import com.lightcrafts.jai.utils.LCTileScheduler;
 import com.lightcrafts.model.*;
 import com.lightcrafts.platform.Platform;
 import com.lightcrafts.utils.UserCanceledException;
@@ -27,6 +28,7 @@ import com.lightcrafts.utils.thread.ProgressThread;
 import com.lightcrafts.utils.xml.XMLUtil;
 import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.val;
 
 import javax.media.jai.*;
@@ -49,6 +51,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class ImageEditorEngine implements Engine {
     private ImageInfo m_imageInfo;
@@ -57,6 +60,13 @@ public class ImageEditorEngine implements Engine {
     @Getter(AccessLevel.PACKAGE)
     private PlanarImage sourceImage;
 
+    /**
+     * Identifies the contents of the source image, for sharing its pyramid
+     * levels, or <code>null</code> if there's no source file.
+     */
+    @Getter(AccessLevel.PACKAGE)
+    private Object sourceKey;
+
     private PlanarImage processedImage;
 
     @Getter
@@ -180,10 +190,15 @@ public class ImageEditorEngine implements Engine {
         if (sourceImage == null)
             throw new IOException("Something wrong with opening " + metadata.getFile().getName());
 
+        // The pyramid levels of the source can be shared as long as the
+        // file and its orientation don't change
+        String key = imageFile.getPath() + ':' + imageFile.lastModified() + ':' + imageFile.length();
+
         val orientation = metadata.getOrientation();
         if (orientation != null) {
             val transposeAngle = orientation.getCorrection();
             if (transposeAngle != null) {
+                key += ':' + transposeAngle.getName();
                 val pb = new ParameterBlock();
                 pb.addSource(sourceImage);
                 pb.add(transposeAngle);
@@ -194,6 +209,7 @@ public class ImageEditorEngine implements Engine {
             }
         }
 
+        sourceKey = key;
         rendering = new Rendering(sourceImage, this);
         addFirstPaintLatency = true;
     }
@@ -542,6 +558,14 @@ public class ImageEditorEngine implements Engine {
         update(op, isLive, null);
     }
 
+    /**
+     * Returns how often each operation of the pipeline could reuse its
+     * previous output instead of being rebuilt.
+     */
+    public List<Rendering.StageStatistics> getStageStatistics() {
+        return rendering.getStageStatistics();
+    }
+
     /*
         Main Pipeline update routine
     */
@@ -555,6 +579,18 @@ public class ImageEditorEngine implements Engine {
         if (canvas == null || !event_filter(isLive, updater))
             return;
 
+        if (isLive && proxyMode) {
+            updateProxy();
+            return;
+        }
+        if (proxyActive) {
+            proxyActive = false;
+            fullSwitches++;
+            if (ImageEditorDisplay.DEBUG)
+                System.out.println("Proxy mode: " + proxyFrames + " frames at 1/" + proxyRatio
+                                   + " scale, " + proxyFrameTime + "ms average");
+        }
+
         val oldProcessedImage = processedImage;
 
         // TODO: use disconnected cached images instead of PERSISTENT_CACHE_TAG
@@ -563,7 +599,8 @@ public class ImageEditorEngine implements Engine {
         processedImage.setProperty(JAIContext.PERSISTENT_CACHE_TAG, Boolean.TRUE);
 
         // if (oldProcessedImage != processedImage) {
-            if (oldProcessedImage != null)
+            // Rendering hands back the same image when nothing upstream changed
+            if (oldProcessedImage != null && oldProcessedImage != processedImage)
                 oldProcessedImage.dispose();
 
             if (previewImage != null)
@@ -582,6 +619,116 @@ public class ImageEditorEngine implements Engine {
 
         val finalImage = scaleFinal(previewImage);
         canvas.set(finalImage, isLive);
+
+        // Live updates are rendered synchronously anyway
+        if (!isLive)
+            canvas.setPreview(getCoarsePreview(finalImage));
+    }
+
+    /**
+     * Renderings larger than this get a coarser preview.
+     */
+    private static final long LARGE_RENDERING_PIXELS = 2048L * 2048L;
+
+    /**
+     * Snapshots the pipeline at a fraction of the display scale, for the
+     * canvas to show scaled up until the tiles of the full rendering come
+     * in.  The pipeline reads a smaller pyramid level then, so the preview
+     * costs a small fraction of the full rendering.
+     */
+    private Supplier<PlanarImage> getCoarsePreview(PlanarImage image) {
+        val ratio = (long) image.getWidth() * image.getHeight() > LARGE_RENDERING_PIXELS ? 8 : 4;
+        return getReducedRendering(ratio);
+    }
+
+    /**
+     * Snapshots the pipeline into a rendering at a fraction of the display
+     * scale, converted for the display.
+     *
+     * @return Returns a supplier of the rendering, which builds it when
+     * called.
+     */
+    private Supplier<PlanarImage> getReducedRendering(int ratio) {
+        val reduced = rendering.clone();
+        reduced.setCropAndScale(getCropBounds(), rendering.getScaleFactor() / ratio);
+
+        val inactive = !engineActive;
+        val profile = proofProfile;
+        val intent = proofIntent;
+        return () -> Functions.fromUShortToByte(Functions.toColorSpace(reduced.getRendering(inactive),
+                                                                       JAIContext.systemColorSpace,
+                                                                       profile,
+                                                                       null,
+                                                                       intent,
+                                                                       null),
+                                                null);
+    }
+
+    /*
+        Proxy mode: during live updates, e.g. while a slider is dragged, the
+        pipeline runs on a clone of the rendering at a fraction of the display
+        scale and only the visible part of it is computed, right away. The
+        fraction adapts so that frames take about PROXY_FRAME_TARGET. The full
+        resolution rendering resumes with the next update that isn't live.
+    */
+
+    private static final long PROXY_FRAME_TARGET = 50;
+    private static final int MIN_PROXY_RATIO = 2;
+    private static final int MAX_PROXY_RATIO = 8;
+
+    @Getter
+    @Setter
+    private boolean proxyMode = !Boolean.getBoolean("lightcrafts.proxy.disabled");
+
+    private boolean proxyActive = false;
+    private int proxyRatio = MIN_PROXY_RATIO;
+    private long lastProxyFrame = -1;
+
+    /**
+     * The number of live frames rendered in proxy mode.
+     */
+    @Getter
+    private long proxyFrames = 0;
+
+    /**
+     * The running average time of a live frame in proxy mode, in ms.
+     */
+    @Getter
+    private long proxyFrameTime = PROXY_FRAME_TARGET;
+
+    /**
+     * How many times the engine went from full resolution to proxy mode.
+     */
+    @Getter
+    private long proxySwitches = 0;
+
+    /**
+     * How many times the engine went back from proxy mode to full
+     * resolution.
+     */
+    @Getter
+    private long fullSwitches = 0;
+
+    private void updateProxy() {
+        if (!proxyActive) {
+            proxyActive = true;
+            proxySwitches++;
+        }
+        val start = System.currentTimeMillis();
+
+        val proxy = getReducedRendering(proxyRatio).get();
+        canvas.setProxy(proxy);
+        proxy.dispose();
+
+        lastProxyFrame = System.currentTimeMillis();
+        val time = lastProxyFrame - start;
+        proxyFrameTime = (proxyFrameTime + time) / 2;
+        proxyFrames++;
+
+        if (time > PROXY_FRAME_TARGET && proxyRatio < MAX_PROXY_RATIO)
+            proxyRatio *= 2;
+        else if (time < PROXY_FRAME_TARGET / 4 && proxyRatio > MIN_PROXY_RATIO)
+            proxyRatio /= 2;
     }
 
     /*
@@ -616,9 +763,10 @@ public class ImageEditorEngine implements Engine {
                     tilesRead = tc.tilesRead();
                     tilesWritten = tc.tilesWritten();
                     tilesOnDisk = tc.tilesOnDisk();
-                    System.out.println("Tile Cache Statistics r: " + tilesRead
-                            + ", w: " + tilesWritten
-                            + ", on disk: " + tilesOnDisk);
+                    System.out.printf("Tile Cache Statistics r: %d, w: %d, on disk: %d,"
+                                      + " compression: %.2f, decode: %.0fus%n",
+                                      tilesRead, tilesWritten, tilesOnDisk,
+                                      tc.spillCompressionRatio(), tc.spillDecodeTime());
                 }
             }
 
@@ -677,6 +825,19 @@ public class ImageEditorEngine implements Engine {
             return true;
         }
 
+        // In proxy mode render live updates as often as frames can be rendered
+        if (proxyMode) {
+            val sinceLastFrame = System.currentTimeMillis() - lastProxyFrame;
+            if (updater != null || lastProxyFrame == -1 || sinceLastFrame >= proxyFrameTime) {
+                if (swingTimer != null && currentTask != null)
+                    swingTimer.removeActionListener(currentTask);
+                currentTask = null;
+                return true;
+            }
+            scheduleUpdate(proxyFrameTime - sinceLastFrame);
+            return false;
+        }
+
         // During live updates wait until the user stays put for at least the current average repaint time
         val timeNow = System.currentTimeMillis();
         val timeDiff = (lastTime == -1) ? 0 : timeNow - lastTime;
@@ -685,25 +846,7 @@ public class ImageEditorEngine implements Engine {
         val delay = Math.min(Math.max(synchImageRepaintTime, 300), 1000);
 
         if (timeDiff < delay) {
-            if (swingTimer != null) {
-                if (currentTask != null)
-                    swingTimer.removeActionListener(currentTask);
-
-                currentTask = new UpdateActionListener();
-                swingTimer.addActionListener(currentTask);
-                swingTimer.setInitialDelay((int) delay);
-
-                if (swingTimer.isRunning())
-                    swingTimer.restart();
-                else
-                    swingTimer.start();
-            }
-            else {
-                currentTask = new UpdateActionListener();
-                swingTimer = new javax.swing.Timer((int) delay, currentTask);
-                swingTimer.setRepeats(false);
-                swingTimer.start();
-            }
+            scheduleUpdate(delay);
             return false;
         }
 
@@ -713,6 +856,28 @@ public class ImageEditorEngine implements Engine {
         return true;
     }
 
+    private void scheduleUpdate(long delay) {
+        if (swingTimer != null) {
+            if (currentTask != null)
+                swingTimer.removeActionListener(currentTask);
+
+            currentTask = new UpdateActionListener();
+            swingTimer.addActionListener(currentTask);
+            swingTimer.setInitialDelay((int) delay);
+
+            if (swingTimer.isRunning())
+                swingTimer.restart();
+            else
+                swingTimer.start();
+        }
+        else {
+            currentTask = new UpdateActionListener();
+            swingTimer = new javax.swing.Timer((int) delay, currentTask);
+            swingTimer.setRepeats(false);
+            swingTimer.start();
+        }
+    }
+
     @Override
     public void print(ProgressThread thread, PageFormat format, PrintSettings settings) throws PrinterException {
         Platform.getPlatform().getPrinterLayer().print(this, thread, format, settings);
@@ -855,7 +1020,13 @@ public class ImageEditorEngine implements Engine {
         // LZN editor state data
         val lzn = exportOptions.getAuxData();
         val imageInfo = (m_exportInfo != null) ? m_exportInfo : m_imageInfo;
-        exportType.putImage(imageInfo, exportImage, exportOptions, lzn, thread);
+        // Export tiles must not get in the way of the editor's
+        val previousLane = LCTileScheduler.setLane(LCTileScheduler.Lane.BATCH);
+        try {
+            exportType.putImage(imageInfo, exportImage, exportOptions, lzn, thread);
+        } finally {
+            LCTileScheduler.setLane(previousLane);
+        }
     }
 
     Color getPixelValue(final int x, final int y) {
@@ -4,81 +4,229 @@
 package com.lightcrafts.model.ImageEditor;
 
 import com.lightcrafts.jai.JAIContext;
+import com.lightcrafts.jai.opimage.CachedImage;
 import com.lightcrafts.jai.utils.Functions;
-import javax.media.jai.BorderExtender;
-import javax.media.jai.Interpolation;
-import javax.media.jai.JAI;
+import com.lightcrafts.jai.utils.LCTileScheduler;
+import javax.media.jai.ImageLayout;
 import javax.media.jai.RenderedOp;
 
-import lombok.val;
-
 import java.awt.*;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
-import java.awt.image.renderable.ParameterBlock;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * The reduced resolution levels of an image, each one smaller than the
+ * previous one by the scale ratio, for rendering zoomed out.
+ * <p>
+ * A pyramid given a key for its source builds its levels in the background
+ * as soon as it's created: each level is computed from the previous one, a
+ * row of tiles at a time in the tile scheduler's prefetch lane, and kept in
+ * a {@link CachedImage}, whose tiles the file cache spills to disk instead
+ * of dropping them.  Built levels are shared with later pyramids of the
+ * same source, so zooming never recomputes the chain from full resolution
+ * and reopening an image doesn't build its levels again.  Levels that
+ * aren't built yet, and all levels of a pyramid without a key, are computed
+ * on demand.
+ */
 class ImagePyramid {
-    private RenderedImage currentImage;
-    private int currentLevel = 0;
+
+    private static final boolean DEBUG = false;
+
+    /**
+     * Levels are built while they are at least this large on their long
+     * side; smaller ones are cheap enough on demand.
+     */
+    private static final int MIN_BUILT_SIZE = JAIContext.TILE_WIDTH;
+
+    /**
+     * The number of sources whose built levels are kept for later pyramids.
+     */
+    private static final int SHARED_SOURCES = 4;
+
+    /**
+     * How long disposing of a pyramid waits for its builder to stop, in
+     * milliseconds.  The builder stops at the end of the row of tiles it's
+     * computing, which takes well under this.
+     */
+    private static final long BUILDER_STOP_TIMEOUT = 2000;
+
+    /**
+     * The built levels of recent sources, by source key, least recently
+     * used first.
+     */
+    private static final Map<Object, List<RenderedImage>> sharedLevels =
+        new LinkedHashMap<Object, List<RenderedImage>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, List<RenderedImage>> eldest) {
+                return size() > SHARED_SOURCES;
+            }
+        };
 
     final int mipScaleRatio;
     final ArrayList<RenderedImage> renderings = new ArrayList<RenderedImage>();
 
+    private final Object sourceKey;
+
+    // The last level that's materialized rather than computed on demand
+    private int builtLevel;
+
+    private Thread builder;
+    private volatile boolean disposed;
+
     ImagePyramid(RenderedImage image, int mipScaleRatio) {
-        this.mipScaleRatio = mipScaleRatio;
-        currentImage = image;
-        renderings.add(currentImage);
+        this(image, mipScaleRatio, null);
     }
 
-    synchronized public RenderedImage getUpImage() {
-        if (currentLevel > 0) {
-            currentLevel--;
-            currentImage = renderings.get(currentLevel);
+    /**
+     * @param sourceKey Identifies the contents of the image, or
+     * <code>null</code> to compute the levels on demand only.
+     */
+    ImagePyramid(RenderedImage image, int mipScaleRatio, Object sourceKey) {
+        this.mipScaleRatio = mipScaleRatio;
+        this.sourceKey = sourceKey;
+        renderings.add(image);
+
+        // Levels that came along with the image, e.g. from the raw cache
+        final Object levels = image.getProperty(JAIContext.PYRAMID_LEVELS_TAG);
+        if (mipScaleRatio == 2 && levels instanceof RenderedImage[])
+            renderings.addAll(Arrays.asList((RenderedImage[]) levels));
+
+        if (sourceKey != null) {
+            final List<RenderedImage> shared;
+            synchronized (sharedLevels) {
+                shared = sharedLevels.get(sourceKey);
+            }
+            if (shared != null && shared.size() >= renderings.size()) {
+                renderings.subList(1, renderings.size()).clear();
+                renderings.addAll(shared);
+            }
         }
-        return currentImage;
-    }
+        builtLevel = renderings.size() - 1;
 
-    synchronized public RenderedImage getDownImage() {
-        currentLevel++;
-        if (renderings.size() <= currentLevel) {
-            RenderedOp smaller = createDownScaleOp(currentImage, mipScaleRatio);
-            smaller.setProperty(JAIContext.PERSISTENT_CACHE_TAG, Boolean.TRUE);
-            renderings.add(smaller);
-            currentImage = smaller;
-        } else {
-            currentImage = renderings.get(currentLevel);
+        if (sourceKey != null) {
+            builder = new Thread(this::build, "ImagePyramid Builder");
+            builder.setDaemon(true);
+            builder.setPriority(Thread.MIN_PRIORITY);
+            builder.start();
         }
-        return currentImage;
     }
 
-    public RenderedImage getImage(int level) {
+    synchronized public RenderedImage getImage(int level) {
         if (level < 0)
             return null;
 
-        while (currentLevel < level)
-            getDownImage();
-        while (currentLevel > level)
-            getUpImage();
+        while (renderings.size() <= level) {
+            RenderedOp smaller = createDownScaleOp(renderings.get(renderings.size() - 1), mipScaleRatio);
+            smaller.setProperty(JAIContext.PERSISTENT_CACHE_TAG, Boolean.TRUE);
+            renderings.add(smaller);
+        }
+        return renderings.get(level);
+    }
+
+    /**
+     * Stops building levels.  This interrupts the builder and waits for it
+     * to stop, so that the source can be disposed of right after, but no
+     * longer than {@link #BUILDER_STOP_TIMEOUT}.
+     */
+    void dispose() {
+        disposed = true;
+        final Thread thread = builder;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(BUILDER_STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive())
+                System.err.println("ImagePyramid: builder didn't stop in "
+                                   + BUILDER_STOP_TIMEOUT + "ms");
+        }
+    }
 
-        return currentImage;
+    private boolean isCancelled() {
+        return disposed || Thread.currentThread().isInterrupted();
     }
 
     RenderedOp createDownScaleOp(RenderedImage src, int ratio) {
-        val kernel = Functions.getLanczos2Kernel(ratio);
-        val ko = kernel.getXOrigin();
-        val kdata = kernel.getHorizontalKernelData();
-        val qsFilterArray = new float[kdata.length - ko];
-        System.arraycopy(kdata, ko, qsFilterArray, 0, qsFilterArray.length);
-
-        val params = new ParameterBlock();
-        params.addSource(src);
-        params.add(ratio);
-        params.add(ratio);
-        params.add(qsFilterArray);
-        params.add(Interpolation.getInstance(Interpolation.INTERP_NEAREST));
-        return JAI.create("FilteredSubsample", params,
-                new RenderingHints(JAI.KEY_BORDER_EXTENDER,
-                        BorderExtender.createInstance(BorderExtender.BORDER_COPY)));
+        return Functions.downScale(src, ratio);
     }
 
+    private void build() {
+        final LCTileScheduler.Lane previousLane =
+            LCTileScheduler.setLane(LCTileScheduler.Lane.PREFETCH);
+        try {
+            while (!isCancelled()) {
+                final RenderedImage previous;
+                final int level;
+                synchronized (this) {
+                    level = builtLevel + 1;
+                    previous = renderings.get(builtLevel);
+                }
+                if (Math.max(previous.getWidth(), previous.getHeight()) / mipScaleRatio
+                        < MIN_BUILT_SIZE)
+                    return;
+
+                final long start = System.currentTimeMillis();
+                final CachedImage built = materialize(
+                    Functions.downScale(previous, mipScaleRatio, JAIContext.noCacheHint)
+                );
+                if (built == null)
+                    return;
+
+                synchronized (this) {
+                    // An on demand level stays in use by the renderings made
+                    // from it, it just isn't handed out anymore.
+                    if (renderings.size() > level)
+                        renderings.set(level, built);
+                    else
+                        renderings.add(built);
+                    builtLevel = level;
+                    synchronized (sharedLevels) {
+                        sharedLevels.put(
+                            sourceKey, new ArrayList<RenderedImage>(renderings.subList(1, level + 1))
+                        );
+                    }
+                }
+                if (DEBUG)
+                    System.out.println("Built pyramid level " + level + " ("
+                                       + built.getWidth() + "x" + built.getHeight() + ") in "
+                                       + (System.currentTimeMillis() - start) + "ms");
+            }
+        } finally {
+            LCTileScheduler.setLane(previousLane);
+        }
+    }
+
+    /**
+     * Computes all the tiles of an operation into a {@link CachedImage}.
+     *
+     * @return Returns said image, or <code>null</code> if the pyramid was
+     * disposed of or the builder interrupted in the meantime.
+     */
+    private CachedImage materialize(RenderedOp op) {
+        final CachedImage image = new CachedImage(new ImageLayout(op), JAIContext.fileCache);
+        try {
+            final int minTileX = op.getMinTileX();
+            final Point[] row = new Point[op.getNumXTiles()];
+            for (int tileY = op.getMinTileY(); tileY <= op.getMaxTileY(); tileY++) {
+                if (isCancelled())
+                    return null;
+                for (int i = 0; i < row.length; i++)
+                    row[i] = new Point(minTileX + i, tileY);
+                // The tile scheduler computes the row in parallel
+                final Raster[] tiles = op.getTiles(row);
+                for (int i = 0; i < row.length; i++)
+                    Functions.copyData(image.getWritableTile(row[i].x, tileY), tiles[i]);
+            }
+            return image;
+        } finally {
+            op.dispose();
+        }
+    }
 }
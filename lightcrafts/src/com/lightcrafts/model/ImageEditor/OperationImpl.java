@@ -58,6 +58,10 @@ abstract class OperationImpl implements Operation {
     protected boolean changed;
     private boolean selected = false;
 
+    // Bumped on every settings change, tells Rendering when the output of
+    // this operation can't be reused:
+    private volatile long generation;
+
     // The depth of the current batch:
     int batch;
 
@@ -155,6 +159,7 @@ abstract class OperationImpl implements Operation {
     // Whenever Operation parameters change, the Engine must update:
     void settingsChanged() {
         changed = true;
+        generation++;
         rendering.update(this, batch != 0);
     }
 
@@ -190,6 +195,10 @@ abstract class OperationImpl implements Operation {
         settingsChanged();
     }
 
+    long getGeneration() {
+        return generation;
+    }
+
     protected abstract void updateOp(Transform op);
     protected abstract Transform createOp(PlanarImage source);
 
@@ -7,7 +7,7 @@ import com.lightcrafts.model.CropBounds;
 import com.lightcrafts.model.Operation;
 import com.lightcrafts.jai.utils.Functions;
 import com.lightcrafts.jai.JAIContext;
-import com.lightcrafts.jai.opimage.CachedImage;
+import com.lightcrafts.jai.opimage.FusedPointOpImage;
 
 import javax.media.jai.*;
 
@@ -19,10 +19,12 @@ import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
-import java.awt.image.Raster;
-import java.awt.image.WritableRaster;
 import java.awt.image.renderable.ParameterBlock;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 public class Rendering implements Cloneable {
     @Getter
@@ -42,6 +44,81 @@ public class Rendering implements Cloneable {
     private LinkedList<Operation> pipeline = new LinkedList<Operation>();
     private ImagePyramid pyramid;
 
+    /**
+     * What each operation of the pipeline was last rendered from and what
+     * it produced.  An operation whose input image, settings and scale are
+     * the same as last time hands back its previous output, so that moving
+     * a slider only rebuilds the pipeline from the changed operation down
+     * and the upstream images keep their cached tiles.
+     */
+    private static final class Stage {
+        private PlanarImage input;
+        private long generation;
+        private float scale;
+        private PlanarImage output;
+        private boolean valid;
+
+        @Getter
+        private long hits;
+
+        @Getter
+        private long misses;
+
+        synchronized boolean matches(PlanarImage input, long generation, float scale) {
+            if (valid && input == this.input && generation == this.generation
+                    && scale == this.scale) {
+                hits++;
+                return true;
+            }
+            misses++;
+            return false;
+        }
+
+        synchronized PlanarImage getOutput() {
+            return output;
+        }
+
+        synchronized void remember(PlanarImage input, long generation, float scale,
+                                   PlanarImage output) {
+            this.input = input;
+            this.generation = generation;
+            this.scale = scale;
+            this.output = output;
+            valid = true;
+        }
+    }
+
+    private Map<Operation, Stage> stages = new IdentityHashMap<Operation, Stage>();
+
+    /**
+     * Hit and miss counts of the output reuse of a pipeline operation.
+     */
+    public static final class StageStatistics {
+        @Getter
+        private final String name;
+
+        @Getter
+        private final long hits;
+
+        @Getter
+        private final long misses;
+
+        StageStatistics(String name, long hits, long misses) {
+            this.name = name;
+            this.hits = hits;
+            this.misses = misses;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + hits + " hits, " + misses + " misses";
+        }
+    }
+
+    // The last crop, reused as long as its source doesn't change
+    private PlanarImage cropSource;
+    private PlanarImage croppedImage;
+
     public boolean cheapScale = false;
 
     private static final int MIP_SCALE_RATIO = 2;
@@ -54,6 +131,9 @@ public class Rendering implements Cloneable {
             object.inputTransform = buildTransform(true);
             object.transform = buildTransform(false);
             object.xformedSourceImage = null;
+            object.stages = new IdentityHashMap<Operation, Stage>();
+            object.cropSource = null;
+            object.croppedImage = null;
             object.pipeline = new LinkedList<Operation>();
             for (val op : pipeline) {
                 object.pipeline.add(((BlendedOperation) op).clone(object));
@@ -66,11 +146,17 @@ public class Rendering implements Cloneable {
     }
 
     void dispose() {
+        pyramid.dispose();
         if (pipeline != null) {
             while (!pipeline.isEmpty())
                 pipeline.removeLast().dispose();
             pipeline = null;
         }
+        synchronized (this) {
+            stages.clear();
+            cropSource = null;
+            croppedImage = null;
+        }
     }
 
     void addOperation(int position, Operation op) {
@@ -78,7 +164,50 @@ public class Rendering implements Cloneable {
     }
 
     Operation removeOperation(int position) {
-        return pipeline.remove(position);
+        val op = pipeline.remove(position);
+        synchronized (this) {
+            stages.remove(op);
+        }
+        return op;
+    }
+
+    private synchronized Stage getStage(Operation op) {
+        return stages.computeIfAbsent(op, k -> new Stage());
+    }
+
+    /**
+     * Returns the hit and miss counts of the output reuse of each operation
+     * of the pipeline, in pipeline order.
+     */
+    public List<StageStatistics> getStageStatistics() {
+        val statistics = new ArrayList<StageStatistics>();
+        if (pipeline == null)
+            return statistics;
+        for (val op : pipeline) {
+            val stage = getStage(op);
+            synchronized (stage) {
+                statistics.add(new StageStatistics(((OperationImpl) op).getName(),
+                                                  stage.getHits(), stage.getMisses()));
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Renders an operation, or returns its previous output if neither its
+     * input nor its settings changed since.
+     */
+    private PlanarImage renderStage(OperationImpl operation, PlanarImage input) {
+        val scale = scaleFactor < 1 ? scaleFactor : 1;
+        val generation = operation.getGeneration();
+        val stage = getStage(operation);
+
+        if (stage.matches(input, generation, scale))
+            return stage.getOutput();
+
+        val result = operation.render(input, scale);
+        stage.remember(input, generation, scale, result);
+        return result;
     }
 
     public int indexOf(Operation op) {
@@ -92,7 +221,8 @@ public class Rendering implements Cloneable {
     public Rendering(PlanarImage sourceImage, ImageEditorEngine engine) {
         this.sourceImage = sourceImage;
         this.engine = engine;
-        pyramid = new ImagePyramid(sourceImage, MIP_SCALE_RATIO);
+        pyramid = new ImagePyramid(sourceImage, MIP_SCALE_RATIO,
+                                   engine != null ? engine.getSourceKey() : null);
         xformedSourceImage = null;
         inputTransform = buildTransform(true);
         transform = buildTransform(false);
@@ -141,6 +271,10 @@ public class Rendering implements Cloneable {
                 xformedSourceImage.dispose();
                 xformedSourceImage = null;
             }
+            synchronized (this) {
+                cropSource = null;
+                croppedImage = null;
+            }
         }
     }
 
@@ -158,47 +292,102 @@ public class Rendering implements Cloneable {
             return processedImage;
         }
 
+        // The input and the last output of a run of point operations, and
+        // whether the run was rendered anew
+        PlanarImage runInput = null;
+        PlanarImage runTail = null;
+        boolean runRendered = false;
+
         for (val op : pipeline) {
             val operation = (OperationImpl) op;
             if (stopBefore-- == 0)
                 break;
 
             if (operation.isActive() && !(inactive && operation.isDeactivatable())) {
-                val result = operation.render(processedImage, scaleFactor < 1 ? scaleFactor : 1);
-                if (result != null)
+                val previous = getStage(operation).getOutput();
+                val result = renderStage(operation, processedImage);
+                if (result != null && result != processedImage) {
+                    val rendered = result != previous;
+                    if (FusedPointOpImage.isPointChain(result, processedImage, Rendering::unwrapCached)) {
+                        // The first operation rendered anew after unchanged
+                        // ones is the one being edited: its run starts from
+                        // their cached output rather than recomputing them.
+                        if (runTail != null && rendered && !runRendered) {
+                            fuseRun(runInput, runTail);
+                            runTail = null;
+                        }
+                        if (runTail == null) {
+                            runInput = processedImage;
+                            runRendered = rendered;
+                        }
+                        runTail = result;
+                    } else {
+                        fuseRun(runInput, runTail);
+                        runTail = null;
+                    }
                     processedImage = result;
+                }
             }
         }
+        fuseRun(runInput, runTail);
         return cropSourceImage(processedImage);
     }
 
+    /**
+     * Sees through the tile cache of a blended operation's output.
+     */
+    private static PlanarImage unwrapCached(PlanarImage image) {
+        return image instanceof BlendedOperation.BlendedTransform.CachedImage
+               ? ((BlendedOperation.BlendedTransform.CachedImage) image).getRendering()
+               : null;
+    }
+
+    /**
+     * Has the last output of a run of point operations compute its tiles
+     * in one pass from the run's input, rather than an operation at a time
+     * through the cached tiles of each.  The outputs of the run keep their
+     * own renderings, so the stages stay as they were, and the operations
+     * before the run's input aren't fused in, so their tiles are read from
+     * the cache.
+     */
+    private static void fuseRun(PlanarImage runInput, PlanarImage runTail) {
+        if (!(runTail instanceof BlendedOperation.BlendedTransform.CachedImage))
+            return;
+        val cached = (BlendedOperation.BlendedTransform.CachedImage) runTail;
+        if (cached.getFusedRendering() != null || cached.getRendering() == null)
+            return;
+        val fused = FusedPointOpImage.fuse(runTail, runInput, Rendering::unwrapCached,
+                                           JAIContext.noCacheHint);
+        if (fused != null)
+            cached.setFusedRendering(fused);
+    }
+
+    /**
+     * Computes the tiles of the given area of each operation's output ahead
+     * of time.  The pipeline is walked from the same source and through the
+     * same stages as {@link #getRendering()}, so the tiles end up in the
+     * caches of the images the next rendering is built from.
+     */
     public void prefetch(Rectangle area) {
         if (pipeline == null) {
             System.out.println("Rendering.renderPipeline: null pipeline?");
             return;
         }
 
-        PlanarImage processedImage = cropSourceImage(getXformedSourceImage());
+        PlanarImage processedImage = getXformedSourceImage();
 
-        for (val operation : pipeline) {
+        for (val op : pipeline) {
+            val operation = (OperationImpl) op;
             if (!operation.isActive()) {
                 continue;
             }
-            PlanarImage result = ((OperationImpl)operation).render(processedImage, scaleFactor < 1 ? scaleFactor : 1);
-            if (result == null) {
+            val result = renderStage(operation, processedImage);
+            if (result == null || result == processedImage) {
                 continue;
             }
             val indices = result.getTileIndices(area);
             if (indices != null) {
-                val cachedResult = new CachedImage(new ImageLayout(result), JAIContext.fileCache);
-
                 result.prefetchTiles(indices);
-                for (val tile : indices) {
-                    Raster newTile = result.getTile(tile.x, tile.y);
-                    WritableRaster cachedTile = cachedResult.getWritableTile(tile.x, tile.y);
-                    Functions.copyData(cachedTile, newTile);
-                }
-                result = cachedResult;
             }
             processedImage = result;
         }
@@ -346,6 +535,11 @@ public class Rendering implements Cloneable {
     }
 
     private PlanarImage cropSourceImage(PlanarImage xformedSourceImage) {
+        synchronized (this) {
+            if (croppedImage != null && cropSource == xformedSourceImage)
+                return croppedImage;
+        }
+        val source = xformedSourceImage;
         if (!cropBounds.isAngleOnly()) {
             val actualCropBounds = CropBounds.transform(inputTransform, cropBounds);
             val bounds = new Rectangle(
@@ -375,6 +569,10 @@ public class Rendering implements Cloneable {
                         finalBounds.width, finalBounds.height, null);
             }
         }
+        synchronized (this) {
+            cropSource = source;
+            croppedImage = xformedSourceImage;
+        }
         return xformedSourceImage;
     }
 }
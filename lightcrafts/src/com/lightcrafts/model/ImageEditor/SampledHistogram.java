@@ -0,0 +1,247 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.model.ImageEditor;
+
+import java.awt.*;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.*;
+import java.util.List;
+
+/**
+ * The histogram of the visible part of an image, kept up to date as the
+ * view moves.
+ * <p>
+ * The image is divided into cells of {@link #CELL_SIZE} pixels square, and
+ * the histogram of each cell is sampled once, reading the tile's data
+ * buffer directly, and kept until the image changes.  The histogram of the
+ * view is the sum of the cells whose center it contains: when it moves, the
+ * cells that left it are subtracted and the cells that entered it added, so
+ * panning costs a few cells rather than a scan of the view.
+ * <p>
+ * Sample values are binned logarithmically, 16 stops over 256 bins.
+ */
+class SampledHistogram {
+    static final int BINS = 256;
+
+    static final int CELL_SIZE = 128;
+
+    /**
+     * Cells are sampled every this many pixels both ways.
+     */
+    static final int STRIDE = 4;
+
+    private static final int[] binTable = new int[0x10000];
+
+    static {
+        final double log2 = Math.log(2);
+        for (int i = 0; i < binTable.length; i++) {
+            final int v = (int) (511 * (float) Math.log1p(i) / (16 * log2));
+            binTable[i] = v > 255 ? v - 256 : 0;
+        }
+    }
+
+    // The image whose cells are kept, a new one starts a new epoch
+    private RenderedImage image;
+
+    private final Map<Point, int[][]> cells = new HashMap<Point, int[][]>();
+
+    // The cells summed into the histogram
+    private final Set<Point> merged = new HashSet<Point>();
+
+    private int[][] bins;
+
+    /**
+     * Updates the histogram for a view of an image.
+     *
+     * @param image The image, if it's not the one of the last update all
+     * the cells are sampled again.
+     * @param visibleRect The view.
+     * @return Returns a copy of the histogram, a row of bins per band.
+     */
+    synchronized int[][] update(RenderedImage image, Rectangle visibleRect) {
+        final int bands = image.getSampleModel().getNumBands();
+        if (image != this.image) {
+            this.image = image;
+            cells.clear();
+            merged.clear();
+            bins = new int[bands][BINS];
+        }
+
+        final Rectangle view = visibleRect.intersection(
+            new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight())
+        );
+        final Set<Point> visible = new HashSet<Point>();
+        if (!view.isEmpty()) {
+            // The cells whose center is in view, or the one the view is in
+            final int minCellX = Math.floorDiv(view.x - CELL_SIZE / 2, CELL_SIZE) + 1;
+            final int maxCellX = Math.floorDiv(view.x + view.width - 1 - CELL_SIZE / 2, CELL_SIZE);
+            final int minCellY = Math.floorDiv(view.y - CELL_SIZE / 2, CELL_SIZE) + 1;
+            final int maxCellY = Math.floorDiv(view.y + view.height - 1 - CELL_SIZE / 2, CELL_SIZE);
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++)
+                for (int cellX = minCellX; cellX <= maxCellX; cellX++)
+                    visible.add(new Point(cellX, cellY));
+            if (visible.isEmpty())
+                visible.add(new Point(Math.floorDiv(view.x, CELL_SIZE),
+                                      Math.floorDiv(view.y, CELL_SIZE)));
+        }
+
+        for (Iterator<Point> i = merged.iterator(); i.hasNext();) {
+            final Point cell = i.next();
+            if (!visible.contains(cell)) {
+                add(cells.get(cell), -1);
+                i.remove();
+            }
+        }
+
+        final List<Point> missing = new ArrayList<Point>();
+        for (final Point cell : visible)
+            if (!cells.containsKey(cell))
+                missing.add(cell);
+        if (!missing.isEmpty())
+            sample(missing, bands);
+
+        for (final Point cell : visible) {
+            if (merged.add(cell))
+                add(cells.get(cell), 1);
+        }
+
+        final int[][] copy = new int[bands][];
+        for (int c = 0; c < bands; c++)
+            copy[c] = bins[c].clone();
+        return copy;
+    }
+
+    private void add(int[][] cell, int sign) {
+        for (int c = 0; c < cell.length; c++)
+            for (int i = 0; i < BINS; i++)
+                bins[c][i] += sign * cell[c][i];
+    }
+
+    /**
+     * Samples cells in parallel, a tile at a time.
+     */
+    private void sample(List<Point> missing, int bands) {
+        final Map<Point, List<Point>> byTile = new HashMap<Point, List<Point>>();
+        for (final Point cell : missing) {
+            cells.put(cell, new int[bands][BINS]);
+            final int minX = cell.x * CELL_SIZE;
+            final int minY = cell.y * CELL_SIZE;
+            for (int tileY = tileFor(minY, image.getTileGridYOffset(), image.getTileHeight());
+                 tileY <= tileFor(minY + CELL_SIZE - 1, image.getTileGridYOffset(), image.getTileHeight());
+                 tileY++)
+                for (int tileX = tileFor(minX, image.getTileGridXOffset(), image.getTileWidth());
+                     tileX <= tileFor(minX + CELL_SIZE - 1, image.getTileGridXOffset(), image.getTileWidth());
+                     tileX++)
+                    byTile.computeIfAbsent(new Point(tileX, tileY), t -> new ArrayList<Point>()).add(cell);
+        }
+
+        final int minTileX = image.getMinTileX();
+        final int minTileY = image.getMinTileY();
+        final int maxTileX = minTileX + image.getNumXTiles() - 1;
+        final int maxTileY = minTileY + image.getNumYTiles() - 1;
+        final Rectangle bounds =
+            new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight());
+
+        byTile.entrySet().parallelStream().forEach(e -> {
+            final Point tile = e.getKey();
+            if (tile.x < minTileX || tile.x > maxTileX || tile.y < minTileY || tile.y > maxTileY)
+                return;
+            final Raster raster = image.getTile(tile.x, tile.y);
+            for (final Point cell : e.getValue()) {
+                final Rectangle area = new Rectangle(cell.x * CELL_SIZE, cell.y * CELL_SIZE,
+                                                     CELL_SIZE, CELL_SIZE).intersection(bounds);
+                final int[][] part = sample(raster, area, bands);
+                final int[][] sum = cells.get(cell);
+                synchronized (sum) {
+                    for (int c = 0; c < bands; c++)
+                        for (int i = 0; i < BINS; i++)
+                            sum[c][i] += part[c][i];
+                }
+            }
+        });
+    }
+
+    private static int tileFor(int x, int offset, int size) {
+        return Math.floorDiv(x - offset, size);
+    }
+
+    /**
+     * Samples the part of an area that's in a tile.
+     */
+    static int[][] sample(Raster raster, Rectangle area, int bands) {
+        final int[][] hist = new int[bands][BINS];
+        area = area.intersection(raster.getBounds());
+
+        // Keep to the sampling grid of the whole image
+        area.width += area.x - alignUp(area.x);
+        area.x = alignUp(area.x);
+        area.height += area.y - alignUp(area.y);
+        area.y = alignUp(area.y);
+
+        if (area.isEmpty())
+            return hist;
+
+        final int maxX = area.x + area.width;
+        final int maxY = area.y + area.height;
+
+        if (raster.getSampleModel() instanceof ComponentSampleModel) {
+            final ComponentSampleModel csm = (ComponentSampleModel) raster.getSampleModel();
+            final DataBuffer db = raster.getDataBuffer();
+            final int lineStride = csm.getScanlineStride();
+            final int pixelStride = csm.getPixelStride();
+            final int[] bandOffsets = csm.getBandOffsets();
+            final int[] bankIndices = csm.getBankIndices();
+            final int translateX = raster.getSampleModelTranslateX();
+            final int translateY = raster.getSampleModelTranslateY();
+
+            for (int c = 0; c < bands; c++) {
+                final int[] bins = hist[c];
+                final int bank = bankIndices[c];
+                final int offset = db.getOffsets()[bank] + bandOffsets[c];
+                switch (db.getDataType()) {
+                    case DataBuffer.TYPE_USHORT: {
+                        final short[] data = ((DataBufferUShort) db).getData(bank);
+                        for (int y = area.y; y < maxY; y += STRIDE) {
+                            int i = offset + (y - translateY) * lineStride
+                                    + (area.x - translateX) * pixelStride;
+                            for (int x = area.x; x < maxX; x += STRIDE, i += STRIDE * pixelStride)
+                                bins[binTable[data[i] & 0xffff]]++;
+                        }
+                        break;
+                    }
+                    case DataBuffer.TYPE_BYTE: {
+                        final byte[] data = ((DataBufferByte) db).getData(bank);
+                        for (int y = area.y; y < maxY; y += STRIDE) {
+                            int i = offset + (y - translateY) * lineStride
+                                    + (area.x - translateX) * pixelStride;
+                            for (int x = area.x; x < maxX; x += STRIDE, i += STRIDE * pixelStride)
+                                bins[binTable[data[i] & 0xff]]++;
+                        }
+                        break;
+                    }
+                    default:
+                        sampleSlowly(raster, area, c, bins);
+                }
+            }
+        } else {
+            for (int c = 0; c < bands; c++)
+                sampleSlowly(raster, area, c, hist[c]);
+        }
+        return hist;
+    }
+
+    private static int alignUp(int x) {
+        return Math.floorDiv(x + STRIDE - 1, STRIDE) * STRIDE;
+    }
+
+    private static void sampleSlowly(Raster raster, Rectangle area, int band, int[] bins) {
+        for (int y = area.y; y < area.y + area.height; y += STRIDE)
+            for (int x = area.x; x < area.x + area.width; x += STRIDE)
+                bins[binTable[Math.max(0, Math.min(0xffff, raster.getSample(x, y, band)))]]++;
+    }
+}
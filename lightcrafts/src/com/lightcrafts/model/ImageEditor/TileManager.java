@@ -2,6 +2,8 @@
 
 package com.lightcrafts.model.ImageEditor;
 
+import com.lightcrafts.jai.utils.LCTileScheduler;
+
 import javax.media.jai.TileComputationListener;
 import javax.media.jai.TileRequest;
 import javax.media.jai.PlanarImage;
@@ -38,7 +40,15 @@ class PaintRequest implements PaintContext {
         this.tileHandler = handler;
         this.pendingTiles = tileIndices.length;
 
-        this.tileRequest = image.queueTiles(tileIndices);
+        // Prefetch requests go to the scheduler's prefetch lane
+        final LCTileScheduler.Lane previousLane = prefetch
+                ? LCTileScheduler.setLane(LCTileScheduler.Lane.PREFETCH)
+                : LCTileScheduler.getLane();
+        try {
+            this.tileRequest = image.queueTiles(tileIndices);
+        } finally {
+            LCTileScheduler.setLane(previousLane);
+        }
         for (Point tileIndice : tileIndices)
             tiles.add(new Point(tileIndice.x, tileIndice.y));
     }
@@ -26,6 +26,7 @@ public class PreferencesPanel extends JPanel {
         addItem(this, items, new HeapLimitItem(help));
         addItem(this, items, new UpdateInteractiveItem(help));
         addItem(this, items, new ScratchFileItem(help));
+        addItem(this, items, new ScratchCompressionItem(help));
         if (Platform.isLinux()) {
             addItem(this, items, new DisplayProfileItem(help));
         }
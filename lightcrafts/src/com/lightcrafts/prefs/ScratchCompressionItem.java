@@ -0,0 +1,58 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.prefs;
+
+import com.lightcrafts.jai.JAIContext;
+import com.lightcrafts.jai.utils.LCTileCache;
+
+import javax.swing.*;
+import java.awt.event.MouseEvent;
+import java.util.prefs.Preferences;
+
+import static com.lightcrafts.prefs.Locale.LOCALE;
+
+class ScratchCompressionItem extends PreferencesItem {
+
+    private final static String Package = "/com/lightcrafts/jai/utils";
+    private final static String Key = "ScratchCompression";
+
+    private static Preferences Prefs = Preferences.userRoot().node(Package);
+
+    private JCheckBox checkbox;
+
+    ScratchCompressionItem(JTextArea help) {
+        super(help);
+        checkbox = new JCheckBox();
+        checkbox.setFocusable(false);
+        addHelpListeners();
+    }
+
+    public String getLabel() {
+        return LOCALE.get("ScratchCompressionItemLabel");
+    }
+
+    public String getHelp(MouseEvent e) {
+        return LOCALE.get("ScratchCompressionItemHelp");
+    }
+
+    public boolean requiresRestart() {
+        return false;
+    }
+
+    public JComponent getComponent() {
+        return checkbox;
+    }
+
+    public void commit() {
+        boolean selected = checkbox.isSelected();
+        Prefs.putBoolean(Key, selected);
+        if (JAIContext.fileCache instanceof LCTileCache) {
+            ((LCTileCache) JAIContext.fileCache).setSpillCompression(selected);
+        }
+    }
+
+    public void restore() {
+        boolean selected = Prefs.getBoolean(Key, false);
+        checkbox.setSelected(selected);
+    }
+}
@@ -8,6 +8,7 @@ import com.lightcrafts.image.ImageInfo;
 import com.lightcrafts.image.UnknownImageTypeException;
 import com.lightcrafts.image.metadata.*;
 import com.lightcrafts.utils.filecache.FileCache;
+import com.lightcrafts.utils.filecache.ThumbnailStore;
 import com.lightcrafts.utils.tuple.Pair;
 import lombok.Getter;
 import lombok.Setter;
@@ -77,6 +78,11 @@ public class ImageDatum {
     // The cache used by the ImageTask
     private FileCache cache;
 
+    // The cache's store for this folder, holding metadata and the ImageTask
+    // preview in one record per file.  If it's null, they are kept in
+    // separate cache entries instead.
+    private ThumbnailStore store;
+
     // The size for thumbnails, given to ImageTasks
     private int size;
 
@@ -101,6 +107,9 @@ public class ImageDatum {
         this.size = size;
         this.queue = queue;
         this.cache = cache;
+        if ((cache != null) && (file.getParentFile() != null)) {
+            store = cache.getThumbnailStore(file.getParentFile());
+        }
 
         markDirty();
 
@@ -223,15 +232,21 @@ public class ImageDatum {
     }
 
     /**
-     * Remove this ImageDatum's ImageTask from the ImageTaskQueue, if it is
-     * not already running.
+     * Prioritize this ImageDatum's ImageTask, if it is still waiting, by its
+     * distance from the visible thumbnails: zero if it is visible, and
+     * otherwise the number of thumbnails in between.
      */
-    public void cancel() {
+    public synchronized void setTaskDistance(int distance) {
         if (task != null) {
-            queue.removeTask(task);
+            queue.setDistance(task, distance);
         }
     }
 
+    // Called from ImageTask, to drop results that were superseded.
+    synchronized boolean isCurrentTask(ImageTask task) {
+        return this.task == task;
+    }
+
     // Called from ImageList.
     void setSize(int size) {
         if ((size != this.size) && (size > 0)) {
@@ -285,6 +300,10 @@ public class ImageDatum {
         this.image = new SoftReference<>(image);
     }
 
+    ThumbnailStore getThumbnailStore() {
+        return store;
+    }
+
     long getFileCacheTime() {
         return fileCacheTime;
     }
@@ -591,6 +610,23 @@ public class ImageDatum {
         if (cache == null) {
             return;
         }
+        if (store != null) {
+            // One record, written next to the thumbnail preview.
+            val bytes = new ByteArrayOutputStream();
+            try (val out = new ObjectOutputStream(bytes)) {
+                out.writeLong(fileCacheTime);
+                out.writeObject(xmpFile);
+                out.writeLong(xmpFileCacheTime);
+                out.writeObject(meta);
+            }
+            catch (IOException e) {
+                System.err.println("metadata cache error: " + e.getMessage());
+                return;
+            }
+            if (store.putMetadata(file, bytes.toByteArray())) {
+                return;
+            }
+        }
         writeToStream(getMetadataKey(), meta, "metadata cache error: ");
         writeToStream(getFileTimeCacheKey(), fileCacheTime, "file time cache error: ");
         if (xmpFile == null) {
@@ -615,6 +651,25 @@ public class ImageDatum {
         if (cache == null) {
             return;
         }
+        if (store != null) {
+            val bytes = store.getMetadata(file);
+            if (bytes != null) {
+                try (val in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    val fileTime = in.readLong();
+                    val xmp = (File) in.readObject();
+                    val xmpTime = in.readLong();
+                    val meta = (ImageMetadata) in.readObject();
+                    fileCacheTime = fileTime;
+                    xmpFile = xmp;
+                    xmpFileCacheTime = xmpTime;
+                    this.meta = meta;
+                }
+                catch (IOException | ClassNotFoundException e) {
+                    // Read the metadata from the file instead.
+                }
+            }
+            return;
+        }
         readMetadataCache(getFileTimeCacheKey(), o -> fileCacheTime = o, 0L);
         readMetadataCache(getXmpKey(), o -> xmpFile = (File) o, null);
         if (xmpFile != null) {
@@ -647,6 +702,9 @@ public class ImageDatum {
         if (cache == null) {
             return;
         }
+        if (store != null) {
+            store.removeMetadata(file);
+        }
         removeFromCache(
                 getMetadataKey(),
                 getFileTimeCacheKey(),
@@ -8,15 +8,30 @@ import com.lightcrafts.image.types.JPEGImageType;
 
 import java.awt.image.RenderedImage;
 import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * There are many different ways of deriving a browser thumbnail from an
  * image file.  Each is statically implemented in this class.
+ * <p>
+ * Each strategy counts how often it was tried, how often it found an
+ * image, and how long it took, so the cost of a folder full of thumbnails
+ * can be broken down.  See getStatistics().
  */
 abstract class ImageFileStrategy {
 
+    private final String name;
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong time = new AtomicLong();
+
+    ImageFileStrategy(String name) {
+        this.name = name;
+    }
+
     static ImageFileStrategy JPEGStrategy =
-        new ImageFileStrategy() {
+        new ImageFileStrategy("JPEG") {
             RenderedImage maybeGetImage(ImageInfo info, int maxImageSize)
                 throws Exception
             {
@@ -37,7 +52,7 @@ abstract class ImageFileStrategy {
         };
 
     static ImageFileStrategy PreviewStrategy =
-        new ImageFileStrategy() {
+        new ImageFileStrategy("Preview") {
             RenderedImage maybeGetImage(ImageInfo info, int maxImageSize)
                 throws Exception {
                 return info.getPreviewImage(
@@ -47,7 +62,7 @@ abstract class ImageFileStrategy {
         };
 
     static ImageFileStrategy ThumbnailStrategy =
-        new ImageFileStrategy() {
+        new ImageFileStrategy("Thumbnail") {
             RenderedImage maybeGetImage(ImageInfo info, int maxImageSize)
                 throws Exception
             {
@@ -60,7 +75,7 @@ abstract class ImageFileStrategy {
         };
 
     static ImageFileStrategy FullStrategy =
-        new ImageFileStrategy() {
+        new ImageFileStrategy("Full") {
             RenderedImage maybeGetImage(ImageInfo info, int maxImageSize)
                 throws Exception
             {
@@ -81,13 +96,59 @@ abstract class ImageFileStrategy {
      * Get the thumbnail image for the given ImageInfo, or return null.
      */
     RenderedImage getImage(ImageInfo info, int maxImageSize) {
+        final long start = System.nanoTime();
+        RenderedImage image = null;
         try {
-            return maybeGetImage(info, maxImageSize);
+            image = maybeGetImage(info, maxImageSize);
         }
         catch (Throwable t) {
             logNonFatal(t, info);
-            return null;
         }
+        time.addAndGet(System.nanoTime() - start);
+        attempts.incrementAndGet();
+        if (image != null) {
+            hits.incrementAndGet();
+        }
+        return image;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getAttemptCount() {
+        return attempts.get();
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * The average time spent in getImage(), in milliseconds.  Note that the
+     * time includes attempts that returned null.
+     */
+    long getAverageTime() {
+        final long count = attempts.get();
+        return (count > 0) ? time.get() / count / 1000000 : 0;
+    }
+
+    /**
+     * Describe the counters of all the strategies, one line each.
+     */
+    static String getStatistics() {
+        StringBuffer buffer = new StringBuffer();
+        for (ImageFileStrategy strategy : Strategies) {
+            buffer.append(strategy.getName());
+            buffer.append(": ");
+            buffer.append(strategy.getHitCount());
+            buffer.append("/");
+            buffer.append(strategy.getAttemptCount());
+            buffer.append(" hits, ");
+            buffer.append(strategy.getAverageTime());
+            buffer.append("ms average\n");
+        }
+        return buffer.toString();
     }
 
     /**
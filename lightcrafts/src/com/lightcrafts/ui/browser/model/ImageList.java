@@ -45,7 +45,7 @@ public class ImageList {
     @Getter
     private int size;
 
-    // A task queue, where ImageDatum updates are run serially
+    // A task queue, where ImageDatum updates run in the background
     private ImageTaskQueue queue;
 
     // A cache for costly image data, used in the ImageDatums
@@ -110,7 +110,7 @@ public class ImageList {
         this.size = size;
         this.cache = cache;
         this.comp = comp;
-        list = Collections.synchronizedList(new LinkedList<>());
+        list = Collections.synchronizedList(new ArrayList<>());
         queue = new ImageTaskQueue();
         poller = new ImageListPoller(this, directory);
         listeners = new LinkedList<>();
@@ -286,7 +286,9 @@ public class ImageList {
         datum.refresh(false); // reads metadata, enqueues thumbnailing
         synchronized(list) {
             list.add(datum);
-            sort();
+            if (! reposition(datum, list.size() - 1)) {
+                sort();
+            }
             val index = list.indexOf(datum);
             EventQueue.invokeLater(() -> notifyAdded(datum, index));
         }
@@ -298,7 +300,10 @@ public class ImageList {
         synchronized(list) {
             val index = list.indexOf(datum);
             list.remove(datum);
-            sort();
+            // Only ImageGroups need sorting out again when a member goes
+            if (datum.getGroup().isNonTrivial()) {
+                sort();
+            }
             EventQueue.invokeLater(() -> notifyRemoved(datum, index));
         }
     }
@@ -306,16 +311,57 @@ public class ImageList {
     // Called from ImageListPoller when metadata update, to update the sort.
     void metadataChanged(final ImageDatum datum) {
         final int oldIndex, newIndex;
+        final boolean isGrouped;
         synchronized(list) {
             oldIndex = list.indexOf(datum);
-            sort();
+            if (! reposition(datum, oldIndex)) {
+                sort();
+            }
             newIndex = list.indexOf(datum);
+            isGrouped = datum.getGroup().isNonTrivial();
         }
-        if (oldIndex != newIndex) {
+        // Within an ImageGroup, a change may also alter which member is the
+        // most recent, even if nothing moved.
+        if ((oldIndex != newIndex) || isGrouped) {
             EventQueue.invokeLater(this::notifyReordered);
         }
     }
 
+    // Moves one ImageDatum to its place in the sort order, which is all
+    // that's needed when it's alone in its ImageGroup both before and after
+    // clustering: the rest of the list is still sorted, so its place is
+    // found by a binary search over the group leaders rather than sorting
+    // the whole list again.  Returns false if the list needs a full sort.
+    private boolean reposition(ImageDatum datum, int index) {
+        synchronized(list) {
+            if ((index < 0) || (comp == null) || datum.getGroup().isNonTrivial()) {
+                return false;
+            }
+            if (groups != null) {
+                groups.cluster(list);
+                if (datum.getGroup().isNonTrivial()) {
+                    return false;
+                }
+            }
+            list.remove(index);
+
+            // The first position whose group leader sorts after the datum:
+            int low = 0;
+            int high = list.size();
+            while (low < high) {
+                val mid = (low + high) >>> 1;
+                val leader = list.get(mid).getGroup().getLeader();
+                if ((leader != null) && (comp.compare(leader, datum) <= 0)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            list.add(low, datum);
+            return true;
+        }
+    }
+
     // Sorting means first determining the ImageGroups, then applying the
     // ImageDatumComparator to sort the ImageGroup leaders, then finally
     // placing all the other ImageGroup members by their respective leaders.
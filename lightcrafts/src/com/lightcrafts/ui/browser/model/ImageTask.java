@@ -5,12 +5,10 @@ package com.lightcrafts.ui.browser.model;
 import com.lightcrafts.image.libs.*;
 import com.lightcrafts.image.metadata.ImageMetadata;
 import com.lightcrafts.utils.filecache.FileCache;
+import com.lightcrafts.utils.filecache.ThumbnailStore;
 
 import java.awt.image.RenderedImage;
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
 
 /**
  * This ImageTask handles everything expensive about reading image data:
@@ -18,7 +16,9 @@ import java.io.OutputStream;
  * rotation.
  * <p>
  * A high resolution preview gets cached in the BrowserCache and also the
- * weakly referenced in-memory ImageDatum cache.  The final scaling and
+ * weakly referenced in-memory ImageDatum cache.  In the BrowserCache, it
+ * goes in the folder's ThumbnailStore if there is one, or else in an entry
+ * of its own.  The final scaling and
  * rotation results are never cached and are recomputed every time.
  */
 public class ImageTask implements Runnable {
@@ -35,6 +35,13 @@ public class ImageTask implements Runnable {
     // The size for final stage thumbnails
     private int size;
 
+    // Maintained by the ImageTaskQueue, under its lock: the position of this
+    // task in the queue's heap (-1 when not queued), and its priority.
+    int heapIndex = -1;
+    int distance;
+    long sequence;
+    long queuedTime;
+
     ImageTask(
         ImageDatum datum,
         FileCache cache,
@@ -81,6 +88,11 @@ public class ImageTask implements Runnable {
                 datum.setBadFile(true);
             }
         }
+        // If the ImageDatum was refreshed or resized while this task ran,
+        // another task is computing its image now.
+        if (! datum.isCurrentTask(this)) {
+            return;
+        }
         // If anything worked, scale and optimize for the ImageDatum.
         if (image != null) {
             image = fixSizeAndColors(image);
@@ -111,15 +123,27 @@ public class ImageTask implements Runnable {
     }
 
     private RenderedImage readImageCache() {
+        ThumbnailStore store = datum.getThumbnailStore();
+        if (store != null) {
+            byte[] bytes = store.getPreview(datum.getFile());
+            if (bytes == null) {
+                return null;
+            }
+            try (InputStream in = new ByteArrayInputStream(bytes)) {
+                return readImage(in);
+            }
+            catch (Throwable t1) {
+                logNonFatal(t1, "reading cached image");
+                store.removePreview(datum.getFile());
+                return null;
+            }
+        }
         String key = getImageKey(CacheImageSize);
         if ((cache == null) || ! cache.contains(key)) {
             return null;
         }
         try (InputStream in = cache.getStreamFor(key)) {
-            ImageProviderReceiver provRecv = new ImageProviderReceiver();
-            provRecv.fill(in);
-            LCJPEGReader jpeg = new LCJPEGReader(provRecv, CacheImageSize, CacheImageSize);
-            return jpeg.getImage();
+            return readImage(in);
         }
         catch (Throwable t1) {
             logNonFatal(t1, "reading cached image");
@@ -128,6 +152,33 @@ public class ImageTask implements Runnable {
         }
     }
 
+    private static RenderedImage readImage(InputStream in) throws Exception {
+        ImageProviderReceiver provRecv = new ImageProviderReceiver();
+        provRecv.fill(in);
+        LCJPEGReader jpeg = new LCJPEGReader(provRecv, CacheImageSize, CacheImageSize);
+        return jpeg.getImage();
+    }
+
+    private static void writeImage(RenderedImage image, OutputStream out)
+        throws LCImageLibException, IOException
+    {
+        OutputStreamImageDataReceiver receiver = new OutputStreamImageDataReceiver(out);
+        try {
+            LCJPEGWriter writer = new LCJPEGWriter(
+                    receiver, 32 * 1024,
+                    image.getWidth(), image.getHeight(),
+                    image.getColorModel().getNumComponents(),
+                    LCJPEGConstants.CS_RGB,
+                    90
+            );
+            writer.putImage(image);
+        }
+        finally {
+            out.flush();
+            receiver.dispose();
+        }
+    }
+
     private void writeImageCache(RenderedImage image) {
         String key = getImageKey(CacheImageSize);
         if (cache == null) {
@@ -136,24 +187,28 @@ public class ImageTask implements Runnable {
         if (image == null) {
             return;
         }
+        ThumbnailStore store = datum.getThumbnailStore();
+        if (store != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                writeImage(image, out);
+            }
+            catch (LCImageLibException | IOException e) {
+                logNonFatal(e, "caching image");
+                return;
+            }
+            if (store.putPreview(datum.getFile(), out.toByteArray())) {
+                return;
+            }
+        }
         // Write the image to the cache
         try (OutputStream out = cache.putToStream(key)) {
-            OutputStreamImageDataReceiver receiver = new OutputStreamImageDataReceiver(out);
             try {
-                LCJPEGWriter writer = new LCJPEGWriter(
-                        receiver, 32 * 1024,
-                        image.getWidth(), image.getHeight(),
-                        image.getColorModel().getNumComponents(),
-                        LCJPEGConstants.CS_RGB,
-                        90
-                );
-                writer.putImage(image);
+                writeImage(image, out);
             } catch (LCImageLibException e) {
                 logNonFatal(e, "caching image");
                 cache.remove(key);
             }
-            out.flush();
-            receiver.dispose();
         }
         catch (IOException e) {
             logNonFatal(e, "caching image");
@@ -179,6 +234,10 @@ public class ImageTask implements Runnable {
     }
 
     private void clearImageCache() {
+        ThumbnailStore store = datum.getThumbnailStore();
+        if (store != null) {
+            store.removePreview(datum.getFile());
+        }
         String key = getImageKey(CacheImageSize);
         if ((cache != null) && cache.contains(key)) {
             removeCacheSilent(key, false);
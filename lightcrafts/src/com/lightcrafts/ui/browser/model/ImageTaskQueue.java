@@ -2,119 +2,276 @@
 
 package com.lightcrafts.ui.browser.model;
 
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.awt.*;
 
+/**
+ * Runs ImageTasks on a few low priority worker threads.
+ * <p>
+ * Pending tasks are kept in a binary heap ordered by their distance from
+ * the visible part of the browser, so the thumbnails on screen come first
+ * and the ones just above and below follow, however the user scrolls.
+ * Each task knows its place in the heap, so adding, removing and
+ * reprioritizing a task are all O(log n).
+ * <p>
+ * The number of workers comes from the <code>lightcrafts.browser.threads</code>
+ * system property, and defaults to half the number of processors.  Setting
+ * <code>lightcrafts.browser.stats</code> prints the queue and
+ * ImageFileStrategy counters when the queue stops.
+ */
 public class ImageTaskQueue implements Runnable {
 
-    private LinkedList<ImageTask> queue;
+    // The distance of tasks added with no viewport information: behind every
+    // task whose distance is known, but ahead of lowered tasks.
+    static final int FarDistance = Integer.MAX_VALUE / 2;
 
-    private Thread thread;
+    // Print the counters when the queue stops, for tuning.
+    private static final boolean LogStatistics =
+        Boolean.getBoolean("lightcrafts.browser.stats");
+
+    private static final int DefaultThreadCount = Integer.getInteger(
+        "lightcrafts.browser.threads",
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2)
+    );
+
+    // A binary heap of pending tasks, see ImageTask.heapIndex.
+    private final Object lock = new Object();
+    private ImageTask[] heap;
+    private int size;
+
+    // Tie breakers: raised tasks count down, so the latest raised task runs
+    // first; other tasks count up, so they run in the order they came.
+    private long lowSequence;
+    private long highSequence;
+
+    private Thread[] threads;
+    private Object pauseLock;
     private boolean pause;
-    private boolean stop;
+    private volatile boolean stop;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong runTime = new AtomicLong();
 
     private LinkedList<ImageTaskQueueListener> listeners;
 
     public ImageTaskQueue() {
-        thread = new Thread(this, "Image Task Queue");
-        thread.setPriority(Thread.MIN_PRIORITY);
-        queue = new LinkedList<ImageTask>();
+        this(DefaultThreadCount);
+    }
+
+    public ImageTaskQueue(int threadCount) {
+        threadCount = Math.max(1, threadCount);
+        threads = new Thread[threadCount];
+        for (int n=0; n<threadCount; n++) {
+            threads[n] = new Thread(this, "Image Task Queue " + n);
+            threads[n].setPriority(Thread.MIN_PRIORITY);
+        }
+        pauseLock = new Object();
+        heap = new ImageTask[64];
         listeners = new LinkedList<ImageTaskQueueListener>();
     }
 
     void addTask(ImageTask task) {
-        synchronized(queue) {
-            queue.add(task);
-            queue.notifyAll();
+        synchronized(lock) {
+            if (task.heapIndex < 0) {
+                task.distance = FarDistance;
+                task.sequence = ++highSequence;
+                task.queuedTime = System.nanoTime();
+                push(task);
+                lock.notify();
+            }
         }
     }
 
     void removeTask(ImageTask task) {
-        synchronized(queue) {
-            queue.remove(task);
+        synchronized(lock) {
+            if (task.heapIndex >= 0) {
+                remove(task.heapIndex);
+                dropped.incrementAndGet();
+            }
         }
     }
 
     void removeAllTasks() {
-        synchronized(queue) {
-            queue.clear();
+        synchronized(lock) {
+            dropped.addAndGet(size);
+            for (int n=0; n<size; n++) {
+                heap[n].heapIndex = -1;
+                heap[n] = null;
+            }
+            size = 0;
+            logQueueSize();
+        }
+    }
+
+    /**
+     * Change the priority of a pending task to its distance, in thumbnails,
+     * from the visible part of the browser.  Tasks that are not pending are
+     * left alone.
+     */
+    void setDistance(ImageTask task, int distance) {
+        synchronized(lock) {
+            final int index = task.heapIndex;
+            if ((index >= 0) && (task.distance != distance)) {
+                task.distance = distance;
+                task.sequence = ++highSequence;
+                siftUp(index);
+                siftDown(task.heapIndex);
+            }
         }
     }
 
     public void start() {
-        if (! thread.isAlive()) {
+        if (! threads[0].isAlive()) {
             pause = false;
             stop = false;
-            thread.start();
+            for (Thread thread : threads) {
+                thread.start();
+            }
         }
     }
 
+    /**
+     * Stop the workers and drop all pending tasks.  A task already running
+     * is allowed to finish.
+     */
     public void stop() {
         pause = false;
         stop = true;
-        synchronized(queue) {
-            queue.notifyAll();
+        removeAllTasks();
+        synchronized(lock) {
+            lock.notifyAll();
         }
-        synchronized(thread) {
-            thread.notifyAll();
+        synchronized(pauseLock) {
+            pauseLock.notifyAll();
+        }
+        if (LogStatistics) {
+            System.out.println(
+                "ImageTaskQueue: " + threads.length + " threads, " +
+                getCompletedCount() + " tasks run, " +
+                getDroppedCount() + " dropped, " +
+                getAverageWaitTime() + "ms average wait, " +
+                getAverageRunTime() + "ms average run"
+            );
+            System.out.print(ImageFileStrategy.getStatistics());
         }
     }
 
     public void pause() {
-        synchronized(thread) {
+        synchronized(pauseLock) {
             pause = true;
         }
     }
 
     public void resume() {
-        synchronized(thread) {
+        synchronized(pauseLock) {
             if (pause) {
                 pause = false;
-                thread.notifyAll();
+                pauseLock.notifyAll();
             }
         }
     }
 
     public void raiseTask(ImageTask task) {
-        synchronized(queue) {
-            if (queue.contains(task)) {
-                queue.remove(task);
-                queue.addFirst(task);
+        synchronized(lock) {
+            final int index = task.heapIndex;
+            if (index >= 0) {
+                task.distance = 0;
+                task.sequence = --lowSequence;
+                siftUp(index);
             }
         }
     }
 
     public void lowerTask(ImageTask task) {
-        synchronized(queue) {
-            if (queue.contains(task)) {
-                queue.remove(task);
-                queue.addLast(task);
+        synchronized(lock) {
+            final int index = task.heapIndex;
+            if (index >= 0) {
+                task.distance = Integer.MAX_VALUE;
+                task.sequence = ++highSequence;
+                siftDown(index);
             }
         }
     }
 
+    public int getThreadCount() {
+        return threads.length;
+    }
+
+    /**
+     * The number of tasks waiting to run.
+     */
+    public int getQueueDepth() {
+        synchronized(lock) {
+            return size;
+        }
+    }
+
+    /**
+     * The number of tasks that have run.
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * The number of tasks removed before they could run, because their
+     * images were refreshed, scrolled out of a canceled folder scan, or
+     * left behind when the browser moved to another folder.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * The average time a task spent waiting in the queue, in milliseconds.
+     */
+    public long getAverageWaitTime() {
+        final long count = completed.get();
+        return (count > 0) ? waitTime.get() / count / 1000000 : 0;
+    }
+
+    /**
+     * The average time a task took to run, in milliseconds.
+     */
+    public long getAverageRunTime() {
+        final long count = completed.get();
+        return (count > 0) ? runTime.get() / count / 1000000 : 0;
+    }
+
     public void run() {
         while (! stop) {
-            Runnable task;
-            synchronized(queue) {
-                while (queue.isEmpty() && (! stop)) {
-                    waitForNotify(queue);
+            ImageTask task;
+            synchronized(lock) {
+                while ((size == 0) && (! stop)) {
+                    waitForNotify(lock);
                     if (stop) {
                         return;
                     }
                 }
-                task = queue.removeFirst();
-                logQueueSize();
+                if (stop) {
+                    return;
+                }
+                task = remove(0);
             }
+            final long start = System.nanoTime();
             try {
                 task.run();
             }
             catch (Throwable t) {
                 logTaskError(t);
             }
-            synchronized(thread) {
+            final long end = System.nanoTime();
+            waitTime.addAndGet(start - task.queuedTime);
+            runTime.addAndGet(end - start);
+            completed.incrementAndGet();
+
+            synchronized(pauseLock) {
                 while (pause && (! stop)) {
-                    waitForNotify(thread);
+                    waitForNotify(pauseLock);
                 }
             }
         }
@@ -128,6 +285,81 @@ public class ImageTaskQueue implements Runnable {
         listeners.remove(listener);
     }
 
+    // Heap maintenance follows, always called with the heap lock held.
+
+    private static boolean isBefore(ImageTask a, ImageTask b) {
+        if (a.distance != b.distance) {
+            return a.distance < b.distance;
+        }
+        return a.sequence < b.sequence;
+    }
+
+    private void push(ImageTask task) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, 2 * size);
+        }
+        heap[size] = task;
+        task.heapIndex = size;
+        size++;
+        siftUp(size - 1);
+        logQueueSize();
+    }
+
+    private ImageTask remove(int index) {
+        final ImageTask task = heap[index];
+        size--;
+        if (index != size) {
+            final ImageTask last = heap[size];
+            heap[index] = last;
+            last.heapIndex = index;
+            heap[size] = null;
+            siftUp(index);
+            siftDown(last.heapIndex);
+        }
+        else {
+            heap[size] = null;
+        }
+        task.heapIndex = -1;
+        logQueueSize();
+        return task;
+    }
+
+    private void siftUp(int index) {
+        final ImageTask task = heap[index];
+        while (index > 0) {
+            final int parent = (index - 1) / 2;
+            if (! isBefore(task, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].heapIndex = index;
+            index = parent;
+        }
+        heap[index] = task;
+        task.heapIndex = index;
+    }
+
+    private void siftDown(int index) {
+        final ImageTask task = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if ((child + 1 < size) && isBefore(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (! isBefore(heap[child], task)) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].heapIndex = index;
+            index = child;
+        }
+        heap[index] = task;
+        task.heapIndex = index;
+    }
+
     private static void waitForNotify(Object monitor) {
         synchronized(monitor) {
             boolean interrupted;
@@ -144,7 +376,7 @@ public class ImageTaskQueue implements Runnable {
     }
 
     private void logQueueSize() {
-        final int depth = queue.size();
+        final int depth = size;
         EventQueue.invokeLater(
             new Runnable() {
                 public void run() {
@@ -49,6 +49,10 @@ public abstract class AbstractImageBrowser
 
     boolean isDisabled;
 
+    // A snapshot of getAllImageData(), taken when the ImageList changes,
+    // and the index of each of its ImageDatums, so both ways are constant
+    // time however many images there are.
+    private ArrayList<ImageDatum> datums;
     private HashMap<ImageDatum, Integer> datumIndex; // ImageList indices
 
     private LinkedList<ImageDatum> previews;    // dispose after getPreview()
@@ -92,15 +96,12 @@ public abstract class AbstractImageBrowser
 
         this.list = list;
 
-        this.count = getAllImageData().size();
-
         selection = new ImageBrowserSelectionModel(this);
 
         previews = new LinkedList<ImageDatum>();
 
         externalActions = new LinkedList<ExternalBrowserAction>();
 
-        datumIndex = new HashMap<ImageDatum, Integer>();
         rebuildIndex();
 
         // Monitor for changes to the ImageDatums.
@@ -182,8 +183,6 @@ public abstract class AbstractImageBrowser
             return -1;
         }
         int index = row * across + col;
-        ArrayList datums = getAllImageData();
-        int count = datums.size();
         if (index >= count) {
             return -1;
         }
@@ -362,7 +361,7 @@ public abstract class AbstractImageBrowser
             Rectangle rect = getBounds(i);
             repaint(rect);
         }
-        if (selection.getSelected().contains(datum)) {
+        if (selection.isSelected(datum)) {
             notifySelectionChanged();
         }
     }
@@ -372,10 +371,8 @@ public abstract class AbstractImageBrowser
      * the characteristic size within the current component width.
      */
     public Dimension getPreferredSize() {
-        ArrayList datums = getAllImageData();
         int size = getCharacteristicSize();
         int width = across * size;
-        int count = datums.size();
         int height = (int) (Math.ceil(count / (double) across) * size);
         return new Dimension(width, height);
     }
@@ -425,8 +422,6 @@ public abstract class AbstractImageBrowser
         revalidate();
         repaint();
 
-        count = getAllImageData().size();
-
         long time = System.currentTimeMillis();
         if (time - lastAutoSelectionTime > 30000) {
             selection.setSelected(Collections.singletonList(datum));
@@ -445,8 +440,6 @@ public abstract class AbstractImageBrowser
         revalidate();
         repaint();
 
-        count = getAllImageData().size();
-
         // Just because the image count has changed:
         notifySelectionChanged();
     }
@@ -572,25 +565,33 @@ public abstract class AbstractImageBrowser
     abstract ArrayList<ImageDatum> getAllImageData();
 
     // This method informs the AbstractImageBrowser that only images within
-    // the given bounds are visible, and suggests that background work to
-    // render thumbnails outside these bounds may be cancelled.
-    public void cancelTasks(Rectangle rect) {
+    // the given bounds are visible, so background work to render thumbnails
+    // is ordered by distance from these bounds.  Thumbnails near the bounds
+    // come next, so short scrolls find them ready.
+    public void prioritizeTasks(Rectangle rect) {
         // Figure out which ImageDatums fall within the bounds.
-        ArrayList<ImageDatum> datums = getAllImageData();
         int[] indices = getIndices(datums.size(), rect);
 
-        // Make a hash set of the excluded ImageDatums, for quick lookup:
-        HashSet<ImageDatum> excluded = new HashSet<ImageDatum>();
+        int first = Integer.MAX_VALUE;
+        int last = -1;
         for (int index : indices) {
             if (index >= 0) {
-                ImageDatum datum = datums.get(index);
-                excluded.add(datum);
+                first = Math.min(first, index);
+                last = Math.max(last, index);
             }
         }
-        for (ImageDatum datum : datums) {
-            if (! excluded.contains(datum)) {
-                datum.cancel();
+        if (last < 0) {
+            return;
+        }
+        for (int index=0; index<datums.size(); index++) {
+            int distance = 0;
+            if (index < first) {
+                distance = first - index;
             }
+            else if (index > last) {
+                distance = index - last;
+            }
+            datums.get(index).setTaskDistance(distance);
         }
     }
 
@@ -606,15 +607,18 @@ public abstract class AbstractImageBrowser
 
     // Needed by mouse listeners like ImageDatumControl.
     ImageDatum getImageDatum(int index) {
-        Set datums = datumIndex.keySet();
-        for (Object datum1 : datums) {
-            ImageDatum datum = (ImageDatum) datum1;
-            Integer n = datumIndex.get(datum);
-            if (n == index) {
-                return datum;
-            }
+        if ((index < 0) || (index >= datums.size())) {
+            return null;
         }
-        return null;
+        return datums.get(index);
+    }
+
+    /**
+     * The ImageDatums as of the last ImageList change, in order.  Painting
+     * looks up the visible indices here, rather than copying the ImageList.
+     */
+    List<ImageDatum> getIndexedImageData() {
+        return Collections.unmodifiableList(datums);
     }
 
     void addContinuousSelected(ImageDatum datum, boolean isAppendix) {
@@ -1002,12 +1006,16 @@ public abstract class AbstractImageBrowser
     }
 
     private void rebuildIndex() {
-        datumIndex.clear();
-        List<ImageDatum> data = getAllImageData();
+        ArrayList<ImageDatum> data = getAllImageData();
+        HashMap<ImageDatum, Integer> index =
+            new HashMap<ImageDatum, Integer>(2 * data.size());
         int n = 0;
         for (ImageDatum datum : data) {
-            datumIndex.put(datum, n++);
+            index.put(datum, n++);
         }
+        datums = data;
+        datumIndex = index;
+        count = data.size();
     }
 
     private void updateEnabled() {
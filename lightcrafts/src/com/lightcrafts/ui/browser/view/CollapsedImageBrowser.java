@@ -48,7 +48,7 @@ public class CollapsedImageBrowser extends AbstractImageBrowser {
 
         // Figure out which ImageDatums fall within the clip bounds.
         final Rectangle clip0 = g.getClipBounds();
-        List<ImageDatum> datums = getAllImageData();
+        List<ImageDatum> datums = getIndexedImageData();
         int[] indices = getIndices(datums.size(), clip0);
 
         HiDpi.resetTransformScaleOf(g);
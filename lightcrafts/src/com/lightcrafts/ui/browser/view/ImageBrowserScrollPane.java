@@ -86,9 +86,9 @@ public class ImageBrowserScrollPane extends CenteringScrollPane {
                             snapBrowserScroll();
                             isSnapping = false;
                         }
-                        // Figure out what thumbnails are NOT visible, and
-                        // make sure all of them are idle.
-                        cancelBrowserTasks();
+                        // Figure out what thumbnails are visible, and make
+                        // sure they and their neighbors go first.
+                        prioritizeBrowserTasks();
                     }
                 }
             }
@@ -158,14 +158,14 @@ public class ImageBrowserScrollPane extends CenteringScrollPane {
         browser.scrollRectToVisible(rect);
     }
 
-    // Figure out which thumbnails are NOT visible in the scroll viewport,
-    // and make sure their background tasks are dequeued.  Called from an
+    // Figure out which thumbnails are visible in the scroll viewport, and
+    // order background tasks by their distance from them.  Called from an
     // AdjustmentListener defined in the ComboFrame constructor.
-    private void cancelBrowserTasks() {
+    private void prioritizeBrowserTasks() {
         if (browser != null) {
             JViewport viewport = getViewport();
             Rectangle visible = viewport.getViewRect();
-            browser.cancelTasks(visible);
+            browser.prioritizeTasks(visible);
         }
     }
 }
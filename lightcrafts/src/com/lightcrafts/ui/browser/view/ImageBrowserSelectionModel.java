@@ -9,12 +9,13 @@ import java.util.*;
 class ImageBrowserSelectionModel {
 
     private ImageDatum leadSelected;
-    private LinkedList<ImageDatum> selected;
+    // In selection order, with constant-time membership for large folders
+    private LinkedHashSet<ImageDatum> selected;
     private AbstractImageBrowser browser;
 
     ImageBrowserSelectionModel(AbstractImageBrowser browser) {
         this.browser = browser;
-        selected = new LinkedList<ImageDatum>();
+        selected = new LinkedHashSet<ImageDatum>();
     }
 
     void setLeadSelected(ImageDatum datum) {
@@ -59,11 +60,20 @@ class ImageBrowserSelectionModel {
 
     void setSelected(List<ImageDatum> datums) {
 
-        Set<ImageDatum> removed = new HashSet<ImageDatum>(selected);
-        removed.removeAll(datums);
+        Set<ImageDatum> wanted = new HashSet<ImageDatum>(datums);
 
-        List<ImageDatum> added = new LinkedList<ImageDatum>(datums);
-        added.removeAll(selected);
+        List<ImageDatum> removed = new ArrayList<ImageDatum>();
+        for (ImageDatum datum : selected) {
+            if (! wanted.contains(datum)) {
+                removed.add(datum);
+            }
+        }
+        List<ImageDatum> added = new ArrayList<ImageDatum>();
+        for (ImageDatum datum : datums) {
+            if (! selected.contains(datum)) {
+                added.add(datum);
+            }
+        }
 
         if (added.isEmpty() && removed.isEmpty()) {
             return;
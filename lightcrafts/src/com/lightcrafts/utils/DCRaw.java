@@ -43,10 +43,22 @@ public final class DCRaw implements
     static private Map<String,DCRaw> dcrawCache =
         new LRUHashMap<>(100);
 
-    public static synchronized DCRaw getInstanceFor( String fileName ) {
-        DCRaw instance = dcrawCache.get(fileName);
-        if (instance == null) {
-            instance = new DCRaw(fileName);
+    public static DCRaw getInstanceFor( String fileName ) {
+        synchronized (dcrawCache) {
+            val instance = dcrawCache.get(fileName);
+            if (instance != null) {
+                return instance;
+            }
+        }
+        // Run "dcraw -i" outside of the lock, so that other files don't
+        // wait for this one.  Two threads may both run it for the same
+        // file, and the first one wins.
+        val instance = new DCRaw(fileName);
+        synchronized (dcrawCache) {
+            val cached = dcrawCache.get(fileName);
+            if (cached != null) {
+                return cached;
+            }
             dcrawCache.put(fileName, instance);
         }
         return instance;
@@ -194,10 +206,12 @@ public final class DCRaw implements
 
         final int error;
 
-        synchronized (DCRaw.class) {
-            final Process p = execProcess(secondary ? secondaryInfo : info);
-            final InputStream dcrawStdErr = getDcrawStdErr(p);
-            final InputStream dcrawStdOut = getDcrawStdOut(p);
+        // Reading the header is as cheap as extracting a thumbnail
+        val worker = DCRawWorkers.INSTANCE.acquire(dcrawMode.thumb);
+        try {
+            final Process p = worker.exec(secondary ? secondaryInfo : info);
+            final InputStream dcrawStdErr = worker.getStdErr(p);
+            final InputStream dcrawStdOut = worker.getStdOut(p);
             try {
                 String line;
                 while ((line = readln(dcrawStdOut)) != null) {
@@ -223,6 +237,8 @@ public final class DCRaw implements
                     error = 0;
                 }
             }
+        } finally {
+            DCRawWorkers.INSTANCE.release(worker);
         }
         return error;
     }
@@ -343,27 +359,6 @@ public final class DCRaw implements
         }
     }
 
-    private InputStream getDcrawStdOut(Process p) {
-        return p == null
-                ? ForkDaemon.INSTANCE.getStdOut()
-                : p.getInputStream();
-    }
-
-    private InputStream getDcrawStdErr(Process p) {
-        return p == null
-                ? ForkDaemon.INSTANCE.getStdErr()
-                : new BufferedInputStream(p.getErrorStream());
-    }
-
-    private Process execProcess(String[] cmd) throws IOException {
-        if (ForkDaemon.INSTANCE != null) {
-            ForkDaemon.INSTANCE.invoke(cmd);
-            return null;
-        } else {
-            return Runtime.getRuntime().exec(cmd);
-        }
-    }
-
     private static class ImageData {
         final int width, height, bands, dataType;
         final Object data;
@@ -377,57 +372,84 @@ public final class DCRaw implements
                         ? new byte[bands * width * height]
                         : new short[bands * width * height];
         }
+
+        int bytesPerSample() {
+            return dataType == DataBuffer.TYPE_BYTE ? 1 : 2;
+        }
+
+        int size() {
+            return width * height * bands * bytesPerSample();
+        }
     }
 
-    private static ImageData readPPM(File file) throws BadImageFileException {
-        try (FileInputStream s = new FileInputStream(file)) {
-            val S1 = readln(s);
-            if (S1 == null) {
-                throw new BadImageFileException(file);
-            }
+    /**
+     * Reads a PNM or PAM header, leaving the stream at the first sample.
+     *
+     * @return The image described by the header, with room for its samples.
+     */
+    private static ImageData readPPMHeader(InputStream s, File file)
+            throws BadImageFileException
+    {
+        val S1 = readln(s);
+        if (S1 == null) {
+            throw new BadImageFileException(file);
+        }
 
-            final int width;
-            final int height;
-            final int bands;
-            final int dataType;
-            switch (S1) {
-                case "P5":
-                case "P6":
-                    bands = S1.equals("P5") ? 1 : 3;
-                    val S2 = readln(s);
-                    val S3 = readln(s);
-                    if (S2 == null || S3 == null) {
-                        throw new BadImageFileException(file);
-                    }
-                    val dimensions = S2.split("\\s");
-                    width = Integer.parseInt(dimensions[0]);
-                    height = Integer.parseInt(dimensions[1]);
-                    dataType = S3.equals("255") ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
-                    break;
-                case "P7":
-                    val SWIDTH = readln(s);
-                    val SHEIGHT = readln(s);
-                    val SDEPTH = readln(s);
-                    val SMAXVAL = readln(s);
-                    if (SWIDTH == null || SHEIGHT == null || SDEPTH == null || SMAXVAL == null) {
-                        throw new BadImageFileException(file);
+        final int width;
+        final int height;
+        final int bands;
+        final int dataType;
+        switch (S1) {
+            case "P5":
+            case "P6":
+                bands = S1.equals("P5") ? 1 : 3;
+                val S2 = readln(s);
+                val S3 = readln(s);
+                if (S2 == null || S3 == null) {
+                    throw new BadImageFileException(file);
+                }
+                val dimensions = S2.split("\\s");
+                width = Integer.parseInt(dimensions[0]);
+                height = Integer.parseInt(dimensions[1]);
+                dataType = S3.equals("255") ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
+                break;
+            case "P7":
+                int pamWidth = 0, pamHeight = 0, pamDepth = 0, pamMaxval = 0;
+                String line;
+                while ((line = readln(s)) != null && !line.equals("ENDHDR")) {
+                    String value;
+                    if ((value = match(line, "WIDTH ")) != null) {
+                        pamWidth = Integer.parseInt(value);
+                    } else if ((value = match(line, "HEIGHT ")) != null) {
+                        pamHeight = Integer.parseInt(value);
+                    } else if ((value = match(line, "DEPTH ")) != null) {
+                        pamDepth = Integer.parseInt(value);
+                    } else if ((value = match(line, "MAXVAL ")) != null) {
+                        pamMaxval = Integer.parseInt(value);
                     }
-                    val WIDTH = "WIDTH ";
-                    width = Integer.parseInt(SWIDTH.substring(WIDTH.length()));
-                    val HEIGHT = "HEIGHT ";
-                    height = Integer.parseInt(SHEIGHT.substring(HEIGHT.length()));
-                    val DEPTH = "DEPTH ";
-                    bands = Integer.parseInt(SDEPTH.substring(DEPTH.length()));
-                    val MAXVAL = "MAXVAL ";
-                    dataType = SMAXVAL.substring(MAXVAL.length()).equals("65535")
-                            ? DataBuffer.TYPE_USHORT
-                            : DataBuffer.TYPE_BYTE;
-                    break;
-                default:
+                    // TUPLTYPE is implied by the depth
+                }
+                if (line == null || pamWidth == 0 || pamHeight == 0
+                        || pamDepth == 0 || pamMaxval == 0) {
                     throw new BadImageFileException(file);
-            }
-            val imageData = new ImageData(width, height, bands, dataType);
-            val totalData = width * height * bands * (dataType == DataBuffer.TYPE_BYTE ? 1 : 2);
+                }
+                width = pamWidth;
+                height = pamHeight;
+                bands = pamDepth;
+                dataType = pamMaxval == 65535
+                        ? DataBuffer.TYPE_USHORT
+                        : DataBuffer.TYPE_BYTE;
+                break;
+            default:
+                throw new BadImageFileException(file);
+        }
+        return new ImageData(width, height, bands, dataType);
+    }
+
+    private static ImageData readPPM(File file) throws BadImageFileException {
+        try (FileInputStream s = new FileInputStream(file)) {
+            val imageData = readPPMHeader(s, file);
+            val totalData = imageData.size();
 
             try (FileChannel c = s.getChannel()) {
                 if (file.length() != totalData + c.position()) {
@@ -436,7 +458,7 @@ public final class DCRaw implements
 
                 ByteBuffer bb = c.map(FileChannel.MapMode.READ_ONLY, c.position(), totalData);
 
-                if (dataType == DataBuffer.TYPE_USHORT) {
+                if (imageData.dataType == DataBuffer.TYPE_USHORT) {
                     bb.order(ByteOrder.nativeOrder());
                     bb.asShortBuffer().get((short[]) imageData.data);
 
@@ -454,6 +476,57 @@ public final class DCRaw implements
                 ByteBufferUtil.clean(bb);
             }
             return imageData;
+        } catch (BadImageFileException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new BadImageFileException(file, e);
+        }
+    }
+
+    // How much of dcraw's output is read from the pipe at a time
+    private static final int PPM_STRIP_SIZE = 1024 * 1024;
+
+    /**
+     * Reads a PNM or PAM image as it comes out of a pipe, a strip at a time,
+     * straight into the sample array.
+     *
+     * @param file The raw file being decoded, for error messages.
+     */
+    private static ImageData readPPM(InputStream s, File file)
+            throws BadImageFileException
+    {
+        try {
+            val imageData = readPPMHeader(s, file);
+            val totalData = imageData.size();
+            val lineSize = imageData.width * imageData.bands * imageData.bytesPerSample();
+            val strip = new byte[Math.max(PPM_STRIP_SIZE / lineSize, 1) * lineSize];
+            val shorts = ByteBuffer.wrap(strip).order(ByteOrder.BIG_ENDIAN).asShortBuffer();
+
+            int offset = 0;
+            while (offset < totalData) {
+                val length = Math.min(strip.length, totalData - offset);
+                int count = 0;
+                while (count < length) {
+                    val n = s.read(strip, count, length - count);
+                    if (n < 0) {
+                        throw new BadImageFileException(
+                                file, "dcraw output truncated at " + (offset + count)
+                                      + " of " + totalData + " bytes");
+                    }
+                    count += n;
+                }
+                if (imageData.dataType == DataBuffer.TYPE_USHORT) {
+                    shorts.clear();
+                    shorts.get((short[]) imageData.data, offset / 2, length / 2);
+                } else {
+                    System.arraycopy(strip, 0, imageData.data, offset, length);
+                }
+                offset += length;
+            }
+            return imageData;
+        } catch (BadImageFileException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
             throw new BadImageFileException(file, e);
@@ -462,6 +535,11 @@ public final class DCRaw implements
 
     private static final String DCRAW_OUTPUT = "Writing data to ";
 
+    // Whether full decodes and previews come over a pipe rather than through
+    // a temporary file
+    private static final boolean STREAM_OUTPUT = Boolean.parseBoolean(
+            System.getProperty("lightcrafts.dcraw.stream", "true"));
+
     public enum dcrawMode {full, preview, thumb}
 
     public RenderedImage runDCRaw(dcrawMode mode)
@@ -490,43 +568,39 @@ public final class DCRaw implements
             if (secondaryPixels)
                 runDCRawInfo(true);
 
-            of = getDcrawOutputFile(mode, secondaryPixels);
-
             final long t2;
             final int totalData;
-            if (of.getName().endsWith(".jpg") || of.getName().endsWith(".tiff")) {
-                try {
-                    val readerFactory = new LCImageReaderFactory();
-                    val reader = readerFactory.create(of);
-                    result = reader.getImage();
-                } catch (LCImageLibException | UserCanceledException e) {
-                    e.printStackTrace();
-                }
-                if (result == null) {
-                    throw new BadImageFileException(of);
-                }
+            if (STREAM_OUTPUT && mode != dcrawMode.thumb) {
+                // Full decodes and previews are always PNM
+                val imageData = streamDcrawOutput(mode, secondaryPixels);
                 t2 = System.currentTimeMillis();
-                totalData = result.getWidth() *
-                        result.getHeight() *
-                        result.getColorModel().getNumColorComponents() *
-                        (result.getColorModel().getTransferType() == DataBuffer.TYPE_BYTE ? 1 : 2);
+                totalData = imageData.size();
+                result = createImage(mode, imageData);
             } else {
-                val imageData = readPPM(of);
-                t2 = System.currentTimeMillis();
-                totalData = imageData.width *
-                        imageData.height *
-                        imageData.bands * (imageData.dataType == DataBuffer.TYPE_BYTE ? 1 : 2);
-                val cm = getColorModel(mode, imageData.bands, imageData.dataType);
-                val bufSize = imageData.bands * imageData.width * imageData.height;
-                final DataBuffer buf = imageData.dataType == DataBuffer.TYPE_BYTE
-                        ? new DataBufferByte(   (byte[]) imageData.data, bufSize)
-                        : new DataBufferUShort((short[]) imageData.data, bufSize);
-                val bandOffsets = imageData.bands == 3 ? new int[]{0, 1, 2} : new int[]{0};
-                val raster = Raster.createInterleavedRaster(
-                        buf, imageData.width, imageData.height,
-                        imageData.bands * imageData.width, imageData.bands, bandOffsets, null);
-
-                result = new BufferedImage(cm, raster, false, null);
+                of = getDcrawOutputFile(mode, secondaryPixels);
+
+                if (of.getName().endsWith(".jpg") || of.getName().endsWith(".tiff")) {
+                    try {
+                        val readerFactory = new LCImageReaderFactory();
+                        val reader = readerFactory.create(of);
+                        result = reader.getImage();
+                    } catch (LCImageLibException | UserCanceledException e) {
+                        e.printStackTrace();
+                    }
+                    if (result == null) {
+                        throw new BadImageFileException(of);
+                    }
+                    t2 = System.currentTimeMillis();
+                    totalData = result.getWidth() *
+                            result.getHeight() *
+                            result.getColorModel().getNumColorComponents() *
+                            (result.getColorModel().getTransferType() == DataBuffer.TYPE_BYTE ? 1 : 2);
+                } else {
+                    val imageData = readPPM(of);
+                    t2 = System.currentTimeMillis();
+                    totalData = imageData.size();
+                    result = createImage(mode, imageData);
+                }
             }
             System.out.println("Read " + totalData + " bytes in " + (t2 - t1) + "ms");
         } finally {
@@ -537,6 +611,56 @@ public final class DCRaw implements
         return result;
     }
 
+    private RenderedImage createImage(dcrawMode mode, ImageData imageData) {
+        val cm = getColorModel(mode, imageData.bands, imageData.dataType);
+        val bufSize = imageData.bands * imageData.width * imageData.height;
+        final DataBuffer buf = imageData.dataType == DataBuffer.TYPE_BYTE
+                ? new DataBufferByte(   (byte[]) imageData.data, bufSize)
+                : new DataBufferUShort((short[]) imageData.data, bufSize);
+        val bandOffsets = imageData.bands == 3 ? new int[]{0, 1, 2} : new int[]{0};
+        val raster = Raster.createInterleavedRaster(
+                buf, imageData.width, imageData.height,
+                imageData.bands * imageData.width, imageData.bands, bandOffsets, null);
+
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    /**
+     * Runs dcraw with its output going to a pipe, and reads the image as it
+     * comes, instead of going through a temporary file.
+     */
+    private ImageData streamDcrawOutput(dcrawMode mode, boolean secondaryPixels)
+            throws IOException, BadImageFileException
+    {
+        val file = new File(m_fileName);
+        val cmd = dcrawCommandLine(mode, secondaryPixels, null);
+
+        val worker = DCRawWorkers.INSTANCE.acquire(mode);
+        try {
+            val p = worker.spawn(cmd);
+            final ImageData imageData;
+            try (InputStream dcrawStdOut = p.getInputStream()) {
+                imageData = readPPM(dcrawStdOut, file);
+            } catch (BadImageFileException e) {
+                p.destroy();
+                throw e;
+            }
+            final int error;
+            try {
+                error = p.waitFor();
+            } catch (InterruptedException e) {
+                p.destroy();
+                throw new InterruptedIOException("interrupted waiting for dcraw");
+            }
+            if (error > 0) {
+                throw new BadImageFileException(file);
+            }
+            return imageData;
+        } finally {
+            DCRawWorkers.INSTANCE.release(worker);
+        }
+    }
+
     private File getDcrawOutputFile(dcrawMode mode, boolean secondaryPixels)
             throws IOException, BadImageFileException
     {
@@ -547,20 +671,11 @@ public final class DCRaw implements
 
         final int error;
 
-        synchronized (DCRaw.class) {
-            final Process p;
-            final InputStream dcrawStdErr;
-            final InputStream dcrawStdOut;
-            if (ForkDaemon.INSTANCE != null) {
-                p = null;
-                ForkDaemon.INSTANCE.invoke(cmd);
-                dcrawStdErr = ForkDaemon.INSTANCE.getStdErr();
-                dcrawStdOut = ForkDaemon.INSTANCE.getStdOut();
-            } else {
-                p = Runtime.getRuntime().exec(cmd);
-                dcrawStdErr = new BufferedInputStream(p.getErrorStream());
-                dcrawStdOut = p.getInputStream();
-            }
+        val worker = DCRawWorkers.INSTANCE.acquire(mode);
+        try {
+            final Process p = worker.exec(cmd);
+            final InputStream dcrawStdErr = worker.getStdErr(p);
+            final InputStream dcrawStdOut = worker.getStdOut(p);
 
             String line;
             // output expected on stderr
@@ -589,6 +704,8 @@ public final class DCRaw implements
             } else {
                 error = 0;
             }
+        } finally {
+            DCRawWorkers.INSTANCE.release(worker);
         }
 
         System.out.println("dcraw value: " + error);
@@ -611,9 +728,10 @@ public final class DCRaw implements
     private String[] dcrawCommandLine(dcrawMode mode, boolean secondaryPixels, File of) {
         val makeModel = (m_make + ' ' + m_model).toUpperCase();
         val four_colors = four_color_cameras.contains(makeModel);
-        val path = of.getAbsolutePath();
-
-        val cmd = new ArrayList<String>(Arrays.asList(DCRAW_PATH, "-F", path, "-v"));
+        // Without an output file, the image goes to standard output
+        val cmd = of != null
+                ? new ArrayList<String>(Arrays.asList(DCRAW_PATH, "-F", of.getAbsolutePath(), "-v"))
+                : new ArrayList<String>(Arrays.asList(DCRAW_PATH, "-c", "-v"));
 
         switch (mode) {
         case full:
@@ -0,0 +1,278 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * A pool of dcraw workers, so that several raw files can be decoded at once.
+ * A worker either owns a {@link ForkDaemon} of its own, or starts dcraw with
+ * {@link Runtime#exec(String[])} when there is no fork daemon.
+ * <p>
+ * At most {@link #getLimit()} workers run at a time.  Requests wait in one
+ * queue per {@link DCRaw.dcrawMode}, and a free worker goes to the queues in
+ * turn, so that a folder full of thumbnails to extract doesn't starve the
+ * full decode of the image being edited, and the other way around.
+ * <p>
+ * The limit comes from the <code>lightcrafts.dcraw.workers</code> system
+ * property, and defaults to the number of processors.
+ */
+public final class DCRawWorkers {
+
+    ////////// public /////////////////////////////////////////////////////////
+
+    public static final DCRawWorkers INSTANCE = new DCRawWorkers(
+        Integer.getInteger(
+            "lightcrafts.dcraw.workers",
+            Runtime.getRuntime().availableProcessors()
+        )
+    );
+
+    /**
+     * A dcraw worker: runs one command at a time.
+     */
+    public static final class Worker {
+
+        /**
+         * Starts a dcraw command.
+         *
+         * @return The process, or <code>null</code> if the command was
+         * handed to a fork daemon.
+         */
+        public Process exec( String[] cmd ) throws IOException {
+            if ( m_daemon != null ) {
+                m_daemon.invoke( cmd );
+                return null;
+            }
+            return Runtime.getRuntime().exec( cmd );
+        }
+
+        /**
+         * Starts a dcraw command in a process of its own, even if this worker
+         * has a fork daemon.  This is for commands that write a whole image
+         * to standard output: a fork daemon relays output in small chunks,
+         * taking turns with standard error.  The standard error of the
+         * command goes to ours.
+         */
+        public Process spawn( String[] cmd ) throws IOException {
+            return new ProcessBuilder( cmd )
+                .redirectError( ProcessBuilder.Redirect.INHERIT )
+                .start();
+        }
+
+        /**
+         * Gets the standard output of the command started by
+         * {@link #exec(String[])}.
+         */
+        public InputStream getStdOut( Process p ) {
+            return p == null ? m_daemon.getStdOut() : p.getInputStream();
+        }
+
+        /**
+         * Gets the standard error of the command started by
+         * {@link #exec(String[])}.
+         */
+        public InputStream getStdErr( Process p ) {
+            return p == null
+                ? m_daemon.getStdErr()
+                : new BufferedInputStream( p.getErrorStream() );
+        }
+
+        private Worker( ForkDaemon daemon ) {
+            m_daemon = daemon;
+        }
+
+        /**
+         * Stops the fork daemon of this worker, unless it's the one started
+         * by the launcher, which outlives the pool.
+         */
+        private void close() {
+            if ( m_daemon != null && m_daemon != ForkDaemon.INSTANCE ) {
+                m_daemon.close();
+            }
+        }
+
+        private final ForkDaemon m_daemon;
+    }
+
+    /**
+     * Waits for a free worker.  It must be given back with
+     * {@link #release(Worker)}.
+     *
+     * @param mode The kind of decode, which picks the queue to wait in.
+     * @throws InterruptedIOException if the thread is interrupted while it
+     * waits.
+     */
+    public Worker acquire( DCRaw.dcrawMode mode ) throws InterruptedIOException {
+        final Ticket ticket = new Ticket();
+        synchronized ( m_lock ) {
+            m_queues[ mode.ordinal() ].add( ticket );
+            dispatch();
+            while ( ticket.worker == null ) {
+                try {
+                    m_lock.wait();
+                }
+                catch ( InterruptedException e ) {
+                    if ( ticket.worker != null ) {
+                        release( ticket.worker );
+                    } else {
+                        m_queues[ mode.ordinal() ].remove( ticket );
+                    }
+                    throw new InterruptedIOException(
+                        "interrupted waiting for dcraw"
+                    );
+                }
+            }
+            return ticket.worker;
+        }
+    }
+
+    /**
+     * Gives back a worker obtained from {@link #acquire(DCRaw.dcrawMode)},
+     * after the output of its command has been read to the end.
+     */
+    public void release( Worker worker ) {
+        synchronized ( m_lock ) {
+            m_running--;
+            m_idle.push( worker );
+            dispatch();
+        }
+    }
+
+    /**
+     * Gets the maximum number of dcraw commands that run at once.
+     */
+    public int getLimit() {
+        synchronized ( m_lock ) {
+            return m_limit;
+        }
+    }
+
+    /**
+     * Sets the maximum number of dcraw commands that run at once.  Commands
+     * already running are not affected.  The fork daemons of the idle
+     * workers beyond the limit are stopped.
+     */
+    public void setLimit( int limit ) {
+        final ArrayList<Worker> removed = new ArrayList<Worker>();
+        synchronized ( m_lock ) {
+            m_limit = Math.max( limit, 1 );
+            while ( m_idle.size() > m_limit ) {
+                final Worker worker = m_idle.removeLast();
+                if ( worker.m_daemon == ForkDaemon.INSTANCE ) {
+                    m_sharedDaemonTaken = false;
+                }
+                removed.add( worker );
+            }
+            dispatch();
+        }
+        for ( Worker worker : removed ) {
+            worker.close();
+        }
+    }
+
+    /**
+     * Gets the number of dcraw commands running now.
+     */
+    public int getRunningCount() {
+        synchronized ( m_lock ) {
+            return m_running;
+        }
+    }
+
+    /**
+     * Gets the number of requests waiting for a worker.
+     */
+    public int getWaitingCount() {
+        synchronized ( m_lock ) {
+            int waiting = 0;
+            for ( ArrayDeque<Ticket> queue : m_queues ) {
+                waiting += queue.size();
+            }
+            return waiting;
+        }
+    }
+
+    ////////// package ////////////////////////////////////////////////////////
+
+    @SuppressWarnings( "unchecked" )
+    DCRawWorkers( int limit ) {
+        m_limit = Math.max( limit, 1 );
+        m_queues = new ArrayDeque[ DCRaw.dcrawMode.values().length ];
+        for ( int i = 0; i < m_queues.length; i++ ) {
+            m_queues[ i ] = new ArrayDeque<Ticket>();
+        }
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    private static final class Ticket {
+        Worker worker;
+    }
+
+    /**
+     * Hands free workers to the queues in turn.  Called with the lock held.
+     */
+    private void dispatch() {
+        boolean dispatched = false;
+        while ( m_running < m_limit ) {
+            ArrayDeque<Ticket> queue = null;
+            for ( int i = 0; i < m_queues.length; i++ ) {
+                final int lane = ( m_nextLane + i ) % m_queues.length;
+                if ( !m_queues[ lane ].isEmpty() ) {
+                    queue = m_queues[ lane ];
+                    m_nextLane = lane + 1;
+                    break;
+                }
+            }
+            if ( queue == null ) {
+                break;
+            }
+            queue.poll().worker = newWorker();
+            m_running++;
+            dispatched = true;
+        }
+        if ( dispatched ) {
+            m_lock.notifyAll();
+        }
+    }
+
+    private Worker newWorker() {
+        final Worker idle = m_idle.poll();
+        if ( idle != null ) {
+            return idle;
+        }
+        // The first worker shares the daemon started by the launcher; the
+        // others get their own, since a daemon runs one command at a time.
+        ForkDaemon daemon = null;
+        if ( ForkDaemon.INSTANCE != null ) {
+            if ( !m_sharedDaemonTaken ) {
+                daemon = ForkDaemon.INSTANCE;
+                m_sharedDaemonTaken = true;
+            } else {
+                try {
+                    daemon = ForkDaemon.newInstance();
+                }
+                catch ( IOException e ) {
+                    // Fall back on Runtime.exec()
+                    e.printStackTrace();
+                }
+            }
+        }
+        return new Worker( daemon );
+    }
+
+    private final Object m_lock = new Object();
+    private final ArrayDeque<Ticket>[] m_queues;
+    private final ArrayDeque<Worker> m_idle = new ArrayDeque<Worker>();
+    private int m_limit;
+    private int m_running;
+    private int m_nextLane;
+    private boolean m_sharedDaemonTaken;
+}
+/* vim:set et sw=4 ts=4: */
@@ -17,6 +17,35 @@ public final class ForkDaemon {
 
     public static ForkDaemon INSTANCE;
 
+    /**
+     * Stops the fork daemon process and closes the pipes to it.  No command
+     * can be invoked after this.
+     */
+    public synchronized void close() {
+        if ( closed )
+            return;
+        closed = true;
+        try {
+            stdin.close();
+        }
+        catch ( IOException e ) {
+            // ignore
+        }
+        try {
+            stdout.close();
+        }
+        catch ( IOException e ) {
+            // ignore
+        }
+        try {
+            stderr.close();
+        }
+        catch ( IOException e ) {
+            // ignore
+        }
+        forkerProcess.destroy();
+    }
+
     public InputStream getStdErr() {
         return stderr;
     }
@@ -62,33 +91,18 @@ public final class ForkDaemon {
         INSTANCE = new ForkDaemon();
     }
 
+    /**
+     * Starts another fork daemon, for running commands concurrently with
+     * the ones given to {@link #INSTANCE}.
+     */
+    static ForkDaemon newInstance() throws IOException {
+        return new ForkDaemon();
+    }
+
     ////////// protected //////////////////////////////////////////////////////
 
     protected void finalize() throws Throwable {
-        IOException caughtException = null;
-        try {
-            stderr.close();
-        }
-        catch ( IOException e ) {
-            caughtException = e;
-        }
-        try {
-            stdout.close();
-        }
-        catch ( IOException e ) {
-            if ( caughtException == null )
-                caughtException = e;
-        }
-        try {
-            stdin.close();
-        }
-        catch ( IOException e ) {
-            if ( caughtException == null )
-                caughtException = e;
-        }
-        forkerProcess.destroy();
-        if ( caughtException != null )
-            throw caughtException;
+        close();
         super.finalize();
     }
 
@@ -111,6 +125,7 @@ public final class ForkDaemon {
     private final OutputStream stdin;
     private final InputStream stdout;
     private final InputStream stderr;
+    private boolean closed;
 
     static {
         FORKDAEMON_PATH = new String[] {
@@ -28,7 +28,7 @@ final class CacheFileComparator implements Comparator<CacheFile> {
      * greater than the second.
      */
     public int compare( CacheFile file1, CacheFile file2 ) {
-        return (int)(file1.lastAccessTime() - file2.lastAccessTime());
+        return Long.compare( file1.lastAccessTime(), file2.lastAccessTime() );
     }
 
     ////////// package ////////////////////////////////////////////////////////
@@ -2,16 +2,28 @@
 
 package com.lightcrafts.utils.filecache;
 
+import com.lightcrafts.utils.TextUtil;
 import com.lightcrafts.utils.file.FileIterator;
 import com.lightcrafts.utils.file.FileUtil;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A <code>FileCache</code> is used to cache files until a maximum capacity is
- * reached.  Once reached, files having the oldest access time are removed.
+ * reached.  Once reached, the least recently used files are removed.
+ * <p>
+ * Reading and writing entries doesn't lock the cache: the index of the
+ * files, kept by the {@link FileCacheMonitor}, has its own lock that is held
+ * only to update it.
  *
  * @author Paul J. Lucas [paul@lightcrafts.com]
  */
@@ -52,14 +64,28 @@ public final class FileCache {
      * Clears the cache by removing all cached files in it.
      */
     public synchronized void clear() throws IOException {
-        if ( m_monitor != null )
-            m_monitor.clear();
+        final FileCacheMonitor monitor = m_monitor;
+        if ( monitor != null )
+            monitor.clear();
         final File cacheDir = getCacheDirectory();
         final File[] contents =
             FileUtil.listFiles( cacheDir, FileCacheFilter.INSTANCE, true );
-        if ( !FileUtil.delete( contents, FileCacheFilter.INSTANCE, true ) )
+        //
+        // The files of open stores are emptied rather than deleted since
+        // their images keep using them.
+        //
+        final List<File> toDelete = new ArrayList<File>();
+        if ( contents != null )
+            for ( File file : contents )
+                if ( getOpenThumbnailStore( file ) == null )
+                    toDelete.add( file );
+        if ( !FileUtil.delete(
+                toDelete.toArray( new File[ toDelete.size() ] ),
+                FileCacheFilter.INSTANCE, true
+             ) )
             throw new IOException( "Could not delete old cache" );
-        m_size = 0;
+        for ( ThumbnailStore store : m_stores.values() )
+            store.clear();
     }
 
     /**
@@ -74,14 +100,13 @@ public final class FileCache {
             return false;
         }
         final File file = m_mapper.mapKeyToFile( key, false );
-        synchronized ( this ) {
-            //
-            // If we have a monitor, just ask it whether it's monitoring the
-            // file because it's faster than doing filesystem I/O.
-            //
-            if ( m_monitor != null )
-                return m_monitor.containsFile( file );
-        }
+        //
+        // If we have a monitor, just ask it whether it's monitoring the
+        // file because it's faster than doing filesystem I/O.
+        //
+        final FileCacheMonitor monitor = m_monitor;
+        if ( monitor != null )
+            return monitor.containsFile( file );
         return file.exists();
     }
 
@@ -93,6 +118,9 @@ public final class FileCache {
             m_monitor.dispose();
             m_monitor = null;
         }
+        for ( ThumbnailStore store : m_stores.values() )
+            store.close();
+        m_stores.clear();
     }
 
     /**
@@ -104,6 +132,39 @@ public final class FileCache {
         return m_mapper.getCacheDirectory();
     }
 
+    /**
+     * Gets the {@link ThumbnailStore} for the images in a directory.  Store
+     * files live in the cache directory alongside the cache files and count
+     * toward the capacity like them; a store file that is evicted while it
+     * is open is emptied rather than deleted.
+     *
+     * @param dir The directory of images.
+     * @return Returns said store or <code>null</code> if it couldn't be
+     * opened.
+     */
+    public synchronized ThumbnailStore getThumbnailStore( File dir ) {
+        final String path = dir.getAbsolutePath();
+        ThumbnailStore store = m_stores.get( path );
+        if ( store == null ) {
+            final File file = new File(
+                getCacheDirectory(),
+                "folder-" + digestOf( path ) + ThumbnailStore.EXTENSION
+            );
+            try {
+                store = new ThumbnailStore( file, dir, this );
+                m_stores.put( path, store );
+                notifyAboutSizeOf( file, file.length() );
+            }
+            catch ( IOException e ) {
+                System.err.println(
+                    "Couldn't open ThumbnailStore " + file + ": "
+                    + e.getMessage()
+                );
+            }
+        }
+        return store;
+    }
+
     /**
      * Gets the capacity of the cache.
      *
@@ -135,6 +196,7 @@ public final class FileCache {
         if ( file.exists() ) {
             if ( DEBUG )
                 System.err.println( "  --> cache hit" );
+            touch( file );
             return file;
         }
         if ( DEBUG )
@@ -149,8 +211,9 @@ public final class FileCache {
      * @see #getCapacity()
      * @see #setCapacity(long)
      */
-    public synchronized long getSize() {
-        return m_size;
+    public long getSize() {
+        final FileCacheMonitor monitor = m_monitor;
+        return monitor != null ? monitor.getSize() : 0;
     }
 
     /**
@@ -174,6 +237,7 @@ public final class FileCache {
             final FileInputStream fis = new FileInputStream( file );
             if ( DEBUG )
                 System.err.println( "  --> cache hit" );
+            touch( file );
             return fis;
         }
         catch ( FileNotFoundException e ) {
@@ -194,9 +258,9 @@ public final class FileCache {
      * @see #putToFile(String)
      */
     public void notifyAboutCloseOf( File file ) throws IOException {
-        if ( m_monitor != null ) {
-            addToCacheSize( file.length() );
-            m_monitor.addFile( file );
+        final FileCacheMonitor monitor = m_monitor;
+        if ( monitor != null ) {
+            monitor.addFile( file );
             wakeUpMonitor();
         }
     }
@@ -265,18 +329,43 @@ public final class FileCache {
     ////////// package ////////////////////////////////////////////////////////
 
     /**
-     * Add to the cache size.
+     * Evicts a file that the {@link FileCacheMonitor} has already removed
+     * from its index: deletes it, or empties it if it's the file of an open
+     * {@link ThumbnailStore}.
      *
-     * @param size The number of bytes to add.
+     * @param file The {@link File} to evict.
      */
-    @SuppressWarnings({"ConstantConditions"})
-    synchronized void addToCacheSize( long size ) {
-        m_size += size;
-        if ( DEBUG )
+    synchronized void evict( File file ) {
+        final ThumbnailStore store = getOpenThumbnailStore( file );
+        if ( store == null ) {
+            file.delete();
+            return;
+        }
+        try {
+            store.clear();
+        }
+        catch ( IOException e ) {
             System.err.println(
-                "FileCache.addToCacheSize(" + (size / (1024*1024))
-                + "); cache size now = " + (m_size / (1024*1024)) + " MB"
+                "Couldn't empty ThumbnailStore " + file + ": "
+                + e.getMessage()
             );
+        }
+    }
+
+    /**
+     * Notify this <code>FileCache</code> of the current size of a file that
+     * is written in place, like the file of a {@link ThumbnailStore}.  This
+     * also makes it the most recently used file.
+     *
+     * @param file The {@link File}.
+     * @param size Its size (in bytes).
+     */
+    void notifyAboutSizeOf( File file, long size ) {
+        final FileCacheMonitor monitor = m_monitor;
+        if ( monitor != null ) {
+            monitor.addFile( file, size );
+            wakeUpMonitor();
+        }
     }
 
     ////////// protected //////////////////////////////////////////////////////
@@ -337,6 +426,39 @@ public final class FileCache {
         }
     }
 
+    /**
+     * Gets a hex digest of a path, to name a file after it.
+     *
+     * @param path The path.
+     * @return Returns the SHA-1 of the path in hex.
+     */
+    private static String digestOf( String path ) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            return TextUtil.hexString(
+                digest.digest( path.getBytes( StandardCharsets.UTF_8 ) )
+            );
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            // Every Java platform has SHA-1.
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * Gets the open {@link ThumbnailStore} the given file is one of the
+     * files of.
+     *
+     * @param file The {@link File}.
+     * @return Returns said store or <code>null</code> if none.
+     */
+    private ThumbnailStore getOpenThumbnailStore( File file ) {
+        for ( ThumbnailStore store : m_stores.values() )
+            if ( store.isFileOf( file ) )
+                return store;
+        return null;
+    }
+
     /**
      * Remove a file from the cache.
      *
@@ -344,26 +466,35 @@ public final class FileCache {
      * @return Returns <code>true</code> only if the file for the given key
      * was removed.
      */
-    private synchronized boolean remove( File file ) throws IOException {
-        if ( file.exists() ) {
-            if ( !file.delete() )
-                throw new IOException(
-                    "Could not delete " + file.getAbsolutePath()
-                );
-            if ( m_capacity > 0 )
-                addToCacheSize( - file.length() );
-        }
-        return m_monitor == null || m_monitor.removeFile( file );
+    private boolean remove( File file ) throws IOException {
+        final FileCacheMonitor monitor = m_monitor;
+        final boolean removed = monitor == null || monitor.removeFile( file );
+        if ( file.exists() && !file.delete() )
+            throw new IOException(
+                "Could not delete " + file.getAbsolutePath()
+            );
+        return removed;
+    }
+
+    /**
+     * Notify the {@link FileCacheMonitor} that a file has just been used.
+     *
+     * @param file The {@link File} that was used.
+     */
+    private void touch( File file ) {
+        final FileCacheMonitor monitor = m_monitor;
+        if ( monitor != null )
+            monitor.touchFile( file );
     }
 
     /**
      * Notify the {@link FileCacheMonitor} that it may need to do something.
      */
-    @SuppressWarnings({"SynchronizeOnNonFinalField"})
     private void wakeUpMonitor() {
-        if ( m_monitor != null )
-            synchronized ( m_monitor ) {
-                m_monitor.notify();
+        final FileCacheMonitor monitor = m_monitor;
+        if ( monitor != null )
+            synchronized ( monitor ) {
+                monitor.notify();
             }
     }
 
@@ -376,7 +507,7 @@ public final class FileCache {
      * The maximum capacity of the cache (in bytes).  A capacity of 0 means no
      * maximum.
      */
-    private long m_capacity;
+    private volatile long m_capacity;
 
     /**
      * The {@link FileCacheKeyMapper} in use.
@@ -384,14 +515,16 @@ public final class FileCache {
     private final FileCacheKeyMapper m_mapper;
 
     /**
-     * The {@link FileCacheMonitor} in use or <code>null</code> if none.
+     * The {@link FileCacheMonitor} in use or <code>null</code> if none.  It
+     * also keeps the current total size of all the files in the cache.
      */
-    private FileCacheMonitor m_monitor;
+    private volatile FileCacheMonitor m_monitor;
 
     /**
-     * The current total size of all the files in the cache (in bytes).
+     * The {@link ThumbnailStore}s opened so far, by directory path.
      */
-    private long m_size;
+    private final Map<String,ThumbnailStore> m_stores =
+        new HashMap<String,ThumbnailStore>();
 
     ////////// main() for testing /////////////////////////////////////////////
 
@@ -31,6 +31,7 @@ public final class FileCacheFilter implements FileFilter {
     public boolean accept( File file ) {
         final String name = file.getName();
         return  name.endsWith( EXTENSION ) ||
+                name.endsWith( ThumbnailStore.EXTENSION ) ||
                 name.startsWith( "lzncache." ); // Tom's old files
     }
 
@@ -0,0 +1,524 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.filecache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A <code>FileCacheJournal</code> is the index of the files in a
+ * {@link FileCache}: for each file, its size, with the files in the order
+ * they were last used.  It replaces a walk of the cache directory and a
+ * last access time per file at startup, which are slow on big caches and
+ * meaningless on volumes mounted without access times, with one sequential
+ * read of a single file.
+ * <p>
+ * The journal file is append-only: adding a file, using it and removing it
+ * each append a record, and reading the records in order gives the files in
+ * the order they were last used.  When there are many more records than
+ * files, the journal is rewritten with one record per file, least recently
+ * used first.
+ * <p>
+ * Each record is laid out as:
+ * <pre>
+ *  int    length of the rest of the record, CRC included
+ *  byte   {@link #PUT}, {@link #TOUCH}, {@link #REMOVE} or {@link #CLEAN}
+ *  short  path length, followed by the path in UTF-8
+ *  long   file size, or 0
+ *  int    CRC-32 of all the above, from the record type on
+ * </pre>
+ * Paths are relative to the cache directory so that a cache that is moved
+ * with its directory keeps its journal.  A damaged or incomplete record at
+ * the end of the file, for instance after a crash, is truncated away when
+ * the journal is opened.
+ * <p>
+ * Closing the journal appends a {@link #CLEAN} record, with an empty path.
+ * A journal that doesn't end with one wasn't closed, so files may have been
+ * written to the cache directory without their records making it to disk.
+ * <p>
+ * All methods are synchronized on the journal itself, never on the
+ * {@link FileCache}.
+ *
+ * @see FileCacheMonitor
+ */
+final class FileCacheJournal {
+
+    ////////// package ////////////////////////////////////////////////////////
+
+    /**
+     * The name of the journal file in the cache directory.
+     */
+    static final String NAME = "index.journal";
+
+    /**
+     * Opens the journal of a cache directory, creating it if needed, and
+     * reads the index from it.
+     *
+     * @param cacheDir The cache directory.
+     */
+    FileCacheJournal( File cacheDir ) throws IOException {
+        m_dir = cacheDir.getAbsoluteFile().toPath();
+        m_file = new File( cacheDir, NAME );
+        open();
+    }
+
+    /**
+     * Adds the files found in the cache directory that the journal doesn't
+     * know about, as used before all the files it does know about.
+     *
+     * @param files The files, least recently used first.
+     */
+    synchronized void addOldest( List<? extends File> files )
+        throws IOException
+    {
+        if ( m_closed )
+            return;
+        final LinkedHashMap<String,Long> index = newIndex();
+        long size = 0;
+        for ( File file : files ) {
+            final String key = keyOf( file );
+            if ( !m_index.containsKey( key ) && !index.containsKey( key ) ) {
+                index.put( key, file.length() );
+                size += file.length();
+            }
+        }
+        if ( index.isEmpty() )
+            return;
+        index.putAll( m_index );
+        m_index = index;
+        m_size += size;
+        rewrite();
+    }
+
+    /**
+     * Removes all the files from the journal.
+     */
+    synchronized void clear() throws IOException {
+        m_index.clear();
+        m_size = 0;
+        m_records = 0;
+        if ( !m_closed )
+            truncate( HEADER_SIZE );
+    }
+
+    /**
+     * Marks the journal as closed cleanly and closes the journal file.  The
+     * journal must not be used after this.
+     */
+    synchronized void close() {
+        if ( m_closed )
+            return;
+        m_closed = true;
+        try {
+            write( encode( CLEAN, "", 0 ) );
+            m_channel.force( false );
+        }
+        catch ( IOException e ) {
+            logError( "close", e );
+        }
+        try {
+            m_raf.close();
+        }
+        catch ( IOException e ) {
+            // ignore
+        }
+    }
+
+    /**
+     * Checks whether the journal has a file.
+     *
+     * @param file The {@link File} to check.
+     * @return Returns <code>true</code> only if the journal has the file.
+     */
+    synchronized boolean contains( File file ) {
+        // containsKey() doesn't count as a use, unlike get().
+        return m_index.containsKey( keyOf( file ) );
+    }
+
+    /**
+     * Gets the total size of the files in the journal.
+     *
+     * @return Returns said size (in bytes).
+     */
+    synchronized long getSize() {
+        return m_size;
+    }
+
+    /**
+     * Checks whether the journal file was created, or had to be started
+     * over, when it was opened: if so, the files already in the cache
+     * directory are missing from it.
+     */
+    boolean isNew() {
+        return m_new;
+    }
+
+    /**
+     * Checks whether the journal was closed the last time it was used.  If
+     * not, files in the cache directory may be missing from it.
+     */
+    boolean wasClosedCleanly() {
+        return m_wasClosedCleanly;
+    }
+
+    /**
+     * Adds a file as the most recently used one, replacing any previous
+     * entry for it.
+     *
+     * @param file The {@link File} to add.
+     * @param size Its size (in bytes).
+     */
+    synchronized void put( File file, long size ) {
+        final String key = keyOf( file );
+        final Long old = m_index.put( key, size );
+        m_size += size - ( old != null ? old : 0 );
+        append( PUT, key, size );
+    }
+
+    /**
+     * Removes a file.
+     *
+     * @param file The {@link File} to remove.
+     * @return Returns the size the file had when it was added or -1 if the
+     * journal doesn't have it.
+     */
+    synchronized long remove( File file ) {
+        final String key = keyOf( file );
+        final Long size = m_index.remove( key );
+        if ( size == null )
+            return -1;
+        m_size -= size;
+        append( REMOVE, key, 0 );
+        return size;
+    }
+
+    /**
+     * Removes the least recently used file from the journal.  The file
+     * itself is left alone.
+     *
+     * @return Returns said file or <code>null</code> if there are none.
+     */
+    synchronized File removeEldest() {
+        final Iterator<Map.Entry<String,Long>> i =
+            m_index.entrySet().iterator();
+        if ( !i.hasNext() )
+            return null;
+        final Map.Entry<String,Long> eldest = i.next();
+        final String key = eldest.getKey();
+        m_size -= eldest.getValue();
+        i.remove();
+        append( REMOVE, key, 0 );
+        return m_dir.resolve( key ).toFile();
+    }
+
+    /**
+     * Makes a file the most recently used one.
+     *
+     * @param file The {@link File} that was used.
+     * @return Returns <code>true</code> only if the journal has the file.
+     */
+    synchronized boolean touch( File file ) {
+        final String key = keyOf( file );
+        if ( m_index.get( key ) == null )
+            return false;
+        append( TOUCH, key, 0 );
+        return true;
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    private static LinkedHashMap<String,Long> newIndex() {
+        // In access order: iteration starts at the least recently used.
+        return new LinkedHashMap<String,Long>( 256, 0.75F, true );
+    }
+
+    /**
+     * Gets the path of a file as it is kept in the journal.
+     */
+    private String keyOf( File file ) {
+        final Path path = file.getAbsoluteFile().toPath();
+        return path.startsWith( m_dir ) ?
+            m_dir.relativize( path ).toString() : path.toString();
+    }
+
+    /**
+     * Appends a record, and rewrites the journal if it has grown to many
+     * times the number of files.
+     */
+    private void append( byte type, String key, long size ) {
+        if ( m_closed )
+            return;
+        final ByteBuffer record = encode( type, key, size );
+        if ( record == null )
+            return;
+        try {
+            write( record );
+            if ( ++m_records > COMPACT_THRESHOLD &&
+                 m_records > 4 * m_index.size() )
+                rewrite();
+        }
+        catch ( IOException e ) {
+            // A partial record is truncated away the next time we open.
+            logError( "write", e );
+        }
+    }
+
+    /**
+     * Writes a record at the end of the journal.
+     */
+    private void write( ByteBuffer record ) throws IOException {
+        long position = m_end;
+        while ( record.hasRemaining() )
+            position += m_channel.write( record, position );
+        m_end = position;
+    }
+
+    private static ByteBuffer encode( byte type, String key, long size ) {
+        final byte[] keyBytes = key.getBytes( StandardCharsets.UTF_8 );
+        if ( keyBytes.length > Short.MAX_VALUE )
+            return null;
+        final int length = 4 + 1 + 2 + keyBytes.length + 8 + 4;
+        final ByteBuffer record = ByteBuffer.allocate( length );
+        record.putInt( length - 4 );
+        record.put( type );
+        record.putShort( (short)keyBytes.length );
+        record.put( keyBytes );
+        record.putLong( size );
+        final CRC32 crc = new CRC32();
+        crc.update( record.array(), 4, length - 8 );
+        record.putInt( (int)crc.getValue() );
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Applies the record at the position of the given buffer to the index.
+     * The buffer is left positioned after the record.
+     *
+     * @return Returns <code>false</code> if the record is damaged or
+     * incomplete.
+     */
+    private boolean replay( ByteBuffer buf ) {
+        final int start = buf.position();
+        if ( buf.remaining() < 4 )
+            return false;
+        final int rest = buf.getInt();
+        if ( rest < 1 + 2 + 8 + 4 || rest > buf.remaining() )
+            return false;
+        final byte type = buf.get();
+        final int keyLength = buf.getShort();
+        if ( keyLength < 0 || 1 + 2 + keyLength + 8 + 4 != rest )
+            return false;
+        final byte[] keyBytes = new byte[ keyLength ];
+        buf.get( keyBytes );
+        final long size = buf.getLong();
+        final int storedCrc = buf.getInt();
+        final CRC32 crc = new CRC32();
+        crc.update( buf.array(), start + 4, rest - 4 );
+        if ( (int)crc.getValue() != storedCrc )
+            return false;
+        final String key = new String( keyBytes, StandardCharsets.UTF_8 );
+        switch ( type ) {
+            case PUT:
+                final Long old = m_index.put( key, size );
+                m_size += size - ( old != null ? old : 0 );
+                break;
+            case TOUCH:
+                m_index.get( key );
+                break;
+            case REMOVE:
+                final Long removed = m_index.remove( key );
+                if ( removed != null )
+                    m_size -= removed;
+                break;
+            case CLEAN:
+                break;
+            default:
+                return false;
+        }
+        // Only the last record tells whether the journal was closed.
+        m_wasClosedCleanly = type == CLEAN;
+        m_records++;
+        return true;
+    }
+
+    /**
+     * Opens the file and reads the index from it with one sequential pass.
+     */
+    private void open() throws IOException {
+        m_raf = new RandomAccessFile( m_file, "rw" );
+        m_channel = m_raf.getChannel();
+        m_index = newIndex();
+        m_size = 0;
+        m_records = 0;
+        final long size = m_channel.size();
+        if ( size < HEADER_SIZE || size > Integer.MAX_VALUE ) {
+            m_new = true;
+            truncate( 0 );
+            writeHeader( m_channel );
+            m_end = HEADER_SIZE;
+            return;
+        }
+        final ByteBuffer buf = ByteBuffer.allocate( (int)size );
+        while ( buf.hasRemaining() )
+            if ( m_channel.read( buf, buf.position() ) < 0 )
+                break;
+        buf.flip();
+        if ( buf.remaining() < HEADER_SIZE ||
+             buf.getInt() != MAGIC || buf.getInt() != VERSION ) {
+            m_new = true;
+            truncate( 0 );
+            writeHeader( m_channel );
+            m_end = HEADER_SIZE;
+            return;
+        }
+        m_end = size;
+        while ( buf.hasRemaining() ) {
+            final int start = buf.position();
+            if ( !replay( buf ) ) {
+                System.err.println(
+                    "FileCacheJournal: truncating " + m_file + " at " + start
+                );
+                truncate( start );
+                m_wasClosedCleanly = false;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with one record per file, least recently used
+     * first, to a new file that then replaces the old one.
+     */
+    private void rewrite() throws IOException {
+        final File temp = new File(
+            m_file.getParentFile(), m_file.getName() + ".tmp"
+        );
+        // Counted up front so that a failed rewrite isn't retried at once.
+        m_records = m_index.size();
+        try {
+            try ( RandomAccessFile raf = new RandomAccessFile( temp, "rw" ) ) {
+                raf.setLength( 0 );
+                final FileChannel out = raf.getChannel();
+                writeHeader( out );
+                out.position( HEADER_SIZE );
+                for ( Map.Entry<String,Long> entry : m_index.entrySet() ) {
+                    final ByteBuffer record =
+                        encode( PUT, entry.getKey(), entry.getValue() );
+                    if ( record != null )
+                        while ( record.hasRemaining() )
+                            out.write( record );
+                }
+                out.force( false );
+            }
+            m_raf.close();
+            try {
+                Files.move(
+                    temp.toPath(), m_file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING
+                );
+            }
+            finally {
+                // If the move failed, carry on with the old file.
+                m_raf = new RandomAccessFile( m_file, "rw" );
+                m_channel = m_raf.getChannel();
+                m_end = m_channel.size();
+            }
+        }
+        finally {
+            temp.delete();
+        }
+    }
+
+    private static void writeHeader( FileChannel channel ) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        header.putInt( MAGIC ).putInt( VERSION ).flip();
+        long position = 0;
+        while ( header.hasRemaining() )
+            position += channel.write( header, position );
+    }
+
+    private void truncate( long size ) throws IOException {
+        m_channel.truncate( size );
+        m_end = Math.max( size, HEADER_SIZE );
+    }
+
+    private void logError( String what, IOException e ) {
+        System.err.println(
+            "FileCacheJournal: can't " + what + ' ' + m_file + ": " +
+            e.getMessage()
+        );
+    }
+
+    /**
+     * The first bytes of a journal file: "LZCJ".
+     */
+    private static final int MAGIC = 0x4C5A434A;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Record types.
+     */
+    private static final byte PUT    = 1;
+    private static final byte TOUCH  = 2;
+    private static final byte REMOVE = 3;
+    private static final byte CLEAN  = 4;
+
+    /**
+     * The journal is never rewritten while it has fewer records than this.
+     */
+    private static final int COMPACT_THRESHOLD = 64 * 1024;
+
+    /**
+     * The absolute path of the cache directory.
+     */
+    private final Path m_dir;
+
+    private final File m_file;
+
+    private RandomAccessFile m_raf;
+
+    private FileChannel m_channel;
+
+    /**
+     * The size of each file, by path, least recently used first.
+     */
+    private LinkedHashMap<String,Long> m_index;
+
+    /**
+     * The total size of the files in the index.
+     */
+    private long m_size;
+
+    /**
+     * The number of records in the journal file.
+     */
+    private int m_records;
+
+    /**
+     * The end of the last complete record.
+     */
+    private long m_end;
+
+    private boolean m_new;
+
+    private boolean m_wasClosedCleanly;
+
+    private boolean m_closed;
+}
+/* vim:set et sw=4 ts=4: */
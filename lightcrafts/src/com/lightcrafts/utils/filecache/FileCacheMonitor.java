@@ -4,8 +4,8 @@ package com.lightcrafts.utils.filecache;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.PriorityQueue;
+import java.util.ArrayList;
+import java.util.Collections;
 
 import com.lightcrafts.utils.file.FileIterator;
 import com.lightcrafts.utils.file.FileUtil;
@@ -13,6 +13,13 @@ import com.lightcrafts.utils.file.FileUtil;
 /**
  * A <code>FileCacheMonitor</code> is used to monitor the size of a
  * {@link FileCache} to ensure that its size stays below its capacity.
+ * <p>
+ * The files in the cache, their sizes and the order they were last used in
+ * are kept in a {@link FileCacheJournal}, so starting up only reads the
+ * journal and the files to remove are the least recently used ones, whether
+ * or not the filesystem keeps access times.  The journal is closed when the
+ * monitor is disposed of or the JVM exits; after a crash, the cache
+ * directory is walked again for files the journal missed.
  *
  * @author Paul J. Lucas [paul@lightcrafts.com]
  */
@@ -22,33 +29,41 @@ final class FileCacheMonitor extends Thread {
 
     /**
      * Monitor the owning {@link FileCache}'s size: if it becomes greater than
-     * its capacity, remove files having the oldest access times.
+     * its capacity, remove the least recently used files.
      */
     @SuppressWarnings({"ConstantConditions"})
     public void run() {
         initialize();
         while ( !m_stop ) {
-            while ( m_owningCache.getSize() > m_owningCache.getCapacity() ) {
+            while ( getSize() > m_owningCache.getCapacity() ) {
                 if ( m_stop )
                     return;
                 if ( FileCache.DEBUG )
                     System.err.println(
                         "run(): cache size = "
-                         + (m_owningCache.getSize() / (1024*1024)) + " MB"
+                         + (getSize() / (1024*1024)) + " MB"
                     );
-                final CacheFile fileToRemove = getNextFileToRemove();
-                final long size = fileToRemove.length();
-                fileToRemove.delete();
-                if ( FileCache.DEBUG )
-                    System.err.println(
-                        "run(): purging " + fileToRemove.getAbsolutePath()
-                        + ", size = " + (size / (1024 * 1024)) + " MB"
-                    );
-                m_owningCache.addToCacheSize( -size );
+                final File fileToRemove = m_journal.removeEldest();
+                if ( fileToRemove == null )
+                    break;
+                if ( !fileToRemove.exists() ) {
+                    //
+                    // Deleted behind our back, or lost in a crash: it's out
+                    // of the journal now, so just go on to the next one.
+                    //
+                    if ( FileCache.DEBUG )
+                        System.err.println(
+                            "run(): " + fileToRemove.getAbsolutePath()
+                            + " was already gone"
+                        );
+                    continue;
+                }
+                m_owningCache.evict( fileToRemove );
                 if ( FileCache.DEBUG )
                     System.err.println(
-                        "run(): cache size = "
-                        + (m_owningCache.getSize() / (1024 * 1024)) + " MB"
+                        "run(): purged " + fileToRemove.getAbsolutePath()
+                        + ", cache size = "
+                        + (getSize() / (1024 * 1024)) + " MB"
                     );
             }
             synchronized ( this ) {
@@ -65,49 +80,43 @@ final class FileCacheMonitor extends Thread {
     ////////// package ////////////////////////////////////////////////////////
 
     /**
-     * Construct a <code>FileCacheMonitor</code>.
+     * Construct a <code>FileCacheMonitor</code>.  This reads the journal of
+     * the cache directory before returning.
      *
      * @param owningCache The {@link FileCache} that is using this
      * <code>FileCacheMonitor</code>.
      */
-    FileCacheMonitor( FileCache owningCache ) {
+    FileCacheMonitor( FileCache owningCache ) throws IOException {
         super( "FileCacheMonitor" );
         setDaemon( true );
         setPriority( MIN_PRIORITY );
         m_owningCache = owningCache;
+        m_journal = new FileCacheJournal( owningCache.getCacheDirectory() );
+        m_shutdownHook =
+            new Thread( m_journal::close, "FileCacheMonitor.shutdownHook" );
+        Runtime.getRuntime().addShutdownHook( m_shutdownHook );
         start();
     }
 
     /**
-     * Add a file.  If the file is already being monitored and its last access
-     * time hasn't changed, nothing is added; if the file's last access time is
-     * different, the old entry is replaced by the new one having the current
-     * last access time.
+     * Add a file as the most recently used one.  If the file is already
+     * being monitored, its old entry is replaced by the new one having the
+     * file's current size.
      *
      * @param file The {@link File} to add.
-     * @return Returns <code>true</code> only if the file was added.
-     * @throws IOException if the file doesn't exist or its last access time
-     * could not be obtained.
      */
-    boolean addFile( File file ) throws IOException {
-        final long newLastAccessTime = FileUtil.getLastAccessTimeOf( file );
-        final String path = file.getAbsolutePath();
-        final CacheFile oldCacheFile, newCacheFile;
+    void addFile( File file ) {
+        addFile( file, file.length() );
+    }
 
-        synchronized ( m_filesByPath ) {
-            oldCacheFile = m_filesByPath.get( path );
-            if ( oldCacheFile != null &&
-                 oldCacheFile.lastAccessTime() == newLastAccessTime )
-                return false;
-            newCacheFile = new CacheFile( path, newLastAccessTime );
-            m_filesByPath.put( path, newCacheFile );
-        }
-        synchronized ( m_filesByLastAccessTime ) {
-            if ( oldCacheFile != null )
-                m_filesByLastAccessTime.remove( oldCacheFile );
-            m_filesByLastAccessTime.add( newCacheFile );
-        }
-        return true;
+    /**
+     * Add a file as the most recently used one, with the given size.
+     *
+     * @param file The {@link File} to add.
+     * @param size Its size (in bytes).
+     */
+    void addFile( File file, long size ) {
+        m_journal.put( file, size );
     }
 
     /**
@@ -115,14 +124,9 @@ final class FileCacheMonitor extends Thread {
      *
      * @see #removeFile(File)
      */
-    void clear() {
+    void clear() throws IOException {
         m_abortInitialize = true;
-        synchronized ( m_filesByLastAccessTime ) {
-            m_filesByLastAccessTime.clear();
-        }
-        synchronized ( m_filesByPath ) {
-            m_filesByPath.clear();
-        }
+        m_journal.clear();
     }
 
     /**
@@ -132,10 +136,7 @@ final class FileCacheMonitor extends Thread {
      * @return Returns <code>true</code> only if the file is being monitored.
      */
     boolean containsFile( File file ) {
-        final String path = file.getAbsolutePath();
-        synchronized ( m_filesByPath ) {
-            return m_filesByPath.containsKey( path );
-        }
+        return m_journal.contains( file );
     }
 
     /**
@@ -146,6 +147,22 @@ final class FileCacheMonitor extends Thread {
         synchronized ( this ) {
             notify();
         }
+        try {
+            Runtime.getRuntime().removeShutdownHook( m_shutdownHook );
+        }
+        catch ( IllegalStateException e ) {
+            // The JVM is exiting: the hook closes the journal.
+        }
+        m_journal.close();
+    }
+
+    /**
+     * Gets the total size of the files being monitored.
+     *
+     * @return Returns said size (in bytes).
+     */
+    long getSize() {
+        return m_journal.getSize();
     }
 
     /**
@@ -156,18 +173,17 @@ final class FileCacheMonitor extends Thread {
      * @see #clear()
      */
     boolean removeFile( File file ) {
-        final String path = file.getAbsolutePath();
-        final CacheFile cacheFile;
-        synchronized ( m_filesByPath ) {
-            cacheFile = m_filesByPath.remove( path );
-        }
-        if ( cacheFile != null ) {
-            synchronized ( m_filesByLastAccessTime ) {
-                m_filesByLastAccessTime.remove( cacheFile );
-            }
-            return true;
-        }
-        return false;
+        return m_journal.remove( file ) >= 0;
+    }
+
+    /**
+     * Note that a file has just been used, making it the most recently used
+     * one.
+     *
+     * @param file The {@link File} that was used.
+     */
+    void touchFile( File file ) {
+        m_journal.touch( file );
     }
 
     ////////// protected //////////////////////////////////////////////////////
@@ -180,11 +196,18 @@ final class FileCacheMonitor extends Thread {
     ////////// private ////////////////////////////////////////////////////////
 
     /**
-     * Initialize by creating a set of all files in the cache, totaling their
-     * sizes, and setting the cache's size to said total.
+     * Initialize a cache that has no journal yet, for instance one written
+     * by an older version, by adding all the files in the cache to the
+     * journal, ordered by their last access times.  This is also done when
+     * the journal wasn't closed the last time, since files written just
+     * before a crash may be missing from it; the files it already has keep
+     * their order.  Either way, this runs in the monitor's thread, at its
+     * low priority.
      */
     private void initialize() {
-        long totalSize = 0;
+        if ( !m_journal.isNew() && m_journal.wasClosedCleanly() )
+            return;
+        final ArrayList<CacheFile> files = new ArrayList<CacheFile>();
         final FileIterator i = new FileIterator(
             m_owningCache.getCacheDirectory(), FileCacheFilter.INSTANCE, true
         );
@@ -192,102 +215,54 @@ final class FileCacheMonitor extends Thread {
             if ( m_abortInitialize || m_stop )
                 return;
             final File file = i.next();
-            final long size = file.length();
-            if ( size > 0 )
+            if ( file.length() > 0 )
                 try {
-                    addFile( file );
-                    totalSize += size;
+                    files.add(
+                        new CacheFile(
+                            file, FileUtil.getLastAccessTimeOf( file )
+                        )
+                    );
                 }
                 catch ( IOException e ) {
                     // ignore?
                 }
         }
-        if ( totalSize > 0 )
-            m_owningCache.addToCacheSize( totalSize );
-    }
-
-    /**
-     * Gets the next {@link CacheFile} to remove.
-     *
-     * @return Returns said {@link CacheFile}.
-     */
-    private CacheFile getNextFileToRemove() {
-        while ( true ) {
-            CacheFile file;
-            synchronized ( m_filesByLastAccessTime ) {
-                file = m_filesByLastAccessTime.poll();
-            }
-            try {
-                //
-                // We have to get the file's current last access time and
-                // compare it to the stored last access time: if they're equal,
-                // the file hasn't been accessed since its cache entry was
-                // created so it really is the oldest file and thus the one to
-                // be removed.
-                //
-                final long currentLastAccessTime =
-                    FileUtil.getLastAccessTimeOf( file );
-                if ( file.lastAccessTime() == currentLastAccessTime )
-                    return file;
-                //
-                // Otherwise, the file has been accessed since its cache entry
-                // so we need to replace its existing entry with a current one
-                // and throw it back into the queue.
-                //
-                final String path = file.getAbsolutePath();
-                file = new CacheFile( path, currentLastAccessTime );
-                synchronized( m_filesByPath ) {
-                    m_filesByPath.put( path, file );
-                }
-                synchronized ( m_filesByLastAccessTime ) {
-                    m_filesByLastAccessTime.add( file );
-                }
-            }
-            catch ( IOException e ) {
-                //
-                // There was a problem getting the file's current last access
-                // time: delete the file.
-                //
-                m_owningCache.addToCacheSize( -file.length() );
-                synchronized ( m_filesByPath ) {
-                    m_filesByPath.remove( file.getAbsolutePath() );
-                }
-                file.delete();
-            }
+        Collections.sort( files, CacheFileComparator.INSTANCE );
+        try {
+            if ( !m_abortInitialize && !m_stop )
+                m_journal.addOldest( files );
+        }
+        catch ( IOException e ) {
+            System.err.println(
+                "FileCacheMonitor: can't write journal: " + e.getMessage()
+            );
         }
     }
 
     /**
      * A flag to indicate that initialization, if in progress, should abort.
      */
-    private boolean m_abortInitialize;
+    private volatile boolean m_abortInitialize;
 
     /**
-     * The set of all the files in the cache ordered only by their last access
-     * times.
+     * The files in the cache, in the order they were last used.
      */
-    private final PriorityQueue<CacheFile> m_filesByLastAccessTime =
-        new PriorityQueue<CacheFile>( 11, CacheFileComparator.INSTANCE );
+    private final FileCacheJournal m_journal;
 
     /**
-     * A map of all the files in the cache where the key is the file's absolute
-     * path and the value is the associated {@link CacheFile}.
-     * <p>
-     * This is needed so as to have only one {@link CacheFile} object for a
-     * given file on disk thereby ensuring that there will only be exactly one
-     * last access time for a given file.
+     * The {@link FileCache} that owns this <code>FileCacheMonitor</code>.
      */
-    private final HashMap<String,CacheFile> m_filesByPath =
-        new HashMap<String,CacheFile>();
+    private final FileCache m_owningCache;
 
     /**
-     * The {@link FileCache} that owns this <code>FileCacheMonitor</code>.
+     * Closes the journal when the JVM exits without this monitor having
+     * been disposed of.
      */
-    private final FileCache m_owningCache;
+    private final Thread m_shutdownHook;
 
     /**
      * A flag to indicate when this thread should stop.
      */
-    private boolean m_stop;
+    private volatile boolean m_stop;
 }
 /* vim:set et sw=4 ts=4: */
@@ -0,0 +1,787 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.filecache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A <code>ThumbnailStore</code> keeps the browser's cached data for the
+ * images of one folder in a single file: for each image, a preview and a
+ * metadata record, either of which may be absent.  This replaces thousands
+ * of small {@link FileCache} entries, which are slow to open one by one on
+ * network volumes, with one file that is scanned sequentially when it is
+ * opened and memory-mapped for reads after that.
+ * <p>
+ * The file is append-only: changing an entry appends a new record that
+ * supersedes the old one, and removing an entry appends a record with
+ * neither a preview nor metadata.  Each record carries the modification
+ * time and the length the image file had when the record was written, and
+ * a record is ignored once the image file no longer matches it.  When
+ * superseded records take more space than the live ones, the file is
+ * compacted on a background thread.
+ * <p>
+ * A file is never truncated or replaced while the store has it open: the
+ * mapping may outlive the store's use of it, since there is no unmapping a
+ * {@link MappedByteBuffer}, and Windows refuses both for a mapped file.
+ * Instead, a record length of zero after the last record marks the end of
+ * the store, and compaction writes the live records to the store's second
+ * file, which the store moves to.  The file it leaves has its header
+ * cleared, so that only one of the two files is ever valid, and is deleted
+ * if it can be.  If a compaction fails, or if the second file can't be
+ * deleted to make room for the next one, the store isn't compacted again
+ * until it's opened anew.
+ * <p>
+ * Each record is laid out as:
+ * <pre>
+ *  int    length of the rest of the record, CRC included
+ *  short  key length, followed by the key in UTF-8
+ *  long   image file modification time
+ *  long   image file length
+ *  int    metadata length or -1, followed by the metadata
+ *  int    preview length or -1, followed by the preview
+ *  int    CRC-32 of all the above, from the key length on
+ * </pre>
+ * A damaged or incomplete record at the end of the file, for instance after
+ * a crash, is marked as the end when the store is opened.
+ * <p>
+ * The header of the file holds the path of the folder, so that a store file
+ * that turns out to belong to another folder is started over rather than
+ * shared.  The size of the file is reported to the {@link FileCache} as it
+ * grows, so that store files count toward the cache's capacity.
+ *
+ * @see FileCache#getThumbnailStore(File)
+ */
+public final class ThumbnailStore {
+
+    ////////// public /////////////////////////////////////////////////////////
+
+    /**
+     * The filename extension of store files.
+     */
+    public static final String EXTENSION = ".lzs";
+
+    /**
+     * Gets the metadata record of an image.
+     *
+     * @param file The image file.
+     * @return Returns the metadata record, or <code>null</code> if there is
+     * none or if the image file changed since it was stored.
+     */
+    public byte[] getMetadata( File file ) {
+        return get( file, true );
+    }
+
+    /**
+     * Gets the preview of an image.
+     *
+     * @param file The image file.
+     * @return Returns the preview, or <code>null</code> if there is none or
+     * if the image file changed since it was stored.
+     */
+    public byte[] getPreview( File file ) {
+        return get( file, false );
+    }
+
+    /**
+     * Stores the metadata record of an image, keeping its preview if the
+     * image file hasn't changed.
+     *
+     * @param file The image file.
+     * @param metadata The metadata record.
+     * @return Returns <code>true</code> only if the record was stored.
+     */
+    public boolean putMetadata( File file, byte[] metadata ) {
+        return put( file, metadata, true );
+    }
+
+    /**
+     * Stores the preview of an image, keeping its metadata record if the
+     * image file hasn't changed.
+     *
+     * @param file The image file.
+     * @param preview The preview.
+     * @return Returns <code>true</code> only if the preview was stored.
+     */
+    public boolean putPreview( File file, byte[] preview ) {
+        return put( file, preview, false );
+    }
+
+    /**
+     * Removes the metadata record of an image.
+     *
+     * @param file The image file.
+     */
+    public void removeMetadata( File file ) {
+        put( file, null, true );
+    }
+
+    /**
+     * Removes the preview of an image.
+     *
+     * @param file The image file.
+     */
+    public void removePreview( File file ) {
+        put( file, null, false );
+    }
+
+    /**
+     * Gets the number of images that have an entry in this store.
+     */
+    public synchronized int size() {
+        return m_index.size();
+    }
+
+    ////////// package ////////////////////////////////////////////////////////
+
+    /**
+     * Opens a <code>ThumbnailStore</code>, creating its file if needed.
+     *
+     * @param file The store file.
+     * @param dir The directory of images the store is for.
+     * @param cache The {@link FileCache} to report the size of the store
+     * file to, or <code>null</code> if none.
+     */
+    ThumbnailStore( File file, File dir, FileCache cache ) throws IOException {
+        m_file = file;
+        m_otherFile = getOtherFile( file );
+        m_cache = cache;
+        final byte[] path =
+            dir.getAbsolutePath().getBytes( StandardCharsets.UTF_8 );
+        m_header = ByteBuffer.allocate( 4 + 4 + 2 + path.length );
+        m_header.putInt( MAGIC ).putInt( VERSION );
+        m_header.putShort( (short)path.length ).put( path ).flip();
+        m_headerSize = m_header.remaining();
+        m_activeFile = !hasHeader( m_file ) && hasHeader( m_otherFile ) ?
+            m_otherFile : m_file;
+        open();
+        // Whatever the other file holds is superseded.
+        getOtherFile().delete();
+    }
+
+    /**
+     * Removes all entries.  The records are left in the file up to the next
+     * compaction, which follows as soon as they are worth it.
+     */
+    synchronized void clear() throws IOException {
+        m_index.clear();
+        m_liveBytes = 0;
+        m_clearCount++;
+        setEnd( m_headerSize );
+        reportSize( true );
+        maybeCompact();
+    }
+
+    /**
+     * Gets the store file, the name the store is known by in the cache.
+     */
+    File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Checks whether the given file is one of the two files of this store.
+     */
+    boolean isFileOf( File file ) {
+        file = file.getAbsoluteFile();
+        return file.equals( m_file.getAbsoluteFile() ) ||
+               file.equals( m_otherFile.getAbsoluteFile() );
+    }
+
+    /**
+     * Closes the store file.  The store must not be used after this.
+     */
+    synchronized void close() {
+        m_closed = true;
+        closeChannel();
+    }
+
+    /**
+     * Compacts the store file now, on the calling thread, into the other
+     * file of the store.
+     */
+    void compact() throws IOException {
+        //
+        // Copy the live records as of now to a new file without holding the
+        // lock: the records before the current end only change if clear()
+        // lets them be overwritten, and then the copy is thrown away.
+        //
+        final Slot[] live;
+        final long snapshotEnd;
+        final int clearCount;
+        final FileChannel source;
+        final File target;
+        synchronized ( this ) {
+            if ( m_closed || m_compacting || !m_compactable )
+                return;
+            m_compacting = true;
+            live = m_index.values().toArray( new Slot[ m_index.size() ] );
+            snapshotEnd = m_end;
+            clearCount = m_clearCount;
+            source = m_channel;
+            target = getOtherFile();
+        }
+        final File temp = new File(
+            m_file.getParentFile(), m_file.getName() + ".tmp"
+        );
+        boolean failed = true;
+        try {
+            //
+            // The target is the file the store left the last time, which
+            // may still be mapped if it couldn't be deleted then.
+            //
+            if ( target.exists() && !target.delete() )
+                throw new IOException( "can't delete " + target );
+            try ( RandomAccessFile raf = new RandomAccessFile( temp, "rw" ) ) {
+                raf.setLength( 0 );
+                final FileChannel out = raf.getChannel();
+                writeHeader( out );
+                out.position( m_headerSize );
+                for ( Slot slot : live ) {
+                    final ByteBuffer record = ByteBuffer.allocate( slot.m_length );
+                    try {
+                        readFully( source, record, slot.m_offset );
+                    }
+                    catch ( ClosedChannelException e ) {
+                        failed = false;
+                        return;             // closed
+                    }
+                    record.flip();
+                    while ( record.hasRemaining() )
+                        out.write( record );
+                }
+                synchronized ( this ) {
+                    if ( m_closed || m_clearCount != clearCount ) {
+                        // Closed or cleared in the mean time.
+                        failed = false;
+                        return;
+                    }
+                    //
+                    // Copy whatever was appended in the mean time: records
+                    // that supersede or remove copied ones come after them,
+                    // so reading the new file gives the current index.
+                    //
+                    final ByteBuffer tail = getMap( m_end ).duplicate();
+                    tail.limit( (int)m_end ).position( (int)snapshotEnd );
+                    while ( tail.hasRemaining() )
+                        out.write( tail );
+                    out.write( ByteBuffer.allocate( 4 ) );
+                    out.force( false );
+                    raf.close();
+                    //
+                    // Clear the header of the current file before the new
+                    // one is in place, so that at no time are both valid.
+                    //
+                    writeFully( m_channel, ByteBuffer.allocate( 4 ), 0 );
+                    m_channel.force( false );
+                    try {
+                        Files.move( temp.toPath(), target.toPath() );
+                    }
+                    catch ( IOException e ) {
+                        // Carry on with the current file.
+                        writeHeader( m_channel );
+                        throw e;
+                    }
+                    final File old = m_activeFile;
+                    closeChannel();
+                    m_activeFile = target;
+                    open();
+                    old.delete();
+                    reportSize( true );
+                    failed = false;
+                }
+            }
+        }
+        finally {
+            temp.delete();
+            synchronized ( this ) {
+                m_compacting = false;
+                if ( failed )
+                    m_compactable = false;
+            }
+        }
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    /**
+     * Where a record is in the file, and what it says.
+     */
+    private static final class Slot {
+        final long m_offset;        // of the record in the file
+        final int m_length;         // of the whole record
+        final long m_time;          // image file modification time
+        final long m_fileLength;    // image file length
+        final int m_metadataOffset; // relative to m_offset, or -1
+        final int m_metadataLength;
+        final int m_previewOffset;  // relative to m_offset, or -1
+        final int m_previewLength;
+
+        Slot( long offset, int length, long time, long fileLength,
+              int metadataOffset, int metadataLength,
+              int previewOffset, int previewLength ) {
+            m_offset = offset;
+            m_length = length;
+            m_time = time;
+            m_fileLength = fileLength;
+            m_metadataOffset = metadataOffset;
+            m_metadataLength = metadataLength;
+            m_previewOffset = previewOffset;
+            m_previewLength = previewLength;
+        }
+
+        boolean matches( long time, long fileLength ) {
+            return m_time == time && m_fileLength == fileLength;
+        }
+    }
+
+    private synchronized byte[] get( File file, boolean metadata ) {
+        if ( m_closed )
+            return null;
+        final Slot slot = m_index.get( file.getAbsolutePath() );
+        if ( slot == null || !slot.matches( file.lastModified(), file.length() ) )
+            return null;
+        final int offset = metadata ? slot.m_metadataOffset : slot.m_previewOffset;
+        final int length = metadata ? slot.m_metadataLength : slot.m_previewLength;
+        if ( offset < 0 )
+            return null;
+        try {
+            final ByteBuffer buf = getMap( slot.m_offset + slot.m_length ).duplicate();
+            buf.position( (int)slot.m_offset + offset );
+            final byte[] bytes = new byte[ length ];
+            buf.get( bytes );
+            return bytes;
+        }
+        catch ( IOException e ) {
+            logError( "read", e );
+            return null;
+        }
+    }
+
+    /**
+     * Appends a record that replaces either the metadata or the preview of
+     * an image, and keeps the other part if it is still valid.
+     */
+    private synchronized boolean put( File file, byte[] bytes, boolean metadata ) {
+        if ( m_closed )
+            return false;
+        final String key = file.getAbsolutePath();
+        final long time = file.lastModified();
+        final long fileLength = file.length();
+        final Slot old = m_index.get( key );
+        if ( bytes == null && old == null )
+            return true;
+        byte[] other = null;
+        if ( old != null && old.matches( time, fileLength ) )
+            other = get( file, !metadata );
+        final byte[] metadataBytes = metadata ? bytes : other;
+        final byte[] previewBytes = metadata ? other : bytes;
+
+        final byte[] keyBytes = key.getBytes( StandardCharsets.UTF_8 );
+        final int length = 4 + 2 + keyBytes.length + 8 + 8 +
+            4 + ( metadataBytes != null ? metadataBytes.length : 0 ) +
+            4 + ( previewBytes != null ? previewBytes.length : 0 ) + 4;
+        if ( keyBytes.length > Short.MAX_VALUE ||
+             m_end + length + 4 > Integer.MAX_VALUE )
+            return false;
+
+        // The record, followed by the end marker.
+        final ByteBuffer record = ByteBuffer.allocate( length + 4 );
+        record.putInt( length - 4 );
+        record.putShort( (short)keyBytes.length );
+        record.put( keyBytes );
+        record.putLong( time );
+        record.putLong( fileLength );
+        putBytes( record, metadataBytes );
+        putBytes( record, previewBytes );
+        final CRC32 crc = new CRC32();
+        crc.update( record.array(), 4, length - 8 );
+        record.putInt( (int)crc.getValue() );
+        record.putInt( 0 );
+        record.flip();
+        try {
+            writeFully( m_channel, record, m_end );
+        }
+        catch ( IOException e ) {
+            logError( "write", e );
+            // A partial record is ignored the next time we open.
+            return false;
+        }
+        record.rewind();
+        final Slot slot = readSlot( record, m_end );
+        m_end += length;
+        m_size = Math.max( m_size, m_end + 4 );
+        update( key, slot );
+        reportSize( false );
+        maybeCompact();
+        return true;
+    }
+
+    private static void putBytes( ByteBuffer buf, byte[] bytes ) {
+        if ( bytes != null ) {
+            buf.putInt( bytes.length );
+            buf.put( bytes );
+        } else
+            buf.putInt( -1 );
+    }
+
+    /**
+     * Parses the record at the position of the given buffer, or returns
+     * <code>null</code> if it is damaged or incomplete.  The buffer is left
+     * positioned after the record.
+     */
+    private static Slot readSlot( ByteBuffer buf, long offset ) {
+        final int start = buf.position();
+        if ( buf.remaining() < 4 )
+            return null;
+        final int rest = buf.getInt();
+        if ( rest < 2 + 8 + 8 + 4 + 4 + 4 || rest > buf.remaining() )
+            return null;
+        final int length = rest + 4;
+        final int keyLength = buf.getShort();
+        if ( keyLength < 0 || 2 + keyLength + 8 + 8 + 4 + 4 + 4 > rest )
+            return null;
+        buf.position( buf.position() + keyLength );
+        final long time = buf.getLong();
+        final long fileLength = buf.getLong();
+        final int metadataLength = buf.getInt();
+        final int metadataOffset = buf.position() - start;
+        if ( metadataLength < -1 ||
+             metadataLength > start + length - buf.position() - 8 )
+            return null;
+        if ( metadataLength > 0 )
+            buf.position( buf.position() + metadataLength );
+        final int previewLength = buf.getInt();
+        final int previewOffset = buf.position() - start;
+        if ( previewLength < -1 ||
+             previewLength > start + length - buf.position() - 4 )
+            return null;
+        if ( previewLength > 0 )
+            buf.position( buf.position() + previewLength );
+        if ( buf.position() != start + length - 4 )
+            return null;
+        final int storedCrc = buf.getInt();
+        final ByteBuffer body = buf.duplicate();
+        body.position( start + 4 ).limit( start + length - 4 );
+        final CRC32 crc = new CRC32();
+        crc.update( body );
+        if ( (int)crc.getValue() != storedCrc )
+            return null;
+        return new Slot(
+            offset, length, time, fileLength,
+            metadataLength >= 0 ? metadataOffset : -1, metadataLength,
+            previewLength >= 0 ? previewOffset : -1, previewLength
+        );
+    }
+
+    private static String readKey( ByteBuffer buf, int start ) {
+        final int keyLength = buf.getShort( start + 4 );
+        final byte[] key = new byte[ keyLength ];
+        final ByteBuffer dup = buf.duplicate();
+        dup.position( start + 6 );
+        dup.get( key );
+        return new String( key, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Reads from a channel until the buffer is full.
+     *
+     * @return Returns <code>false</code> if the end of the file came first.
+     */
+    private static boolean readFully( FileChannel channel, ByteBuffer buf,
+                                      long position ) throws IOException {
+        while ( buf.hasRemaining() ) {
+            final int n = channel.read( buf, position );
+            if ( n < 0 )
+                return false;
+            position += n;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the whole buffer to a channel.
+     */
+    private static void writeFully( FileChannel channel, ByteBuffer buf,
+                                    long position ) throws IOException {
+        while ( buf.hasRemaining() )
+            position += channel.write( buf, position );
+    }
+
+    /**
+     * Puts a record in the index, or takes the image out if the record has
+     * neither metadata nor a preview.
+     */
+    private void update( String key, Slot slot ) {
+        final Slot old = slot.m_metadataOffset < 0 && slot.m_previewOffset < 0 ?
+            m_index.remove( key ) : m_index.put( key, slot );
+        if ( old != null )
+            m_liveBytes -= old.m_length;
+        if ( m_index.get( key ) == slot )
+            m_liveBytes += slot.m_length;
+    }
+
+    /**
+     * Opens the file and reads the index from it with one sequential pass
+     * over the mapped file.
+     */
+    private void open() throws IOException {
+        m_raf = new RandomAccessFile( m_activeFile, "rw" );
+        m_channel = m_raf.getChannel();
+        m_map = null;
+        m_index = new HashMap<String,Slot>();
+        m_liveBytes = 0;
+        m_size = m_channel.size();
+        if ( m_size < m_headerSize || m_size > Integer.MAX_VALUE ||
+             !checkHeader() ) {
+            writeHeader( m_channel );
+            m_size = Math.max( m_size, m_headerSize );
+            setEnd( m_headerSize );
+            return;
+        }
+        m_end = m_size;
+        final ByteBuffer buf = getMap( m_size ).duplicate();
+        buf.position( m_headerSize );
+        while ( buf.hasRemaining() ) {
+            final int start = buf.position();
+            if ( buf.remaining() >= 4 && buf.getInt( start ) == 0 ) {
+                m_end = start;
+                break;
+            }
+            final Slot slot = readSlot( buf, start );
+            if ( slot == null ) {
+                System.err.println(
+                    "ThumbnailStore: ending " + m_activeFile + " at " + start
+                );
+                setEnd( start );
+                break;
+            }
+            update( readKey( buf, start ), slot );
+        }
+    }
+
+    /**
+     * Checks that the file is a store file of this version for the same
+     * folder.
+     */
+    private boolean checkHeader() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate( m_headerSize );
+        if ( !readFully( m_channel, header, 0 ) )
+            return false;
+        header.flip();
+        return header.equals( m_header );
+    }
+
+    /**
+     * Checks that a file that isn't open is a store file of this version
+     * for the same folder.
+     */
+    private boolean hasHeader( File file ) {
+        if ( !file.isFile() )
+            return false;
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+            final ByteBuffer header = ByteBuffer.allocate( m_headerSize );
+            if ( !readFully( raf.getChannel(), header, 0 ) )
+                return false;
+            header.flip();
+            return header.equals( m_header );
+        }
+        catch ( IOException e ) {
+            return false;
+        }
+    }
+
+    private void writeHeader( FileChannel channel ) throws IOException {
+        writeFully( channel, m_header.duplicate(), 0 );
+    }
+
+    /**
+     * Ends the store at the given offset, by writing the end marker there.
+     * Whatever follows stays in the file, but is never read again.
+     */
+    private void setEnd( long end ) throws IOException {
+        writeFully( m_channel, ByteBuffer.allocate( 4 ), end );
+        m_end = end;
+        m_size = Math.max( m_size, end + 4 );
+    }
+
+    /**
+     * Gets the file of this store that isn't in use.
+     */
+    private File getOtherFile() {
+        return m_activeFile == m_file ? m_otherFile : m_file;
+    }
+
+    private static File getOtherFile( File file ) {
+        String name = file.getName();
+        if ( name.endsWith( EXTENSION ) )
+            name = name.substring( 0, name.length() - EXTENSION.length() );
+        return new File( file.getParentFile(), name + "-1" + EXTENSION );
+    }
+
+    /**
+     * Reports the size of the file to the cache, if it changed enough since
+     * it was last reported or if <code>always</code> is set.
+     */
+    private void reportSize( boolean always ) {
+        if ( m_cache == null ||
+             !always && Math.abs( m_end - m_reportedEnd ) < REPORT_GRANULARITY )
+            return;
+        m_reportedEnd = m_end;
+        m_cache.notifyAboutSizeOf( m_file, m_end );
+    }
+
+    /**
+     * Gets a mapping of the file that covers at least the given end,
+     * mapping the file again if records were appended since the last time.
+     */
+    private MappedByteBuffer getMap( long end ) throws IOException {
+        if ( m_map == null || m_map.capacity() < end ) {
+            m_map = m_channel.map( FileChannel.MapMode.READ_ONLY, 0, m_end );
+        }
+        return m_map;
+    }
+
+    /**
+     * Starts a background compaction if superseded records, and whatever is
+     * left past the end, take more space than the live ones.
+     */
+    private void maybeCompact() {
+        final long dead = m_size - m_headerSize - m_liveBytes;
+        if ( m_compacting || !m_compactable ||
+             dead < COMPACT_THRESHOLD || dead < m_liveBytes )
+            return;
+        final Thread thread = new Thread( "Thumbnail Store Compactor" ) {
+            public void run() {
+                try {
+                    compact();
+                }
+                catch ( IOException e ) {
+                    logError( "compact", e );
+                }
+            }
+        };
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MIN_PRIORITY );
+        thread.start();
+    }
+
+    private void closeChannel() {
+        m_map = null;
+        try {
+            m_raf.close();
+        }
+        catch ( IOException e ) {
+            // ignore
+        }
+    }
+
+    private void logError( String what, IOException e ) {
+        System.err.println(
+            "ThumbnailStore: can't " + what + ' ' + m_activeFile + ": " +
+            e.getMessage()
+        );
+    }
+
+    /**
+     * The first bytes of a store file: "LZTS".
+     */
+    private static final int MAGIC = 0x4C5A5453;
+
+    private static final int VERSION = 2;
+
+    /**
+     * The size of the file is reported to the cache when it has changed by
+     * this many bytes.
+     */
+    private static final long REPORT_GRANULARITY = 64 * 1024;
+
+    /**
+     * Superseded records are left alone until they take this many bytes.
+     */
+    private static final long COMPACT_THRESHOLD = 4 * 1024 * 1024;
+
+    private final File m_file;
+
+    /**
+     * The second file of the store, the one compaction alternates with.
+     */
+    private final File m_otherFile;
+
+    /**
+     * The file the store is in, either {@link #m_file} or
+     * {@link #m_otherFile}.
+     */
+    private File m_activeFile;
+
+    private final FileCache m_cache;
+
+    /**
+     * The header of the file: magic number, version and folder path.
+     */
+    private final ByteBuffer m_header;
+
+    private final int m_headerSize;
+
+    /**
+     * The size of the file when it was last reported to the cache.
+     */
+    private long m_reportedEnd;
+
+    private RandomAccessFile m_raf;
+
+    private FileChannel m_channel;
+
+    /**
+     * A read-only mapping of the file, which may not cover records appended
+     * since it was made.
+     */
+    private MappedByteBuffer m_map;
+
+    /**
+     * The live record of each image, by absolute path.
+     */
+    private Map<String,Slot> m_index;
+
+    /**
+     * The total length of the live records.
+     */
+    private long m_liveBytes;
+
+    /**
+     * The end of the last complete record, where the end marker is.
+     */
+    private long m_end;
+
+    /**
+     * The size of the file, which may go past the end.
+     */
+    private long m_size;
+
+    private boolean m_compacting;
+
+    /**
+     * Cleared when a compaction fails, so that it isn't retried after every
+     * record.
+     */
+    private boolean m_compactable = true;
+
+    /**
+     * Counts calls to {@link #clear()}, so that a compaction can tell that
+     * the records it copied are gone.
+     */
+    private int m_clearCount;
+
+    private boolean m_closed;
+}
+/* vim:set et sw=4 ts=4: */
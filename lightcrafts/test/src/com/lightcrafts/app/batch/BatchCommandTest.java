@@ -0,0 +1,91 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.app.batch;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class BatchCommandTest {
+
+    private static void assertUsage(String message, String... args) {
+        try {
+            BatchCommand.parse(args);
+            fail("parsed " + Arrays.toString(args));
+        }
+        catch (BatchCommand.UsageException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static BatchResult result(String name, BatchResult.Status status) {
+        return new BatchResult(new File(name), null, status, null, null, 0);
+    }
+
+    @Test
+    public void optionsAndFilesAreParsed() throws Exception {
+        final String dir = System.getProperty("java.io.tmpdir");
+        final BatchCommand.Arguments arguments = BatchCommand.parse(new String[]{
+            "-output", dir, "-name", "_small", "-format", "TIFF",
+            "-quality", "80", "a.jpg", "-size", "640x480", "-threads", "3",
+            "b.cr2"
+        });
+        assertEquals(new File(dir), arguments.directory);
+        assertEquals("_small", arguments.name);
+        assertEquals("tiff", arguments.format);
+        assertEquals(80, arguments.quality);
+        assertEquals(640, arguments.width);
+        assertEquals(480, arguments.height);
+        assertEquals(3, arguments.threads);
+        assertNull(arguments.template);
+        assertEquals(Arrays.asList(new File("a.jpg"), new File("b.cr2")),
+                     arguments.files);
+    }
+
+    @Test
+    public void defaultsExportJpegsHere() throws Exception {
+        final BatchCommand.Arguments arguments =
+            BatchCommand.parse(new String[]{"a.jpg"});
+        assertEquals(new File("."), arguments.directory);
+        assertEquals("", arguments.name);
+        assertEquals("jpeg", arguments.format);
+        assertEquals(-1, arguments.quality);
+        assertEquals(0, arguments.threads);
+    }
+
+    @Test
+    public void badCommandLinesAreRejected() {
+        assertUsage("no files");
+        assertUsage("no files", "-name", "x");
+        assertUsage("missing value for -quality", "a.jpg", "-quality");
+        assertUsage("unknown option: -bogus", "-bogus", "1", "a.jpg");
+        assertUsage("bad number for -threads: many", "-threads", "many", "a.jpg");
+        assertUsage("bad size: 640", "-size", "640", "a.jpg");
+        assertUsage("bad number for -size: 640xwide", "-size", "640xwide", "a.jpg");
+        assertUsage("unknown format: gif", "-format", "gif", "a.jpg");
+        assertUsage("not a folder: /no/such/folder",
+                    "-output", "/no/such/folder", "a.jpg");
+    }
+
+    @Test
+    public void badCommandLineExitsWithUsageStatus() throws Exception {
+        assertEquals(BatchCommand.USAGE, BatchCommand.run(new String[0]));
+    }
+
+    @Test
+    public void failuresAreCounted() {
+        assertEquals(0, BatchCommand.countFailures(
+            Collections.<BatchResult>emptyList()
+        ));
+        assertEquals(2, BatchCommand.countFailures(Arrays.asList(
+            result("a.jpg", BatchResult.Status.EXPORTED),
+            result("b.jpg", BatchResult.Status.FAILED),
+            result("c.jpg", BatchResult.Status.EXPORTED),
+            result("d.jpg", BatchResult.Status.CANCELED)
+        )));
+    }
+}
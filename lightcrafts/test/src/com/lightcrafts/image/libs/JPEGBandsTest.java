@@ -0,0 +1,120 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.image.libs;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JPEGBandsTest {
+
+    private static final File FILE = new File("test.jpg");
+
+    private static BufferedImage createImage(int width, int height, int type) {
+        final BufferedImage image = new BufferedImage(width, height, type);
+        final Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 3 + y) << 16 | (x ^ y) << 8 | random.nextInt(0x100));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Encodes an image, with restart markers every so many MCUs if the interval isn't zero.
+     */
+    private static byte[] encode(BufferedImage image, int restartInterval) throws IOException {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        final ImageWriteParam param = writer.getDefaultWriteParam();
+        final IIOMetadata metadata =
+                writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        if (restartInterval != 0) {
+            final String format = metadata.getNativeMetadataFormatName();
+            final IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+            final IIOMetadataNode markers =
+                    (IIOMetadataNode) root.getElementsByTagName("markerSequence").item(0);
+            final IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", Integer.toString(restartInterval));
+            markers.insertBefore(dri, markers.getFirstChild());
+            metadata.setFromTree(format, root);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        }
+        writer.dispose();
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+    /**
+     * Checks that the bands decode to the rows of the whole image, but for the rows at their
+     * edges if chroma is upsampled across them.
+     */
+    private static void assertBandsMatch(byte[] jpeg, List<JPEGBands.Band> bands, int margin)
+            throws IOException {
+        final BufferedImage whole = decode(jpeg);
+        int y = 0;
+        for (JPEGBands.Band band : bands) {
+            assertEquals(y, band.y);
+            final BufferedImage image = decode(band.jpeg);
+            assertEquals(whole.getWidth(), image.getWidth());
+            assertEquals(band.height, image.getHeight());
+            for (int row = margin; row < band.height - margin; row++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    assertEquals(whole.getRGB(x, band.y + row), image.getRGB(x, row));
+                }
+            }
+            y += band.height;
+        }
+        assertEquals(whole.getHeight(), y);
+    }
+
+    @Test
+    public void grayBandsDecodeToTheWholeImage() throws Exception {
+        final byte[] jpeg = encode(createImage(1000, 700, BufferedImage.TYPE_BYTE_GRAY), 5);
+        final List<JPEGBands.Band> bands = JPEGBands.split(jpeg, FILE, 4);
+        assertNotNull(bands);
+        assertEquals(4, bands.size());
+        assertBandsMatch(jpeg, bands, 0);
+    }
+
+    @Test
+    public void colorBandsStartAtRowsOfMCUs() throws Exception {
+        // 63 MCUs of 16 pixels per row, a row starts every 9 intervals of 7
+        final byte[] jpeg = encode(createImage(1000, 500, BufferedImage.TYPE_INT_RGB), 7);
+        final List<JPEGBands.Band> bands = JPEGBands.split(jpeg, FILE, 3);
+        assertNotNull(bands);
+        assertEquals(3, bands.size());
+        for (JPEGBands.Band band : bands) {
+            assertEquals(0, band.y % 16);
+        }
+        assertBandsMatch(jpeg, bands, 1);
+    }
+
+    @Test
+    public void imagesWithoutRestartMarkersAreNotSplit() throws Exception {
+        final byte[] jpeg = encode(createImage(256, 256, BufferedImage.TYPE_INT_RGB), 0);
+        assertNull(JPEGBands.split(jpeg, FILE, 4));
+    }
+}
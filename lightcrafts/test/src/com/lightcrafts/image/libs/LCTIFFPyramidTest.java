@@ -0,0 +1,82 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.image.libs;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+
+import static com.lightcrafts.image.types.TIFFConstants.TIFF_COMPRESSION_DEFLATE;
+import static org.junit.Assert.*;
+
+/**
+ * Writes an image pyramid and reads its levels back.  Needs the native TIFF library.
+ */
+public class LCTIFFPyramidTest {
+
+    private static BufferedImage createImage(int size) {
+        final ComponentColorModel colorModel = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB), false, false,
+                Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+        final WritableRaster raster =
+                Raster.createInterleavedRaster(DataBuffer.TYPE_USHORT, size, size, 3, null);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                for (int c = 0; c < 3; c++) {
+                    raster.setSample(x, y, c, (x * 997 + y * 31 + c * 5000) & 0xFFFF);
+                }
+            }
+        }
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    @Test
+    public void reducedLevelsKeepTheProfile() throws IOException, LCImageLibException {
+        final File file = File.createTempFile("LCTIFFPyramidTest", ".tif");
+        final ICC_Profile profile = ICC_Profile.getInstance(ColorSpace.CS_LINEAR_RGB);
+        final RenderedImage[] levels = {createImage(64), createImage(32)};
+        try {
+            final LCTIFFWriter writer = new LCTIFFWriter(file.getAbsolutePath(), 64, 64);
+            writer.setICCProfile(profile);
+            writer.setCompression(TIFF_COMPRESSION_DEFLATE);
+            writer.putImagePyramid(levels, null);
+
+            for (int level = 0; level < levels.length; level++) {
+                final LCTIFFReader.TIFFImage image =
+                        new LCTIFFReader.TIFFImage(file.getAbsolutePath(), level);
+                try {
+                    final ColorSpace colorSpace = image.getColorModel().getColorSpace();
+                    assertTrue("level " + level, colorSpace instanceof ICC_ColorSpace);
+                    assertEquals("level " + level, ColorSpace.TYPE_RGB, colorSpace.getType());
+                    // Linear, not the sRGB a TIFF without a profile is read as
+                    assertArrayEquals("level " + level,
+                                      profile.getData(ICC_Profile.icSigRedTRCTag),
+                                      ((ICC_ColorSpace) colorSpace).getProfile()
+                                              .getData(ICC_Profile.icSigRedTRCTag));
+
+                    final Raster expected = levels[level].getData();
+                    final Raster actual = image.getData();
+                    assertArrayEquals("level " + level,
+                                      expected.getPixels(0, 0, expected.getWidth(),
+                                                         expected.getHeight(), (int[]) null),
+                                      actual.getPixels(0, 0, actual.getWidth(),
+                                                       actual.getHeight(), (int[]) null));
+                } finally {
+                    image.dispose();
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.image.libs;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StripPipelineTest {
+
+    private static BufferedImage createImage(int width, int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        final WritableRaster raster = image.getRaster();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setPixel(x, y, new int[]{x & 0xff, y & 0xff, (x + y) & 0xff});
+            }
+        }
+        return image;
+    }
+
+    @Test
+    public void stripsComeInOrderWithTheImageContents() throws Exception {
+        // A BufferedImage is one tile, so strips are as high as allowed
+        final BufferedImage image = createImage(37, 1300);
+        try (StripPipeline pipeline = new StripPipeline(image, DataBuffer.TYPE_BYTE)) {
+            int nextY = 0;
+            StripPipeline.Strip strip;
+            while ((strip = pipeline.next()) != null) {
+                assertEquals(nextY, strip.y);
+                for (int y = strip.y; y < strip.y + strip.height; y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        assertArrayEquals(
+                                image.getRaster().getPixel(x, y, (int[]) null),
+                                strip.raster.getPixel(x, y, (int[]) null));
+                    }
+                }
+                nextY += strip.height;
+                pipeline.release(strip);
+            }
+            assertEquals(image.getHeight(), nextY);
+        }
+    }
+
+    /**
+     * An image that takes a while to render each strip.
+     */
+    private static BufferedImage createSlowImage(int width, int height, long millis) {
+        final BufferedImage image = createImage(width, height);
+        return new BufferedImage(image.getColorModel(), image.getRaster(), false, null) {
+            @Override
+            public WritableRaster copyData(WritableRaster outRaster) {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.copyData(outRaster);
+            }
+        };
+    }
+
+    private static int countRenderers() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("Strip Renderer") && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test(timeout = 10000)
+    public void closingEarlyStopsRendering() throws Exception {
+        final int before = countRenderers();
+        final StripPipeline pipeline =
+                new StripPipeline(createImage(16, 4000), DataBuffer.TYPE_BYTE, 64, 2, null);
+        assertNotNull(pipeline.next());
+        // One renderer waits for the strip to be released, the other for
+        // its strip to be taken
+        assertEquals(before + 2, countRenderers());
+        pipeline.close();
+        assertEquals(before, countRenderers());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void renderingFailuresReachTheEncoder() throws Exception {
+        final BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_3BYTE_BGR) {
+            @Override
+            public WritableRaster copyData(WritableRaster outRaster) {
+                throw new IllegalStateException();
+            }
+        };
+        try (StripPipeline pipeline = new StripPipeline(image, DataBuffer.TYPE_BYTE, 8, 2, null)) {
+            pipeline.next();
+        }
+    }
+
+    @Test
+    public void slowEncodingStallsTheRenderers() throws Exception {
+        try (StripPipeline pipeline =
+                     new StripPipeline(createImage(8, 2000), DataBuffer.TYPE_BYTE, 100, 2, null)) {
+            StripPipeline.Strip strip;
+            while ((strip = pipeline.next()) != null) {
+                Thread.sleep(5);
+                pipeline.release(strip);
+            }
+            assertTrue(pipeline.getRenderStallMillis() > 0);
+        }
+    }
+
+    @Test
+    public void slowRenderingStallsTheEncoder() throws Exception {
+        // 10 strips of 20ms, 2 at a time: the encoder waits at least 100ms
+        try (StripPipeline pipeline = new StripPipeline(
+                createSlowImage(8, 1000, 20), DataBuffer.TYPE_BYTE, 100, 2, null)) {
+            StripPipeline.Strip strip;
+            while ((strip = pipeline.next()) != null) {
+                pipeline.release(strip);
+            }
+            final long stall = pipeline.getEncodeStallMillis();
+            assertTrue("encode stall " + stall + "ms", stall >= 90);
+        }
+    }
+
+    @Test
+    public void stripsAreTransformedWhenRendered() throws Exception {
+        final BufferedImage image = createImage(5, 50);
+        final StripPipeline.Transform transform = raster -> new byte[][]{
+                new byte[]{(byte) raster.getMinY()}, new byte[]{(byte) raster.getHeight()}
+        };
+        try (StripPipeline pipeline =
+                     new StripPipeline(image, DataBuffer.TYPE_BYTE, 16, transform)) {
+            StripPipeline.Strip strip;
+            int index = 0;
+            while ((strip = pipeline.next()) != null) {
+                assertEquals(index++, strip.index);
+                assertEquals(strip.y, strip.parts[0][0]);
+                assertEquals(strip.height, strip.parts[1][0]);
+                pipeline.release(strip);
+            }
+            assertEquals(4, index);
+        }
+    }
+}
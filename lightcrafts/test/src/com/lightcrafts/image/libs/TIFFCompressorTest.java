@@ -0,0 +1,125 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.image.libs;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.zip.Inflater;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+
+import static com.lightcrafts.image.types.TIFFConstants.TIFF_COMPRESSION_DEFLATE;
+import static com.lightcrafts.image.types.TIFFConstants.TIFF_COMPRESSION_LZW;
+import static org.junit.Assert.*;
+
+public class TIFFCompressorTest {
+
+    /**
+     * Makes data that compresses somewhat, long enough to fill the LZW table several times.
+     */
+    private static byte[] createData(int width, int height) {
+        final Random random = new Random(42);
+        final byte[] data = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                data[y * width + x] = (byte) ((x + y) / 3 + random.nextInt(4));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Wraps a compressed strip into a grayscale TIFF file.
+     */
+    private static byte[] createTIFF(int width, int height, int compression, byte[] strip) {
+        final short[][] fields = {
+                {256, (short) width}, {257, (short) height}, {258, 8}, {259, (short) compression},
+                {262, 1}, {273, 0}, {277, 1}, {278, (short) height}, {279, 0}
+        };
+        final int dataOffset = 8 + 2 + fields.length * 12 + 4;
+        final ByteBuffer buf =
+                ByteBuffer.allocate(dataOffset + strip.length).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        buf.putShort((short) fields.length);
+        for (short[] field : fields) {
+            buf.putShort(field[0]);
+            if (field[0] == 273 || field[0] == 279) {
+                // LONG strip offset and byte count
+                buf.putShort((short) 4).putInt(1).putInt(field[0] == 273 ? dataOffset : strip.length);
+            } else {
+                // SHORT, left-justified in the value field
+                buf.putShort((short) 3).putInt(1).putShort(field[1]).putShort((short) 0);
+            }
+        }
+        buf.putInt(0);
+        buf.put(strip);
+        return buf.array();
+    }
+
+    private static byte[] decodeWithImageIO(int width, int height, int compression, byte[] strip)
+            throws Exception {
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(
+                createTIFF(width, height, compression, strip)));
+        assertNotNull(image);
+        return (byte[]) image.getRaster().getDataElements(0, 0, width, height, null);
+    }
+
+    @Test
+    public void lzwIsReadableByOtherDecoders() throws Exception {
+        final int width = 600;
+        final int height = 400;
+        final byte[] data = createData(width, height);
+        final byte[] compressed = TIFFCompressor.compress(TIFF_COMPRESSION_LZW, data);
+        assertTrue(compressed.length < data.length);
+        assertArrayEquals(data, decodeWithImageIO(width, height, TIFF_COMPRESSION_LZW, compressed));
+    }
+
+    @Test
+    public void lzwOfShortRuns() throws Exception {
+        for (int width = 1; width < 40; width++) {
+            final byte[] data = createData(width, 1);
+            final byte[] compressed = TIFFCompressor.compress(TIFF_COMPRESSION_LZW, data);
+            assertArrayEquals(data, decodeWithImageIO(width, 1, TIFF_COMPRESSION_LZW, compressed));
+        }
+    }
+
+    @Test
+    public void deflateIsZlib() throws Exception {
+        final byte[] data = createData(300, 200);
+        final byte[] compressed = TIFFCompressor.compress(TIFF_COMPRESSION_DEFLATE, data);
+
+        final Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        final byte[] inflated = new byte[data.length];
+        assertEquals(data.length, inflater.inflate(inflated));
+        assertTrue(inflater.finished());
+        inflater.end();
+        assertArrayEquals(data, inflated);
+    }
+
+    @Test
+    public void samplesArePaddedWithZeros() {
+        final WritableRaster raster = Raster.createInterleavedRaster(
+                DataBuffer.TYPE_BYTE, 3, 2, 1, null);
+        raster.setDataElements(0, 0, 3, 2, new byte[]{1, 2, 3, 4, 5, 6});
+        assertArrayEquals(
+                new byte[]{2, 3, 0, 0, 5, 6, 0, 0, 0, 0, 0, 0},
+                TIFFCompressor.getSamples(raster, 1, 0, 2, 2, 4, 3));
+    }
+
+    @Test
+    public void shortSamplesAreInNativeOrder() {
+        final WritableRaster raster = Raster.createInterleavedRaster(
+                DataBuffer.TYPE_USHORT, 2, 1, 1, null);
+        raster.setDataElements(0, 0, 2, 1, new short[]{0x0102, 0x0304});
+        final ByteBuffer expected = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
+        expected.putShort((short) 0x0102).putShort((short) 0x0304);
+        assertArrayEquals(expected.array(), TIFFCompressor.getSamples(raster, 0, 0, 2, 1, 2, 1));
+    }
+}
@@ -0,0 +1,148 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.opimage;
+
+import com.lightcrafts.model.Contour;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CloneOpImageTest {
+
+    private static final int SIZE = ContourMask.TILE_SIZE;
+
+    private static WritableRaster createRaster(int x, int y, int width, int height, int seed) {
+        final WritableRaster raster = Raster.createInterleavedRaster(
+                DataBuffer.TYPE_USHORT, width, height, 3, new Point(x, y));
+        for (int j = y; j < y + height; j++)
+            for (int i = x; i < x + width; i++)
+                for (int c = 0; c < 3; c++)
+                    raster.setSample(i, j, c, (i * 131 + j * 71 + c * 1000 + seed) & 0xFFFF);
+        return raster;
+    }
+
+    private static byte[] coverage(int value) {
+        final byte[] coverage = new byte[SIZE * SIZE];
+        Arrays.fill(coverage, (byte) value);
+        return coverage;
+    }
+
+    @Test
+    public void fullCoverageCopiesTheSource() {
+        final WritableRaster dest = createRaster(512, 0, 64, 64, 0);
+        final Raster src = createRaster(400, 10, 64, 64, 7);
+        final Rectangle area = new Rectangle(520, 20, 30, 30);
+        CloneOpImage.blend(dest, src, coverage(0xFF), 512, 0, area, 112, -10);
+
+        for (int y = 0; y < 64; y++)
+            for (int x = 512; x < 576; x++)
+                for (int c = 0; c < 3; c++) {
+                    final int expected = area.contains(x, y)
+                                         ? src.getSample(x - 112, y + 10, c)
+                                         : createRaster(512, 0, 64, 64, 0).getSample(x, y, c);
+                    assertEquals(expected, dest.getSample(x, y, c));
+                }
+    }
+
+    @Test
+    public void partialCoverageBlendsLikeNormalMode() {
+        final WritableRaster dest = createRaster(0, 0, 16, 16, 0);
+        final Raster src = createRaster(0, 0, 16, 16, 12345);
+        final Raster before = createRaster(0, 0, 16, 16, 0);
+        final byte[] coverage = coverage(0);
+        coverage[3 * SIZE + 5] = (byte) 0x80;
+        CloneOpImage.blend(dest, src, coverage, 0, 0, new Rectangle(0, 0, 16, 16), 0, 0);
+
+        for (int c = 0; c < 3; c++) {
+            final long opacity = 0x80 * 0x101;
+            final long expected = (opacity * src.getSample(5, 3, c)
+                                   + (0xFFFF - opacity) * before.getSample(5, 3, c) + 0x7FFF) / 0xFFFF;
+            assertEquals(expected, dest.getSample(5, 3, c));
+            assertEquals(before.getSample(6, 3, c), dest.getSample(6, 3, c));
+        }
+    }
+
+    @Test
+    public void pixelsOutsideTheSourceAreBlack() {
+        final WritableRaster dest = createRaster(0, 0, 16, 16, 0);
+        final Raster src = createRaster(0, 0, 8, 16, 7);
+        CloneOpImage.blend(dest, src, coverage(0xFF), 0, 0, new Rectangle(0, 0, 16, 16), 0, 0);
+        assertEquals(src.getSample(7, 0, 0), dest.getSample(7, 0, 0));
+        assertEquals(0, dest.getSample(8, 0, 0));
+
+        CloneOpImage.blend(dest, null, coverage(0xFF), 0, 0, new Rectangle(0, 0, 16, 16), 0, 0);
+        assertEquals(0, dest.getSample(0, 0, 0));
+    }
+
+    private static Contour ellipse(int x, int y, int width, int height, float feather) {
+        final Shape shape = new Ellipse2D.Float(x, y, width, height);
+        return new Contour() {
+            @Override
+            public Shape getOuterShape() {
+                return shape;
+            }
+
+            @Override
+            public float getWidth() {
+                return feather;
+            }
+
+            @Override
+            public Point2D getTranslation() {
+                return null;
+            }
+        };
+    }
+
+    private static int[] pixels(RenderedImage image) {
+        final Raster data = image.getData();
+        return data.getPixels(0, 0, data.getWidth(), data.getHeight(), (int[]) null);
+    }
+
+    @Test
+    public void overlappingSpotsApplyInOrder() {
+        // Small image tiles, so that the spots straddle several of them as
+        // well as the edge of the mask tiles at 512
+        final SampleModel sampleModel =
+                RasterFactory.createPixelInterleavedSampleModel(DataBuffer.TYPE_USHORT, 128, 128, 3);
+        final TiledImage source = new TiledImage(0, 0, 700, 400, 0, 0, sampleModel, null);
+        source.setData(createRaster(0, 0, 700, 400, 0));
+
+        // The spots overlap each other, and all copy from the left of the
+        // image, which none of them covers: a spot copying from the result
+        // of the ones before it copies the same pixels as from the source.
+        final List<CloneOpImage.Spot> spots = new ArrayList<CloneOpImage.Spot>();
+        spots.add(new CloneOpImage.Spot(ellipse(450, 100, 120, 100, 20), 420, 0));
+        spots.add(new CloneOpImage.Spot(ellipse(480, 150, 100, 120, 30), 400, -20));
+        spots.add(new CloneOpImage.Spot(ellipse(500, 60, 60, 200, 10), 350, 30));
+        spots.add(new CloneOpImage.Spot(ellipse(430, 230, 140, 60, 40), 380, 90));
+
+        final AffineTransform identity = new AffineTransform();
+        final CloneOpImage all = new CloneOpImage(source, spots, identity, null);
+
+        RenderedImage oneByOne = source;
+        for (CloneOpImage.Spot spot : spots)
+            oneByOne = new CloneOpImage(oneByOne, Collections.singletonList(spot), identity, null);
+
+        final int[] expected = pixels(oneByOne);
+        assertArrayEquals(expected, pixels(all));
+        assertFalse(Arrays.equals(pixels(source), expected));
+    }
+}
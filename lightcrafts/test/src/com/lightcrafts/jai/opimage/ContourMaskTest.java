@@ -0,0 +1,213 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.opimage;
+
+import com.lightcrafts.jai.utils.Functions;
+import com.lightcrafts.model.CloneContour;
+import com.lightcrafts.model.Contour;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the coverage of a feathered contour with the way LCROIShape
+ * used to rasterize it, through the blurred stroke stacks of ShapedMask,
+ * over an area that spans four tiles.
+ */
+public class ContourMaskTest {
+    private static final int SIZE = ContourMask.TILE_SIZE;
+
+    // Strokes and distances round pixels into bands a little differently
+    private static final int MAX_ERROR = 0x20;
+    private static final double MEAN_ERROR = 1;
+
+    private static CloneContour contour(final Shape shape, final float width,
+                                        final Integer version) {
+        return new CloneContour() {
+            @Override
+            public Shape getOuterShape() {
+                return shape;
+            }
+
+            @Override
+            public float getWidth() {
+                return width;
+            }
+
+            @Override
+            public Point2D getTranslation() {
+                return null;
+            }
+
+            @Override
+            public Point2D getClonePoint() {
+                return new Point2D.Double();
+            }
+
+            @Override
+            public Integer getVersion() {
+                return version;
+            }
+        };
+    }
+
+    /**
+     * The coverage ShapedMask used to compute for a contour narrow enough
+     * not to be scaled, with an identity transform: the outer shape filled
+     * with stroked bands of halving width, in rising shades of gray, and
+     * blurred.
+     */
+    private static int[][] legacyCoverage(CloneContour contour, Rectangle area) {
+        final Shape shape = contour.getOuterShape();
+        final float contourWidth = contour.getWidth();
+        final int width = (int) Math.floor(contourWidth);
+        final float padding = contour.getVersion() != null ? contourWidth / 6 : 0;
+        final float kernelWidth = contour.getVersion() != null ? padding : contourWidth / 4;
+
+        final Rectangle bounds = shape.getBounds();
+        bounds.grow(width, width);
+        final BufferedImage image =
+            new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D g2d = image.createGraphics();
+        g2d.setTransform(AffineTransform.getTranslateInstance(-bounds.x, -bounds.y));
+        g2d.setColor(Color.white);
+        g2d.fill(shape);
+
+        final List<Shape> blurs = new ArrayList<Shape>();
+        int feathering = (int) (width - 2 * padding);
+        do {
+            blurs.add(0, new BasicStroke(2 * (padding + feathering),
+                                         BasicStroke.CAP_ROUND,
+                                         BasicStroke.JOIN_ROUND).createStrokedShape(shape));
+            feathering /= 2;
+        } while (feathering > 0);
+
+        final int count = blurs.size();
+        final Area shapeArea = new Area(shape);
+        for (int n = count - 1; n >= 0; n--) {
+            final Area semiBlur = new Area(blurs.get(n));
+            semiBlur.intersect(shapeArea);
+            final float value = n / (float) (count + 1);
+            g2d.setColor(new Color(value, value, value));
+            g2d.fill(semiBlur);
+        }
+        g2d.dispose();
+
+        final float[][] blurred =
+            blur(((DataBufferByte) image.getRaster().getDataBuffer()).getData(),
+                 bounds.width, bounds.height, kernelWidth);
+
+        final int[][] coverage = new int[area.height][area.width];
+        for (int y = 0; y < area.height; y++) {
+            for (int x = 0; x < area.width; x++) {
+                final int bx = area.x + x - bounds.x;
+                final int by = area.y + y - bounds.y;
+                if (bx >= 0 && by >= 0 && bx < bounds.width && by < bounds.height)
+                    coverage[y][x] = Math.round(blurred[by][bx]);
+            }
+        }
+        return coverage;
+    }
+
+    // The separable convolution of Functions.fastGaussianBlur(), with copied borders
+    private static float[][] blur(byte[] pixels, int width, int height, double sigma) {
+        final float[] kernel = Functions.getGaussKernel(sigma).getHorizontalKernelData();
+        final int radius = kernel.length / 2;
+
+        final float[][] rows = new float[height][width];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                for (int i = -radius; i <= radius; i++) {
+                    final int sx = Math.min(Math.max(x + i, 0), width - 1);
+                    rows[y][x] += kernel[i + radius] * (pixels[y * width + sx] & 0xff);
+                }
+
+        final float[][] result = new float[height][width];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                for (int i = -radius; i <= radius; i++) {
+                    final int sy = Math.min(Math.max(y + i, 0), height - 1);
+                    result[y][x] += kernel[i + radius] * rows[sy][x];
+                }
+        return result;
+    }
+
+    private static int[][] coverage(ContourMask mask, Rectangle area) {
+        final int[][] coverage = new int[area.height][area.width];
+        for (int y = 0; y < area.height; y++) {
+            for (int x = 0; x < area.width; x++) {
+                final int ix = area.x + x;
+                final int iy = area.y + y;
+                final byte[] tile = mask.getTile(Math.floorDiv(ix, SIZE), Math.floorDiv(iy, SIZE));
+                if (tile != null)
+                    coverage[y][x] = tile[Math.floorMod(iy, SIZE) * SIZE + Math.floorMod(ix, SIZE)] & 0xff;
+            }
+        }
+        return coverage;
+    }
+
+    private static void assertMatchesLegacyCoverage(CloneContour contour) {
+        final ContourMask mask = new ContourMask(contour, new AffineTransform());
+
+        final Rectangle area = new Rectangle(SIZE - 180, SIZE - 130, 360, 260);
+        final int[][] expected = legacyCoverage(contour, area);
+        final int[][] actual = coverage(mask, area);
+
+        long totalError = 0;
+        for (int y = 0; y < area.height; y++) {
+            for (int x = 0; x < area.width; x++) {
+                final int error = Math.abs(expected[y][x] - actual[y][x]);
+                totalError += error;
+                assertTrue("at " + (area.x + x) + "," + (area.y + y) + ": "
+                           + expected[y][x] + " vs " + actual[y][x],
+                           error <= MAX_ERROR);
+            }
+        }
+        assertTrue("mean error " + totalError / (double) (area.width * area.height),
+                   totalError <= MEAN_ERROR * area.width * area.height);
+    }
+
+    @Test
+    public void featheredCoverageMatchesTheBlurredStrokes() {
+        // An ellipse around the corner shared by four tiles
+        assertMatchesLegacyCoverage(
+            contour(new Ellipse2D.Float(SIZE - 150, SIZE - 100, 300, 200), 20, null)
+        );
+    }
+
+    @Test
+    public void paddedCoverageMatchesTheBlurredStrokes() {
+        assertMatchesLegacyCoverage(
+            contour(new Ellipse2D.Float(SIZE - 150, SIZE - 100, 300, 200), 24, 1)
+        );
+    }
+
+    @Test
+    public void tilesMeetWithoutSeams() {
+        final Contour contour =
+            contour(new Ellipse2D.Float(SIZE - 150, SIZE - 100, 300, 200), 20, null);
+        final ContourMask mask = new ContourMask(contour, new AffineTransform());
+
+        // Shifted by half a tile, the same contour falls within one tile
+        final AffineTransform shift = AffineTransform.getTranslateInstance(-SIZE / 2, -SIZE / 2);
+        final ContourMask shifted = new ContourMask(contour, shift);
+
+        final Rectangle area = new Rectangle(SIZE - 180, SIZE - 130, 360, 260);
+        final int[][] expected = coverage(
+            shifted, new Rectangle(area.x - SIZE / 2, area.y - SIZE / 2, area.width, area.height)
+        );
+        final int[][] actual = coverage(mask, area);
+        for (int y = 0; y < area.height; y++)
+            assertArrayEquals("row " + (area.y + y), expected[y], actual[y]);
+    }
+}
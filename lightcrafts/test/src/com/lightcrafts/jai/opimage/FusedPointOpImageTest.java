@@ -0,0 +1,126 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.opimage;
+
+import org.junit.Test;
+
+import javax.media.jai.JAI;
+import javax.media.jai.LookupTableJAI;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.TiledImage;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.renderable.ParameterBlock;
+
+import static org.junit.Assert.*;
+
+public class FusedPointOpImageTest {
+
+    private static LookupTableJAI table(int bands, int scale, int shift) {
+        final short[][] data = new short[bands][0x10000];
+        for (int b = 0; b < bands; b++)
+            for (int i = 0; i < 0x10000; i++)
+                data[b][i] = (short) Math.min(0xFFFF, i * (scale + b) + shift);
+        return new LookupTableJAI(data, 0, true);
+    }
+
+    @Test
+    public void composedTablesLookUpInSequence() {
+        final LookupTableJAI first = table(3, 2, 100);
+        final LookupTableJAI second = table(1, 1, 3000);
+        final LookupTableJAI composed = FusedPointOpImage.compose(first, second);
+        assertNotNull(composed);
+        assertEquals(3, composed.getNumBands());
+        for (int b = 0; b < 3; b++)
+            for (int i = 0; i < 0x10000; i += 7)
+                assertEquals(second.lookup(0, first.lookup(b, i)), composed.lookup(b, i));
+    }
+
+    @Test
+    public void partialTablesAreNotComposed() {
+        final short[] data = new short[256];
+        final LookupTableJAI partial = new LookupTableJAI(data, 0, true);
+        assertNull(FusedPointOpImage.compose(table(1, 1, 0), partial));
+        assertNull(FusedPointOpImage.compose(table(2, 1, 0), table(3, 1, 0)));
+    }
+
+    private static TiledImage source(int width, int height, int tileSize) {
+        final SampleModel sampleModel = RasterFactory.createPixelInterleavedSampleModel(
+                DataBuffer.TYPE_USHORT, tileSize, tileSize, 3);
+        final TiledImage image = new TiledImage(0, 0, width, height, 0, 0, sampleModel, null);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                for (int b = 0; b < 3; b++)
+                    image.setSample(x, y, b, (x * 331 + y * 97 + b * 12345) & 0xFFFF);
+        return image;
+    }
+
+    private static void assertSameTiles(PlanarImage expected, PlanarImage actual) {
+        assertEquals(expected.getBounds(), actual.getBounds());
+        for (int tileY = expected.getMinTileY(); tileY <= expected.getMaxTileY(); tileY++)
+            for (int tileX = expected.getMinTileX(); tileX <= expected.getMaxTileX(); tileX++) {
+                final Rectangle rect = expected.getTileRect(tileX, tileY);
+                final Raster e = expected.getTile(tileX, tileY);
+                final Raster a = actual.getTile(tileX, tileY);
+                assertArrayEquals("tile " + tileX + "," + tileY,
+                                  e.getPixels(rect.x, rect.y, rect.width, rect.height, (int[]) null),
+                                  a.getPixels(rect.x, rect.y, rect.width, rect.height, (int[]) null));
+            }
+    }
+
+    @Test
+    public void fusedChainComputesTheSameTiles() {
+        // Not a multiple of the tile size, so that there are partial tiles
+        final TiledImage source = source(200, 150, 64);
+
+        final RenderedOp lookup = JAI.create("lookup", source, table(3, 2, 100));
+
+        final ParameterBlock pb = new ParameterBlock();
+        pb.addSource(lookup);
+        pb.add(new double[][]{
+                {0.6, 0.3, 0.1, 50},
+                {0.2, 0.7, 0.1, 0},
+                {0.1, 0.2, 0.8, -30}
+        });
+        final RenderedOp bandCombine = JAI.create("BandCombine", pb);
+
+        final PlanarImage tail = new LCBandCombineOpImage(bandCombine, null, null, new double[][]{
+                {1.1, -0.05, -0.05, 0},
+                {-0.1, 1.2, -0.1, 100},
+                {0, 0, 0.9, 0}
+        });
+
+        final PlanarImage fused = FusedPointOpImage.fuse(tail, null, image -> null, null);
+        assertNotNull(fused);
+        assertSame(source, fused.getSourceImage(0));
+        assertSameTiles(tail, fused);
+    }
+
+    @Test
+    public void fusedChainStartsFromItsInput() {
+        final TiledImage source = source(100, 70, 32);
+        final RenderedOp first = JAI.create("lookup", source, table(3, 1, 10));
+
+        final ParameterBlock pb = new ParameterBlock();
+        pb.addSource(first);
+        pb.add(new double[][]{
+                {0.5, 0.5, 0, 0},
+                {0, 0.5, 0.5, 0},
+                {0.5, 0, 0.5, 0}
+        });
+        final RenderedOp second = JAI.create("BandCombine", pb);
+        final RenderedOp third = JAI.create("lookup", second, table(1, 2, 7));
+
+        final PlanarImage fused = FusedPointOpImage.fuse(third, first, image -> null, null);
+        assertNotNull(fused);
+        assertSame(first, fused.getSourceImage(0));
+        assertSameTiles(third, fused);
+
+        // A single operation isn't worth fusing
+        assertNull(FusedPointOpImage.fuse(third, second, image -> null, null));
+    }
+}
@@ -0,0 +1,74 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.opimage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the Java highlight recovery loop, used when the native library is missing.
+ */
+public class HighlightRecoveryOpImageTest {
+    private static final int[] BANDS = {0, 1, 2};
+    private static final float[] NO_WHITE_BALANCE = {1, 1, 1};
+
+    private static final float[][] csMatrix = {
+        {1.2f, -0.1f, -0.1f},
+        {-0.05f, 1.1f, -0.05f},
+        {0.0f, -0.2f, 1.2f}
+    };
+
+    private static int[] recover(float[] preMul, float[][] matrix, int... rgb) {
+        final short[] src = new short[rgb.length];
+        for (int i = 0; i < rgb.length; i++)
+            src[i] = (short) rgb[i];
+        final short[] dst = new short[rgb.length];
+        HighlightRecoveryOpImage.recover(src, BANDS, 3, rgb.length,
+                                         dst, BANDS, 3, rgb.length,
+                                         rgb.length / 3, 1, preMul, matrix);
+        final int[] result = new int[dst.length];
+        for (int i = 0; i < dst.length; i++)
+            result[i] = dst[i] & 0xffff;
+        return result;
+    }
+
+    @Test
+    public void unclippedPixelsOnlyGetTheColorMatrix() {
+        final int r = 30000, g = 20000, b = 10000;
+        final int[] result = recover(NO_WHITE_BALANCE, csMatrix, r, g, b);
+        for (int i = 0; i < 3; i++)
+            assertEquals((int) (csMatrix[i][0] * r + csMatrix[i][1] * g + csMatrix[i][2] * b),
+                         result[i]);
+    }
+
+    @Test
+    public void clippedPixelsMoveTowardTheirLuminance() {
+        final float[][] identity = {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
+        final int r = 65000, g = 40000, b = 20000;
+        final int[] result = recover(NO_WHITE_BALANCE, identity, r, g, b);
+
+        // Less saturated, about as bright
+        assertTrue(result[0] < r);
+        assertTrue(result[2] > b);
+        assertTrue(result[0] - result[2] < r - b);
+        assertEquals((r + g + b) / 3.0, (result[0] + result[1] + result[2]) / 3.0, 2);
+    }
+
+    @Test
+    public void whiteBalanceDecidesWhatIsClipped() {
+        final float[][] identity = {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
+        final int[] unbalanced = recover(NO_WHITE_BALANCE, identity, 52000, 50000, 20000);
+        assertArrayEquals(new int[]{52000, 50000, 20000}, unbalanced);
+
+        final int[] balanced = recover(new float[]{1.2f, 1, 1}, identity, 52000, 50000, 20000);
+        assertTrue(balanced[0] < 52000);
+    }
+
+    @Test
+    public void grayStaysGray() {
+        final int[] result = recover(NO_WHITE_BALANCE, new float[][]{{1, 0, 0}, {0, 1, 0}, {0, 0, 1}},
+                                     60000, 60000, 60000, 65535, 65535, 65535);
+        assertArrayEquals(new int[]{60000, 60000, 60000, 65535, 65535, 65535}, result);
+    }
+}
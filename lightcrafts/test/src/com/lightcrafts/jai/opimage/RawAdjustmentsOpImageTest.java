@@ -0,0 +1,79 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.opimage;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RawAdjustmentsOpImageTest {
+    private static final int WIDTH = 67;
+    private static final int HEIGHT = 13;
+
+    private static final float[][] cameraRGB = {
+        {1.7f, -0.5f, -0.2f},
+        {-0.2f, 1.5f, -0.3f},
+        {0.05f, -0.6f, 1.55f}
+    };
+
+    /**
+     * The loop as it was written originally, interleaved RGB only.
+     */
+    private static void reference(short[] srcData, int srcLineStride, short[] dstData, int dstLineStride,
+                                  float c) {
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                int r = 0xffff & srcData[3 * col + row * srcLineStride];
+                int g = 0xffff & srcData[3 * col + row * srcLineStride + 1];
+                int b = 0xffff & srcData[3 * col + row * srcLineStride + 2];
+
+                float r1 = cameraRGB[0][0] * r + cameraRGB[0][1] * g + cameraRGB[0][2] * b;
+                float g1 = cameraRGB[1][0] * r + cameraRGB[1][1] * g + cameraRGB[1][2] * b;
+                float b1 = cameraRGB[2][0] * r + cameraRGB[2][1] * g + cameraRGB[2][2] * b;
+
+                if (c < 1 && (g1 > 0xffff || r1 > 0xffff || b1 > 0xffff)) {
+                    float gs = Math.min(g1, 0xffff);
+                    r1 = c * (g1 - (gs - Math.min(r1, 0xffff)));
+                    b1 = c * (g1 - (gs - Math.min(b1, 0xffff)));
+                } else {
+                    r1 *= c;
+                    b1 *= c;
+                }
+                g1 *= c;
+
+                dstData[3 * col + row * dstLineStride] = (short) (r1 < 0 ? 0 : r1 > 0xffff ? 0xffff : (int) r1);
+                dstData[3 * col + row * dstLineStride + 1] = (short) (g1 < 0 ? 0 : g1 > 0xffff ? 0xffff : (int) g1);
+                dstData[3 * col + row * dstLineStride + 2] = (short) (b1 < 0 ? 0 : b1 > 0xffff ? 0xffff : (int) b1);
+            }
+        }
+    }
+
+    private static void assertMatchesReference(float exposureCompensation) {
+        final int srcLineStride = 3 * WIDTH + 6;
+        final short[] src = new short[srcLineStride * HEIGHT];
+        final Random random = new Random(7);
+        for (int i = 0; i < src.length; i++)
+            src[i] = (short) random.nextInt(0x10000);
+
+        final short[] expected = new short[3 * WIDTH * HEIGHT];
+        reference(src, srcLineStride, expected, 3 * WIDTH, exposureCompensation);
+
+        final short[] actual = new short[3 * WIDTH * HEIGHT];
+        RawAdjustmentsOpImage.adjust(src, new int[]{0, 1, 2}, 3, srcLineStride,
+                                     actual, new int[]{0, 1, 2}, 3, 3 * WIDTH,
+                                     WIDTH, HEIGHT, cameraRGB, exposureCompensation);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void matchesTheReferenceWithHighlightRecovery() {
+        assertMatchesReference(0.7f);
+    }
+
+    @Test
+    public void matchesTheReferenceWithoutHighlightRecovery() {
+        assertMatchesReference(1.3f);
+    }
+}
@@ -0,0 +1,236 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import org.junit.Test;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.JAI;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.SourcelessOpImage;
+import javax.media.jai.TileComputationListener;
+import javax.media.jai.TileRequest;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hammers LCTileScheduler with concurrent blocking, non-blocking, prefetch
+ * and cancel calls.  A deadlock shows up as a timeout.
+ */
+public class LCTileSchedulerTest {
+    private static final int TILE_SIZE = 64;
+    private static final int NUM_TILES = 16;
+    private static final int NUM_THREADS = 16;
+    private static final int NUM_ROUNDS = 50;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    /**
+     * A 16 bit image whose tiles take a little while to compute and whose
+     * pixels encode the tile indices.
+     */
+    private static class SlowImage extends SourcelessOpImage {
+        final AtomicInteger computed = new AtomicInteger();
+
+        SlowImage(LCTileScheduler scheduler) {
+            super(layout(),
+                  new RenderingHints(JAI.KEY_TILE_SCHEDULER, scheduler),
+                  sampleModel(), 0, 0,
+                  NUM_TILES * TILE_SIZE, NUM_TILES * TILE_SIZE);
+            // No cache, so that concurrent getTile() calls really meet in
+            // the scheduler
+            setTileCache(null);
+        }
+
+        private static SampleModel sampleModel() {
+            return RasterFactory.createPixelInterleavedSampleModel(
+                    DataBuffer.TYPE_USHORT, TILE_SIZE, TILE_SIZE, 1);
+        }
+
+        private static ImageLayout layout() {
+            ImageLayout layout = new ImageLayout();
+            layout.setTileWidth(TILE_SIZE);
+            layout.setTileHeight(TILE_SIZE);
+            layout.setSampleModel(sampleModel());
+            return layout;
+        }
+
+        @Override
+        protected void computeRect(PlanarImage[] sources, WritableRaster dest,
+                                   Rectangle destRect) {
+            computed.incrementAndGet();
+            final int value = XToTileX(destRect.x) * NUM_TILES + YToTileY(destRect.y);
+            for (int y = destRect.y; y < destRect.y + destRect.height; y++) {
+                for (int x = destRect.x; x < destRect.x + destRect.width; x++) {
+                    dest.setSample(x, y, 0, value);
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    private static class CountingListener implements TileComputationListener {
+        final AtomicInteger computed = new AtomicInteger();
+        final AtomicInteger cancelled = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        @Override
+        public void tileComputed(Object eventSource, TileRequest[] requests,
+                                 PlanarImage image, int tileX, int tileY,
+                                 Raster tile) {
+            computed.incrementAndGet();
+        }
+
+        @Override
+        public void tileCancelled(Object eventSource, TileRequest[] requests,
+                                  PlanarImage image, int tileX, int tileY) {
+            cancelled.incrementAndGet();
+        }
+
+        @Override
+        public void tileComputationFailure(Object eventSource,
+                                           TileRequest[] requests,
+                                           PlanarImage image, int tileX,
+                                           int tileY, Throwable situation) {
+            failed.incrementAndGet();
+        }
+
+        int total() {
+            return computed.get() + cancelled.get() + failed.get();
+        }
+    }
+
+    private static Point[] allTiles() {
+        List<Point> tiles = new ArrayList<Point>();
+        for (int y = 0; y < NUM_TILES; y++) {
+            for (int x = 0; x < NUM_TILES; x++) {
+                tiles.add(new Point(x, y));
+            }
+        }
+        Collections.shuffle(tiles);
+        return tiles.toArray(new Point[tiles.size()]);
+    }
+
+    private static void checkTile(Raster tile, Point p) {
+        assertNotNull(tile);
+        assertEquals(p.x * NUM_TILES + p.y,
+                     tile.getSample(tile.getMinX(), tile.getMinY(), 0));
+    }
+
+    @Test
+    public void blockingTilesAreComputed() throws Exception {
+        final LCTileScheduler scheduler = new LCTileScheduler();
+        scheduler.setParallelism(4);
+        final SlowImage image = new SlowImage(scheduler);
+        final Point[] indices = allTiles();
+
+        final Raster[] tiles = scheduler.scheduleTiles(image, indices);
+
+        assertEquals(indices.length, tiles.length);
+        for (int i = 0; i < indices.length; i++) {
+            checkTile(tiles[i], indices[i]);
+        }
+    }
+
+    @Test
+    public void cancelledTilesAreDropped() throws Exception {
+        final LCTileScheduler scheduler = new LCTileScheduler();
+        scheduler.setParallelism(1);
+        final SlowImage image = new SlowImage(scheduler);
+        final CountingListener listener = new CountingListener();
+        final Point[] indices = allTiles();
+
+        final TileRequest request = scheduler.scheduleTiles(
+                image, indices, new TileComputationListener[] {listener});
+        scheduler.cancelTiles(request, null);
+
+        final long deadline = System.currentTimeMillis() + 1000 * TIMEOUT_SECONDS;
+        while (listener.total() < indices.length) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(0, listener.failed.get());
+        assertTrue(listener.cancelled.get() > 0);
+        assertTrue(scheduler.getDroppedJobCount() > 0);
+        // Cancelled tiles never get computed
+        assertEquals(listener.computed.get(), image.computed.get());
+    }
+
+    @Test
+    public void concurrentScheduleAndCancelDoesNotDeadlock() throws Exception {
+        final LCTileScheduler scheduler = new LCTileScheduler();
+        scheduler.setParallelism(Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        final CountingListener listener = new CountingListener();
+        final AtomicInteger requested = new AtomicInteger();
+
+        for (int t = 0; t < NUM_THREADS; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    LCTileScheduler.Lane[] lanes = LCTileScheduler.Lane.values();
+                    LCTileScheduler.setLane(lanes[thread % lanes.length]);
+                    for (int round = 0; round < NUM_ROUNDS; round++) {
+                        // Fresh images so that the tiles really get computed
+                        final SlowImage image = new SlowImage(scheduler);
+                        final Point[] indices = allTiles();
+                        switch ((thread + round) % 3) {
+                            case 0:
+                                Raster[] tiles = scheduler.scheduleTiles(image, indices);
+                                for (int i = 0; i < indices.length; i++) {
+                                    checkTile(tiles[i], indices[i]);
+                                }
+                                break;
+                            case 1:
+                                requested.addAndGet(indices.length);
+                                TileRequest request = scheduler.scheduleTiles(
+                                        image, indices,
+                                        new TileComputationListener[] {listener});
+                                Point[] half = new Point[indices.length / 2];
+                                System.arraycopy(indices, 0, half, 0, half.length);
+                                scheduler.cancelTiles(request, half);
+                                break;
+                            default:
+                                scheduler.prefetchTiles(image, indices);
+                                checkTile(image.getTile(0, 0), new Point(0, 0));
+                        }
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+        assertTrue("deadlock?",
+                   executor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (Future<?> future : futures) {
+            // Rethrows any assertion failure from the workers
+            future.get();
+        }
+
+        // Every tile of a non-blocking request is either computed or
+        // cancelled, exactly once.
+        final long deadline = System.currentTimeMillis() + 1000 * TIMEOUT_SECONDS;
+        while (listener.total() < requested.get()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(requested.get(), listener.total());
+        assertEquals(0, listener.failed.get());
+    }
+}
@@ -0,0 +1,66 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TileSpillCodecTest {
+    private static final int SIZE = 256;
+    private static final int BANDS = 3;
+
+    /** A smooth gradient with some noise, like a photograph. */
+    private static short[] photoTile() {
+        final Random random = new Random(42);
+        final short[] data = new short[SIZE * SIZE * BANDS];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                for (int b = 0; b < BANDS; b++) {
+                    data[(y * SIZE + x) * BANDS + b] =
+                            (short) (x * 97 + y * 61 + b * 5000 + random.nextInt(64));
+                }
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void shortTileRoundTrip() throws Exception {
+        final short[] data = photoTile();
+        final byte[] packed = TileSpillCodec.encode(data, BANDS, SIZE * BANDS);
+        assertNotNull(packed);
+        assertTrue(packed.length < data.length);
+
+        final short[] decoded = new short[data.length];
+        TileSpillCodec.decode(ByteBuffer.wrap(packed), decoded, BANDS, SIZE * BANDS);
+        assertArrayEquals(data, decoded);
+    }
+
+    @Test
+    public void byteTileRoundTrip() throws Exception {
+        final byte[] data = new byte[SIZE * SIZE * BANDS];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / BANDS % SIZE);
+        }
+        final byte[] packed = TileSpillCodec.encode(data, BANDS, SIZE * BANDS);
+        assertNotNull(packed);
+
+        final byte[] decoded = new byte[data.length];
+        TileSpillCodec.decode(ByteBuffer.wrap(packed), decoded, BANDS, SIZE * BANDS);
+        assertArrayEquals(data, decoded);
+    }
+
+    @Test
+    public void noiseDoesNotCompress() {
+        final Random random = new Random(42);
+        final short[] data = new short[SIZE * SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) random.nextInt();
+        }
+        assertNull(TileSpillCodec.encode(data, 1, SIZE));
+    }
+}
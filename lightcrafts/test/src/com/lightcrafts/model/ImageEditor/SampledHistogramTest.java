@@ -0,0 +1,68 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.model.ImageEditor;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampledHistogramTest {
+
+    private static BufferedImage createImage(int width, int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+        final WritableRaster raster = image.getRaster();
+        final Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setSample(x, y, 0, (x * y + random.nextInt(0x1000)) & 0xffff);
+            }
+        }
+        return image;
+    }
+
+    private static int count(int[] bins) {
+        int sum = 0;
+        for (int bin : bins) {
+            sum += bin;
+        }
+        return sum;
+    }
+
+    @Test
+    public void panningMatchesAFreshHistogram() {
+        final BufferedImage image = createImage(1000, 700);
+        final SampledHistogram panned = new SampledHistogram();
+        panned.update(image, new Rectangle(0, 0, 600, 400));
+        panned.update(image, new Rectangle(350, 250, 600, 400));
+        final int[][] bins = panned.update(image, new Rectangle(200, 100, 600, 400));
+
+        final int[][] fresh = new SampledHistogram().update(image, new Rectangle(200, 100, 600, 400));
+        assertArrayEquals(fresh[0], bins[0]);
+    }
+
+    @Test
+    public void cellsAtTheEdgesAreClipped() {
+        final BufferedImage image = createImage(130, 70);
+        final int[][] bins = new SampledHistogram().update(image, new Rectangle(0, 0, 130, 70));
+        final int step = SampledHistogram.STRIDE;
+        // Only the cell whose center is in view
+        assertEquals(((70 + step - 1) / step) * (SampledHistogram.CELL_SIZE / step), count(bins[0]));
+    }
+
+    @Test
+    public void newImageStartsOver() {
+        final SampledHistogram histogram = new SampledHistogram();
+        final BufferedImage black = new BufferedImage(256, 256, BufferedImage.TYPE_USHORT_GRAY);
+        final Rectangle view = new Rectangle(0, 0, 256, 256);
+        final int[][] first = histogram.update(black, view);
+        assertEquals(count(first[0]), first[0][0]);
+
+        final BufferedImage image = createImage(256, 256);
+        assertArrayEquals(new SampledHistogram().update(image, view)[0],
+                          histogram.update(image, view)[0]);
+    }
+}
@@ -0,0 +1,192 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.ui.browser.model;
+
+import com.lightcrafts.utils.ProgressIndicator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that an ImageList moved in place, after a change of metadata or
+ * after a new file, is in the order a full sort gives, for images alone in
+ * their ImageGroup and for images in groups.  The files aren't images, so
+ * their metadata come from the files themselves, and the list is sorted by
+ * modification time.
+ */
+public class ImageListSortTest {
+    private static final long TIME = 1500000000000L;
+
+    private File dir;
+    private ImageList list;
+
+    /**
+     * Groups "x_1.jpg", "x_2.jpg" and so on with "x.jpg".
+     */
+    private static final ImageGroupProvider groups = datums -> {
+        final Map<String, ImageDatum> leaders = new HashMap<>();
+        for (ImageDatum datum : datums) {
+            datum.newGroup();
+            final String name = datum.getFile().getName();
+            if (! name.contains("_")) {
+                leaders.put(name.substring(0, name.indexOf('.')), datum);
+            }
+        }
+        for (ImageDatum datum : datums) {
+            final String name = datum.getFile().getName();
+            if (name.contains("_")) {
+                final ImageDatum leader = leaders.get(name.substring(0, name.indexOf('_')));
+                if (leader != null) {
+                    datum.setGroup(leader.getGroup());
+                }
+            }
+        }
+    };
+
+    private static final ProgressIndicator progress = new ProgressIndicator() {
+        public void incrementBy(int delta) {
+        }
+        public void setIndeterminate(boolean indeterminate) {
+        }
+        public void setMaximum(int maxValue) {
+        }
+        public void setMinimum(int minValue) {
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ImageListSortTest").toFile();
+        create("a.jpg", 5);
+        create("a_1.jpg", 9);
+        create("b.jpg", 3);
+        create("c.jpg", 7);
+        create("c_1.jpg", 1);
+        create("c_2.jpg", 8);
+        create("d.jpg", 2);
+        create("e.jpg", 6);
+
+        list = new ImageList(
+            dir, 100, null, false, ImageDatumComparator.ModificationTime, progress
+        );
+        list.setImageGroupProvider(groups);
+    }
+
+    @After
+    public void tearDown() {
+        list.stop();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private File create(String name, int minutes) throws IOException {
+        final File file = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[10]);
+        }
+        touch(file, minutes);
+        return file;
+    }
+
+    private static void touch(File file, int minutes) {
+        assertTrue(file.setLastModified(TIME + minutes * 60000L));
+    }
+
+    private ImageDatum datum(String name) {
+        for (ImageDatum datum : list.getAllImageData()) {
+            if (datum.getFile().getName().equals(name)) {
+                return datum;
+            }
+        }
+        fail("no " + name);
+        return null;
+    }
+
+    private static List<String> names(List<ImageDatum> datums) {
+        final List<String> names = new ArrayList<>();
+        for (ImageDatum datum : datums) {
+            names.add(datum.getFile().getName());
+        }
+        return names;
+    }
+
+    private void modify(String name, int minutes) {
+        final ImageDatum datum = datum(name);
+        touch(datum.getFile(), minutes);
+        datum.refresh(true);
+        list.metadataChanged(datum);
+    }
+
+    // Compares the list with the order a full sort gives
+    private void assertSorted() {
+        final List<String> order = names(list.getAllImageData());
+        list.regroup();
+        assertEquals(names(list.getAllImageData()), order);
+    }
+
+    @Test
+    public void initialOrderGroupsMembersByTheirLeaders() {
+        // Leaders by time, members newest first
+        assertEquals(
+            List.of("d.jpg", "b.jpg", "a.jpg", "a_1.jpg", "e.jpg",
+                    "c.jpg", "c_2.jpg", "c_1.jpg"),
+            names(list.getAllImageData())
+        );
+    }
+
+    @Test
+    public void ungroupedImagesMoveToTheirPlace() {
+        modify("b.jpg", 10);
+        assertSorted();
+        modify("e.jpg", 0);
+        assertSorted();
+        modify("d.jpg", 6);
+        assertSorted();
+        assertEquals(
+            List.of("e.jpg", "a.jpg", "a_1.jpg", "d.jpg", "c.jpg", "c_2.jpg",
+                    "c_1.jpg", "b.jpg"),
+            names(list.getAllImageData())
+        );
+    }
+
+    @Test
+    public void groupedImagesMoveWithTheirGroup() {
+        modify("c.jpg", 4);
+        assertSorted();
+        modify("c_1.jpg", 10);
+        assertSorted();
+        modify("a_1.jpg", 0);
+        assertSorted();
+        modify("a.jpg", 11);
+        assertSorted();
+    }
+
+    @Test
+    public void addedImagesGoToTheirPlace() throws IOException {
+        list.addFile(create("f.jpg", 4));
+        assertSorted();
+        list.addFile(create("g.jpg", 12));
+        assertSorted();
+        list.addFile(create("h.jpg", 0));
+        assertSorted();
+        // New members of a group, and of a lone image that becomes a group
+        list.addFile(create("c_3.jpg", 13));
+        assertSorted();
+        list.addFile(create("b_1.jpg", 14));
+        assertSorted();
+        assertEquals(13, list.getAllImageData().size());
+    }
+}
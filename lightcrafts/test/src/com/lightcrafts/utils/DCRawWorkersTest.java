@@ -0,0 +1,152 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the concurrency limit and the fair queueing of DCRawWorkers.  There
+ * is no fork daemon in tests, so the workers are never asked to run dcraw.
+ */
+public class DCRawWorkersTest {
+    private static final long TIMEOUT = 10000;
+
+    // Failures in the threads the tests start, checked on the test thread
+    private final List<Throwable> failures =
+        Collections.synchronizedList(new ArrayList<Throwable>());
+
+    private void assertNoFailures() {
+        if (!failures.isEmpty()) {
+            final AssertionError error = new AssertionError(
+                failures.size() + " thread(s) failed"
+            );
+            error.initCause(failures.get(0));
+            throw error;
+        }
+    }
+
+    private static void waitFor(DCRawWorkers workers, int waiting)
+        throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (workers.getWaitingCount() < waiting) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void limitIsEnforced() throws Exception {
+        final DCRawWorkers workers = new DCRawWorkers(2);
+        final DCRawWorkers.Worker a = workers.acquire(DCRaw.dcrawMode.full);
+        final DCRawWorkers.Worker b = workers.acquire(DCRaw.dcrawMode.thumb);
+        assertEquals(2, workers.getRunningCount());
+
+        final Thread waiter = new Thread(() -> {
+            try {
+                workers.release(workers.acquire(DCRaw.dcrawMode.preview));
+            }
+            catch (Throwable t) {
+                failures.add(t);
+            }
+        });
+        waiter.start();
+        waitFor(workers, 1);
+        assertEquals(2, workers.getRunningCount());
+
+        workers.release(a);
+        waiter.join(TIMEOUT);
+        assertFalse(waiter.isAlive());
+        assertNoFailures();
+        workers.release(b);
+        assertEquals(0, workers.getRunningCount());
+        assertEquals(0, workers.getWaitingCount());
+    }
+
+    @Test
+    public void queuesTakeTurns() throws Exception {
+        final DCRawWorkers workers = new DCRawWorkers(1);
+        final DCRawWorkers.Worker held = workers.acquire(DCRaw.dcrawMode.full);
+        final List<DCRaw.dcrawMode> order =
+            Collections.synchronizedList(new ArrayList<DCRaw.dcrawMode>());
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        // A burst of thumbnails, then one full decode behind them.
+        final DCRaw.dcrawMode[] modes = {
+            DCRaw.dcrawMode.thumb, DCRaw.dcrawMode.thumb,
+            DCRaw.dcrawMode.thumb, DCRaw.dcrawMode.thumb,
+            DCRaw.dcrawMode.full
+        };
+        for (int i = 0; i < modes.length; i++) {
+            final DCRaw.dcrawMode mode = modes[i];
+            final Thread thread = new Thread(() -> {
+                try {
+                    final DCRawWorkers.Worker worker = workers.acquire(mode);
+                    order.add(mode);
+                    workers.release(worker);
+                }
+                catch (Throwable t) {
+                    failures.add(t);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            waitFor(workers, i + 1);
+        }
+        workers.release(held);
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT);
+        }
+        assertNoFailures();
+        assertEquals(modes.length, order.size());
+        // The full decode doesn't wait for all the thumbnails.
+        assertTrue(order.indexOf(DCRaw.dcrawMode.full) <= 1);
+    }
+
+    @Test
+    public void interruptedWaiterLeavesTheQueue() throws Exception {
+        final DCRawWorkers workers = new DCRawWorkers(1);
+        final DCRawWorkers.Worker held = workers.acquire(DCRaw.dcrawMode.full);
+        final boolean[] interrupted = new boolean[1];
+        final Thread waiter = new Thread(() -> {
+            try {
+                workers.acquire(DCRaw.dcrawMode.thumb);
+            }
+            catch (InterruptedIOException e) {
+                interrupted[0] = true;
+            }
+        });
+        waiter.start();
+        waitFor(workers, 1);
+        waiter.interrupt();
+        waiter.join(TIMEOUT);
+
+        assertTrue(interrupted[0]);
+        assertEquals(0, workers.getWaitingCount());
+        workers.release(held);
+        assertEquals(0, workers.getRunningCount());
+    }
+
+    @Test
+    public void loweringTheLimitDropsIdleWorkers() throws Exception {
+        final DCRawWorkers workers = new DCRawWorkers(3);
+        final DCRawWorkers.Worker a = workers.acquire(DCRaw.dcrawMode.full);
+        final DCRawWorkers.Worker b = workers.acquire(DCRaw.dcrawMode.full);
+        final DCRawWorkers.Worker c = workers.acquire(DCRaw.dcrawMode.full);
+        workers.release(a);
+        workers.release(b);
+        workers.release(c);
+
+        workers.setLimit(1);
+        assertEquals(1, workers.getLimit());
+        // The one idle worker left is reused.
+        assertSame(c, workers.acquire(DCRaw.dcrawMode.thumb));
+    }
+}
@@ -0,0 +1,141 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.filecache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a FileCacheJournal gives back the files in the order they
+ * were last used after reopening, recovers from a torn record, keeps the
+ * order when files found in the cache directory are added to it and tells
+ * whether it was closed the last time.
+ */
+public class FileCacheJournalTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("FileCacheJournalTest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private File file(String name) {
+        return new File(dir, name + FileCacheFilter.EXTENSION);
+    }
+
+    private static void write(File file, int length) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[length]);
+        }
+    }
+
+    @Test
+    public void orderSurvivesReopening() throws IOException {
+        FileCacheJournal journal = new FileCacheJournal(dir);
+        assertTrue(journal.isNew());
+        journal.put(file("a"), 10);
+        journal.put(file("b"), 20);
+        journal.put(file("c"), 30);
+        journal.put(file("d"), 40);
+        assertTrue(journal.touch(file("a")));
+        assertEquals(20, journal.remove(file("b")));
+        assertFalse(journal.touch(file("b")));
+        journal.close();
+
+        journal = new FileCacheJournal(dir);
+        assertFalse(journal.isNew());
+        assertEquals(80, journal.getSize());
+        assertFalse(journal.contains(file("b")));
+        assertEquals(file("c"), journal.removeEldest());
+        assertEquals(file("d"), journal.removeEldest());
+        assertEquals(file("a"), journal.removeEldest());
+        assertNull(journal.removeEldest());
+        assertEquals(0, journal.getSize());
+        journal.close();
+    }
+
+    @Test
+    public void tornRecordIsTruncated() throws IOException {
+        FileCacheJournal journal = new FileCacheJournal(dir);
+        journal.put(file("a"), 10);
+        journal.put(file("b"), 20);
+        journal.close();
+
+        final File journalFile = new File(dir, FileCacheJournal.NAME);
+        final long length = journalFile.length();
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+            // Half of a third record.
+            raf.seek(length);
+            raf.write(new byte[]{0, 0, 0, 40, 1, 0, 9, 'c'});
+        }
+
+        journal = new FileCacheJournal(dir);
+        assertEquals(length, journalFile.length());
+        assertEquals(30, journal.getSize());
+        journal.put(file("c"), 30);
+        journal.close();
+
+        journal = new FileCacheJournal(dir);
+        assertEquals(60, journal.getSize());
+        assertTrue(journal.contains(file("c")));
+        journal.close();
+    }
+
+    @Test
+    public void filesFoundInTheDirectoryAreOldest() throws IOException {
+        write(file("old1"), 5);
+        write(file("old2"), 7);
+        write(file("a"), 3);
+
+        FileCacheJournal journal = new FileCacheJournal(dir);
+        journal.put(file("a"), 3);
+        journal.addOldest(Arrays.asList(file("old1"), file("old2"), file("a")));
+        assertEquals(15, journal.getSize());
+        journal.close();
+
+        journal = new FileCacheJournal(dir);
+        assertFalse(journal.isNew());
+        assertEquals(15, journal.getSize());
+        assertEquals(file("old1"), journal.removeEldest());
+        assertEquals(file("old2"), journal.removeEldest());
+        assertEquals(file("a"), journal.removeEldest());
+        journal.close();
+    }
+
+    @Test
+    public void uncleanShutdownIsDetected() throws IOException {
+        FileCacheJournal journal = new FileCacheJournal(dir);
+        journal.put(file("a"), 10);
+        journal.close();
+
+        journal = new FileCacheJournal(dir);
+        assertTrue(journal.wasClosedCleanly());
+        journal.put(file("b"), 20);
+        // Not closed, as after a crash: the records are on disk, the mark isn't.
+        final FileCacheJournal crashed = journal;
+
+        journal = new FileCacheJournal(dir);
+        assertFalse(journal.wasClosedCleanly());
+        assertEquals(30, journal.getSize());
+        journal.close();
+        crashed.close();
+    }
+}
@@ -0,0 +1,134 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.filecache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that ThumbnailStore files count toward the capacity of their
+ * FileCache and are cleared with it, and that the cache recovers from an
+ * unclean shutdown.
+ */
+public class FileCacheTest {
+    private File cacheDir;
+    private File imageDir;
+    private File image;
+    private FileCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("FileCacheTest").toFile();
+        imageDir = Files.createTempDirectory("FileCacheTestImages").toFile();
+        image = new File(imageDir, "image.jpg");
+        try (FileOutputStream out = new FileOutputStream(image)) {
+            out.write(new byte[100]);
+        }
+        cache = new FileCache(200 * 1024, LocalFileCacheKeyMapper.create(cacheDir));
+    }
+
+    @After
+    public void tearDown() {
+        cache.dispose();
+        for (File dir : new File[]{cacheDir, imageDir}) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private void put(String key, int length) throws IOException {
+        try (OutputStream out = cache.putToStream(key)) {
+            out.write(new byte[length]);
+        }
+    }
+
+    private static boolean await(java.util.function.BooleanSupplier condition)
+            throws InterruptedException {
+        for (int i = 0; i < 200 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        return condition.getAsBoolean();
+    }
+
+    @Test
+    public void storesCountTowardCapacity() throws Exception {
+        put("a", 100 * 1024);
+        final ThumbnailStore store = cache.getThumbnailStore(imageDir);
+        assertTrue(store.putPreview(image, new byte[150 * 1024]));
+
+        // The store is the most recently used, so the entry goes.  Polling
+        // with contains(), since getFileFor() would touch the entry.
+        assertTrue(await(() -> !cache.contains("a")));
+        assertNotNull(store.getPreview(image));
+        assertTrue(await(() -> cache.getSize() <= cache.getCapacity()));
+    }
+
+    @Test
+    public void storesAreNamedByTheirWholePath() {
+        final File one = new File(imageDir, "one");
+        final File two = new File(imageDir, "two");
+        assertNotSame(cache.getThumbnailStore(one), cache.getThumbnailStore(two));
+        assertFalse(cache.getThumbnailStore(one).getFile()
+                         .equals(cache.getThumbnailStore(two).getFile()));
+        assertSame(cache.getThumbnailStore(one), cache.getThumbnailStore(one));
+    }
+
+    @Test
+    public void clearDeletesClosedStoresAndEmptiesOpenOnes() throws IOException {
+        final File closed = new File(cacheDir, "folder-old" + ThumbnailStore.EXTENSION);
+        try (FileOutputStream out = new FileOutputStream(closed)) {
+            out.write(new byte[100]);
+        }
+        final ThumbnailStore store = cache.getThumbnailStore(imageDir);
+        store.putPreview(image, new byte[10]);
+
+        cache.clear();
+        assertFalse(closed.exists());
+        assertTrue(store.getFile().exists());
+        assertNull(store.getPreview(image));
+        assertTrue(store.putPreview(image, new byte[10]));
+    }
+
+    @Test
+    public void filesMissedBeforeACrashAreFoundAgain() throws Exception {
+        cache.dispose();
+        final File gone = new File(cacheDir, "gone" + FileCacheFilter.EXTENSION);
+        final File kept = new File(cacheDir, "kept" + FileCacheFilter.EXTENSION);
+        final File lost = new File(cacheDir, "lost" + FileCacheFilter.EXTENSION);
+        try (FileOutputStream out = new FileOutputStream(kept)) {
+            out.write(new byte[10]);
+        }
+        try (FileOutputStream out = new FileOutputStream(lost)) {
+            out.write(new byte[20]);
+        }
+
+        // A crash: "gone" was deleted after its record was written, the
+        // record of "lost" never made it and the journal wasn't closed.
+        final FileCacheJournal journal = new FileCacheJournal(cacheDir);
+        journal.put(gone, 10);
+        journal.put(kept, 10);
+
+        cache = new FileCache(200 * 1024, LocalFileCacheKeyMapper.create(cacheDir));
+        assertTrue(await(() -> cache.getSize() == 40));
+        assertTrue(cache.contains("lost"));
+
+        // "lost" goes first, then "gone" is skipped since it's not there.
+        cache.setCapacity(15);
+        assertTrue(await(() -> cache.getSize() == 10));
+        assertFalse(lost.exists());
+        assertTrue(kept.exists());
+        assertTrue(cache.contains("kept"));
+        journal.close();
+    }
+}
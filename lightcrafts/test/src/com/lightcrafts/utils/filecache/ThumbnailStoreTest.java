@@ -0,0 +1,232 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.filecache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a ThumbnailStore survives reopening, invalidates entries of
+ * modified files, recovers from a torn record and keeps its entries through
+ * compaction, without ever truncating or replacing the file it has open.
+ */
+public class ThumbnailStoreTest {
+    private File dir;
+    private File storeFile;
+    private File otherFile;
+    private File image;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ThumbnailStoreTest").toFile();
+        storeFile = new File(dir, "folder" + ThumbnailStore.EXTENSION);
+        otherFile = new File(dir, "folder-1" + ThumbnailStore.EXTENSION);
+        image = new File(dir, "image.jpg");
+        writeImage(image, 100);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            final File[] files = file.listFiles();
+            if (files != null) {
+                for (File inside : files) {
+                    inside.delete();
+                }
+            }
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static void writeImage(File file, int length) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[length]);
+        }
+    }
+
+    private static byte[] bytes(int length, int value) {
+        final byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    @Test
+    public void entriesSurviveReopening() throws IOException {
+        ThumbnailStore store = new ThumbnailStore(storeFile, dir, null);
+        assertTrue(store.putMetadata(image, bytes(10, 1)));
+        assertTrue(store.putPreview(image, bytes(1000, 2)));
+        store.close();
+
+        store = new ThumbnailStore(storeFile, dir, null);
+        assertArrayEquals(bytes(10, 1), store.getMetadata(image));
+        assertArrayEquals(bytes(1000, 2), store.getPreview(image));
+
+        store.removePreview(image);
+        assertNull(store.getPreview(image));
+        assertArrayEquals(bytes(10, 1), store.getMetadata(image));
+        store.removeMetadata(image);
+        assertEquals(0, store.size());
+        store.close();
+    }
+
+    @Test
+    public void modifiedFilesAreStale() throws IOException {
+        final ThumbnailStore store = new ThumbnailStore(storeFile, dir, null);
+        final long time = image.lastModified();
+        store.putPreview(image, bytes(10, 3));
+        writeImage(image, 200);
+        assertNull(store.getPreview(image));
+
+        // A new metadata record doesn't carry the stale preview along, even
+        // if the file goes back to the way it was.
+        store.putMetadata(image, bytes(5, 4));
+        writeImage(image, 100);
+        image.setLastModified(time);
+        assertNull(store.getPreview(image));
+        store.close();
+    }
+
+    @Test
+    public void tornRecordIsIgnored() throws IOException {
+        ThumbnailStore store = new ThumbnailStore(storeFile, dir, null);
+        store.putPreview(image, bytes(10, 5));
+        store.close();
+
+        // Over the end marker, as a record cut short by a crash
+        final long end = storeFile.length() - 4;
+        try (RandomAccessFile raf = new RandomAccessFile(storeFile, "rw")) {
+            raf.seek(end);
+            raf.writeInt(1000);
+            raf.write(new byte[20]);
+        }
+        store = new ThumbnailStore(storeFile, dir, null);
+        assertArrayEquals(bytes(10, 5), store.getPreview(image));
+        assertEquals(end + 24, storeFile.length());
+        assertTrue(store.putMetadata(image, bytes(3, 6)));
+        store.close();
+
+        store = new ThumbnailStore(storeFile, dir, null);
+        assertArrayEquals(bytes(10, 5), store.getPreview(image));
+        assertArrayEquals(bytes(3, 6), store.getMetadata(image));
+        store.close();
+    }
+
+    @Test
+    public void clearingKeepsTheFile() throws IOException {
+        ThumbnailStore store = new ThumbnailStore(storeFile, dir, null);
+        store.putPreview(image, bytes(1000, 1));
+        final long length = storeFile.length();
+        store.clear();
+        assertEquals(length, storeFile.length());
+        assertEquals(0, store.size());
+        assertTrue(store.putMetadata(image, bytes(5, 2)));
+        store.close();
+
+        store = new ThumbnailStore(storeFile, dir, null);
+        assertEquals(1, store.size());
+        assertNull(store.getPreview(image));
+        assertArrayEquals(bytes(5, 2), store.getMetadata(image));
+        store.close();
+    }
+
+    @Test
+    public void compactionKeepsLiveEntries() throws IOException {
+        final File other = new File(dir, "other.jpg");
+        writeImage(other, 50);
+        final ThumbnailStore store = new ThumbnailStore(storeFile, dir, null);
+        for (int i = 0; i < 20; i++) {
+            store.putPreview(image, bytes(1000, i));
+        }
+        store.putPreview(other, bytes(10, 7));
+        final long before = storeFile.length();
+
+        // The store moves to its other file, and the one it leaves goes
+        store.compact();
+        assertFalse(storeFile.exists());
+        assertTrue(otherFile.length() < before);
+        assertArrayEquals(bytes(1000, 19), store.getPreview(image));
+        assertArrayEquals(bytes(10, 7), store.getPreview(other));
+
+        store.putMetadata(other, bytes(3, 8));
+        store.close();
+        final ThumbnailStore reopened = new ThumbnailStore(storeFile, dir, null);
+        assertArrayEquals(bytes(1000, 19), reopened.getPreview(image));
+        assertArrayEquals(bytes(3, 8), reopened.getMetadata(other));
+        reopened.close();
+    }
+
+    @Test
+    public void compactionIsNotRetriedAfterFailing() throws IOException {
+        // Something in the way of the other file, that can't be deleted
+        assertTrue(new File(otherFile, "in the way").mkdirs());
+        final ThumbnailStore store = new ThumbnailStore(storeFile, dir, null);
+        store.putPreview(image, bytes(10, 1));
+        try {
+            store.compact();
+            fail("compacted over a directory");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        assertArrayEquals(bytes(10, 1), store.getPreview(image));
+
+        // Plenty of superseded records, but no compaction
+        for (int i = 0; i < 100; i++) {
+            store.putPreview(image, bytes(100000, i));
+        }
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName().equals("Thumbnail Store Compactor"));
+        }
+        assertTrue(otherFile.isDirectory());
+        assertArrayEquals(bytes(100000, 99), store.getPreview(image));
+        store.close();
+    }
+
+    @Test
+    public void clearingWhileCompactingIsSafe() throws Exception {
+        final ThumbnailStore store = new ThumbnailStore(storeFile, dir, null);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                store.putPreview(image, bytes(10000, i));
+            }
+            final Thread compactor = new Thread(() -> {
+                try {
+                    store.compact();
+                }
+                catch (IOException e) {
+                    // a failed compaction leaves the store as it was
+                }
+            });
+            compactor.start();
+            store.clear();
+            compactor.join();
+            assertNull(store.getPreview(image));
+            assertTrue(store.putPreview(image, bytes(10, 9)));
+            assertArrayEquals(bytes(10, 9), store.getPreview(image));
+        }
+        store.close();
+    }
+
+    @Test
+    public void storeOfAnotherFolderIsStartedOver() throws IOException {
+        ThumbnailStore store = new ThumbnailStore(storeFile, dir, null);
+        store.putPreview(image, bytes(10, 6));
+        store.close();
+
+        store = new ThumbnailStore(storeFile, new File(dir, "other"), null);
+        assertEquals(0, store.size());
+        assertNull(store.getPreview(image));
+        store.close();
+    }
+}